@@ -0,0 +1,274 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import jmemorize.core.Main.ProgramEndObserver;
+import jmemorize.core.io.LessonSnapshot;
+import jmemorize.core.io.XmlBuilder;
+
+/**
+ * Saves modified lessons automatically. The values of the cards are copied
+ * into a snapshot on the event dispatch thread. The document is then built
+ * from the snapshot and written to the lesson file on a single background
+ * thread, so that two saves never overlap.
+ * 
+ * Bursts of modifications are coalesced. A save is done when the lesson
+ * wasn't modified for a short quiet period, but at the latest a few minutes
+ * after the first unsaved modification. Additionally there is a minimum
+ * interval between two saves.
+ * 
+ * Only lessons that already have a file are saved automatically.
+ */
+public class AutoSaver implements LessonObserver, ProgramEndObserver
+{
+    private static final long        QUIET_PERIOD = 5 * 1000;
+    private static final long        MIN_INTERVAL = 60 * 1000;
+    private static final long        MAX_DELAY    = 3 * 60 * 1000;
+    
+    private Main                     m_main;
+    private ScheduledExecutorService m_executor;
+    private ScheduledFuture<?>       m_pendingSave;
+    
+    // these are only accessed from the event dispatch thread
+    private long                     m_firstModification = 0; // 0 if none
+    private long                     m_lastSave          = 0;
+    private int                      m_modCount          = 0;
+    
+    /**
+     * Takes the snapshot of the lesson. Runs on the event dispatch thread.
+     */
+    private class SnapshotJob implements Runnable
+    {
+        private LessonSnapshot m_snapshot;
+        private File           m_file;
+        private int            m_snapshotModCount;
+        
+        public void run()
+        {
+            Lesson lesson = m_main.getLesson();
+            if (!Settings.loadIsAutoSave() || !lesson.canSave() || 
+                lesson.getFile() == null)
+            {
+                return;
+            }
+            
+            m_lastSave = System.currentTimeMillis();
+            m_main.fireLessonSaving(lesson);
+            
+            try
+            {
+                m_snapshot = XmlBuilder.createSnapshot(lesson);
+                m_file = lesson.getFile();
+                m_snapshotModCount = m_modCount;
+            }
+            catch (Exception e)
+            {
+                Main.logThrowable("Could not auto save lesson", e);
+                m_main.fireLessonSaveFailed(lesson, e);
+            }
+        }
+    }
+    
+    /**
+     * Notifies about the outcome of the save. Runs on the event dispatch
+     * thread.
+     */
+    private class SaveFinishedJob implements Runnable
+    {
+        private SnapshotJob m_job;
+        private Throwable   m_failure;
+        
+        public SaveFinishedJob(SnapshotJob job, Throwable failure)
+        {
+            m_job = job;
+            m_failure = failure;
+        }
+        
+        public void run()
+        {
+            Lesson lesson = m_job.m_snapshot.getLesson();
+            
+            if (m_failure != null)
+            {
+                Main.logThrowable("Could not auto save lesson", m_failure);
+                m_main.fireLessonSaveFailed(lesson, m_failure);
+                return;
+            }
+            
+            XmlBuilder.snapshotSaved(m_job.m_file, m_job.m_snapshot);
+            
+            // the lesson might have been modified while it was written
+            if (lesson == m_main.getLesson() && m_modCount == m_job.m_snapshotModCount)
+                lesson.setCanSave(false);
+            
+            m_main.fireLessonSaved(lesson);
+        }
+    }
+    
+    public AutoSaver(Main main)
+    {
+        m_main = main;
+        m_executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "jMemorize auto save"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                
+                return thread;
+            }
+        });
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonLoaded(Lesson lesson)
+    {
+        cancelPendingSave();
+        m_firstModification = 0;
+    }
+
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonModified(Lesson lesson)
+    {
+        m_modCount++;
+        
+        if (!Settings.loadIsAutoSave() || lesson.getFile() == null)
+            return;
+        
+        long now = System.currentTimeMillis();
+        if (m_firstModification == 0)
+            m_firstModification = now;
+        
+        long saveTime = Math.min(now + QUIET_PERIOD, m_firstModification + MAX_DELAY);
+        saveTime = Math.max(saveTime, m_lastSave + MIN_INTERVAL);
+        
+        cancelPendingSave();
+        m_pendingSave = m_executor.schedule(new Runnable() {
+            public void run()
+            {
+                saveInBackground();
+            }
+        }, Math.max(0, saveTime - now), TimeUnit.MILLISECONDS);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaving(Lesson lesson)
+    {
+        // ignore
+    }
+
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaved(Lesson lesson)
+    {
+        if (!lesson.canSave())
+        {
+            cancelPendingSave();
+            m_firstModification = 0;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaveFailed(Lesson lesson, Throwable t)
+    {
+        // the next modification will schedule a new try
+    }
+
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonClosed(Lesson lesson)
+    {
+        cancelPendingSave();
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Main.ProgramEndObserver
+     */
+    public void onProgramEnd()
+    {
+        // an interrupted save never touches the lesson file
+        m_executor.shutdownNow();
+    }
+    
+    /**
+     * Runs on the background thread.
+     */
+    private void saveInBackground()
+    {
+        SnapshotJob job = new SnapshotJob();
+        
+        try
+        {
+            SwingUtilities.invokeAndWait(job);
+        }
+        catch (InterruptedException e)
+        {
+            return;
+        }
+        catch (InvocationTargetException e)
+        {
+            Main.logThrowable("Could not auto save lesson", e.getCause());
+            return;
+        }
+        
+        if (job.m_snapshot == null)
+            return;
+        
+        Throwable failure = null;
+        try
+        {
+            XmlBuilder.writeSnapshot(job.m_file, job.m_snapshot);
+        }
+        catch (Throwable t)
+        {
+            failure = t;
+        }
+        
+        SwingUtilities.invokeLater(new SaveFinishedJob(job, failure));
+    }
+    
+    private void cancelPendingSave()
+    {
+        if (m_pendingSave != null)
+        {
+            m_pendingSave.cancel(false);
+            m_pendingSave = null;
+        }
+    }
+}
@@ -329,6 +329,33 @@ public class Card implements Events, Cloneable
         m_backHitsCorrect = 0;
     }
 
+    /**
+     * Adds the test stats of given card, which is a duplicate of this card, to
+     * the stats of this card. The learned amounts are the higher ones of both
+     * cards and the test date is the later one. The card stays in its deck.
+     *
+     * Fires a DECK_EVENT.
+     */
+    public void mergeStats(Card card)
+    {
+        m_testsTotal += card.m_testsTotal;
+        m_testsHit += card.m_testsHit;
+        
+        m_frontHitsCorrect = Math.max(m_frontHitsCorrect, card.m_frontHitsCorrect);
+        m_backHitsCorrect = Math.max(m_backHitsCorrect, card.m_backHitsCorrect);
+        
+        if (card.m_dateTested != null &&
+            (m_dateTested == null || card.m_dateTested.after(m_dateTested)))
+        {
+            setDateTested(card.m_dateTested);
+        }
+        
+        if (m_category != null)
+        {
+            m_category.fireCardEvent(DECK_EVENT, this, getCategory(), m_level);
+        }
+    }
+
     public Category getCategory()
     {
         return m_category;
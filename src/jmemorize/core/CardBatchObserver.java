@@ -0,0 +1,41 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.util.List;
+
+/**
+ * A category observer that is told which cards a BATCH_ADDED_EVENT added, so
+ * that it doesn't have to scan the whole deck for them. Other observers only
+ * get the event itself.
+ */
+public interface CardBatchObserver extends CategoryObserver
+{
+    /**
+     * Gets notified instead of {@link #onCardEvent} when cards were added at
+     * once to a deck of the observed category or of one of its child
+     * categories.
+     * 
+     * @param cards the added cards in the order they were added. The list
+     * can't be modified.
+     * @param category the category that the cards were added to.
+     * @param deck the deck that the cards were added to.
+     */
+    void onCardsAdded(List<Card> cards, Category category, int deck);
+}
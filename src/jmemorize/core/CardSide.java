@@ -36,6 +36,7 @@ public class CardSide implements Cloneable
     }
     
     private FormattedText          m_text;
+    private String                 m_normalizedText;
     private List<String>           m_imageIDs  = new LinkedList<String>();
     private List<CardSideObserver> m_observers = new LinkedList<CardSideObserver>();
     
@@ -64,6 +65,7 @@ public class CardSide implements Cloneable
             return;
         
         m_text = text;
+        m_normalizedText = null;
         
         for (CardSideObserver observer : m_observers)
         {
@@ -71,6 +73,24 @@ public class CardSide implements Cloneable
         }
     }
     
+    /**
+     * @return the unformatted text in the normalized form of
+     * {@link TextNormalizer}. It is computed the first time it is needed after
+     * the text has changed. Concurrent searches might compute it twice, which
+     * is harmless.
+     */
+    public String getNormalizedText()
+    {
+        String normalizedText = m_normalizedText;
+        if (normalizedText == null)
+        {
+            normalizedText = TextNormalizer.normalize(m_text.getUnformatted());
+            m_normalizedText = normalizedText;
+        }
+        
+        return normalizedText;
+    }
+    
     /**
      * @return the IDs of all images of this card side.
      */
@@ -96,6 +96,25 @@ public class Category implements Events
         fireCardEvent(ADDED_EVENT, card, card.getCategory(), level);
     }
     
+    /**
+     * Adds all given cards to the deck with given level. Other than adding the
+     * cards one by one, this fires only a single event for all cards.
+     * 
+     * Fires a BATCH_ADDED_EVENT.
+     */
+    public void addCards(List<Card> cards, int level)
+    {
+        if (cards.isEmpty())
+            return;
+        
+        for (Card card : cards)
+        {
+            addCardInternal(card, level);
+        }
+        
+        fireCardsAdded(Collections.unmodifiableList(cards), this, level);
+    }
+    
     /**
      * Removes a card from its associated deck and fires an event.
      */
@@ -590,7 +609,7 @@ public class Category implements Events
         return clonedCategory;
     }
     
-    void fireCardEvent(int type, Card card, Category category, int deck)
+    protected void fireCardEvent(int type, Card card, Category category, int deck)
     {
         if (type != EDITED_EVENT)
         {
@@ -609,7 +628,30 @@ public class Category implements Events
         }
     }
     
-    void fireCategoryEvent(int type, Category category)
+    /**
+     * Fires a BATCH_ADDED_EVENT for given cards. {@link CardBatchObserver}s
+     * are given the added cards.
+     */
+    protected void fireCardsAdded(List<Card> cards, Category category, int deck)
+    {
+        adjustNumberOfDecks();
+        
+        if (m_parent != null)
+        {
+            m_parent.fireCardsAdded(cards, category, deck);
+        }
+        
+        List<CategoryObserver> observersCopy = new ArrayList<CategoryObserver>(m_observers);
+        for (CategoryObserver observer : observersCopy)
+        {
+            if (observer instanceof CardBatchObserver)
+                ((CardBatchObserver)observer).onCardsAdded(cards, category, deck);
+            else
+                observer.onCardEvent(BATCH_ADDED_EVENT, null, category, deck);
+        }
+    }
+    
+    protected void fireCategoryEvent(int type, Category category)
     {
         adjustNumberOfDecks();
         
@@ -705,16 +747,16 @@ public class Category implements Events
         }
         
         //grow decks
-        while (maxChildDecks > getNumberOfDecks())
+        while (maxChildDecks > m_decks.size())
         {
             m_decks.add(new ArrayList<Card>());
         }
         
         //trim decks
-        while (maxChildDecks < getNumberOfDecks() 
-            && (m_decks.get(getNumberOfDecks()-1)).isEmpty() )
+        while (maxChildDecks < m_decks.size() 
+            && (m_decks.get(m_decks.size()-1)).isEmpty() )
         {
-            m_decks.remove(getNumberOfDecks()-1);
+            m_decks.remove(m_decks.size()-1);
         }
     }
 }
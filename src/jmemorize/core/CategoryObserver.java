@@ -32,8 +32,9 @@ public interface CategoryObserver extends Events
      * one of its child categories.
      * 
      * @param type Either EDITED_EVENT, ADDED_EVENT, REMOVED_EVENT,
-     * EXPIRED_EVENT or DECK_EVENT.
-     * @param card The card that changed.
+     * EXPIRED_EVENT, DECK_EVENT or BATCH_ADDED_EVENT.
+     * @param card The card that changed or <code>null</code> for
+     * BATCH_ADDED_EVENT.
      * @param category TODO
      * @param deck The deck that held the card, when the event happend.
      */
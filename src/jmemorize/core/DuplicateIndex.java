@@ -0,0 +1,490 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of the cards of a category tree by the content of their sides.
+ * Cards whose sides have the same normalized texts (see
+ * {@link TextNormalizer}) are duplicates of each other. The index is an open
+ * addressing table from a 64 bit hash of both normalized texts to a chain of
+ * the cards with this hash, so duplicates are found in constant time per card
+ * and all duplicates of a lesson in linear time. A second open addressing
+ * table finds the entry of a card by its identity, so that the index doesn't
+ * need any objects per card.
+ * 
+ * The index keeps itself up to date by observing the category tree.
+ */
+public class DuplicateIndex implements CardBatchObserver
+{
+    /**
+     * Imported cards that duplicate existing cards are added anyway.
+     */
+    public static final int    KEEP_BOTH   = 0;
+    
+    /**
+     * Imported cards that duplicate existing cards are dropped.
+     */
+    public static final int    SKIP        = 1;
+    
+    /**
+     * Imported cards that duplicate existing cards are dropped after their
+     * learn stats were merged into the existing card.
+     */
+    public static final int    MERGE_STATS = 2;
+    
+    private final Category     m_root;
+    
+    // open addressing table from content hashes to the first entry + 1 of
+    // their chain. a head of -1 marks a hash whose entries were all removed
+    private long[]             m_hashes;
+    private int[]              m_heads;
+    private int                m_slotCount;
+    
+    // the entries with the next entry + 1 of their chain. removed entries
+    // are chained into the free list
+    private Card[]             m_cards      = new Card[1024];
+    private long[]             m_cardHashes = new long[1024];
+    private int[]              m_next       = new int[1024];
+    private int                m_entryCount;
+    private int                m_free;
+    
+    // open addressing table from the identity of the indexed cards to their
+    // entry + 1. removed cards are shifted out, so there are no tombstones
+    private int[]              m_cardSlots  = new int[16];
+    private int                m_cardCount;
+    
+    /**
+     * Creates the index for all cards of given category and its child
+     * categories.
+     */
+    public DuplicateIndex(Category root)
+    {
+        m_root = root;
+        
+        clearSlots(16);
+        for (Card card : root.getCards())
+        {
+            addCard(card);
+        }
+        
+        root.addObserver(this);
+    }
+    
+    /**
+     * Creates an empty index that doesn't observe any category.
+     */
+    private DuplicateIndex()
+    {
+        m_root = null;
+        clearSlots(16);
+    }
+    
+    /**
+     * @return a card of the index that has the same content as given card
+     * but isn't the card itself or <code>null</code> if there is no such
+     * card.
+     */
+    public synchronized Card getDuplicate(Card card)
+    {
+        long hash = hash(card);
+        int slot = findSlot(hash);
+        
+        for (int entry = m_heads[slot] - 1; entry >= 0; entry = m_next[entry] - 1)
+        {
+            Card other = m_cards[entry];
+            if (other != card && isDuplicate(other, card))
+                return other;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @return all groups of cards that have the same content. Every group has
+     * at least two cards.
+     */
+    public synchronized List<List<Card>> findDuplicates()
+    {
+        List<List<Card>> groups = new ArrayList<List<Card>>();
+        
+        for (int slot = 0; slot < m_heads.length; slot++)
+        {
+            int head = m_heads[slot];
+            if (head <= 0 || m_next[head - 1] == 0)
+                continue;
+            
+            List<Card> chain = new ArrayList<Card>();
+            for (int entry = head - 1; entry >= 0; entry = m_next[entry] - 1)
+                chain.add(m_cards[entry]);
+            
+            // new entries are linked in front of the chain
+            Collections.reverse(chain);
+            
+            // a chain only holds more than one group if two different
+            // contents have the same hash, so this is linear in practice
+            while (chain.size() > 1)
+            {
+                Card first = chain.get(0);
+                List<Card> group = new ArrayList<Card>();
+                List<Card> rest = new ArrayList<Card>();
+                
+                for (Card card : chain)
+                {
+                    if (isDuplicate(first, card))
+                        group.add(card);
+                    else
+                        rest.add(card);
+                }
+                
+                if (group.size() > 1)
+                    groups.add(group);
+                
+                chain = rest;
+            }
+        }
+        
+        return groups;
+    }
+    
+    /**
+     * @return the cards of given list that should be added to the indexed
+     * category tree under given duplicate policy. Cards that duplicate an
+     * indexed card or an earlier card of the list are dropped, unless the
+     * policy is {@link #KEEP_BOTH}. With {@link #MERGE_STATS} their learn
+     * stats are merged into the card that they duplicate.
+     */
+    public List<Card> filter(List<Card> cards, int policy)
+    {
+        if (policy == KEEP_BOTH)
+            return cards;
+        
+        DuplicateIndex added = new DuplicateIndex();
+        List<Card> result = new ArrayList<Card>(cards.size());
+        
+        for (Card card : cards)
+        {
+            Card duplicate = getDuplicate(card);
+            if (duplicate == null)
+                duplicate = added.getDuplicate(card);
+            
+            if (duplicate == null)
+            {
+                added.addCard(card);
+                result.add(card);
+            }
+            else if (policy == MERGE_STATS)
+            {
+                duplicate.mergeStats(card);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return the number of indexed cards.
+     */
+    public synchronized int size()
+    {
+        return m_cardCount;
+    }
+    
+    /**
+     * Stops updating the index.
+     */
+    public void close()
+    {
+        m_root.removeObserver(this);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public synchronized void onCardEvent(int type, Card card, Category category, 
+        int deck)
+    {
+        switch (type)
+        {
+        case ADDED_EVENT:
+            addCard(card);
+            break;
+            
+        case REMOVED_EVENT:
+            removeCard(card);
+            break;
+            
+        case EDITED_EVENT:
+            removeCard(card);
+            addCard(card);
+            break;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CardBatchObserver
+     */
+    public synchronized void onCardsAdded(List<Card> cards, Category category, 
+        int deck)
+    {
+        for (Card card : cards)
+            addCard(card);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public synchronized void onCategoryEvent(int type, Category category)
+    {
+        if (type == ADDED_EVENT)
+        {
+            for (Card card : category.getCards())
+                addCard(card);
+        }
+        else if (type == REMOVED_EVENT)
+        {
+            for (Card card : category.getCards())
+                removeCard(card);
+        }
+    }
+    
+    private void addCard(Card card)
+    {
+        int cardSlot = findCardSlot(card);
+        if (m_cardSlots[cardSlot] != 0)
+            return;
+        
+        int entry;
+        if (m_free > 0)
+        {
+            entry = m_free - 1;
+            m_free = m_next[entry];
+        }
+        else
+        {
+            if (m_entryCount == m_cards.length)
+                growEntries();
+            
+            entry = m_entryCount++;
+        }
+        
+        long hash = hash(card);
+        m_cards[entry] = card;
+        m_cardHashes[entry] = hash;
+        
+        m_cardSlots[cardSlot] = entry + 1;
+        m_cardCount++;
+        if (2 * m_cardCount > m_cardSlots.length)
+            rehashCards(2 * m_cardSlots.length);
+        
+        link(entry, hash);
+        
+        if (2 * m_slotCount > m_hashes.length)
+            rehash();
+    }
+    
+    private void removeCard(Card card)
+    {
+        int cardSlot = findCardSlot(card);
+        if (m_cardSlots[cardSlot] == 0)
+            return;
+        
+        int entry = m_cardSlots[cardSlot] - 1;
+        removeCardSlot(cardSlot);
+        m_cardCount--;
+        
+        // the hash was stored, because the text of an edited card has
+        // already changed
+        int slot = findSlot(m_cardHashes[entry]);
+        
+        if (m_heads[slot] == entry + 1)
+        {
+            m_heads[slot] = m_next[entry] > 0 ? m_next[entry] : -1;
+        }
+        else
+        {
+            int previous = m_heads[slot] - 1;
+            while (m_next[previous] != entry + 1)
+                previous = m_next[previous] - 1;
+            
+            m_next[previous] = m_next[entry];
+        }
+        
+        m_cards[entry] = null;
+        m_next[entry] = m_free;
+        m_free = entry + 1;
+    }
+    
+    private void link(int entry, long hash)
+    {
+        int slot = findSlot(hash);
+        if (m_heads[slot] == 0)
+            m_slotCount++;
+        
+        m_hashes[slot] = hash;
+        m_next[entry] = Math.max(m_heads[slot], 0);
+        m_heads[slot] = entry + 1;
+    }
+    
+    /**
+     * Rebuilds the table from the entries, which also drops the slots of
+     * removed hashes.
+     */
+    private void rehash()
+    {
+        int capacity = 16;
+        while (capacity < 4 * m_cardCount)
+            capacity *= 2;
+        
+        clearSlots(capacity);
+        
+        for (int entry = 0; entry < m_entryCount; entry++)
+        {
+            if (m_cards[entry] != null)
+                link(entry, m_cardHashes[entry]);
+        }
+    }
+    
+    private int findSlot(long hash)
+    {
+        int mask = m_hashes.length - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        
+        while (m_heads[slot] != 0 && m_hashes[slot] != hash)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    /**
+     * @return the slot of the card table that holds given card or the empty
+     * slot where it would be inserted.
+     */
+    private int findCardSlot(Card card)
+    {
+        int mask = m_cardSlots.length - 1;
+        int slot = getHomeSlot(card, mask);
+        
+        while (m_cardSlots[slot] != 0 && m_cards[m_cardSlots[slot] - 1] != card)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    /**
+     * Empties given slot of the card table and moves later cards of the same
+     * probe sequence into the gap, so that they can still be found.
+     */
+    private void removeCardSlot(int slot)
+    {
+        int mask = m_cardSlots.length - 1;
+        int gap = slot;
+        m_cardSlots[gap] = 0;
+        
+        for (int i = (gap + 1) & mask; m_cardSlots[i] != 0; i = (i + 1) & mask)
+        {
+            int home = getHomeSlot(m_cards[m_cardSlots[i] - 1], mask);
+            
+            // a card can only move back to the gap if its home slot doesn't
+            // lie cyclically between the gap and its current slot
+            boolean reachable = gap <= i ? 
+                home <= gap || home > i : home <= gap && home > i;
+            
+            if (reachable)
+            {
+                m_cardSlots[gap] = m_cardSlots[i];
+                m_cardSlots[i] = 0;
+                gap = i;
+            }
+        }
+    }
+    
+    private void rehashCards(int capacity)
+    {
+        m_cardSlots = new int[capacity];
+        
+        for (int entry = 0; entry < m_entryCount; entry++)
+        {
+            if (m_cards[entry] != null)
+                m_cardSlots[findCardSlot(m_cards[entry])] = entry + 1;
+        }
+    }
+    
+    private static int getHomeSlot(Card card, int mask)
+    {
+        int hash = System.identityHashCode(card) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+    
+    private void clearSlots(int capacity)
+    {
+        m_hashes = new long[capacity];
+        m_heads = new int[capacity];
+        m_slotCount = 0;
+    }
+    
+    private void growEntries()
+    {
+        int capacity = 2 * m_cards.length;
+        
+        Card[] cards = new Card[capacity];
+        System.arraycopy(m_cards, 0, cards, 0, m_entryCount);
+        m_cards = cards;
+        
+        long[] cardHashes = new long[capacity];
+        System.arraycopy(m_cardHashes, 0, cardHashes, 0, m_entryCount);
+        m_cardHashes = cardHashes;
+        
+        int[] next = new int[capacity];
+        System.arraycopy(m_next, 0, next, 0, m_entryCount);
+        m_next = next;
+    }
+    
+    private static boolean isDuplicate(Card a, Card b)
+    {
+        return a.getFrontSide().getNormalizedText().equals(
+                b.getFrontSide().getNormalizedText()) &&
+            a.getBackSide().getNormalizedText().equals(
+                b.getBackSide().getNormalizedText());
+    }
+    
+    /**
+     * @return a 64 bit FNV-1a hash of the normalized texts of both card sides.
+     */
+    private static long hash(Card card)
+    {
+        String front = card.getFrontSide().getNormalizedText();
+        String back = card.getBackSide().getNormalizedText();
+        
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < front.length(); i++)
+            hash = (hash ^ front.charAt(i)) * 0x100000001B3L;
+        
+        // separates the sides, so that text can't move between them
+        hash = (hash ^ front.length()) * 0x100000001B3L;
+        
+        for (int i = 0; i < back.length(); i++)
+            hash = (hash ^ back.charAt(i)) * 0x100000001B3L;
+        
+        return hash;
+    }
+}
@@ -30,4 +30,11 @@ public interface Events // TODO move to category class
     public static final int DECK_EVENT    = 3;
     public static final int EDITED_EVENT  = 4;
     public static final int EXPIRED_EVENT = 5;
+    
+    /**
+     * Is fired once after several cards were added to the same deck at once.
+     * The card of the event is <code>null</code>. A {@link CardBatchObserver}
+     * is given the added cards instead.
+     */
+    public static final int BATCH_ADDED_EVENT = 6;
 }
@@ -70,6 +70,8 @@ public class FormattedText implements Cloneable
     public static final FormattedText EMPTY = FormattedText.unformatted("");
     
     private static final String  TAGS = "<(/?(b|i|u|sub|sup)?)>";
+    private static final Pattern TAGS_PATTERN = Pattern.compile(TAGS);
+    private static final Pattern IMG_TAG_PATTERN = Pattern.compile("<img .*?/>");
     private static final Pattern TEXT_PATTERN = Pattern.compile(
         "(.*?)<(/?(b|i|u|sub|sup)?)>", Pattern.DOTALL);
     
@@ -92,7 +94,18 @@ public class FormattedText implements Cloneable
     {
         FormattedText text = new FormattedText();
         text.m_formattedText = formatted;
-        text.m_unformattedText = unescape(formatted.replaceAll(TAGS, "").replaceAll("<img .*?/>", ""));
+        
+        // most imported texts have no markup at all
+        if (formatted.indexOf('<') < 0)
+        {
+            text.m_unformattedText = unescape(formatted);
+        }
+        else
+        {
+            String stripped = TAGS_PATTERN.matcher(formatted).replaceAll("");
+            text.m_unformattedText = unescape(
+                IMG_TAG_PATTERN.matcher(stripped).replaceAll(""));
+        }
         
         return text;
     }
@@ -340,6 +353,9 @@ public class FormattedText implements Cloneable
     
     private static String unescape(String text)
     {
+        if (text.indexOf('&') < 0)
+            return text;
+        
         return text.replaceAll("&lt;", "<").replaceAll("&gt;", ">");
     }
 
@@ -0,0 +1,305 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Finds all occurrences of a number of terms in a text with a single pass
+ * over the text. The terms are compiled once into an Aho-Corasick automaton.
+ * Matches never overlap. Where they would, the match that starts first wins
+ * and if several matches start at the same position, the longest one wins.
+ * 
+ * When case is ignored, every character is folded on its own with
+ * {@link TextNormalizer#fold(char)}, which also ignores accents. This keeps the
+ * offsets of the matches valid for the original text, which isn't the case
+ * when the whole text is converted with {@link String#toLowerCase()}.
+ */
+public class Highlighter
+{
+    /**
+     * Holds the offsets of the matches of a search. A single instance can be
+     * reused for many searches, so that searching doesn't allocate memory for
+     * each match.
+     */
+    public static class Matches
+    {
+        // start and end offset of every match
+        private int[] m_offsets = new int[16];
+        private int   m_size;
+        
+        // the end of the longest match for every start offset of the text
+        private int[] m_ends    = new int[0];
+        
+        /**
+         * @return the number of matches.
+         */
+        public int size()
+        {
+            return m_size;
+        }
+        
+        /**
+         * @return the offset of the first character of the match.
+         */
+        public int getStart(int index)
+        {
+            return m_offsets[2 * index];
+        }
+        
+        /**
+         * @return the offset after the last character of the match.
+         */
+        public int getEnd(int index)
+        {
+            return m_offsets[2 * index + 1];
+        }
+        
+        public void clear()
+        {
+            m_size = 0;
+        }
+        
+        /**
+         * @return the start and end offsets of all matches as pairs.
+         */
+        public int[] toArray()
+        {
+            int[] offsets = new int[2 * m_size];
+            System.arraycopy(m_offsets, 0, offsets, 0, offsets.length);
+            
+            return offsets;
+        }
+        
+        private void add(int start, int end)
+        {
+            if (2 * m_size == m_offsets.length)
+            {
+                int[] offsets = new int[2 * m_offsets.length];
+                System.arraycopy(m_offsets, 0, offsets, 0, m_offsets.length);
+                m_offsets = offsets;
+            }
+            
+            m_offsets[2 * m_size] = start;
+            m_offsets[2 * m_size + 1] = end;
+            m_size++;
+        }
+        
+        private int[] getEnds(int length)
+        {
+            if (m_ends.length < length)
+                m_ends = new int[Math.max(length, 2 * m_ends.length)];
+            else
+                Arrays.fill(m_ends, 0, length, 0);
+            
+            return m_ends;
+        }
+    }
+    
+    private final boolean m_ignoreCase;
+    
+    // the transitions of every state sorted by their labels
+    private final char[][] m_labels;
+    private final int[][]  m_targets;
+    
+    private final int[]    m_fail;
+    
+    // the length of the term that ends in a state or 0 if no term ends there
+    private final int[]    m_lengths;
+    
+    // the next state on the fail path in which a term ends or 0 if there is none
+    private final int[]    m_outputs;
+    
+    /**
+     * @param terms the terms that are searched. Empty terms are ignored.
+     * @param ignoreCase <code>true</code> if case and accents are ignored.
+     */
+    public Highlighter(List<String> terms, boolean ignoreCase)
+    {
+        m_ignoreCase = ignoreCase;
+        
+        // build the trie
+        List<TreeMap<Character, Integer>> transitions = 
+            new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        
+        transitions.add(new TreeMap<Character, Integer>());
+        lengths.add(0);
+        
+        for (String term : terms)
+        {
+            int state = 0;
+            for (int i = 0; i < term.length(); i++)
+            {
+                Character c = Character.valueOf(fold(term.charAt(i)));
+                Integer next = transitions.get(state).get(c);
+                
+                if (next == null)
+                {
+                    next = transitions.size();
+                    transitions.get(state).put(c, next);
+                    
+                    transitions.add(new TreeMap<Character, Integer>());
+                    lengths.add(0);
+                }
+                
+                state = next.intValue();
+            }
+            
+            if (state != 0)
+                lengths.set(state, term.length());
+        }
+        
+        int count = transitions.size();
+        m_labels = new char[count][];
+        m_targets = new int[count][];
+        m_lengths = new int[count];
+        
+        for (int state = 0; state < count; state++)
+        {
+            TreeMap<Character, Integer> map = transitions.get(state);
+            m_labels[state] = new char[map.size()];
+            m_targets[state] = new int[map.size()];
+            
+            int i = 0;
+            for (Character c : map.keySet())
+            {
+                m_labels[state][i] = c.charValue();
+                m_targets[state][i] = map.get(c).intValue();
+                i++;
+            }
+            
+            m_lengths[state] = lengths.get(state).intValue();
+        }
+        
+        // compute the fail and output links in breadth first order
+        m_fail = new int[count];
+        m_outputs = new int[count];
+        
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(0);
+        
+        while (!queue.isEmpty())
+        {
+            int state = queue.removeFirst().intValue();
+            
+            for (int i = 0; i < m_labels[state].length; i++)
+            {
+                int target = m_targets[state][i];
+                
+                if (state != 0)
+                {
+                    int fail = next(m_fail[state], m_labels[state][i]);
+                    m_fail[target] = fail;
+                    m_outputs[target] = m_lengths[fail] > 0 ? fail : m_outputs[fail];
+                }
+                
+                queue.add(target);
+            }
+        }
+    }
+    
+    /**
+     * @return <code>true</code> if there are no terms to search for.
+     */
+    public boolean isEmpty()
+    {
+        return m_labels[0].length == 0;
+    }
+    
+    /**
+     * Searches the text and replaces the content of given matches with the
+     * found matches.
+     */
+    public void search(CharSequence text, Matches matches)
+    {
+        matches.clear();
+        
+        int length = text.length();
+        if (isEmpty() || length == 0)
+            return;
+        
+        int[] ends = matches.getEnds(length);
+        
+        int state = 0;
+        for (int i = 0; i < length; i++)
+        {
+            state = next(state, fold(text.charAt(i)));
+            
+            // all terms that end here
+            int output = m_lengths[state] > 0 ? state : m_outputs[state];
+            for (; output != 0; output = m_outputs[output])
+            {
+                int start = i + 1 - m_lengths[output];
+                ends[start] = Math.max(ends[start], i + 1);
+            }
+        }
+        
+        for (int start = 0; start < length; )
+        {
+            if (ends[start] > 0)
+            {
+                matches.add(start, ends[start]);
+                start = ends[start];
+            }
+            else
+            {
+                start++;
+            }
+        }
+    }
+    
+    /**
+     * @return the start and end offsets of all matches in the text as pairs.
+     */
+    public int[] search(CharSequence text)
+    {
+        Matches matches = new Matches();
+        search(text, matches);
+        
+        return matches.toArray();
+    }
+    
+    /**
+     * @return the state that is reached from given state with given character.
+     */
+    private int next(int state, char c)
+    {
+        while (true)
+        {
+            int index = Arrays.binarySearch(m_labels[state], c);
+            if (index >= 0)
+                return m_targets[state][index];
+            
+            if (state == 0)
+                return 0;
+            
+            state = m_fail[state];
+        }
+    }
+    
+    private char fold(char c)
+    {
+        return m_ignoreCase ? TextNormalizer.fold(c) : c;
+    }
+}
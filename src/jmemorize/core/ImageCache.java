@@ -0,0 +1,236 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+/**
+ * A cache for decoded images that is bounded by the memory that the decoded
+ * pixels use. The least recently used images that don't fit into the budget
+ * anymore are kept as soft references, so that they are reused if the
+ * garbage collector didn't need their memory in the meantime.
+ */
+public class ImageCache
+{
+    /**
+     * A soft reference that knows the image ID, so that the cache entry can
+     * be removed after the image was collected.
+     */
+    private static class SoftImage extends SoftReference<ImageIcon>
+    {
+        private final String m_id;
+        
+        public SoftImage(String id, ImageIcon icon, ReferenceQueue<ImageIcon> queue)
+        {
+            super(icon, queue);
+            m_id = id;
+        }
+    }
+    
+    private final long                   m_maxBytes;
+    
+    // images by their ID in the order of their last access
+    private final Map<String, ImageIcon> m_images = 
+        new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+    private long                         m_bytes;
+    
+    // images that were evicted from the budget
+    private final Map<String, SoftImage> m_softImages = 
+        new HashMap<String, SoftImage>();
+    private final ReferenceQueue<ImageIcon> m_collected = 
+        new ReferenceQueue<ImageIcon>();
+    
+    private long                         m_hits;
+    private long                         m_softHits;
+    private long                         m_misses;
+    private long                         m_evictions;
+    
+    /**
+     * @param maxBytes the maximum number of bytes of decoded pixels that are
+     * held by strong references.
+     */
+    public ImageCache(long maxBytes)
+    {
+        m_maxBytes = maxBytes;
+    }
+    
+    /**
+     * @return the cached image with given ID or <code>null</code> if the
+     * image isn't cached.
+     */
+    public synchronized ImageIcon get(String id)
+    {
+        purgeCollected();
+        
+        ImageIcon icon = m_images.get(id);
+        if (icon != null)
+        {
+            m_hits++;
+            return icon;
+        }
+        
+        SoftImage softImage = m_softImages.remove(id);
+        icon = softImage != null ? softImage.get() : null;
+        if (icon != null)
+        {
+            m_hits++;
+            m_softHits++;
+            
+            insert(id, icon);
+            return icon;
+        }
+        
+        m_misses++;
+        return null;
+    }
+    
+    /**
+     * Adds given image to the cache. Images that are larger than the whole
+     * budget are only kept as soft reference.
+     */
+    public synchronized void put(String id, ImageIcon icon)
+    {
+        purgeCollected();
+        remove(id);
+        insert(id, icon);
+    }
+    
+    /**
+     * Removes the image with given ID from the cache.
+     */
+    public synchronized void remove(String id)
+    {
+        ImageIcon icon = m_images.remove(id);
+        if (icon != null)
+            m_bytes -= getDecodedSize(icon);
+        
+        m_softImages.remove(id);
+    }
+    
+    public synchronized void clear()
+    {
+        m_images.clear();
+        m_softImages.clear();
+        m_bytes = 0;
+    }
+    
+    /**
+     * @return the number of bytes of decoded pixels that are held by strong
+     * references.
+     */
+    public synchronized long getSize()
+    {
+        return m_bytes;
+    }
+    
+    /**
+     * @return the number of lookups that found the image, including the ones
+     * that found the image in the soft reference tier.
+     */
+    public synchronized long getHits()
+    {
+        return m_hits;
+    }
+    
+    /**
+     * @return the number of lookups that found the image in the soft
+     * reference tier.
+     */
+    public synchronized long getSoftHits()
+    {
+        return m_softHits;
+    }
+    
+    public synchronized long getMisses()
+    {
+        return m_misses;
+    }
+    
+    /**
+     * @return the number of images that were moved out of the memory budget
+     * into the soft reference tier.
+     */
+    public synchronized long getEvictions()
+    {
+        return m_evictions;
+    }
+    
+    /**
+     * @return the number of bytes that are used by the pixels of given image
+     * after it was decoded.
+     */
+    public static long getDecodedSize(ImageIcon icon)
+    {
+        return 4L * Math.max(0, icon.getIconWidth()) * Math.max(0, icon.getIconHeight());
+    }
+    
+    private void insert(String id, ImageIcon icon)
+    {
+        if (getDecodedSize(icon) > m_maxBytes)
+            m_softImages.put(id, new SoftImage(id, icon, m_collected));
+        else
+            putStrong(id, icon);
+    }
+    
+    private void putStrong(String id, ImageIcon icon)
+    {
+        m_images.put(id, icon);
+        m_bytes += getDecodedSize(icon);
+        
+        Iterator<Map.Entry<String, ImageIcon>> it = m_images.entrySet().iterator();
+        while (m_bytes > m_maxBytes && it.hasNext())
+        {
+            Map.Entry<String, ImageIcon> eldest = it.next();
+            if (eldest.getKey().equals(id))
+                break;
+            
+            it.remove();
+            m_bytes -= getDecodedSize(eldest.getValue());
+            m_evictions++;
+            
+            m_softImages.put(eldest.getKey(), 
+                new SoftImage(eldest.getKey(), eldest.getValue(), m_collected));
+        }
+    }
+    
+    /**
+     * Removes the entries of images that were collected by the garbage
+     * collector.
+     */
+    private void purgeCollected()
+    {
+        Reference<? extends ImageIcon> ref;
+        while ((ref = m_collected.poll()) != null)
+        {
+            SoftImage softImage = (SoftImage)ref;
+            
+            // the image could have been cached again in the meantime
+            if (m_softImages.get(softImage.m_id) == softImage)
+                m_softImages.remove(softImage.m_id);
+        }
+    }
+}
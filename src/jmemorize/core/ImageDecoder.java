@@ -0,0 +1,101 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.awt.Image;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+
+/**
+ * Decodes images for display. Images that are larger than the space in which
+ * they are shown are read with source subsampling, so that only about as many
+ * pixels are decoded as can actually be seen.
+ */
+public class ImageDecoder
+{
+    /**
+     * @return the decoded image or <code>null</code> if the bytes don't hold
+     * an image that can be decoded.
+     */
+    public static Image decode(byte[] bytes, int maxWidth, int maxHeight) 
+        throws IOException
+    {
+        ImageInputStream in = ImageIO.createImageInputStream(
+            new ByteArrayInputStream(bytes));
+        
+        try
+        {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (readers.hasNext())
+            {
+                ImageReader reader = readers.next();
+                try
+                {
+                    reader.setInput(in, true, true);
+                    
+                    int subsampling = getSubsampling(reader.getWidth(0), 
+                        reader.getHeight(0), maxWidth, maxHeight);
+                    
+                    if (subsampling > 1)
+                    {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                        
+                        return reader.read(0, param);
+                    }
+                }
+                finally
+                {
+                    reader.dispose();
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        // small images and formats unknown to image io are decoded by the 
+        // toolkit, which also keeps gif animations
+        ImageIcon icon = new ImageIcon(bytes);
+        return icon.getIconWidth() > 0 ? icon.getImage() : null;
+    }
+    
+    /**
+     * @return the largest subsampling for an image of given size that still
+     * leaves at least as many pixels as are needed to show it scaled down into
+     * the given bounds.
+     */
+    public static int getSubsampling(int width, int height, 
+        int maxWidth, int maxHeight)
+    {
+        if (maxWidth <= 0 || maxHeight <= 0)
+            return 1;
+        
+        float ratio = Math.max(width / (float)maxWidth, height / (float)maxHeight);
+        return Math.max(1, (int)ratio);
+    }
+}
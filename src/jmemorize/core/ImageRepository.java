@@ -18,43 +18,225 @@
  */
 package jmemorize.core;
 
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import javax.swing.ImageIcon;
 
+import jmemorize.util.DirectExecutor;
+
 public class ImageRepository
 {
-    private static final int MAX_CACHED_IMAGES = 10;
+    /**
+     * The maximum amount of memory that is used by decoded images which are
+     * kept in the image cache.
+     */
+    private static final long MAX_CACHED_BYTES = 32 * 1024 * 1024;
+    
+    /**
+     * The maximum amount of image bytes that are kept in memory for images
+     * which can be reloaded from their lesson file on demand.
+     */
+    private static final long MAX_LOADED_BYTES = 16 * 1024 * 1024;
 
     public static final String IMG_ID_PREFIX = "::";    
     
+    // shown by image icons whose image is still being decoded
+    private static final Image PLACEHOLDER_IMAGE = 
+        new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    
     private static ImageRepository m_instance;
 
     private Map<String, ImageItem> m_imageMap    = new HashMap<String, ImageItem>();
-    private LinkedList<ImageIcon>  m_imageCache  = new LinkedList<ImageIcon>();
+    private ImageCache             m_imageCache  = new ImageCache(MAX_CACHED_BYTES);
+    
+    // items whose bytes are currently loaded and could be released again. 
+    // kept in access order so that the least recently used come first
+    private Map<ImageItem, ImageItem> m_loadedItems = 
+        new LinkedHashMap<ImageItem, ImageItem>(16, 0.75f, true);
+    private long                   m_loadedBytes = 0;
+    
+    // all items grouped by their size. used to find images with same content
+    private Map<Long, List<ImageItem>> m_sizeIndex = 
+        new HashMap<Long, List<ImageItem>>();
+
+    // images that are decoded in the background by their cache key
+    private Map<String, ImageLoad> m_loads       = new HashMap<String, ImageLoad>();
+    private ExecutorService        m_decoder;
+    private Executor               m_notifyExecutor = DirectExecutor.INSTANCE;
+    
+    // cache keys of the display sized images by their image ID
+    private Map<String, Set<String>> m_displayKeys = 
+        new HashMap<String, Set<String>>();
+    
+    // the archives that images are read from, kept open by their location
+    private Map<File, Archive>     m_archives    = new HashMap<File, Archive>();
 
     private static final Pattern   FILE_PATTERN = Pattern.compile("(.*)_(\\d+)");
     
+    /**
+     * An observer that gets notified when an image that was requested with
+     * {@link ImageRepository#getImage(String, int, int, ImageLoadObserver)}
+     * has been decoded.
+     */
+    public interface ImageLoadObserver
+    {
+        public void onImageLoaded(ImageIcon image);
+    }
+    
+    /**
+     * Decodes an image on the decoder thread and then hands it over to the
+     * placeholder icon on the notify executor.
+     */
+    private class ImageLoad implements Runnable
+    {
+        private final String    m_key;
+        private final ImageItem m_item;
+        private final int       m_maxWidth;
+        private final int       m_maxHeight;
+        
+        private final ImageIcon m_icon;
+        private final List<ImageLoadObserver> m_observers = 
+            new LinkedList<ImageLoadObserver>();
+        
+        public ImageLoad(String key, ImageItem item, int maxWidth, int maxHeight)
+        {
+            m_key = key;
+            m_item = item;
+            m_maxWidth = maxWidth;
+            m_maxHeight = maxHeight;
+            
+            m_icon = new ImageIcon(PLACEHOLDER_IMAGE, IMG_ID_PREFIX + item.getId());
+        }
+        
+        public void run()
+        {
+            Image image = null;
+            try
+            {
+                image = ImageDecoder.decode(m_item.readBytes(), m_maxWidth, m_maxHeight);
+            }
+            catch (IOException e)
+            {
+                Main.logThrowable("could not decode image "+m_item.getId(), e);
+            }
+            
+            final Image decodedImage = image;
+            m_notifyExecutor.execute(new Runnable() {
+                public void run()
+                {
+                    loaded(decodedImage);
+                }
+            });
+        }
+        
+        private void loaded(Image image)
+        {
+            List<ImageLoadObserver> observers;
+            synchronized (m_loads)
+            {
+                m_loads.remove(m_key);
+                observers = new ArrayList<ImageLoadObserver>(m_observers);
+            }
+            
+            if (image == null)
+                return;
+            
+            m_icon.setImage(image);
+            
+            // the image could have been removed while it was decoded
+            String id = m_item.getId();
+            if (m_imageMap.get(id) == m_item)
+            {
+                m_imageCache.put(m_key, m_icon);
+                
+                synchronized (m_displayKeys)
+                {
+                    Set<String> keys = m_displayKeys.get(id);
+                    if (keys == null)
+                    {
+                        keys = new HashSet<String>();
+                        m_displayKeys.put(id, keys);
+                    }
+                    keys.add(m_key);
+                }
+            }
+            
+            for (ImageLoadObserver observer : observers)
+                observer.onImageLoaded(m_icon);
+        }
+    }
+    
+    /**
+     * A zip archive that stays open while images are read from it, so that
+     * its central directory is only read once. The length and modification
+     * time of the file tell whether the archive was replaced since.
+     */
+    private static class Archive
+    {
+        private final ZipFile m_zipFile;
+        private final long    m_length;
+        private final long    m_lastModified;
+        
+        public Archive(File file) throws IOException
+        {
+            m_length = file.length();
+            m_lastModified = file.lastModified();
+            m_zipFile = new ZipFile(file);
+        }
+        
+        public boolean isCurrent(File file)
+        {
+            return file.length() == m_length && 
+                file.lastModified() == m_lastModified;
+        }
+    }
+    
+    /**
+     * An image of the repository. Images that were loaded from a lesson only
+     * know where they are stored (as plain file or as entry of a zip archive)
+     * and fetch their bytes when they are first needed. Images that were
+     * added by the user are kept in memory until the lesson is saved.
+     */
     public class ImageItem
     {
         private String    m_sourceFile;
         private byte[]    m_bytes;
-        private String    m_id;  
+        private String    m_id;
+        
+        private File      m_location;  // file or archive that holds the image
+        private String    m_entryName; // entry in archive or null for files
+        private long      m_size;
+        private long      m_crc = -1;
  
         public ImageItem(InputStream in, String filename) 
             throws IOException
@@ -62,11 +244,40 @@ public class ImageRepository
             m_sourceFile = filename;
             m_id = createId(filename);
             m_bytes = readFile(in);
+            m_size = m_bytes.length;
+            
+            CRC32 crc = new CRC32();
+            crc.update(m_bytes);
+            m_crc = crc.getValue();
         }
         
+        /**
+         * Creates a image item that is stored in given file or, if entry name
+         * is not <code>null</code>, in the zip archive file. The image isn't
+         * read until its bytes are needed.
+         */
+        private ImageItem(File location, String entryName, long size, long crc, 
+            String filename)
+        {
+            m_sourceFile = filename;
+            m_id = createId(filename);
+            m_location = location;
+            m_entryName = entryName;
+            m_size = size;
+            m_crc = crc;
+        }
+        
+        /**
+         * @return the decoded image or <code>null</code> if the image bytes
+         * couldn't be read.
+         */
         public ImageIcon getImage()
         {
-            ImageIcon image = new ImageIcon(m_bytes);
+            byte[] bytes = getBytes();
+            if (bytes == null)
+                return null;
+            
+            ImageIcon image = new ImageIcon(bytes);
             image.setDescription(IMG_ID_PREFIX + m_id);
             
             return image;
@@ -82,11 +293,161 @@ public class ImageRepository
             return m_sourceFile;
         }
         
+        /**
+         * @return the image bytes. Loads them from the lesson file if they are
+         * not in memory. Returns <code>null</code> if they couldn't be read.
+         */
         public byte[] getBytes()
         {
+            if (m_bytes == null)
+            {
+                try
+                {
+                    InputStream in = openStream();
+                    try
+                    {
+                        m_bytes = readFile(in);
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    Main.logThrowable("could not load image "+m_id, e);
+                    return null;
+                }
+                
+                bytesLoaded(this);
+            }
+            else if (m_location != null)
+            {
+                m_loadedItems.get(this); // touch
+            }
+            
             return m_bytes;
         }
         
+        /**
+         * @return the image bytes. Unlike {@link #getBytes()} this doesn't
+         * keep bytes that had to be loaded from the lesson file in memory, so
+         * that it can be called from any thread.
+         */
+        public byte[] readBytes() throws IOException
+        {
+            byte[] bytes = m_bytes; // might be released by another thread
+            if (bytes != null)
+                return bytes;
+            
+            InputStream in = openStream();
+            try
+            {
+                return readFile(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        
+        /**
+         * @return a stream of the image bytes. If the bytes are not in memory,
+         * they are streamed straight from the lesson file without loading them
+         * into memory.
+         */
+        public InputStream openStream() throws IOException
+        {
+            byte[] bytes = m_bytes; // might be released by another thread
+            if (bytes != null)
+                return new ByteArrayInputStream(bytes);
+            
+            if (m_entryName == null)
+                return new FileInputStream(m_location);
+            
+            ZipFile zipFile = getArchive(m_location);
+            ZipEntry entry = zipFile.getEntry(m_entryName);
+            
+            if (entry == null)
+                throw new FileNotFoundException(m_entryName);
+            
+            return zipFile.getInputStream(entry);
+        }
+        
+        /**
+         * @return the size of the image in bytes.
+         */
+        public long getSize()
+        {
+            return m_size;
+        }
+        
+        /**
+         * @return the CRC-32 checksum of the image bytes. It is computed from
+         * the stored image if it isn't known yet. Returns -1 if the image
+         * couldn't be read.
+         */
+        public long getCrc()
+        {
+            if (m_crc == -1)
+            {
+                try
+                {
+                    m_crc = computeCrc(openStream());
+                }
+                catch (IOException e)
+                {
+                    Main.logThrowable("could not read image "+m_id, e);
+                }
+            }
+            
+            return m_crc;
+        }
+        
+        /**
+         * @return <code>true</code> if this image and the given image have
+         * exactly the same content.
+         */
+        public boolean hasSameContent(ImageItem other)
+        {
+            if (m_size != other.m_size || getCrc() != other.getCrc())
+                return false;
+            
+            byte[] bytes = getBytes();
+            return bytes != null && Arrays.equals(bytes, other.getBytes());
+        }
+        
+        /**
+         * @return the file or archive in which this image is stored or
+         * <code>null</code> if it only exists in memory.
+         */
+        public File getLocation()
+        {
+            return m_location;
+        }
+        
+        /**
+         * @return the name of the zip entry that holds this image or
+         * <code>null</code> if the image isn't stored in an archive.
+         */
+        public String getEntryName()
+        {
+            return m_entryName;
+        }
+        
+        /**
+         * Tells the item that its image is now stored at the given location.
+         * Images that have a location don't need to be kept in memory.
+         */
+        public void setLocation(File location, String entryName)
+        {
+            m_location = location;
+            m_entryName = entryName;
+            
+            if (m_bytes != null)
+                bytesLoaded(this);
+        }
+        
         @Override
         public String toString()
         {
@@ -132,6 +493,11 @@ public class ImageRepository
 
             return bytesOut.toByteArray();
         }
+        
+        private void release()
+        {
+            m_bytes = null;
+        }
     }
     
  // TODO remove singleton pattern and make this referenced from lesson
@@ -156,45 +522,135 @@ public class ImageRepository
     
     public ImageIcon getImage(String imageId)
     {
-        for (ImageIcon icon : m_imageCache)
-        {
-            if (equals(icon, imageId))
-            {
-                m_imageCache.remove(icon);
-                m_imageCache.addFirst(icon);
-                
-                return icon;
-            }
-        }
+        ImageIcon icon = m_imageCache.get(imageId);
+        if (icon != null)
+            return icon;
         
         ImageItem imageItem = m_imageMap.get(imageId);
         
         if (imageItem == null)
             return null;
         
-        ImageIcon icon = imageItem.getImage();
-        m_imageCache.addFirst(icon);
-        
-        if (m_imageCache.size() > MAX_CACHED_IMAGES) // HACK check for memory usage instead
-            m_imageCache.removeLast();
+        icon = imageItem.getImage();
+        if (icon != null)
+            m_imageCache.put(imageId, icon);
         
         return icon;
     }
     
-    public String addImage(InputStream in, String filename) throws IOException
+    /**
+     * Returns the image with given ID decoded to fit into the given bounds.
+     * If the image isn't cached, a placeholder icon is returned immediately
+     * and the image is decoded in the background. The decoded image is then
+     * set into the placeholder and the observer is notified.
+     * 
+     * @param observer the observer that gets notified when the image was
+     * decoded or <code>null</code>.
+     * @return the decoded image, a placeholder or <code>null</code> if there
+     * is no image with given ID.
+     */
+    public ImageIcon getImage(String imageId, int maxWidth, int maxHeight,
+        ImageLoadObserver observer)
     {
-        // TOOD check if image already in our map
-//        for (ImageItem item : m_imageMap.values())
-//        {
-//            if (item.getFile().equals(filename))
-//                return item.getId();
-//        }
+        ImageItem imageItem = m_imageMap.get(imageId);
+        if (imageItem == null)
+            return null;
+        
+        String key = imageId + "@" + maxWidth + "x" + maxHeight; //$NON-NLS-1$ //$NON-NLS-2$
+        
+        ImageIcon icon = m_imageCache.get(key);
+        if (icon != null)
+            return icon;
         
+        synchronized (m_loads)
+        {
+            ImageLoad load = m_loads.get(key);
+            if (load == null)
+            {
+                load = new ImageLoad(key, imageItem, maxWidth, maxHeight);
+                m_loads.put(key, load);
+                getDecoder().execute(load);
+            }
+            
+            if (observer != null)
+                load.m_observers.add(observer);
+            
+            return load.m_icon;
+        }
+    }
+    
+    /**
+     * Sets the executor that is used to hand decoded images over to the
+     * placeholders and to notify the observers. By default this is done
+     * directly on the decoding thread.
+     */
+    public void setNotifyExecutor(Executor executor)
+    {
+        m_notifyExecutor = executor;
+    }
+    
+    /**
+     * @return the cache of decoded images.
+     */
+    public ImageCache getImageCache()
+    {
+        return m_imageCache;
+    }
+    
+    /**
+     * Adds the image that is read from given stream. If the repository already
+     * holds an image with the same content, no new image is added and the ID
+     * of the existing image is returned.
+     */
+    public String addImage(InputStream in, String filename) throws IOException
+    {
         ImageItem item = new ImageItem(in, filename);
-        String id = item.getId();
-        m_imageMap.put(id, item);
         
-        return id;
+        List<ImageItem> sameSize = m_sizeIndex.get(item.getSize());
+        if (sameSize != null)
+        {
+            for (ImageItem other : sameSize)
+            {
+                if (other.hasSameContent(item))
+                    return other.getId();
+            }
+        }
+        
+        return addItem(item);
+    }
+    
+    /**
+     * Adds the image that is stored in given file without loading it.
+     */
+    public String addImage(File file, String filename)
+    {
+        return addItem(new ImageItem(file, null, file.length(), -1, filename));
+    }
+    
+    /**
+     * Adds the image that is stored in given zip archive entry without
+     * loading it.
+     */
+    public String addImage(File archive, ZipEntry entry, String filename)
+    {
+        return addItem(new ImageItem(archive, entry.getName(), entry.getSize(), 
+            entry.getCrc(), filename));
+    }
+    
+    /**
+     * Updates all images that are stored in the <code>from</code> file to be
+     * stored in the <code>to</code> file. This is used after a lesson file was
+     * moved to its final location.
+     */
+    public void relocate(File from, File to)
+    {
+        closeArchive(from);
+        
+        for (ImageItem item : m_imageMap.values())
+        {
+            if (from.equals(item.getLocation()))
+                item.setLocation(to, item.getEntryName());
+        }
     }
     
     public String addImage(ImageIcon icon) throws IOException
@@ -257,6 +713,22 @@ public class ImageRepository
         return imageIDs;
     }
     
+    /**
+     * Closes the archive at given location if images were read from it. This
+     * needs to be done before the archive file is replaced, because some
+     * platforms can't rename open files. It is opened again when the next
+     * image is read from it.
+     */
+    public void closeArchive(File location)
+    {
+        synchronized (m_archives)
+        {
+            Archive archive = m_archives.remove(location.getAbsoluteFile());
+            if (archive != null)
+                closeArchive(archive);
+        }
+    }
+    
     /**
      * Retains all images with given IDs. All other images are removed.
      */
@@ -268,7 +740,31 @@ public class ImageRepository
             toBeRemoved.remove(id);
         
         for (String id : toBeRemoved)
-            m_imageMap.remove(id);
+            removeItem(m_imageMap.remove(id));
+    }
+    
+    /**
+     * @return the CRC-32 checksum of all bytes of given stream. The stream is
+     * closed afterwards.
+     */
+    public static long computeCrc(InputStream in) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int numRead;
+            while ((numRead = in.read(buffer)) >= 0)
+            {
+                crc.update(buffer, 0, numRead);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        return crc.getValue();
     }
     
     public static boolean equals(ImageIcon image, String id)
@@ -321,9 +817,185 @@ public class ImageRepository
         return images;
     }
     
+    /**
+     * Same as {@link #toImageIcons(List)} but the images are decoded in the
+     * background to fit into the given bounds.
+     * 
+     * @see #getImage(String, int, int, ImageLoadObserver)
+     */
+    public List<ImageIcon> toImageIcons(List<String> ids, int maxWidth, 
+        int maxHeight, ImageLoadObserver observer)
+    {
+        List<ImageIcon> images = new LinkedList<ImageIcon>();
+        
+        if (ids == null)
+            return images;
+        
+        for (String id : ids)
+        {
+            ImageIcon image = getImage(id, maxWidth, maxHeight, observer);
+            if (image != null)
+                images.add(image);
+        }
+        
+        return images;
+    }
+    
     public void clear()
     {
-        m_imageMap.clear();        
+        m_imageMap.clear();
+        m_imageCache.clear();
+        
+        synchronized (m_displayKeys)
+        {
+            m_displayKeys.clear();
+        }
+        
+        m_sizeIndex.clear();
+        m_loadedItems.clear();
+        m_loadedBytes = 0;
+        
+        synchronized (m_archives)
+        {
+            for (Archive archive : m_archives.values())
+                closeArchive(archive);
+            
+            m_archives.clear();
+        }
+    }
+    
+    /**
+     * @return the open archive at given location. It is opened if it isn't
+     * open yet or if the file was replaced since it was opened.
+     */
+    private ZipFile getArchive(File location) throws IOException
+    {
+        synchronized (m_archives)
+        {
+            location = location.getAbsoluteFile();
+            
+            Archive archive = m_archives.get(location);
+            if (archive != null && !archive.isCurrent(location))
+            {
+                m_archives.remove(location);
+                closeArchive(archive);
+                archive = null;
+            }
+            
+            if (archive == null)
+            {
+                archive = new Archive(location);
+                m_archives.put(location, archive);
+            }
+            
+            return archive.m_zipFile;
+        }
+    }
+    
+    private void closeArchive(Archive archive)
+    {
+        try
+        {
+            archive.m_zipFile.close();
+        }
+        catch (IOException e)
+        {
+            Main.logThrowable("could not close image archive", e);
+        }
+    }
+    
+    private String addItem(ImageItem item)
+    {
+        String id = item.getId();
+        m_imageMap.put(id, item);
+        
+        List<ImageItem> sameSize = m_sizeIndex.get(item.getSize());
+        if (sameSize == null)
+        {
+            sameSize = new LinkedList<ImageItem>();
+            m_sizeIndex.put(item.getSize(), sameSize);
+        }
+        sameSize.add(item);
+        
+        return id;
+    }
+    
+    private void removeItem(ImageItem item)
+    {
+        if (item == null)
+            return;
+        
+        m_imageCache.remove(item.getId());
+        
+        synchronized (m_displayKeys)
+        {
+            Set<String> keys = m_displayKeys.remove(item.getId());
+            if (keys != null)
+            {
+                for (String key : keys)
+                    m_imageCache.remove(key);
+            }
+        }
+        
+        List<ImageItem> sameSize = m_sizeIndex.get(item.getSize());
+        if (sameSize != null)
+        {
+            sameSize.remove(item);
+            if (sameSize.isEmpty())
+                m_sizeIndex.remove(item.getSize());
+        }
+        
+        unloadItem(item);
+    }
+    
+    /**
+     * Registers that the bytes of given item were loaded. Releases the bytes
+     * of least recently used images that can be reloaded from their lesson
+     * file, until we are back below the memory budget.
+     */
+    private void bytesLoaded(ImageItem item)
+    {
+        if (item.getLocation() == null || m_loadedItems.containsKey(item))
+            return;
+        
+        m_loadedItems.put(item, item);
+        m_loadedBytes += item.getSize();
+        
+        Iterator<ImageItem> it = m_loadedItems.keySet().iterator();
+        while (m_loadedBytes > MAX_LOADED_BYTES && it.hasNext())
+        {
+            ImageItem oldest = it.next();
+            if (oldest == item)
+                break;
+            
+            it.remove();
+            m_loadedBytes -= oldest.getSize();
+            oldest.release();
+        }
+    }
+    
+    private ExecutorService getDecoder()
+    {
+        if (m_decoder == null)
+        {
+            m_decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "image decoder"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        
+        return m_decoder;
+    }
+    
+    private void unloadItem(ImageItem item)
+    {
+        if (m_loadedItems.remove(item) != null)
+            m_loadedBytes -= item.getSize();
     }
     
     private ImageRepository() // singleton
@@ -19,8 +19,13 @@
 package jmemorize.core;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import jmemorize.core.learn.LearnHistory;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 
@@ -35,6 +40,10 @@ public class Lesson implements CategoryObserver
     
     private Category          m_rootCategory;
     private LearnHistory      m_learnHistory = new LearnHistory();
+    private SearchIndex       m_searchIndex;
+    private DuplicateIndex    m_duplicateIndex;
+    
+    private List<SmartCategory> m_smartCategories = new ArrayList<SmartCategory>();
     
     public Lesson(boolean canSave)
     {
@@ -87,6 +96,85 @@ public class Lesson implements CategoryObserver
         return m_rootCategory;
     }
     
+    /**
+     * @return the search index over all cards of this lesson. It is built
+     * when it is first needed and then kept up to date with the lesson.
+     */
+    public synchronized SearchIndex getSearchIndex()
+    {
+        if (m_searchIndex == null)
+            m_searchIndex = new SearchIndex(m_rootCategory);
+        
+        return m_searchIndex;
+    }
+    
+    /**
+     * @return <code>true</code> if the search index of this lesson has
+     * already been built or loaded.
+     */
+    public synchronized boolean hasSearchIndex()
+    {
+        return m_searchIndex != null;
+    }
+    
+    /**
+     * Sets the search index, which has to be over all cards of this lesson.
+     * This is used when a stored index is loaded with the lesson.
+     */
+    public synchronized void setSearchIndex(SearchIndex index)
+    {
+        if (m_searchIndex != null)
+            m_searchIndex.close();
+        
+        m_searchIndex = index;
+    }
+    
+    /**
+     * @return the index of all cards of this lesson by their content, which
+     * finds duplicate cards. It is built when it is first needed and then
+     * kept up to date with the lesson.
+     */
+    public synchronized DuplicateIndex getDuplicateIndex()
+    {
+        if (m_duplicateIndex == null)
+            m_duplicateIndex = new DuplicateIndex(m_rootCategory);
+        
+        return m_duplicateIndex;
+    }
+    
+    /**
+     * Adds a smart category that holds all cards of this lesson that match
+     * given query. Smart categories aren't part of the category tree and
+     * aren't saved with the lesson.
+     */
+    public SmartCategory addSmartCategory(String name, CardQuery query)
+    {
+        SmartCategory category = new SmartCategory(name, query, 
+            m_rootCategory, getSearchIndex());
+        
+        m_smartCategories.add(category);
+        return category;
+    }
+    
+    /**
+     * Removes the smart category.
+     * 
+     * Fires a REMOVED_EVENT to the observers of the smart category.
+     */
+    public void removeSmartCategory(SmartCategory category)
+    {
+        if (m_smartCategories.remove(category))
+            category.remove();
+    }
+    
+    /**
+     * @return a unmodifiable list of the smart categories of this lesson.
+     */
+    public List<SmartCategory> getSmartCategories()
+    {
+        return Collections.unmodifiableList(m_smartCategories);
+    }
+    
     /*
      * @see jmemorize.core.CategoryObserver
      */
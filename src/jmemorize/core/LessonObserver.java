@@ -36,8 +36,27 @@ public interface LessonObserver
     
     public void lessonModified(Lesson lesson);
     
+    /**
+     * Is fired right before the lesson is written to disk. This is followed
+     * either by {@link #lessonSaved(Lesson)} or by
+     * {@link #lessonSaveFailed(Lesson, Throwable)}. Note that the lesson
+     * might be written on a background thread, but all notifications are done
+     * on the thread that modifies the lesson.
+     * 
+     * @param lesson the lesson that is being saved.
+     */
+    public void lessonSaving(Lesson lesson);
+    
     public void lessonSaved(Lesson lesson);
     
+    /**
+     * Is fired when the lesson couldn't be saved.
+     * 
+     * @param lesson the lesson that was to be saved. 
+     * @param t the cause of the failure.
+     */
+    public void lessonSaveFailed(Lesson lesson, Throwable t);
+    
     /**
      * Is fired when a lesson is closed (e.g. by creating a new lesson, loading
      * an existing lesson)
@@ -0,0 +1,347 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jmemorize.core.SearchIndex.Image;
+import jmemorize.core.SearchIndex.SearchObserver;
+import jmemorize.core.io.SearchIndexFile;
+import jmemorize.core.io.XmlBuilder;
+import jmemorize.gui.LC;
+import jmemorize.gui.Localization;
+
+/**
+ * Searches the cards of lesson files that aren't loaded, usually the recent
+ * lessons. Only the categories and card texts of a file are read, which are
+ * kept together with their search index until the file changes. They are only
+ * softly referenced, so that the garbage collector can drop them when memory
+ * gets low, in which case they are read again by the next search. The stored
+ * index of a file is used if there is one, otherwise it is built and stored.
+ * All files are searched in parallel.
+ */
+public class LessonSearch
+{
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * A card of a lesson file that contains the search text.
+     */
+    public static class Hit
+    {
+        private final File m_file;
+        private final Card m_card;
+        
+        public Hit(File file, Card card)
+        {
+            m_file = file;
+            m_card = card;
+        }
+        
+        public File getFile()
+        {
+            return m_file;
+        }
+        
+        /**
+         * @return the card as read from the file. It doesn't belong to any
+         * lesson and has no learn stats.
+         */
+        public Card getCard()
+        {
+            return m_card;
+        }
+        
+        public String getCategoryPath()
+        {
+            return m_card.getCategory().getPath();
+        }
+        
+        /**
+         * @param lesson a lesson that was loaded from the file of this hit.
+         * @return the card of the hit in given lesson or <code>null</code> if
+         * the lesson has changed so much that the card isn't there anymore.
+         */
+        public Card findCard(Lesson lesson)
+        {
+            // look at the same position of the same deck first
+            Category category = findCategory(lesson.getRootCategory(), 
+                m_card.getCategory());
+            
+            if (category != null)
+            {
+                int level = m_card.getLevel();
+                int position = m_card.getCategory().getLocalCards(level).indexOf(m_card);
+                List<Card> cards = category.getLocalCards(level);
+                
+                if (position < cards.size() && hasSameTexts(cards.get(position)))
+                    return cards.get(position);
+            }
+            
+            for (Card card : lesson.getRootCategory().getCards())
+            {
+                if (hasSameTexts(card))
+                    return card;
+            }
+            
+            return null;
+        }
+        
+        private boolean hasSameTexts(Card card)
+        {
+            return card.getFrontSide().getText().getFormatted().equals(
+                m_card.getFrontSide().getText().getFormatted()) && 
+                card.getBackSide().getText().getFormatted().equals(
+                m_card.getBackSide().getText().getFormatted());
+        }
+        
+        /**
+         * @return the category of the lesson tree that has the same path as
+         * given category of the file tree.
+         */
+        private static Category findCategory(Category root, Category fileCategory)
+        {
+            if (fileCategory.getParent() == null)
+                return root;
+            
+            Category parent = findCategory(root, fileCategory.getParent());
+            return parent != null ? 
+                parent.getChildCategory(fileCategory.getName()) : null;
+        }
+    }
+    
+    /**
+     * Receives the hits of a search as they are found. All methods are called
+     * from the threads that search the files.
+     */
+    public interface HitObserver
+    {
+        /**
+         * Is called with the next hits of a lesson file.
+         */
+        public void onHitsFound(List<Hit> hits);
+        
+        /**
+         * Is called if a lesson file couldn't be read.
+         */
+        public void onLessonFailed(File file, Exception e);
+        
+        /**
+         * @return <code>true</code> if the search should be stopped.
+         */
+        public boolean isCancelled();
+    }
+    
+    /**
+     * The cards of a lesson file and their index.
+     */
+    private static class LessonCards
+    {
+        private final long        m_length;
+        private final long        m_lastModified;
+        private final Category    m_root;
+        private final SearchIndex m_index;
+        
+        public LessonCards(long length, long lastModified, Category root, 
+            SearchIndex index)
+        {
+            m_length = length;
+            m_lastModified = lastModified;
+            m_root = root;
+            m_index = index;
+        }
+        
+        /**
+         * @return <code>true</code> if the file hasn't changed since the cards
+         * were read.
+         */
+        public boolean isCurrent(File file)
+        {
+            return file.length() == m_length && file.lastModified() == m_lastModified;
+        }
+    }
+    
+    // the cards of the lesson files of the last search by their file
+    private static final Map<File, SoftReference<LessonCards>> m_lessons = 
+        new HashMap<File, SoftReference<LessonCards>>();
+    
+    private static ExecutorService m_workers;
+    
+    /**
+     * Searches the cards of all given lesson files and returns when all files
+     * are searched or the search is cancelled. 
+     * 
+     * @param side Either SearchTool.FRONT_SIDE, FLIP_SIDE or BOTH_SIDES.
+     */
+    public static void search(List<File> files, final String text, 
+        final int side, final boolean matchCase, final HitObserver observer)
+    {
+        synchronized (m_lessons)
+        {
+            m_lessons.keySet().retainAll(files);
+        }
+        
+        LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+        for (final File file : files)
+        {
+            pending.add(getWorkers().submit(new Runnable() {
+                public void run()
+                {
+                    search(file, text, side, matchCase, observer);
+                }
+            }));
+        }
+        
+        try
+        {
+            while (!pending.isEmpty() && !observer.isCancelled())
+                pending.removeFirst().get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            for (Future<?> future : pending)
+            {
+                future.cancel(false);
+            }
+        }
+    }
+    
+    private static void search(final File file, String text, int side, 
+        boolean matchCase, final HitObserver observer)
+    {
+        if (observer.isCancelled())
+            return;
+        
+        LessonCards cards;
+        try
+        {
+            cards = getLessonCards(file);
+        }
+        catch (Exception e)
+        {
+            observer.onLessonFailed(file, e);
+            return;
+        }
+        
+        SearchQuery query = new SearchQuery(text, side, matchCase, cards.m_root);
+        
+        cards.m_index.search(query, new SearchObserver() {
+            public void onCardsFound(List<Card> foundCards)
+            {
+                List<Hit> hits = new ArrayList<Hit>(foundCards.size());
+                for (Card card : foundCards)
+                    hits.add(new Hit(file, card));
+                
+                observer.onHitsFound(hits);
+            }
+            
+            public boolean isCancelled()
+            {
+                return observer.isCancelled();
+            }
+        });
+    }
+    
+    /**
+     * @return the cards of the lesson file. They are read only if the file
+     * has changed since they were read last or if they were collected.
+     */
+    private static LessonCards getLessonCards(File file) throws Exception
+    {
+        LessonCards cards;
+        synchronized (m_lessons)
+        {
+            SoftReference<LessonCards> reference = m_lessons.get(file);
+            cards = reference != null ? reference.get() : null;
+        }
+        
+        if (cards != null && cards.isCurrent(file))
+            return cards;
+        
+        long length = file.length();
+        long lastModified = file.lastModified();
+        
+        Category root = new Category(Localization.get(LC.ROOT_CATEGORY));
+        XmlBuilder.loadCardTexts(file, root);
+        
+        SearchIndex index = null;
+        Image image = SearchIndexFile.read(file);
+        if (image != null)
+            index = SearchIndex.create(root, image);
+        
+        if (index == null)
+        {
+            index = new SearchIndex(root);
+            
+            try
+            {
+                SearchIndexFile.write(file, index.createImage());
+            }
+            catch (IOException e)
+            {
+                Main.logThrowable("Could not store search index", e);
+            }
+        }
+        
+        cards = new LessonCards(length, lastModified, root, index);
+        synchronized (m_lessons)
+        {
+            m_lessons.put(file, new SoftReference<LessonCards>(cards));
+        }
+        
+        return cards;
+    }
+    
+    private static synchronized ExecutorService getWorkers()
+    {
+        if (m_workers == null)
+        {
+            m_workers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "lesson search"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        return m_workers;
+    }
+}
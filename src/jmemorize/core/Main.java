@@ -19,14 +19,11 @@
 package jmemorize.core;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
-import java.nio.channels.FileChannel;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -39,6 +36,8 @@ import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 import java.util.prefs.Preferences;
 
+import jmemorize.core.SearchIndex.Image;
+import jmemorize.core.io.SearchIndexFile;
 import jmemorize.core.io.XmlBuilder;
 import jmemorize.core.learn.DefaultLearnSession;
 import jmemorize.core.learn.LearnHistory;
@@ -46,6 +45,8 @@ import jmemorize.core.learn.LearnSession;
 import jmemorize.core.learn.LearnSessionObserver;
 import jmemorize.core.learn.LearnSessionProvider;
 import jmemorize.core.learn.LearnSettings;
+import jmemorize.core.learn.ReviewLog;
+import jmemorize.gui.swing.BackgroundTask;
 import jmemorize.gui.swing.frames.MainFrame;
 import jmemorize.util.RecentItems;
 
@@ -73,7 +74,14 @@ public class Main extends Observable implements LearnSessionProvider,
         "/resource/jMemorize.properties"; //$NON-NLS-1$
 
     public static final File            STATS_FILE               = 
+        new File(System.getProperty("user.home")+"/.jmemorize-stats.log"); //$NON-NLS-1$ //$NON-NLS-2$
+    
+    // the global learn history before it was stored as log
+    private static final File           LEGACY_STATS_FILE        = 
         new File(System.getProperty("user.home")+"/.jmemorize-stats.xml"); //$NON-NLS-1$ //$NON-NLS-2$
+    
+    public static final File            REVIEW_LOG_FILE          = 
+        new File(System.getProperty("user.home")+"/.jmemorize-reviews.log"); //$NON-NLS-1$ //$NON-NLS-2$
 
     private RecentItems                 m_recentFiles           = 
         new RecentItems(5, USER_PREFS.node("recent.files"));        //$NON-NLS-1$
@@ -84,6 +92,7 @@ public class Main extends Observable implements LearnSessionProvider,
     private Lesson                      m_lesson;
     private LearnSettings               m_learnSettings;
     private LearnHistory                m_globalLearnHistory;
+    private ReviewLog                   m_reviewLog;
     private int                         m_runningSessions       = 0;
 
     // observers
@@ -162,6 +171,7 @@ public class Main extends Observable implements LearnSessionProvider,
             
             Lesson lesson = new Lesson(false);
             XmlBuilder.loadFromXMLFile(file, lesson);
+            loadSearchIndex(file, lesson);
             lesson.setFile(file);
             lesson.setCanSave(false);
             m_recentFiles.push(file.getAbsolutePath());
@@ -177,32 +187,50 @@ public class Main extends Observable implements LearnSessionProvider,
         }
     }
     
+    /**
+     * Loads the stored search index of the lesson, so that it doesn't need to
+     * be rebuilt for the first search. Otherwise the index is built when it is
+     * first needed, as usual.
+     */
+    private void loadSearchIndex(File file, Lesson lesson)
+    {
+        try
+        {
+            Image image = SearchIndexFile.read(file);
+            if (image != null)
+            {
+                lesson.setSearchIndex(
+                    SearchIndex.create(lesson.getRootCategory(), image));
+            }
+        }
+        catch (IOException e)
+        {
+            logThrowable("Could not load search index", e);
+        }
+    }
+    
     /* (non-Javadoc)
      * Declared in jmemorize.core.LessonProvider
      */
     public void saveLesson(Lesson lesson, File file) throws IOException
     {
+        fireLessonSaving(lesson);
+        
         try
         {
-            File tempFile = new File(file.getAbsolutePath()+"~"); //$NON-NLS-1$
-            XmlBuilder.saveAsXMLFile(tempFile, lesson);
-            
-            file.delete();
-            copyFile(tempFile, file);
+            XmlBuilder.saveAsXMLFile(file, lesson);
             
             lesson.setFile(file); // note: sets file only if no exception
             lesson.setCanSave(false);
             m_recentFiles.push(file.getAbsolutePath());
-            
-            for (LessonObserver observer : m_lessonObservers)
-            {
-                observer.lessonSaved(lesson);
-            }
         }
         catch (Throwable t)
         {
+            fireLessonSaveFailed(lesson, t);
             throw new IOException(t.getMessage());
         }
+        
+        fireLessonSaved(lesson);
     }
     
     /* (non-Javadoc)
@@ -274,8 +302,9 @@ public class Main extends Observable implements LearnSessionProvider,
     public void startLearnSession(LearnSettings settings, List<Card> selectedCards, 
         Category category,boolean learnUnlearned, boolean learnExpired) 
     {
-        LearnSession session = new DefaultLearnSession(category, settings, 
+        DefaultLearnSession session = new DefaultLearnSession(category, settings, 
             selectedCards, learnUnlearned, learnExpired, this);
+        session.setReviewLog(m_reviewLog);
         
         m_runningSessions++;
         
@@ -306,8 +335,22 @@ public class Main extends Observable implements LearnSessionProvider,
                 session.getFailedCards().size(),
                 session.getSkippedCards().size(),
                 session.getRelearnedCards().size());
+            
+            // the global history appends the session to its log right away
+            if (m_globalLearnHistory != null)
+            {
+                m_globalLearnHistory.addSummary(
+                    session.getStart(), 
+                    session.getEnd(), 
+                    session.getPassedCards().size(), 
+                    session.getFailedCards().size(),
+                    session.getSkippedCards().size(),
+                    session.getRelearnedCards().size());
+            }
         }
         
+        flushReviewLog();
+        
         for (LearnSessionObserver observer : m_learnSessionObservers)
         {
             observer.sessionEnded(session);
@@ -354,6 +397,14 @@ public class Main extends Observable implements LearnSessionProvider,
         return m_learnSettings;
     }
     
+    /**
+     * @return the log of all card reviews.
+     */
+    public ReviewLog getReviewLog()
+    {
+        return m_reviewLog;
+    }
+    
     /**
      * @return the statistics for jMemorize.
      */
@@ -470,32 +521,18 @@ public class Main extends Observable implements LearnSessionProvider,
         m_lastLoggedThrowable = null;
     }
     
-    private static void copyFile(File in, File out) throws IOException 
-    {
-        FileChannel sourceChannel = null;
-        FileChannel destinationChannel = null;
-        try
-        {
-            sourceChannel = new FileInputStream(in).getChannel();
-            destinationChannel = new FileOutputStream(out).getChannel();
-            
-            sourceChannel.transferTo(0, sourceChannel.size(), destinationChannel);
-        }
-        finally
-        {
-            if (sourceChannel != null)
-                sourceChannel.close();
-            
-            if (destinationChannel != null)
-                destinationChannel.close();
-        }
-    }
-
     private void run(File file)
     {
         createNewLesson();
         startStats();
         
+        AutoSaver autoSaver = new AutoSaver(this);
+        addLessonObserver(autoSaver);
+        addProgramEndObserver(autoSaver);
+        
+        ImageRepository.getInstance().setNotifyExecutor(
+            BackgroundTask.EDT_EXECUTOR);
+        
         m_frame = new MainFrame();
         m_learnSettings = Settings.loadStrategy(m_frame);
         m_frame.setVisible(true);
@@ -508,7 +545,42 @@ public class Main extends Observable implements LearnSessionProvider,
 
     private void startStats()
     {
+        if (!STATS_FILE.exists() && LEGACY_STATS_FILE.exists())
+        {
+            try
+            {
+                new LearnHistory(LEGACY_STATS_FILE).save(STATS_FILE);
+            }
+            catch (Exception e)
+            {
+                logThrowable("Could not convert learn history.", e);
+            }
+        }
+        
         m_globalLearnHistory = new LearnHistory(STATS_FILE);
+        m_reviewLog = new ReviewLog(REVIEW_LOG_FILE);
+        
+        addProgramEndObserver(new ProgramEndObserver() {
+            public void onProgramEnd()
+            {
+                flushReviewLog();
+            }
+        });
+    }
+    
+    private void flushReviewLog()
+    {
+        if (m_reviewLog == null)
+            return;
+        
+        try
+        {
+            m_reviewLog.flush();
+        }
+        catch (IOException e)
+        {
+            logThrowable("Could not write review log.", e);
+        }
     }
     
     private void fireLessonLoaded(Lesson lesson)
@@ -531,6 +603,30 @@ public class Main extends Observable implements LearnSessionProvider,
         }
     }
 
+    void fireLessonSaving(Lesson lesson)
+    {
+        for (LessonObserver observer : m_lessonObservers)
+        {
+            observer.lessonSaving(lesson);
+        }
+    }
+    
+    void fireLessonSaved(Lesson lesson)
+    {
+        for (LessonObserver observer : m_lessonObservers)
+        {
+            observer.lessonSaved(lesson);
+        }
+    }
+    
+    void fireLessonSaveFailed(Lesson lesson, Throwable t)
+    {
+        for (LessonObserver observer : m_lessonObservers)
+        {
+            observer.lessonSaveFailed(lesson, t);
+        }
+    }
+
     private void fireLessonModified(Lesson lesson)
     {
         if (lesson.canSave())
@@ -0,0 +1,790 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An inverted index over the text of all cards of a category tree. The
+ * normalized text of every card side (see {@link TextNormalizer}) is split
+ * into overlapping trigrams and every trigram keeps a sorted posting list of
+ * the cards that contain it. Substring queries intersect the posting lists of
+ * the trigrams of the search text and only verify the remaining candidates.
+ * 
+ * The index keeps itself up to date by observing the category tree. An
+ * {@link Image} of the index can be stored next to the lesson file, so that
+ * the index doesn't need to be rebuilt when the lesson is loaded again.
+ */
+public class SearchIndex implements CardBatchObserver
+{
+    private static final int  GRAM_LENGTH     = 3;
+    
+    // marks used slots of the gram table, above the 48 gram and 1 side bits
+    private static final long USED            = 1L << 60;
+    
+    private static final int  MIN_COMPACT     = 1024;
+    
+    private static final int  FIRST_PAGE_SIZE = 100;
+    private static final int  MAX_PAGE_SIZE   = 50000;
+    
+    private final Category     m_root;
+    
+    // cards by their document number. removed cards leave a null entry
+    private Card[]             m_cards       = new Card[1024];
+    private long[]             m_hashes      = new long[1024];
+    private int                m_cardCount;
+    private int                m_removedCount;
+    private Map<Card, Integer> m_documents   = new HashMap<Card, Integer>();
+    
+    // open addressing table from gram keys to posting lists
+    private long[]             m_keys;
+    private int[][]            m_postings;
+    private int[]              m_postingSizes;
+    private int                m_gramCount;
+    
+    // the last created image and the modification it was created at
+    private int                m_modCount;
+    private Image              m_image;
+    private int                m_imageModCount;
+    
+    /**
+     * The posting lists of an index at some point in time. The documents of
+     * an image are numbered without gaps and every document has the hash of
+     * its card texts, which identifies the card when the image is loaded.
+     */
+    public static class Image
+    {
+        private final long    m_id;
+        private final long[]  m_cardHashes;
+        private final long[]  m_keys;
+        private final int[][] m_postings;
+        
+        /**
+         * @param id an id that is unique for every image.
+         * @param cardHashes the text hashes of the cards by their document.
+         * @param keys the gram keys.
+         * @param postings the sorted, non-empty posting list of every gram key.
+         */
+        public Image(long id, long[] cardHashes, long[] keys, int[][] postings)
+        {
+            m_id = id;
+            m_cardHashes = cardHashes;
+            m_keys = keys;
+            m_postings = postings;
+        }
+        
+        public long getId()
+        {
+            return m_id;
+        }
+        
+        public long[] getCardHashes()
+        {
+            return m_cardHashes;
+        }
+        
+        public long[] getKeys()
+        {
+            return m_keys;
+        }
+        
+        public int[][] getPostings()
+        {
+            return m_postings;
+        }
+    }
+    
+    /**
+     * Creates the index for all cards of given category and its child
+     * categories.
+     */
+    public SearchIndex(Category root)
+    {
+        m_root = root;
+        
+        clearGrams(1024);
+        for (Card card : root.getCards())
+        {
+            addCard(card);
+        }
+        
+        root.addObserver(this);
+    }
+    
+    /**
+     * Creates an index that takes its posting lists from given image.
+     * 
+     * @param cards the cards by their document in the image.
+     */
+    private SearchIndex(Category root, Card[] cards, int cardCount, Image image)
+    {
+        m_root = root;
+        m_cards = cards;
+        m_cardCount = cardCount;
+        
+        m_hashes = new long[cards.length];
+        System.arraycopy(image.getCardHashes(), 0, m_hashes, 0, cardCount);
+        
+        for (int doc = 0; doc < cardCount; doc++)
+            m_documents.put(cards[doc], doc);
+        
+        long[] keys = image.getKeys();
+        int[][] postings = image.getPostings();
+        
+        int capacity = 1024;
+        while (2 * keys.length > capacity)
+            capacity *= 2;
+        
+        clearGrams(capacity);
+        
+        // the posting lists are shared with the image. this is safe because
+        // they are full, so they are copied before a document is added
+        for (int i = 0; i < keys.length; i++)
+        {
+            int slot = findSlot(keys[i]);
+            m_keys[slot] = keys[i];
+            m_postings[slot] = postings[i];
+            m_postingSizes[slot] = postings[i].length;
+            m_gramCount++;
+        }
+        
+        m_image = image;
+        
+        root.addObserver(this);
+    }
+    
+    /**
+     * Creates the index for all cards of given category and its child
+     * categories from an image that was created by {@link #createImage()},
+     * usually in an earlier session. Cards and documents are matched by the
+     * hashes of their texts, so the cards don't need to be in the same order
+     * as when the image was created. Cards with the same texts have the same
+     * grams, so it doesn't matter which of their documents they get.
+     * 
+     * @return the index or <code>null</code> if the image doesn't contain
+     * exactly the cards of the category.
+     */
+    public static SearchIndex create(Category root, Image image)
+    {
+        List<Card> cards = root.getCards();
+        long[] cardHashes = image.getCardHashes();
+        
+        if (cards.size() != cardHashes.length)
+            return null;
+        
+        // open addressing table from card hashes to a chain of documents. a
+        // head of -1 marks a hash whose documents have all been taken
+        int capacity = 16;
+        while (capacity < 2 * cardHashes.length)
+            capacity *= 2;
+        
+        int mask = capacity - 1;
+        long[] hashes = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] next = new int[cardHashes.length];
+        
+        for (int doc = 0; doc < cardHashes.length; doc++)
+        {
+            int slot = findHashSlot(hashes, heads, cardHashes[doc], mask);
+            hashes[slot] = cardHashes[doc];
+            next[doc] = Math.max(heads[slot], 0);
+            heads[slot] = doc + 1;
+        }
+        
+        Card[] docCards = new Card[Math.max(1024, cardHashes.length)];
+        
+        for (Card card : cards)
+        {
+            int slot = findHashSlot(hashes, heads, hash(card), mask);
+            if (heads[slot] <= 0)
+                return null;
+            
+            int doc = heads[slot] - 1;
+            docCards[doc] = card;
+            heads[slot] = next[doc] > 0 ? next[doc] : -1;
+        }
+        
+        return new SearchIndex(root, docCards, cardHashes.length, image);
+    }
+    
+    /**
+     * Receives the results of a search in pages.
+     */
+    public interface SearchObserver
+    {
+        /**
+         * Is called with the next page of found cards.
+         */
+        public void onCardsFound(List<Card> cards);
+        
+        /**
+         * @return <code>true</code> if the search should be stopped.
+         */
+        public boolean isCancelled();
+    }
+    
+    /**
+     * Returns all cards of given category and its child categories that
+     * contain the search text.
+     * 
+     * @param side Either SearchTool.FRONT_SIDE, FLIP_SIDE or BOTH_SIDES.
+     */
+    public List<Card> search(String text, int side, boolean matchCase, 
+        Category category)
+    {
+        final List<Card> foundCards = new ArrayList<Card>();
+        
+        search(new SearchQuery(text, side, matchCase, category), 
+            new SearchObserver() {
+                public void onCardsFound(List<Card> cards)
+                {
+                    foundCards.addAll(cards);
+                }
+    
+                public boolean isCancelled()
+                {
+                    return false;
+                }
+            });
+        
+        return foundCards;
+    }
+    
+    /**
+     * Searches for all cards that match the query and passes them to the
+     * observer in pages of growing size, so that the first results arrive
+     * quickly. The index is only locked while the candidates are looked up.
+     * They are verified without holding the lock, so this can be called from
+     * any thread.
+     */
+    public void search(SearchQuery query, SearchObserver observer)
+    {
+        Card[] candidates = getCandidates(query.getText(), query.getSide());
+        
+        List<Card> page = new ArrayList<Card>();
+        int pageSize = FIRST_PAGE_SIZE;
+        
+        for (Card card : candidates)
+        {
+            if (observer.isCancelled())
+                return;
+            
+            if (card == null || !query.matches(card))
+                continue;
+            
+            page.add(card);
+            if (page.size() == pageSize)
+            {
+                observer.onCardsFound(page);
+                
+                page = new ArrayList<Card>();
+                pageSize = Math.min(2 * pageSize, MAX_PAGE_SIZE);
+            }
+        }
+        
+        if (!page.isEmpty() && !observer.isCancelled())
+            observer.onCardsFound(page);
+    }
+    
+    /**
+     * @return the number of cards in the index.
+     */
+    public synchronized int size()
+    {
+        return m_documents.size();
+    }
+    
+    /**
+     * Returns an image of the current state of the index. The last image is
+     * returned again as long as the index hasn't changed since then, which
+     * lets writers skip unchanged images. The cards aren't accessed, so this
+     * can be called from any thread.
+     */
+    public synchronized Image createImage()
+    {
+        if (m_image != null && m_imageModCount == m_modCount)
+            return m_image;
+        
+        // number the remaining cards without gaps. this keeps the order of
+        // the documents, so the posting lists stay sorted
+        int[] newDocs = new int[m_cardCount];
+        long[] cardHashes = new long[m_documents.size()];
+        int cardCount = 0;
+        
+        for (int doc = 0; doc < m_cardCount; doc++)
+        {
+            if (m_cards[doc] == null)
+            {
+                newDocs[doc] = -1;
+                continue;
+            }
+            
+            cardHashes[cardCount] = m_hashes[doc];
+            newDocs[doc] = cardCount++;
+        }
+        
+        long[] keys = new long[m_gramCount];
+        int[][] postings = new int[m_gramCount][];
+        int gramCount = 0;
+        
+        for (int slot = 0; slot < m_keys.length; slot++)
+        {
+            if (m_keys[slot] == 0)
+                continue;
+            
+            int[] posting = new int[m_postingSizes[slot]];
+            int size = 0;
+            
+            for (int i = 0; i < m_postingSizes[slot]; i++)
+            {
+                int doc = newDocs[m_postings[slot][i]];
+                if (doc >= 0)
+                    posting[size++] = doc;
+            }
+            
+            // grams of removed cards only are dropped
+            if (size == 0)
+                continue;
+            
+            keys[gramCount] = m_keys[slot];
+            postings[gramCount++] = size == posting.length ? 
+                posting : copyOf(posting, size);
+        }
+        
+        if (gramCount < keys.length)
+        {
+            long[] usedKeys = new long[gramCount];
+            System.arraycopy(keys, 0, usedKeys, 0, gramCount);
+            keys = usedKeys;
+            
+            int[][] usedPostings = new int[gramCount][];
+            System.arraycopy(postings, 0, usedPostings, 0, gramCount);
+            postings = usedPostings;
+        }
+        
+        m_image = new Image(new Random().nextLong(), cardHashes, keys, postings);
+        m_imageModCount = m_modCount;
+        
+        return m_image;
+    }
+    
+    /**
+     * Stops observing the category tree.
+     */
+    public void close()
+    {
+        m_root.removeObserver(this);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public synchronized void onCardEvent(int type, Card card, Category category, 
+        int deck)
+    {
+        switch (type)
+        {
+        case ADDED_EVENT:
+            addCard(card);
+            break;
+            
+        case REMOVED_EVENT:
+            removeCard(card);
+            break;
+            
+        case EDITED_EVENT:
+            removeCard(card);
+            addCard(card);
+            break;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CardBatchObserver
+     */
+    public synchronized void onCardsAdded(List<Card> cards, Category category, 
+        int deck)
+    {
+        for (Card card : cards)
+            addCard(card);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public synchronized void onCategoryEvent(int type, Category category)
+    {
+        if (type == ADDED_EVENT)
+        {
+            for (Card card : category.getCards())
+                addCard(card);
+        }
+        else if (type == REMOVED_EVENT)
+        {
+            for (Card card : category.getCards())
+                removeCard(card);
+        }
+    }
+    
+    /**
+     * @return the cards that might contain the text on given side. Removed
+     * cards are <code>null</code>.
+     */
+    private synchronized Card[] getCandidates(String text, int side)
+    {
+        // every card that contains the text also contains its normalized form
+        String normalizedText = TextNormalizer.normalize(text);
+        
+        if (normalizedText.length() < GRAM_LENGTH)
+        {
+            // too short for the index. all cards need to be verified
+            return copyOf(m_cards, m_cardCount);
+        }
+        
+        int[] docs;
+        if (side == SearchTool.BOTH_SIDES)
+        {
+            docs = union(
+                getDocuments(normalizedText, SearchTool.FRONT_SIDE), 
+                getDocuments(normalizedText, SearchTool.FLIP_SIDE));
+        }
+        else
+        {
+            docs = getDocuments(normalizedText, side);
+        }
+        
+        Card[] cards = new Card[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            cards[i] = m_cards[docs[i]];
+        
+        return cards;
+    }
+    
+    private void addCard(Card card)
+    {
+        if (m_documents.containsKey(card))
+            return;
+        
+        if (m_cardCount == m_cards.length)
+        {
+            m_cards = copyOf(m_cards, 2 * m_cardCount);
+            m_hashes = copyOf(m_hashes, 2 * m_cardCount);
+        }
+        
+        int doc = m_cardCount++;
+        m_cards[doc] = card;
+        m_hashes[doc] = hash(card);
+        m_documents.put(card, doc);
+        m_modCount++;
+        
+        addGrams(doc, card.getFrontSide(), SearchTool.FRONT_SIDE);
+        addGrams(doc, card.getBackSide(), SearchTool.FLIP_SIDE);
+    }
+    
+    private void removeCard(Card card)
+    {
+        Integer doc = m_documents.remove(card);
+        if (doc == null)
+            return;
+        
+        // posting lists are cleaned up when the index is compacted
+        m_cards[doc] = null;
+        m_removedCount++;
+        m_modCount++;
+        
+        if (m_removedCount > MIN_COMPACT && m_removedCount > m_documents.size())
+            compact();
+    }
+    
+    /**
+     * Rebuilds the index from the remaining cards, which drops the removed
+     * cards from all posting lists.
+     */
+    private void compact()
+    {
+        Card[] cards = m_cards;
+        int cardCount = m_cardCount;
+        
+        m_cards = new Card[Math.max(1024, 2 * m_documents.size())];
+        m_hashes = new long[m_cards.length];
+        m_cardCount = 0;
+        m_removedCount = 0;
+        m_documents.clear();
+        clearGrams(m_keys.length / 2);
+        
+        for (int i = 0; i < cardCount; i++)
+        {
+            if (cards[i] != null)
+                addCard(cards[i]);
+        }
+    }
+    
+    private void addGrams(int doc, CardSide cardSide, int side)
+    {
+        String text = cardSide.getNormalizedText();
+        
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+            addPosting(getKey(text, i, side), doc);
+    }
+    
+    private void addPosting(long key, int doc)
+    {
+        int slot = findSlot(key);
+        
+        if (m_keys[slot] == 0)
+        {
+            m_keys[slot] = key;
+            m_postings[slot] = new int[] {doc};
+            m_postingSizes[slot] = 1;
+            
+            if (++m_gramCount * 2 > m_keys.length)
+                growGrams();
+            
+            return;
+        }
+        
+        int size = m_postingSizes[slot];
+        int[] posting = m_postings[slot];
+        
+        // documents are added in ascending order, so a gram that appears
+        // several times in the same card only needs to be compared to the last
+        if (posting[size - 1] == doc)
+            return;
+        
+        if (size == posting.length)
+        {
+            posting = copyOf(posting, 2 * size);
+            m_postings[slot] = posting;
+        }
+        
+        posting[size] = doc;
+        m_postingSizes[slot] = size + 1;
+    }
+    
+    /**
+     * @return the sorted documents that contain all grams of given text on
+     * given side.
+     */
+    private int[] getDocuments(String normalizedText, int side)
+    {
+        List<Integer> slots = new ArrayList<Integer>();
+        for (int i = 0; i + GRAM_LENGTH <= normalizedText.length(); i++)
+        {
+            int slot = findSlot(getKey(normalizedText, i, side));
+            if (m_keys[slot] == 0)
+                return new int[0];
+            
+            if (!slots.contains(slot))
+                slots.add(slot);
+        }
+        
+        // start with the shortest list to keep the intermediate results small
+        Collections.sort(slots, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b)
+            {
+                return m_postingSizes[a] - m_postingSizes[b];
+            }
+        });
+        
+        int first = slots.get(0);
+        int[] result = copyOf(m_postings[first], m_postingSizes[first]);
+        
+        for (int i = 1; i < slots.size() && result.length > 0; i++)
+        {
+            int slot = slots.get(i);
+            result = intersect(result, m_postings[slot], m_postingSizes[slot]);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * @return the documents of the short list that are also in the first
+     * <code>size</code> documents of the long list.
+     */
+    private static int[] intersect(int[] shortList, int[] longList, int size)
+    {
+        int[] result = new int[shortList.length];
+        int count = 0;
+        int from = 0;
+        
+        for (int doc : shortList)
+        {
+            // binary search for the first position that isn't before doc
+            int low = from;
+            int high = size;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (longList[mid] < doc)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            
+            if (low == size)
+                break;
+            
+            if (longList[low] == doc)
+            {
+                result[count++] = doc;
+                low++;
+            }
+            
+            from = low;
+        }
+        
+        return copyOf(result, count);
+    }
+    
+    private static int[] union(int[] a, int[] b)
+    {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, count = 0;
+        
+        while (i < a.length && j < b.length)
+        {
+            if (a[i] < b[j])
+                result[count++] = a[i++];
+            else if (a[i] > b[j])
+                result[count++] = b[j++];
+            else
+            {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        
+        while (i < a.length)
+            result[count++] = a[i++];
+        
+        while (j < b.length)
+            result[count++] = b[j++];
+        
+        return copyOf(result, count);
+    }
+    
+    /**
+     * @return a 64 bit FNV-1a hash of the texts of both card sides.
+     */
+    private static long hash(Card card)
+    {
+        String front = card.getFrontSide().getText().getUnformatted();
+        String back = card.getBackSide().getText().getUnformatted();
+        
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < front.length(); i++)
+            hash = (hash ^ front.charAt(i)) * 0x100000001B3L;
+        
+        // separates the sides, so that text can't move between them
+        hash = (hash ^ front.length()) * 0x100000001B3L;
+        
+        for (int i = 0; i < back.length(); i++)
+            hash = (hash ^ back.charAt(i)) * 0x100000001B3L;
+        
+        return hash;
+    }
+    
+    private static int findHashSlot(long[] hashes, int[] heads, long hash, 
+        int mask)
+    {
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        
+        while (heads[slot] != 0 && hashes[slot] != hash)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    private static long getKey(String text, int pos, int side)
+    {
+        long gram = ((long)text.charAt(pos) << 32) | 
+            ((long)text.charAt(pos + 1) << 16) | text.charAt(pos + 2);
+        
+        return USED | (gram << 1) | side;
+    }
+    
+    private int findSlot(long key)
+    {
+        int mask = m_keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        
+        while (m_keys[slot] != 0 && m_keys[slot] != key)
+            slot = (slot + 1) & mask;
+        
+        return slot;
+    }
+    
+    private void clearGrams(int capacity)
+    {
+        m_keys = new long[capacity];
+        m_postings = new int[capacity][];
+        m_postingSizes = new int[capacity];
+        m_gramCount = 0;
+    }
+    
+    private void growGrams()
+    {
+        long[] keys = m_keys;
+        int[][] postings = m_postings;
+        int[] postingSizes = m_postingSizes;
+        
+        clearGrams(2 * keys.length);
+        
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] == 0)
+                continue;
+            
+            int slot = findSlot(keys[i]);
+            m_keys[slot] = keys[i];
+            m_postings[slot] = postings[i];
+            m_postingSizes[slot] = postingSizes[i];
+            m_gramCount++;
+        }
+    }
+    
+    private static int[] copyOf(int[] array, int length)
+    {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+    
+    private static long[] copyOf(long[] array, int length)
+    {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+    
+    private static Card[] copyOf(Card[] array, int length)
+    {
+        Card[] copy = new Card[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+}
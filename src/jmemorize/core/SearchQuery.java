@@ -0,0 +1,93 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+/**
+ * A search for the cards of a category that contain a text on one or both of
+ * their sides. The search text is prepared once, so that the query can be
+ * matched against many cards.
+ */
+public class SearchQuery
+{
+    private final String   m_text;
+    private final String   m_preparedText;
+    private final int      m_side;
+    private final boolean  m_matchCase;
+    private final Category m_category;
+    
+    /**
+     * @param side Either SearchTool.FRONT_SIDE, FLIP_SIDE or BOTH_SIDES.
+     * @param category the category whose cards, including the cards of its
+     * child categories, are searched.
+     */
+    public SearchQuery(String text, int side, boolean matchCase, 
+        Category category)
+    {
+        m_text = text;
+        m_preparedText = matchCase ? text : TextNormalizer.normalize(text);
+        m_side = side;
+        m_matchCase = matchCase;
+        m_category = category;
+    }
+    
+    /**
+     * @return <code>true</code> if the card belongs to the searched category
+     * and contains the search text.
+     */
+    public boolean matches(Card card)
+    {
+        return isInCategory(card) && 
+            SearchTool.matches(card, m_preparedText, m_side, m_matchCase);
+    }
+    
+    /**
+     * @return <code>true</code> if the card belongs to the searched category
+     * or one of its child categories.
+     */
+    public boolean isInCategory(Card card)
+    {
+        for (Category cat = card.getCategory(); cat != null; cat = cat.getParent())
+        {
+            if (cat == m_category)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    public String getText()
+    {
+        return m_text;
+    }
+    
+    public int getSide()
+    {
+        return m_side;
+    }
+    
+    public boolean isMatchCase()
+    {
+        return m_matchCase;
+    }
+    
+    public Category getCategory()
+    {
+        return m_category;
+    }
+}
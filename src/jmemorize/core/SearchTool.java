@@ -18,7 +18,7 @@
  */
 package jmemorize.core;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -33,58 +33,70 @@ public class SearchTool
     
     public static List<Card> search(String text, int side, boolean matchCase, List<Card> cards)
     {
+        if (!matchCase)
+            text = TextNormalizer.normalize(text);
+        
         List<Card> foundCards = new LinkedList<Card>();
         for (Card card : cards)
         {
-            String frontSide = card.getFrontSide().getText().getUnformatted();
-            String flipSide  = card.getBackSide().getText().getUnformatted();
-            
-            if (!matchCase)
-            {
-                text      = text.toLowerCase();
-                frontSide = frontSide.toLowerCase();
-                flipSide  = flipSide.toLowerCase();
-            }
-            
-            if (side == FRONT_SIDE || side == BOTH_SIDES)
-            {
-                if (frontSide.indexOf(text) > -1)
-                {
-                    foundCards.add(card);
-                    continue;
-                }
-            }
-            
-            if (side == FLIP_SIDE || side == BOTH_SIDES)
-            {
-                if (flipSide.indexOf(text) > -1)
-                {
-                    foundCards.add(card);
-                }
-            }
+            if (matches(card, text, side, matchCase))
+                foundCards.add(card);
         }
         
         return foundCards;
     }
     
-    public static List<Integer> search(String text, String searchtext,
-        int side, boolean ignoreCase)
+    /**
+     * @param text the search text. If case doesn't need to match, it has to be
+     * normalized already (see {@link TextNormalizer}).
+     * @return <code>true</code> if the given side of the card contains the
+     * search text.
+     */
+    static boolean matches(Card card, String text, int side, boolean matchCase)
     {
-        if (ignoreCase)
+        if (side == FRONT_SIDE || side == BOTH_SIDES)
+        {
+            if (contains(card.getFrontSide(), text, matchCase))
+                return true;
+        }
+        
+        if (side == FLIP_SIDE || side == BOTH_SIDES)
         {
-            text       = text.toLowerCase();
-            searchtext = searchtext.toLowerCase();
+            if (contains(card.getBackSide(), text, matchCase))
+                return true;
         }
         
-        List<Integer> positions = new ArrayList<Integer>();
-        int pos = 0;
-        while ((pos = text.indexOf(searchtext, pos)) >= 0) 
+        return false;
+    }
+    
+    /**
+     * @return the start offsets of all occurrences of the search text in the
+     * text. To find several terms at once or to avoid allocations while
+     * rendering use a {@link Highlighter}.
+     */
+    public static int[] search(String text, String searchtext,
+        int side, boolean ignoreCase)
+    {
+        Highlighter highlighter = new Highlighter(
+            Collections.singletonList(searchtext), ignoreCase);
+        
+        Highlighter.Matches matches = new Highlighter.Matches();
+        highlighter.search(text, matches);
+        
+        int[] positions = new int[matches.size()];
+        for (int i = 0; i < positions.length; i++)
         {
-            positions.add(pos);
-            pos += searchtext.length();
+            positions[i] = matches.getStart(i);
         }
         
         return positions;
     }
-
+    
+    private static boolean contains(CardSide cardSide, String text, boolean matchCase)
+    {
+        String sideText = matchCase ? 
+            cardSide.getText().getUnformatted() : cardSide.getNormalizedText();
+        
+        return sideText.indexOf(text) > -1;
+    }
 }
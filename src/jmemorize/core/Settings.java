@@ -32,6 +32,9 @@ import javax.swing.JFrame;
 
 import jmemorize.core.learn.LearnSettings;
 import jmemorize.core.learn.LearnSettings.SchedulePreset;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.QueryException;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.CardFont;
 import jmemorize.gui.swing.CardFont.FontAlignment;
@@ -104,10 +107,16 @@ public class Settings
     // etc keys
     private final static String LAST_DIRECTORY = "last-directory"; //$NON-NLS-1$
     private final static String SAVE_COMPRESSED = "gzip";          //$NON-NLS-1$
+    private final static String AUTO_SAVE = "auto-save";           //$NON-NLS-1$
+    private final static String DUPLICATE_POLICY = "import.duplicate-policy"; //$NON-NLS-1$
     private final static String CATEGORY_TREE_WIDTH = "category-tree.width"; //$NON-NLS-1$
     private final static String CATEGORY_TREE_VISIBLE = "category-tree.visible"; //$NON-NLS-1$
     private final static String MAIN_DIVIDER_LOCATION = "main-divider.location"; //$NON-NLS-1$
     
+    // smart category keys
+    private final static String SMART_CATEGORY_NAME = "smart-category.name."; //$NON-NLS-1$
+    private final static String SMART_CATEGORY_QUERY = "smart-category.query."; //$NON-NLS-1$
+    
     
     public static void storeLocale(Locale locale)
     {
@@ -284,6 +293,34 @@ public class Settings
         return PREFS.getBoolean(SAVE_COMPRESSED, true);
     }
     
+    public static void storeAutoSave(boolean autoSave)
+    {
+        PREFS.putBoolean(AUTO_SAVE, autoSave);
+    }
+    
+    /**
+     * @return <code>true</code> if modified lessons should be saved
+     * automatically in the background.
+     */
+    public static boolean loadIsAutoSave()
+    {
+        return PREFS.getBoolean(AUTO_SAVE, true);
+    }
+    
+    public static void storeDuplicatePolicy(int policy)
+    {
+        PREFS.putInt(DUPLICATE_POLICY, policy);
+    }
+    
+    /**
+     * @return the policy for imported and pasted cards that duplicate cards
+     * of the lesson. One of the policies of {@link DuplicateIndex}.
+     */
+    public static int loadDuplicatePolicy()
+    {
+        return PREFS.getInt(DUPLICATE_POLICY, DuplicateIndex.KEEP_BOTH);
+    }
+    
     // TODO merge storeCategoryTreeWidth and storeCategoryTreeVisible
     public static void storeCategoryTreeWidth(int width)
     {
@@ -315,6 +352,52 @@ public class Settings
         return PREFS.getInt(MAIN_DIVIDER_LOCATION, 250);
     }
     
+    /**
+     * Stores the names and queries of given smart categories. They are not
+     * bound to a lesson, so that the same queries can be used with every
+     * lesson.
+     */
+    public static void storeSmartCategories(List<SmartCategory> categories)
+    {
+        int i = 0;
+        for (SmartCategory category : categories)
+        {
+            PREFS.put(SMART_CATEGORY_NAME + i, category.getName());
+            PREFS.put(SMART_CATEGORY_QUERY + i, category.getQuery().getText());
+            i++;
+        }
+        
+        for (; PREFS.get(SMART_CATEGORY_NAME + i, null) != null; i++)
+        {
+            PREFS.remove(SMART_CATEGORY_NAME + i);
+            PREFS.remove(SMART_CATEGORY_QUERY + i);
+        }
+    }
+    
+    /**
+     * Adds the stored smart categories to given lesson.
+     */
+    public static void loadSmartCategories(Lesson lesson)
+    {
+        for (int i = 0; ; i++)
+        {
+            String name = PREFS.get(SMART_CATEGORY_NAME + i, null);
+            String query = PREFS.get(SMART_CATEGORY_QUERY + i, null);
+            
+            if (name == null || query == null)
+                break;
+            
+            try
+            {
+                lesson.addSmartCategory(name, CardQuery.compile(query));
+            }
+            catch (QueryException e)
+            {
+                Main.logThrowable("Invalid smart category query", e); //$NON-NLS-1$
+            }
+        }
+    }
+    
     public static void storeLastDirectory(File directory)
     {
         PREFS.put(LAST_DIRECTORY, directory.getAbsolutePath());
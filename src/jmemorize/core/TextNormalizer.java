@@ -0,0 +1,106 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core;
+
+/**
+ * Brings texts into a normalized form in which they can be compared without
+ * regard to case, accents and whitespace. Searches and quizzes compare the
+ * normalized forms, which card sides cache (see
+ * {@link CardSide#getNormalizedText()}).
+ * 
+ * Every character is folded on its own, so that a character of the original
+ * text always maps to at most one character of the normalized text. Accents
+ * are stripped from the latin letters, fullwidth forms are mapped to their
+ * ASCII counterparts and combining marks are dropped.
+ */
+public final class TextNormalizer
+{
+    private static final char   FIRST_FOLDED    = '\u00c0';
+    
+    // the folded forms of all characters from FIRST_FOLDED to U+017F
+    private static final String FOLDED          = 
+        "aaaaaa\u00e6ceeeeiiii" +                //$NON-NLS-1$
+        "\u00f0nooooo\u00d7ouuuuy\u00fe\u00df" + //$NON-NLS-1$
+        "aaaaaa\u00e6ceeeeiiii" +                //$NON-NLS-1$
+        "\u00f0nooooo\u00f7ouuuuy\u00fey" +      //$NON-NLS-1$
+        "aaaaaaccccccccdd" +                     //$NON-NLS-1$
+        "ddeeeeeeeeeegggg" +                     //$NON-NLS-1$
+        "gggghhhhiiiiiiii" +                     //$NON-NLS-1$
+        "iiiijjkkklllllll" +                     //$NON-NLS-1$
+        "lllnnnnnn\u0149\u014b\u014boooo" +      //$NON-NLS-1$
+        "oo\u0153\u0153rrrrrrssssss" +           //$NON-NLS-1$
+        "ssttttttuuuuuuuu" +                     //$NON-NLS-1$
+        "uuuuwwyyyzzzzzzs";                      //$NON-NLS-1$
+    
+    private static final char   FIRST_FULLWIDTH = '\uff01';
+    private static final char   LAST_FULLWIDTH  = '\uff5e';
+    private static final int    FULLWIDTH_SHIFT = FIRST_FULLWIDTH - '!';
+    
+    /**
+     * @return the normalized form of given text. The text is case and accent
+     * folded, leading and trailing whitespace is removed and all other runs of
+     * whitespace are replaced by a single space.
+     */
+    public static String normalize(String text)
+    {
+        StringBuffer buffer = new StringBuffer(text.length());
+        boolean space = false;
+        
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            
+            if (isSpace(c))
+            {
+                space = buffer.length() > 0;
+            }
+            else if (Character.getType(c) != Character.NON_SPACING_MARK)
+            {
+                if (space)
+                {
+                    buffer.append(' ');
+                    space = false;
+                }
+                
+                buffer.append(fold(c));
+            }
+        }
+        
+        return buffer.toString();
+    }
+    
+    /**
+     * @return the case and accent folded form of given character.
+     */
+    public static char fold(char c)
+    {
+        if (c >= FIRST_FULLWIDTH && c <= LAST_FULLWIDTH)
+            c = (char)(c - FULLWIDTH_SHIFT);
+        
+        c = Character.toLowerCase(Character.toUpperCase(c));
+        
+        int index = c - FIRST_FOLDED;
+        return index >= 0 && index < FOLDED.length() ? FOLDED.charAt(index) : c;
+    }
+    
+    private static boolean isSpace(char c)
+    {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+}
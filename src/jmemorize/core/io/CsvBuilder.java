@@ -22,31 +22,32 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import jmemorize.core.Card;
-import jmemorize.core.Category;
-import jmemorize.core.FormattedText;
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.Lesson;
 
-import com.csvreader.CsvReader;
 import com.csvreader.CsvWriter;
-import com.csvreader.CsvReader.CatastrophicException;
-import com.csvreader.CsvReader.FinalizedException;
 
 /**
- * A class for importing and exporting character-separated-values (CSV).
+ * A class for importing and exporting character-separated-values (CSV). The
+ * exporter writes the path of the category of a card to the category path
+ * column, so that nested categories survive an export and a following import.
+ * Files with a plain category column, like the ones of older versions, are
+ * still imported with one top-level category per name.
  * 
  * @author djemili
  */
 public class CsvBuilder
 {
-    public static final String FRONTSIDE_COL = "Frontside";
-    public static final String FLISIDE_COL   = "Flipside";
-    public static final String CATEGORY_COL  = "Category";
-    public static final String LEVEL_COL     = "Level";
+    public static final String FRONTSIDE_COL      = "Frontside";
+    public static final String FLISIDE_COL        = "Flipside";
+    public static final String CATEGORY_COL       = "Category";
+    public static final String CATEGORY_PATH_COL  = "CategoryPath";
+    public static final String LEVEL_COL          = "Level";
+    
+    public static final char   CATEGORY_SEPARATOR = '/';
     
     /**
      * Is thrown when the header is missing or malformatted.
@@ -62,39 +63,15 @@ public class CsvBuilder
     /**
      * Exports the given lesson to a CSV-file with given delimiter and given
      * character set.
+     * 
+     * @see CsvExporter
      */
     public static void exportLesson(OutputStream out, Lesson lesson, 
         char delimiter, Charset charset) throws IOException
     {
-        try
-        {
-            CsvWriter writer = new CsvWriter(out, delimiter, charset);
-            writeHeader(writer);
-            
-            List<Card> cards = lesson.getRootCategory().getCards();
-            for (Card card : cards)
-            {
-                writer.write(card.getFrontSide().getText().getFormatted());
-                writer.write(card.getBackSide().getText().getFormatted());
-                
-                if (lesson.getRootCategory() == card.getCategory())
-                    writer.write("");
-                else
-                    writer.write(card.getCategory().getName());
-                
-                writer.write(Integer.toString(card.getLevel()));
-                writer.endRecord();
-            }
-            
-            writer.close();
-        }
-        catch (com.csvreader.CsvWriter.FinalizedException e)
-        {
-            throw new IOException(e.getMessage());
-        }
+        new CsvExporter(delimiter, charset).exportLesson(out, lesson);
     }
     
-    
     /**
      * Parses the given file that holds text values that are delimited by given
      * delimiter. The values are used to contruct a lesson.
@@ -108,95 +85,101 @@ public class CsvBuilder
      * 
      * @throws IOException if the file couldn't be read or the values are
      * malformatted.
+     * 
+     * @see CsvImporter
      */
     public static void importLesson(InputStream in, char delimiter, 
         Charset charset, Lesson lesson) throws IOException, BadHeaderException 
     {
-        CsvReader reader = new CsvReader(in, delimiter, charset);
-        
-        Category rootCategory = lesson.getRootCategory();
-        Map<String, Category> categories = new HashMap<String, Category>();
+        importLesson(in, delimiter, charset, lesson, DuplicateIndex.KEEP_BOTH);
+    }
+    
+    /**
+     * Like {@link #importLesson(InputStream, char, Charset, Lesson)}, but
+     * handles imported cards that duplicate cards of the lesson by given
+     * policy.
+     * 
+     * @param duplicatePolicy one of the policies of {@link DuplicateIndex}.
+     */
+    public static void importLesson(InputStream in, char delimiter, 
+        Charset charset, Lesson lesson, int duplicatePolicy) 
+        throws IOException, BadHeaderException 
+    {
+        CsvImporter importer = new CsvImporter(delimiter, charset);
+        importer.setDuplicatePolicy(duplicatePolicy);
+        importer.importLesson(in, -1, lesson);
+    }
+
+    /**
+     * Category paths are written to the category path column. A path starts
+     * below the root category, which has an empty path. Category names are
+     * separated by {@link #CATEGORY_SEPARATOR} and separators within names
+     * are escaped with a backslash.
+     * 
+     * @return given category name escaped for use in a category path.
+     */
+    static String escapeCategoryName(String name)
+    {
+        if (name.indexOf('\\') < 0 && name.indexOf(CATEGORY_SEPARATOR) < 0)
+            return name;
         
-        List<Category> childCategories = rootCategory.getChildCategories();
-        for (Category category : childCategories)
+        StringBuffer buffer = new StringBuffer(name.length() + 4);
+        for (int i = 0; i < name.length(); i++)
         {
-            categories.put(category.getName(), category);
+            char c = name.charAt(i);
+            if (c == '\\' || c == CATEGORY_SEPARATOR)
+                buffer.append('\\');
+            
+            buffer.append(c);
         }
         
-        try
+        return buffer.toString();
+    }
+    
+    /**
+     * @return the names of the categories in given category path.
+     * @see #escapeCategoryName(String)
+     */
+    static List<String> parseCategoryPath(String path)
+    {
+        List<String> names = new ArrayList<String>();
+        StringBuffer name = new StringBuffer();
+        
+        for (int i = 0; i < path.length(); i++)
         {
-            reader.readHeaders();
-            
-            String[] headers = reader.getHeaders();
-            validateHeader(headers);
+            char c = path.charAt(i);
             
-            while (reader.readRecord())
+            if (c == '\\' && i + 1 < path.length())
             {
-                FormattedText frontSide = FormattedText.formatted(reader.get(FRONTSIDE_COL));
-                FormattedText flipSide = FormattedText.formatted(reader.get(FLISIDE_COL));
-                
-                if (frontSide.getUnformatted().length() == 0 || flipSide.getUnformatted().length() == 0)
-                    throw new IOException("You have to specify at least a front " +
-                        "side and flip side for every card "+getLineString(reader)+".");
-                
-                Card card = new Card(frontSide, flipSide);
-                
-                Category category;
-                String categoryName = reader.get(CATEGORY_COL);
-                if (categoryName.length() == 0 || 
-                    categoryName.equalsIgnoreCase(rootCategory.getName()))
-                {
-                    category = rootCategory;
-                }
-                else
-                {
-                    if (categories.containsKey(categoryName))
-                    {
-                        category = (Category)categories.get(categoryName);
-                    }
-                    else
-                    {
-                        category = new Category(categoryName);
-                        rootCategory.addCategoryChild(category);
-                        categories.put(categoryName, category);
-                    }
-                }
-                
-                String level = reader.get(LEVEL_COL);
-                if (level.length() > 0)
-                {
-                    category.addCard(card, Integer.parseInt(level));
-                }
-                else
-                {
-                    category.addCard(card);
-                }
+                name.append(path.charAt(++i));
+            }
+            else if (c == CATEGORY_SEPARATOR)
+            {
+                names.add(name.toString());
+                name.setLength(0);
+            }
+            else
+            {
+                name.append(c);
             }
-
-            reader.close();
-        } 
-        catch (FinalizedException e)
-        {
-            throw new IOException(e.toString());
-        } 
-        catch (CatastrophicException e)
-        {
-            throw new IOException(e.toString());
         }
+        
+        names.add(name.toString());
+        return names;
     }
-
-    private static void writeHeader(CsvWriter writer) throws IOException, 
+    
+    static void writeHeader(CsvWriter writer) throws IOException, 
         com.csvreader.CsvWriter.FinalizedException
     {
         writer.write(FRONTSIDE_COL);
         writer.write(FLISIDE_COL);
-        writer.write(CATEGORY_COL);
+        writer.write(CATEGORY_PATH_COL);
         writer.write(LEVEL_COL);
         writer.endRecord();
     }
 
 
-    private static void validateHeader(String[] headers) throws BadHeaderException
+    static void validateHeader(String[] headers) throws BadHeaderException
     {
         boolean hasFront = false;
         boolean hasFlip = false;
@@ -215,6 +198,7 @@ public class CsvBuilder
             }
             
             if (!headers[i].equalsIgnoreCase(CATEGORY_COL) && 
+                !headers[i].equalsIgnoreCase(CATEGORY_PATH_COL) && 
                 !headers[i].equalsIgnoreCase(LEVEL_COL))
                     throw new BadHeaderException("Unknown header column: "+headers[i]);
         }
@@ -225,9 +209,4 @@ public class CsvBuilder
                 FRONTSIDE_COL+ "' and '"+FLISIDE_COL+"'.");
 
     }
-    
-    private static String getLineString(CsvReader reader)
-    {
-        return "(line "+ reader.getCurrentRecord() +")";
-    }
 }
@@ -0,0 +1,302 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a memory-mapped file of character-separated-values into chunks of
+ * whole records and parses these chunks independently of each other. The
+ * parser follows the rules of the CsvReader that is used for streamed
+ * imports: values can be quoted with double quotes, quotes in quoted values
+ * are doubled, unquoted values are trimmed, text after a closing quote is
+ * ignored and empty lines are skipped.
+ * <p>
+ * Splitting works on the raw bytes, so only charsets in which the quote, the
+ * line breaks and the delimiter are single bytes that never occur within
+ * other characters are supported. See {@link #supports(Charset, char)}.
+ */
+class CsvChunkReader
+{
+    private static final int START        = 0;
+    private static final int UNQUOTED     = 1;
+    private static final int QUOTED       = 2;
+    private static final int AFTER_QUOTE  = 3;
+    private static final int TRAILING     = 4;
+    
+    private static final char QUOTE = '"';
+    
+    private final FileChannel m_channel;
+    private final long        m_size;
+    private final char        m_delimiter;
+    private final Charset     m_charset;
+    
+    /**
+     * @param charset a charset that is supported by this reader.
+     */
+    public CsvChunkReader(FileChannel channel, char delimiter, Charset charset) 
+        throws IOException
+    {
+        m_channel = channel;
+        m_size = channel.size();
+        m_delimiter = delimiter;
+        m_charset = charset;
+    }
+    
+    /**
+     * @return <code>true</code> if files with given charset and delimiter can
+     * be split into chunks on byte level.
+     */
+    public static boolean supports(Charset charset, char delimiter)
+    {
+        if (delimiter >= 0x80 || delimiter == QUOTE || 
+            delimiter == '\r' || delimiter == '\n')
+        {
+            return false;
+        }
+        
+        String name = charset.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII") ||  //$NON-NLS-1$ //$NON-NLS-2$
+            name.startsWith("ISO-8859-") || name.startsWith("windows-125"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    public long getSize()
+    {
+        return m_size;
+    }
+    
+    /**
+     * Maps the next chunk of the file. The chunk starts at given position,
+     * which has to be the start of a record, and ends after the first record
+     * that ends at or behind <code>start + minLength</code>.
+     * 
+     * @return the bytes of the chunk. The position of the buffer is the
+     * position of the chunk in the file. An empty buffer is returned at the
+     * end of the file.
+     */
+    public ByteBuffer mapChunk(long start, int minLength) throws IOException
+    {
+        int length = getMapLength(start, 2L * minLength);
+        
+        while (true)
+        {
+            ByteBuffer bytes = m_channel.map(FileChannel.MapMode.READ_ONLY, 
+                start, length);
+            
+            int end = findRecordEnd(bytes, Math.min(minLength, length), 
+                start + length == m_size);
+            
+            if (end >= 0)
+            {
+                bytes.limit(end);
+                bytes.position(0);
+                return bytes.slice();
+            }
+            
+            // a single record spans the whole mapped region
+            if (length == Integer.MAX_VALUE)
+                throw new IOException("Record at " + start + " is too large.");
+            
+            length = getMapLength(start, 2L * length);
+        }
+    }
+    
+    /**
+     * @return the length of the region that is mapped from given start. It
+     * ends at the end of the file and is at most {@link Integer#MAX_VALUE}.
+     */
+    private int getMapLength(long start, long length)
+    {
+        return (int)Math.min(Math.min(m_size - start, length), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Parses all records of given chunk.
+     * 
+     * @return the values of the records.
+     */
+    public List<String[]> parse(ByteBuffer chunk) throws CharacterCodingException
+    {
+        CharsetDecoder decoder = m_charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        CharBuffer chars = decoder.decode(chunk.duplicate());
+        return parse(chars.array(), chars.arrayOffset(), 
+            chars.arrayOffset() + chars.limit());
+    }
+    
+    /**
+     * @return the end of the first record that ends at or behind given
+     * position or -1 if no such record end was found within the buffer. If
+     * the buffer ends with the file, the end of the buffer is a record end.
+     */
+    private int findRecordEnd(ByteBuffer bytes, int minLength, boolean endOfFile)
+    {
+        int state = START;
+        int limit = bytes.limit();
+        
+        for (int i = 0; i < limit; i++)
+        {
+            byte b = bytes.get(i);
+            
+            if (state == QUOTED)
+            {
+                if (b == QUOTE)
+                    state = AFTER_QUOTE;
+                continue;
+            }
+            
+            if (b == '\n' || b == '\r')
+            {
+                if (b == '\r' && i + 1 < limit && bytes.get(i + 1) == '\n')
+                    i++;
+                
+                if (i + 1 >= minLength)
+                    return i + 1;
+                
+                state = START;
+            }
+            else if (b == m_delimiter)
+            {
+                state = START;
+            }
+            else if (state == START)
+            {
+                if (b == QUOTE)
+                    state = QUOTED;
+                else if (b != ' ' && b != '\t')
+                    state = UNQUOTED;
+            }
+            else if (state == AFTER_QUOTE)
+            {
+                state = b == QUOTE ? QUOTED : TRAILING;
+            }
+        }
+        
+        return endOfFile ? limit : -1;
+    }
+    
+    private List<String[]> parse(char[] chars, int start, int end)
+    {
+        List<String[]> records = new ArrayList<String[]>();
+        List<String> values = new ArrayList<String>();
+        StringBuilder quoted = new StringBuilder();
+        
+        int state = START;
+        int valueStart = start;
+        int valueEnd = start;
+        boolean recordQuoted = false;
+        
+        for (int i = start; i <= end; i++)
+        {
+            char c = i < end ? chars[i] : '\n';
+            
+            if (state == QUOTED)
+            {
+                if (c == QUOTE)
+                    state = AFTER_QUOTE;
+                else if (i < end)
+                    quoted.append(c);
+                continue;
+            }
+            
+            if (state == AFTER_QUOTE && c == QUOTE)
+            {
+                quoted.append(QUOTE);
+                state = QUOTED;
+                continue;
+            }
+            
+            boolean recordEnd = c == '\n' || c == '\r';
+            if (recordEnd || c == m_delimiter)
+            {
+                if (state == UNQUOTED)
+                {
+                    values.add(new String(chars, valueStart, valueEnd - valueStart));
+                }
+                else if (state == AFTER_QUOTE || state == TRAILING)
+                {
+                    values.add(quoted.toString());
+                    quoted.setLength(0);
+                    recordQuoted = true;
+                }
+                else
+                {
+                    values.add(""); //$NON-NLS-1$
+                }
+                
+                state = START;
+                
+                if (recordEnd)
+                {
+                    // skip empty lines like the streamed reader does
+                    if (values.size() > 1 || recordQuoted || 
+                        values.get(0).length() > 0)
+                    {
+                        records.add(values.toArray(new String[values.size()]));
+                    }
+                    
+                    values.clear();
+                    recordQuoted = false;
+                }
+            }
+            else if (state == START)
+            {
+                if (c == QUOTE)
+                {
+                    state = QUOTED;
+                }
+                else if (c != ' ' && c != '\t')
+                {
+                    state = UNQUOTED;
+                    valueStart = i;
+                    valueEnd = i + 1;
+                }
+            }
+            else if (state == UNQUOTED)
+            {
+                if (c != ' ' && c != '\t')
+                    valueEnd = i + 1;
+            }
+            else if (state == AFTER_QUOTE)
+            {
+                state = TRAILING;
+            }
+        }
+        
+        // the file ends within a quoted value
+        if (state == QUOTED)
+        {
+            values.add(quoted.toString());
+            records.add(values.toArray(new String[values.size()]));
+        }
+        
+        return records;
+    }
+}
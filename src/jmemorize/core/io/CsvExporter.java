@@ -0,0 +1,222 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.Lesson;
+import jmemorize.util.DirectExecutor;
+
+import com.csvreader.CsvWriter;
+import com.csvreader.CsvWriter.FinalizedException;
+
+/**
+ * Exports a lesson to character-separated-values. The category tree is
+ * walked deck by deck and the cards are streamed to the output in small
+ * chunks, so that the memory used by the export doesn't depend on the size of
+ * the lesson.
+ */
+public class CsvExporter
+{
+    private static final int    CHUNK_SIZE  = 1000;
+    private static final int    BUFFER_SIZE = 1 << 16;
+    
+    private final char          m_delimiter;
+    private final Charset       m_charset;
+    
+    private ProgressObserver    m_observer;
+    private Executor            m_accessExecutor = DirectExecutor.INSTANCE;
+    
+    // state of the current export. The chunk holds the formatted front and
+    // flip side texts of the cards.
+    private final List<String[]> m_chunk = new ArrayList<String[]>(CHUNK_SIZE);
+    private long                m_cardsDone;
+    private long                m_cardsTotal;
+    
+    public CsvExporter(char delimiter, Charset charset)
+    {
+        m_delimiter = delimiter;
+        m_charset = charset;
+    }
+    
+    public void setProgressObserver(ProgressObserver observer)
+    {
+        m_observer = observer;
+    }
+    
+    /**
+     * Sets the executor that reads from the lesson. The exporter only reads
+     * one chunk of cards at a time through this executor and writes them on
+     * the calling thread. The executor has to return only after the command
+     * is done. Use this to export a lesson from a background thread while it
+     * is being displayed. By default the lesson is read on the calling thread.
+     */
+    public void setAccessExecutor(Executor executor)
+    {
+        m_accessExecutor = executor;
+    }
+    
+    /**
+     * Writes all cards of given lesson to given output stream, which is
+     * closed afterwards.
+     * 
+     * @throws CancelledException if the export was cancelled by the progress
+     * observer.
+     */
+    public void exportLesson(OutputStream out, Lesson lesson) throws IOException
+    {
+        final Category rootCategory = lesson.getRootCategory();
+        
+        m_cardsDone = 0;
+        m_accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                m_cardsTotal = countCards(rootCategory);
+            }
+        });
+        
+        CsvWriter writer = new CsvWriter(new BufferedWriter(
+            new OutputStreamWriter(out, m_charset), BUFFER_SIZE), m_delimiter);
+        
+        try
+        {
+            CsvBuilder.writeHeader(writer);
+            exportCategory(writer, rootCategory, ""); //$NON-NLS-1$
+        }
+        catch (FinalizedException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+    
+    private void exportCategory(CsvWriter writer, final Category category, 
+        String path) throws IOException, FinalizedException
+    {
+        final List<Category> children = new ArrayList<Category>();
+        final int[] decks = new int[1];
+        
+        m_accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                children.addAll(category.getChildCategories());
+                decks[0] = category.getNumberOfDecks();
+            }
+        });
+        
+        String level = null;
+        for (int i = 0; i < decks[0]; i++)
+        {
+            level = Integer.toString(i);
+            
+            int from = 0;
+            do
+            {
+                readChunk(category, i, from);
+                
+                if (m_observer != null && m_observer.isCancelled())
+                    throw new CancelledException();
+                
+                for (String[] texts : m_chunk)
+                {
+                    writer.write(texts[0]);
+                    writer.write(texts[1]);
+                    writer.write(path);
+                    writer.write(level);
+                    writer.endRecord();
+                }
+                
+                from += m_chunk.size();
+                m_cardsDone += m_chunk.size();
+                
+                if (m_observer != null)
+                    m_observer.onProgress(m_cardsDone, m_cardsTotal);
+            }
+            while (m_chunk.size() == CHUNK_SIZE);
+        }
+        
+        for (Category child : children)
+        {
+            String name = CsvBuilder.escapeCategoryName(child.getName());
+            String childPath = path.length() == 0 ? name : 
+                path + CsvBuilder.CATEGORY_SEPARATOR + name;
+            
+            exportCategory(writer, child, childPath);
+        }
+    }
+    
+    /**
+     * Copies the texts of the next chunk of cards of given deck, so that the
+     * cards aren't touched outside of the access executor. Note that if the
+     * deck is changed while the lesson is exported, cards can be skipped or
+     * written twice, but the export won't fail.
+     */
+    private void readChunk(final Category category, final int level, 
+        final int from)
+    {
+        m_chunk.clear();
+        
+        m_accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                if (level >= category.getNumberOfDecks())
+                    return;
+                
+                List<Card> deck = category.getLocalCards(level);
+                int to = Math.min(deck.size(), from + CHUNK_SIZE);
+                
+                for (int i = from; i < to; i++)
+                {
+                    Card card = deck.get(i);
+                    m_chunk.add(new String[] {
+                        card.getFrontSide().getText().getFormatted(), 
+                        card.getBackSide().getText().getFormatted()});
+                }
+            }
+        });
+    }
+    
+    private static long countCards(Category category)
+    {
+        long count = 0;
+        for (int i = 0; i < category.getNumberOfDecks(); i++)
+        {
+            count += category.getLocalCards(i).size();
+        }
+        
+        for (Category child : category.getChildCategories())
+        {
+            count += countCards(child);
+        }
+        
+        return count;
+    }
+}
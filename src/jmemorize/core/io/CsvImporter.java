@@ -0,0 +1,676 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
+import jmemorize.core.FormattedText;
+import jmemorize.core.Lesson;
+import jmemorize.core.io.CsvBuilder.BadHeaderException;
+import jmemorize.util.DirectExecutor;
+
+import com.csvreader.CsvReader;
+import com.csvreader.CsvReader.CatastrophicException;
+import com.csvreader.CsvReader.FinalizedException;
+
+/**
+ * Imports character-separated-values into a lesson. The import runs as a
+ * pipeline: records are read on the calling thread and collected into
+ * batches, the texts of each batch are formatted on a pool of worker threads
+ * and the resulting cards are committed to the category tree batch by batch
+ * in the order of the file. Only a few batches are in flight at any time, so
+ * the memory that is used by the import doesn't grow with the size of the
+ * file.
+ * <p>
+ * Files can also be imported with {@link #importFile(File, Lesson)}, which
+ * memory-maps the file and splits it into chunks of whole records. These
+ * chunks are then parsed and formatted in parallel, so that the reading
+ * thread only has to find the record boundaries.
+ */
+public class CsvImporter
+{
+    public static final int BATCH_SIZE  = 1000;
+    
+    /**
+     * The minimum size in bytes of the chunks into which mapped files are
+     * split.
+     */
+    public static final int CHUNK_SIZE  = 1 << 20;
+    
+    private static final int THREADS     = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_PENDING = 2 * THREADS;
+    
+    /**
+     * The values of a batch of records as they were read from the file.
+     */
+    private static class RecordBatch
+    {
+        private final List<String[]> m_records = new ArrayList<String[]>(BATCH_SIZE);
+        private long                 m_position;
+        
+        /**
+         * @param values the values of the front side, flip side, category
+         * and level columns.
+         */
+        public void add(String[] values)
+        {
+            m_records.add(values);
+        }
+        
+        public int size()
+        {
+            return m_records.size();
+        }
+        
+        /**
+         * Sets the position in the input up to which the batch was read. This
+         * is used for reporting progress when the batch is committed.
+         */
+        public void setPosition(long position)
+        {
+            m_position = position;
+        }
+    }
+    
+    /**
+     * The cards of a batch grouped by the name of their category and their
+     * deck level. The groups keep the order of the file. If a record of the
+     * batch is malformatted, the batch holds the cards of the records before
+     * it and the error, because the number of the record in the file is only
+     * known when the batch is committed.
+     */
+    private static class CardBatch
+    {
+        private final Map<String, Map<Integer, List<Card>>> m_groups = 
+            new LinkedHashMap<String, Map<Integer, List<Card>>>();
+        
+        private final int  m_size;
+        private final long m_position;
+        
+        private String     m_error;
+        private int        m_errorRecord;
+        
+        public CardBatch(int size, long position)
+        {
+            m_size = size;
+            m_position = position;
+        }
+        
+        public void add(String category, int level, Card card)
+        {
+            Map<Integer, List<Card>> levels = m_groups.get(category);
+            if (levels == null)
+            {
+                levels = new LinkedHashMap<Integer, List<Card>>();
+                m_groups.put(category, levels);
+            }
+            
+            List<Card> cards = levels.get(level);
+            if (cards == null)
+            {
+                cards = new ArrayList<Card>();
+                levels.put(level, cards);
+            }
+            
+            cards.add(card);
+        }
+        
+        public void setError(String error, int record)
+        {
+            m_error = error;
+            m_errorRecord = record;
+        }
+    }
+    
+    /**
+     * Creates the cards of a record batch.
+     */
+    private static class FormatTask implements Callable<CardBatch>
+    {
+        private final RecordBatch m_records;
+        
+        public FormatTask(RecordBatch records)
+        {
+            m_records = records;
+        }
+        
+        public CardBatch call()
+        {
+            CardBatch batch = new CardBatch(m_records.size(), m_records.m_position);
+            
+            for (int i = 0; i < m_records.size(); i++)
+            {
+                String[] values = m_records.m_records.get(i);
+                
+                FormattedText frontSide = FormattedText.formatted(values[0]);
+                FormattedText flipSide = FormattedText.formatted(values[1]);
+                
+                if (frontSide.getUnformatted().length() == 0 || 
+                    flipSide.getUnformatted().length() == 0)
+                {
+                    batch.setError("You have to specify at least a front " +
+                        "side and flip side for every card", i);
+                    return batch;
+                }
+                
+                int level = 0;
+                if (values[3].length() > 0)
+                {
+                    try
+                    {
+                        level = Integer.parseInt(values[3]);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        batch.setError("Invalid level '"+values[3]+"'", i);
+                        return batch;
+                    }
+                }
+                
+                batch.add(values[2], level, new Card(frontSide, flipSide));
+            }
+            
+            return batch;
+        }
+    }
+    
+    /**
+     * Parses and formats a chunk of a mapped file.
+     */
+    private static class ChunkTask implements Callable<CardBatch>
+    {
+        private final CsvChunkReader m_reader;
+        private final ByteBuffer     m_chunk;
+        private final int[]          m_columns;
+        private final long           m_position;
+        
+        /**
+         * @param columns the indices of the front side, flip side, category
+         * and level columns or -1 for missing columns.
+         * @param position the position of the end of the chunk in the file.
+         */
+        public ChunkTask(CsvChunkReader reader, ByteBuffer chunk, int[] columns, 
+            long position)
+        {
+            m_reader = reader;
+            m_chunk = chunk;
+            m_columns = columns;
+            m_position = position;
+        }
+        
+        public CardBatch call() throws IOException
+        {
+            RecordBatch batch = new RecordBatch();
+            batch.setPosition(m_position);
+            
+            for (String[] record : m_reader.parse(m_chunk))
+            {
+                String[] values = new String[m_columns.length];
+                for (int i = 0; i < m_columns.length; i++)
+                {
+                    int column = m_columns[i];
+                    values[i] = column >= 0 && column < record.length ? 
+                        record[column] : ""; //$NON-NLS-1$
+                }
+                
+                batch.add(values);
+            }
+            
+            return new FormatTask(batch).call();
+        }
+    }
+    
+    /**
+     * Counts the bytes that were read from the input for reporting progress.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long m_count;
+        
+        public CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+        
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+                m_count++;
+            
+            return b;
+        }
+        
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                m_count += n;
+            
+            return n;
+        }
+        
+        public long getCount()
+        {
+            return m_count;
+        }
+    }
+    
+    private final char            m_delimiter;
+    private final Charset         m_charset;
+    
+    private ProgressObserver      m_observer;
+    private Executor              m_commitExecutor = DirectExecutor.INSTANCE;
+    private int                   m_duplicatePolicy = DuplicateIndex.KEEP_BOTH;
+    
+    // state of the current import
+    private Map<String, Category> m_categories;
+    private boolean               m_categoryPaths;
+    private long                  m_recordCount;
+    
+    /**
+     * @param delimiter the delimiter that is used to separate values.
+     * @param charset the character set that is used in the input. Use
+     * <code>null</code> to use the default charset.
+     */
+    public CsvImporter(char delimiter, Charset charset)
+    {
+        m_delimiter = delimiter;
+        m_charset = charset;
+    }
+    
+    public void setProgressObserver(ProgressObserver observer)
+    {
+        m_observer = observer;
+    }
+    
+    /**
+     * Sets the executor that commits the imported cards to the lesson. The
+     * executor has to run commits in the given order and return only after
+     * the commit is done. Use this to commit cards on the event dispatch
+     * thread. By default cards are committed on the calling thread.
+     */
+    public void setCommitExecutor(Executor executor)
+    {
+        m_commitExecutor = executor;
+    }
+    
+    /**
+     * Sets what happens to imported cards that duplicate cards of the lesson
+     * or earlier cards of the import. By default they are kept.
+     * 
+     * @param policy one of the policies of {@link DuplicateIndex}.
+     */
+    public void setDuplicatePolicy(int policy)
+    {
+        m_duplicatePolicy = policy;
+    }
+    
+    /**
+     * Reads all records of given input and adds them as cards to the lesson.
+     * Cards of batches that were already committed stay in the lesson when
+     * the import fails or is cancelled, as do the cards of the records before
+     * a malformatted record.
+     * 
+     * @param length the length of the input in bytes or -1 if it isn't known.
+     * Only used for reporting progress.
+     * 
+     * @throws IOException if the input couldn't be read or the values are
+     * malformatted.
+     * @throws CancelledException if the import was cancelled by the progress
+     * observer.
+     */
+    public void importLesson(InputStream in, long length, Lesson lesson) 
+        throws IOException, BadHeaderException
+    {
+        CountingInputStream counter = new CountingInputStream(in);
+        CsvReader reader = new CsvReader(counter, m_delimiter, m_charset);
+        
+        ExecutorService workers = createWorkers();
+        LinkedList<Future<CardBatch>> pending = new LinkedList<Future<CardBatch>>();
+        m_categories = null;
+        m_recordCount = 0;
+        
+        try
+        {
+            reader.readHeaders();
+            CsvBuilder.validateHeader(reader.getHeaders());
+            String categoryColumn = selectCategoryColumn(reader.getHeaders());
+            
+            RecordBatch batch = new RecordBatch();
+            while (reader.readRecord())
+            {
+                batch.add(new String[] {
+                    reader.get(CsvBuilder.FRONTSIDE_COL), 
+                    reader.get(CsvBuilder.FLISIDE_COL), 
+                    reader.get(categoryColumn), 
+                    reader.get(CsvBuilder.LEVEL_COL)});
+                
+                if (batch.size() == BATCH_SIZE)
+                {
+                    batch.setPosition(counter.getCount());
+                    pending.add(workers.submit(new FormatTask(batch)));
+                    batch = new RecordBatch();
+                    
+                    while (pending.size() >= MAX_PENDING)
+                        commit(pending.removeFirst(), lesson, length);
+                }
+            }
+            
+            if (batch.size() > 0)
+            {
+                batch.setPosition(counter.getCount());
+                pending.add(workers.submit(new FormatTask(batch)));
+            }
+            
+            while (!pending.isEmpty())
+                commit(pending.removeFirst(), lesson, length);
+            
+            reader.close();
+        } 
+        catch (FinalizedException e)
+        {
+            throw new IOException(e.toString());
+        } 
+        catch (CatastrophicException e)
+        {
+            throw new IOException(e.toString());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+    
+    /**
+     * Imports given file like {@link #importLesson(InputStream, long, Lesson)}
+     * does. If the charset of this importer allows it, the file is
+     * memory-mapped and split into chunks that are parsed in parallel.
+     * Otherwise the file is streamed.
+     */
+    public void importFile(File file, Lesson lesson) 
+        throws IOException, BadHeaderException
+    {
+        Charset charset = m_charset != null ? m_charset : Charset.defaultCharset();
+        
+        if (!CsvChunkReader.supports(charset, m_delimiter))
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                importLesson(in, file.length(), lesson);
+            }
+            finally
+            {
+                in.close();
+            }
+            
+            return;
+        }
+        
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try
+        {
+            importChunks(new CsvChunkReader(raf.getChannel(), m_delimiter, 
+                charset), lesson);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+    
+    private void importChunks(CsvChunkReader reader, Lesson lesson) 
+        throws IOException, BadHeaderException
+    {
+        ExecutorService workers = createWorkers();
+        LinkedList<Future<CardBatch>> pending = new LinkedList<Future<CardBatch>>();
+        m_categories = null;
+        m_recordCount = 0;
+        
+        try
+        {
+            // the header is the first record that isn't empty
+            long position = 0;
+            String[] headers = null;
+            while (headers == null)
+            {
+                ByteBuffer chunk = reader.mapChunk(position, 1);
+                position += chunk.limit();
+                
+                List<String[]> records = reader.parse(chunk);
+                if (!records.isEmpty())
+                    headers = records.get(0);
+                else if (chunk.limit() == 0)
+                    headers = new String[0];
+            }
+            
+            CsvBuilder.validateHeader(headers);
+            
+            int[] columns = {
+                getColumnIndex(headers, CsvBuilder.FRONTSIDE_COL), 
+                getColumnIndex(headers, CsvBuilder.FLISIDE_COL), 
+                getColumnIndex(headers, selectCategoryColumn(headers)), 
+                getColumnIndex(headers, CsvBuilder.LEVEL_COL)};
+            
+            while (position < reader.getSize())
+            {
+                ByteBuffer chunk = reader.mapChunk(position, CHUNK_SIZE);
+                position += chunk.limit();
+                
+                pending.add(workers.submit(
+                    new ChunkTask(reader, chunk, columns, position)));
+                
+                while (pending.size() >= MAX_PENDING)
+                    commit(pending.removeFirst(), lesson, reader.getSize());
+            }
+            
+            while (!pending.isEmpty())
+                commit(pending.removeFirst(), lesson, reader.getSize());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+    
+    /**
+     * Waits for the cards of given batch and commits them in one step. If a
+     * record of the batch is malformatted, the cards of the records before it
+     * are committed before the error is thrown.
+     */
+    private void commit(Future<CardBatch> future, final Lesson lesson, long length) 
+        throws IOException
+    {
+        final CardBatch batch = getResult(future);
+        
+        if (m_observer != null && m_observer.isCancelled())
+            throw new CancelledException();
+        
+        m_commitExecutor.execute(new Runnable() {
+            public void run()
+            {
+                for (Map.Entry<String, Map<Integer, List<Card>>> group : 
+                    batch.m_groups.entrySet())
+                {
+                    Category category = getCategory(lesson, group.getKey());
+                    
+                    for (Map.Entry<Integer, List<Card>> deck : 
+                        group.getValue().entrySet())
+                    {
+                        category.addCards(filter(deck.getValue(), lesson), 
+                            deck.getKey());
+                    }
+                }
+            }
+        });
+        
+        if (batch.m_error != null)
+        {
+            throw new IOException(batch.m_error + " (line " + 
+                (m_recordCount + batch.m_errorRecord) + ").");
+        }
+        m_recordCount += batch.m_size;
+        
+        if (m_observer != null)
+            m_observer.onProgress(batch.m_position, length);
+    }
+    
+    /**
+     * @return the cards that should be added to the lesson under the
+     * duplicate policy. The duplicate index is only built if it is needed.
+     */
+    private List<Card> filter(List<Card> cards, Lesson lesson)
+    {
+        if (m_duplicatePolicy == DuplicateIndex.KEEP_BOTH)
+            return cards;
+        
+        return lesson.getDuplicateIndex().filter(cards, m_duplicatePolicy);
+    }
+    
+    private static ExecutorService createWorkers()
+    {
+        return Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "import"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Decides how categories are read. Files that were written by
+     * {@link CsvExporter} have a category path column. Other files can only
+     * have a category column that holds plain category names, which may
+     * contain the category separator. The choice is kept for the current
+     * import.
+     * 
+     * @return the name of the column that holds the categories.
+     */
+    private String selectCategoryColumn(String[] headers)
+    {
+        m_categoryPaths = getColumnIndex(headers, CsvBuilder.CATEGORY_PATH_COL) >= 0;
+        
+        return m_categoryPaths ? 
+            CsvBuilder.CATEGORY_PATH_COL : CsvBuilder.CATEGORY_COL;
+    }
+    
+    /**
+     * @return the category for given value of the category column. For
+     * category paths, missing categories of the path are created. Plain
+     * category names are top-level categories.
+     */
+    private Category getCategory(Lesson lesson, String path)
+    {
+        Category rootCategory = lesson.getRootCategory();
+        
+        if (path.length() == 0 || path.equalsIgnoreCase(rootCategory.getName()))
+            return rootCategory;
+        
+        if (m_categories == null)
+            m_categories = new HashMap<String, Category>();
+        
+        Category category = m_categories.get(path);
+        if (category == null)
+        {
+            List<String> names = m_categoryPaths ? 
+                CsvBuilder.parseCategoryPath(path) : Collections.singletonList(path);
+            
+            category = rootCategory;
+            for (String name : names)
+            {
+                Category child = category.getChildCategory(name);
+                if (child == null)
+                    child = category.addCategoryChild(new Category(name));
+                
+                category = child;
+            }
+            
+            m_categories.put(path, category);
+        }
+        
+        return category;
+    }
+    
+    /**
+     * @return the index of the column with given name or -1 if there is no
+     * such column. Like the streamed reader, the names are case sensitive.
+     */
+    private static int getColumnIndex(String[] headers, String name)
+    {
+        for (int i = 0; i < headers.length; i++)
+        {
+            if (headers[i].equals(name))
+                return i;
+        }
+        
+        return -1;
+    }
+    
+    private static CardBatch getResult(Future<CardBatch> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new CancelledException();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            
+            throw new IOException(cause.toString());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import jmemorize.core.Lesson;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.ImageRepository.ImageItem;
+import jmemorize.core.io.XmlBuilder.SnapshotCategory;
+import jmemorize.core.learn.LearnHistory.SessionSummary;
+
+/**
+ * The state of a lesson at the time it was captured by
+ * {@link XmlBuilder#createSnapshot(Lesson)}. A snapshot doesn't change when
+ * the lesson is modified afterwards, so it can be written to disk on a
+ * background thread.
+ */
+public class LessonSnapshot
+{
+    private Lesson               m_lesson;
+    private SnapshotCategory     m_rootCategory;
+    private List<SessionSummary> m_summaries;
+    private List<ImageItem>      m_images;
+    private boolean              m_compressed;
+    private SearchIndex          m_searchIndex;
+    
+    LessonSnapshot(Lesson lesson, SnapshotCategory rootCategory, 
+        List<SessionSummary> summaries, Collection<ImageItem> images, 
+        boolean compressed, SearchIndex searchIndex)
+    {
+        m_lesson = lesson;
+        m_rootCategory = rootCategory;
+        m_summaries = summaries;
+        m_images = Collections.unmodifiableList(new ArrayList<ImageItem>(images));
+        m_compressed = compressed;
+        m_searchIndex = searchIndex;
+    }
+    
+    /**
+     * @return the lesson that this snapshot was taken from.
+     */
+    public Lesson getLesson()
+    {
+        return m_lesson;
+    }
+    
+    /**
+     * @return the copied category tree of the lesson.
+     */
+    SnapshotCategory getRootCategory()
+    {
+        return m_rootCategory;
+    }
+    
+    /**
+     * @return the session summaries of the learn history of the lesson.
+     */
+    List<SessionSummary> getSummaries()
+    {
+        return m_summaries;
+    }
+    
+    /**
+     * @return all images that were used by the lesson.
+     */
+    List<ImageItem> getImages()
+    {
+        return m_images;
+    }
+    
+    /**
+     * @return <code>true</code> if the lesson is to be saved as zip archive.
+     */
+    boolean isCompressed()
+    {
+        return m_compressed;
+    }
+    
+    /**
+     * @return the search index of the lesson or <code>null</code> if the
+     * lesson had no index yet. Its image is only taken when the snapshot is
+     * written.
+     */
+    SearchIndex getSearchIndex()
+    {
+        return m_searchIndex;
+    }
+}
@@ -18,34 +18,72 @@
  */
 package jmemorize.core.io;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
 import jmemorize.core.Card;
 import jmemorize.core.Category;
+import jmemorize.core.ImageRepository;
 import jmemorize.core.Lesson;
 import jmemorize.core.Main;
 import jmemorize.core.Settings;
 import jmemorize.gui.swing.CardFont.FontType;
+import jmemorize.util.DirectExecutor;
 
+import com.lowagie.text.Cell;
 import com.lowagie.text.Chunk;
 import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Font;
 import com.lowagie.text.FontFactory;
 import com.lowagie.text.HeaderFooter;
+import com.lowagie.text.Image;
 import com.lowagie.text.Paragraph;
 import com.lowagie.text.Phrase;
 import com.lowagie.text.Table;
 import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
 import com.lowagie.text.pdf.PdfWriter;
 import com.lowagie.text.rtf.RtfWriter2;
+import com.lowagie.text.rtf.document.output.RtfDataCache;
 
 /**
+ * Exports lessons to PDF or RTF. The values of all cards are copied from the
+ * lesson in one step before the export starts, so that the document is built
+ * from a consistent snapshot without accessing the lesson. The cards are
+ * written to the document right away, so that the document never holds more
+ * than a few pages in memory. Card images are scaled down to the size at
+ * which they are printed before they are added to the document.
+ * <p>
+ * PDF documents are rendered in parts on a pool of threads. Every category
+ * is rendered into its own part, which is written to a temporary file and
+ * then copied into the final document in the order of the category tree.
+ * 
  * @author jan stamer
  * @author djemili
  */
@@ -53,11 +91,228 @@ public class PdfRtfBuilder
 {
     private final static int PDF_MODE = 0;
     private final static int RTF_MODE = 1;
-
-    // These get set in export() prior to building the pdf/rtf
-    private static Logger logger;
-    private static Font frontFont;
-    private static Font backFont;
+    
+    private final static int CHUNK_SIZE          = 100;
+    private final static int MAX_CACHED_IMAGES   = 64;
+    private final static int THREADS             = 
+        Runtime.getRuntime().availableProcessors();
+    
+    // the size of card images in points and their resolution in pixels per point
+    private final static float MAX_IMAGE_WIDTH   = 200f;
+    private final static float MAX_IMAGE_HEIGHT  = 150f;
+    private final static float IMAGE_RESOLUTION  = 2f;
+    
+    private static Logger  logger;
+    private static boolean fontsRegistered;
+    
+    /**
+     * The values of a card that are needed for writing it. These are copied
+     * from the lesson so that the document can be built without accessing
+     * the lesson.
+     */
+    private static class CardValues
+    {
+        private final String       m_front;
+        private final String       m_back;
+        private final List<String> m_frontImages;
+        private final List<String> m_backImages;
+        
+        public CardValues(Card card)
+        {
+            m_front = card.getFrontSide().getText().getUnformatted();
+            m_back = card.getBackSide().getText().getUnformatted();
+            m_frontImages = new ArrayList<String>(card.getFrontSide().getImages());
+            m_backImages = new ArrayList<String>(card.getBackSide().getImages());
+        }
+    }
+    
+    /**
+     * An image that was scaled down and encoded as PNG.
+     */
+    private static class ScaledImage
+    {
+        private final byte[] m_png;
+        private final float  m_width;
+        private final float  m_height;
+        
+        public ScaledImage(byte[] png, float width, float height)
+        {
+            m_png = png;
+            m_width = width;
+            m_height = height;
+        }
+    }
+    
+    /**
+     * The cards of a category that are rendered into one part of a PDF
+     * document.
+     */
+    private static class Part
+    {
+        private final String           m_path;
+        private final List<CardValues> m_cards;
+        
+        private File                   m_file;
+        
+        /**
+         * Copies the values of the cards of given category deck by deck.
+         */
+        public Part(Category category, int size)
+        {
+            m_path = category.getPath();
+            m_cards = new ArrayList<CardValues>(size);
+            
+            for (int i = 0; i < category.getNumberOfDecks(); i++)
+            {
+                for (Card card : category.getLocalCards(i))
+                {
+                    m_cards.add(new CardValues(card));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes cards to one document. Every writer uses its own fonts, because
+     * iText fonts can't be shared by documents that are written at the same
+     * time.
+     */
+    private class DocumentWriter
+    {
+        private final Document           m_doc;
+        private final Font               m_frontFont;
+        private final Font               m_backFont;
+        
+        // the images that were already added to this document
+        private final Map<String, Image> m_docImages = new HashMap<String, Image>();
+        
+        public DocumentWriter(Document doc)
+        {
+            m_doc = doc;
+            m_frontFont = loadFont(FontType.CARD_FRONT);
+            m_backFont = loadFont(FontType.CARD_FLIP);
+        }
+        
+        /**
+         * Adds the header and the cards of given part to the document.
+         * 
+         * @param reportProgress <code>true</code> if the progress should be
+         * reported after each chunk of cards.
+         */
+        public void writePart(Part part, boolean reportProgress) 
+            throws DocumentException, IOException
+        {
+            writeCategoryHeader(part.m_path);
+            
+            for (int from = 0; from < part.m_cards.size(); from += CHUNK_SIZE)
+            {
+                if (m_observer != null && m_observer.isCancelled())
+                    throw new CancelledException();
+                
+                int to = Math.min(part.m_cards.size(), from + CHUNK_SIZE);
+                for (int i = from; i < to; i++)
+                {
+                    writeCard(part.m_cards.get(i));
+                }
+                
+                if (reportProgress)
+                    reportProgress(to - from);
+            }
+        }
+        
+        private void writeCategoryHeader(String path) 
+            throws DocumentException
+        {
+            Chunk chunk = new Chunk(path);
+            chunk.setFont(new Font(Font.HELVETICA, 12, Font.BOLD));
+        
+            Paragraph paragraph = new Paragraph(chunk);
+            paragraph.setSpacingBefore(1f);
+            
+            m_doc.add(paragraph);
+        }
+        
+        /**
+         * Adds given card to document
+         * 
+         * @param card given card
+         */
+        private void writeCard(CardValues card) 
+            throws DocumentException
+        {
+            Table table = new Table(2);
+        
+            table.setPadding(3f);
+            table.setBorderWidth(1.0f);
+            table.setTableFitsPage(true);
+            table.complete();
+        
+            table.addCell(createCell(card.m_front, m_frontFont, card.m_frontImages));
+            table.addCell(createCell(card.m_back, m_backFont, card.m_backImages));
+        
+            m_doc.add(table);
+        }
+        
+        private Cell createCell(String text, Font font, List<String> imageIDs) 
+            throws DocumentException
+        {
+            Cell cell = new Cell(new Phrase(text, font));
+            
+            for (String id : imageIDs)
+            {
+                Image image = getImage(id);
+                if (image != null)
+                    cell.add(image);
+            }
+            
+            return cell;
+        }
+        
+        /**
+         * @return the image for given ID. Images that are used on several
+         * cards are only embedded once into the document.
+         */
+        private Image getImage(String id)
+        {
+            Image image = m_docImages.get(id);
+            if (image != null || m_docImages.containsKey(id))
+                return image;
+            
+            ScaledImage scaled = getScaledImage(id);
+            if (scaled != null)
+            {
+                try
+                {
+                    image = Image.getInstance(scaled.m_png);
+                    image.scaleAbsolute(scaled.m_width, scaled.m_height);
+                }
+                catch (Exception e)
+                {
+                    Main.logThrowable("Could not add image for export: " + id, e);
+                }
+            }
+            
+            m_docImages.put(id, image);
+            return image;
+        }
+    }
+    
+    private final int              m_mode;
+    private final ProgressObserver m_observer;
+    private final Executor         m_accessExecutor;
+    
+    // scaled images by their ID in the most recently used order
+    private final Map<String, ScaledImage> m_images = 
+        new LinkedHashMap<String, ScaledImage>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, ScaledImage> eldest)
+            {
+                return size() > MAX_CACHED_IMAGES;
+            }
+        };
+    
+    // state of the current export
+    private long                   m_cardsDone;
+    private long                   m_cardsTotal;
     
     /**
      * Export lesson to pdf
@@ -69,127 +324,380 @@ public class PdfRtfBuilder
      */
     public static void exportLessonToPDF(Lesson lesson, File file) throws IOException
     {
-        export(lesson, PDF_MODE, file);
+        exportLessonToPDF(lesson, file, null, DirectExecutor.INSTANCE);
+    }
+    
+    /**
+     * Export lesson to pdf while reporting the progress.
+     * 
+     * @param observer the observer that is notified about the progress or
+     * <code>null</code>.
+     * @param accessExecutor the executor that reads from the lesson. It has
+     * to return only after the command is done and must accept commands from
+     * several threads.
+     * @throws CancelledException if the export was cancelled by the progress
+     * observer. The file isn't touched in that case.
+     */
+    public static void exportLessonToPDF(Lesson lesson, File file, 
+        ProgressObserver observer, Executor accessExecutor) throws IOException
+    {
+        new PdfRtfBuilder(PDF_MODE, observer, accessExecutor).export(lesson, file);
     }
 
     public static void exportLessonToRTF(Lesson lesson, File file) throws IOException
     {
-        export(lesson, RTF_MODE, file);
+        exportLessonToRTF(lesson, file, null, DirectExecutor.INSTANCE);
+    }
+    
+    /**
+     * @see #exportLessonToPDF(Lesson, File, ProgressObserver, Executor)
+     */
+    public static void exportLessonToRTF(Lesson lesson, File file, 
+        ProgressObserver observer, Executor accessExecutor) throws IOException
+    {
+        new PdfRtfBuilder(RTF_MODE, observer, accessExecutor).export(lesson, file);
     }
     
-    private static void export(Lesson lesson, int mode, File file) throws IOException 
+    private PdfRtfBuilder(int mode, ProgressObserver observer, 
+        Executor accessExecutor)
+    {
+        m_mode = mode;
+        m_observer = observer;
+        m_accessExecutor = accessExecutor;
+    }
+    
+    private void export(final Lesson lesson, File file) throws IOException 
     {
         logger = Main.getLogger();
-
-        FontFactory.registerDirectories();
-        // set up the fonts we will use to write the front and back of cards
-        String frontFontName = Settings.loadFont(FontType.CARD_FRONT).getFont().getFamily();
-        frontFont = FontFactory.getFont(frontFontName, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+        registerFonts();
         
-        if (frontFont == null) 
-        {
-            logger.warning("FontFactory returned null (front) font for: " + frontFontName);
-        }
+        final List<Part> parts = new ArrayList<Part>();
+        m_accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                m_cardsTotal = 0;
+                for (Category category : lesson.getRootCategory().getSubtreeList())
+                {
+                    int size = 0;
+                    for (int i = 0; i < category.getNumberOfDecks(); i++)
+                        size += category.getLocalCards(i).size();
+                    
+                    // ignore empty categories
+                    if (size > 0)
+                        parts.add(new Part(category, size));
+                    
+                    m_cardsTotal += size;
+                }
+            }
+        });
+        m_cardsDone = 0;
         
-        String backFontName = Settings.loadFont(FontType.CARD_FLIP).getFont().getFamily();
-        backFont = FontFactory.getFont(backFontName, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+        SafeFileOutputStream out = new SafeFileOutputStream(file, false);
+        boolean committed = false;
         
-        if (backFont == null) 
-        {
-            logger.warning("FontFactory returned null (back) font for: " + backFontName);
-        }
-
         try
         {
             Document doc = new Document();
-            OutputStream out = new FileOutputStream(file);
             
-            switch(mode)
+            if (m_mode == PDF_MODE && !parts.isEmpty())
             {
-            case PDF_MODE:
-                PdfWriter.getInstance(doc, out);
-                break;
-                
-            case RTF_MODE:
-                RtfWriter2.getInstance(doc, out);
-                break;
+                writeParts(doc, out, parts, file.getName());
             }
-
-            doc.setHeader(new HeaderFooter(new Phrase(file.getName()), false));
-            doc.open();
-
-            // add cards in subtrees
-            List<Category> subtree = lesson.getRootCategory().getSubtreeList();
-            for (Category category : subtree)
+            else
             {
-                writeCategory(doc, category);
+                writeDocument(doc, out, parts, file.getName());
             }
-
-            doc.close();
-
+            
+            out.commit();
+            committed = true;
+        }
+        catch (CancelledException e)
+        {
+            throw e;
         }
         catch (Throwable t)
         {
             throw (IOException)new IOException("Could not export to PDF").initCause(t);
         }
+        finally
+        {
+            if (!committed)
+                out.abort();
+            
+            for (Part part : parts)
+            {
+                if (part.m_file != null)
+                    part.m_file.delete();
+            }
+        }
     }
-
+    
     /**
-     * Adds given category to document
-     * 
-     * @param doc document to add to
-     * @param category given category
+     * Writes all parts one after another into the document.
      */
-    private static void writeCategory(Document doc, Category category) 
-        throws DocumentException
+    private void writeDocument(Document doc, OutputStream out, List<Part> parts, 
+        String title) throws DocumentException, IOException
     {
-        // ignore empty categories
-        if (category.getLocalCards().size() == 0)
+        switch(m_mode)
         {
-            return;
+        case PDF_MODE:
+            PdfWriter.getInstance(doc, out);
+            break;
+            
+        case RTF_MODE:
+            // keep the written document on disk instead of in memory
+            RtfWriter2.getInstance(doc, out).getDocumentSettings()
+                .setDataCacheStyle(RtfDataCache.CACHE_DISK);
+            break;
         }
+
+        doc.setHeader(new HeaderFooter(new Phrase(title), false));
+        doc.open();
+
+        // add cards in subtrees
+        DocumentWriter writer = new DocumentWriter(doc);
+        for (Part part : parts)
+        {
+            writer.writePart(part, true);
+        }
+
+        doc.close();
+    }
     
-        writeCategoryHeader(doc, category);
+    /**
+     * Renders the parts into temporary PDF files in parallel and copies their
+     * pages into the document in the order of the parts. Each category gets a
+     * bookmark that points to the page of its header.
+     */
+    private void writeParts(Document doc, OutputStream out, List<Part> parts, 
+        final String title) throws DocumentException, IOException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS, 
+            new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "pdf export"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         
-        for (Card card : category.getLocalCards())
+        try
         {
-            writeCard(doc, card);
+            List<Future<File>> files = new ArrayList<Future<File>>(parts.size());
+            for (final Part part : parts)
+            {
+                files.add(workers.submit(new Callable<File>() {
+                    public File call() throws Exception
+                    {
+                        return writePart(part, title);
+                    }
+                }));
+            }
+            
+            PdfCopy copy = new PdfCopy(doc, out);
+            doc.open();
+            
+            List<Map<String, Object>> bookmarks = new ArrayList<Map<String, Object>>();
+            int pages = 0;
+            
+            for (int i = 0; i < parts.size(); i++)
+            {
+                Part part = parts.get(i);
+                File file = getResult(files.get(i));
+                
+                if (m_observer != null && m_observer.isCancelled())
+                    throw new CancelledException();
+                
+                Map<String, Object> bookmark = new HashMap<String, Object>();
+                bookmark.put("Title", part.m_path); //$NON-NLS-1$
+                bookmark.put("Action", "GoTo"); //$NON-NLS-1$ //$NON-NLS-2$
+                bookmark.put("Page", (pages + 1) + " Fit"); //$NON-NLS-1$ //$NON-NLS-2$
+                bookmarks.add(bookmark);
+                
+                PdfReader reader = new PdfReader(file.getPath());
+                for (int page = 1; page <= reader.getNumberOfPages(); page++)
+                {
+                    copy.addPage(copy.getImportedPage(reader, page));
+                }
+                
+                pages += reader.getNumberOfPages();
+                copy.freeReader(reader);
+                reader.close();
+                
+                file.delete();
+                reportProgress(part.m_cards.size());
+            }
+            
+            copy.setOutlines(bookmarks);
+            doc.close();
+        }
+        finally
+        {
+            workers.shutdownNow();
         }
     }
-
-    private static void writeCategoryHeader(Document doc, Category category) 
-        throws DocumentException
+    
+    /**
+     * Renders given part into a temporary file.
+     */
+    private File writePart(Part part, String title) 
+        throws DocumentException, IOException
     {
-        Chunk chunk = new Chunk(category.getPath());
-        chunk.setFont(new Font(Font.HELVETICA, 12, Font.BOLD));
+        File file = File.createTempFile("jmemorize-export", ".pdf"); //$NON-NLS-1$ //$NON-NLS-2$
+        part.m_file = file;
+        
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        Document doc = new Document();
+        try
+        {
+            PdfWriter.getInstance(doc, out);
+            doc.setHeader(new HeaderFooter(new Phrase(title), false));
+            doc.open();
+            
+            new DocumentWriter(doc).writePart(part, false);
+            
+            doc.close();
+        }
+        finally
+        {
+            out.close();
+        }
+        
+        return file;
+    }
     
-        Paragraph paragraph = new Paragraph(chunk);
-        paragraph.setSpacingBefore(1f);
+    private synchronized void reportProgress(int cards)
+    {
+        m_cardsDone += cards;
         
-        doc.add(paragraph);
+        if (m_observer != null)
+            m_observer.onProgress(m_cardsDone, m_cardsTotal);
     }
-
+    
     /**
-     * Adds given card to document
-     * 
-     * @param doc document to add to
-     * @param card given card
+     * @return the image with given ID scaled down to the size at which it is
+     * printed or <code>null</code> if the image couldn't be loaded. Scaled
+     * images are cached so that images that are used on several cards are
+     * only scaled once.
      */
-    private static void writeCard(Document doc, Card card) 
-        throws DocumentException
+    private ScaledImage getScaledImage(final String id)
     {
-        Table table = new Table(2);
+        synchronized (m_images)
+        {
+            ScaledImage image = m_images.get(id);
+            if (image != null)
+                return image;
+        }
+        
+        final ImageIcon[] icon = new ImageIcon[1];
+        m_accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                icon[0] = ImageRepository.getInstance().getImage(id);
+            }
+        });
+        
+        if (icon[0] == null || icon[0].getIconWidth() <= 0 || 
+            icon[0].getIconHeight() <= 0)
+        {
+            logger.warning("Could not load image for export: " + id);
+            return null;
+        }
+        
+        ScaledImage image;
+        try
+        {
+            int width = icon[0].getIconWidth();
+            int height = icon[0].getIconHeight();
+            
+            float scale = Math.min(1f, Math.min(
+                MAX_IMAGE_WIDTH * IMAGE_RESOLUTION / width, 
+                MAX_IMAGE_HEIGHT * IMAGE_RESOLUTION / height));
+            
+            int scaledWidth = Math.max(1, Math.round(width * scale));
+            int scaledHeight = Math.max(1, Math.round(height * scale));
+            
+            // flatten onto the white page to avoid embedding transparency masks
+            BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, 
+                BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, scaledWidth, scaledHeight);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(icon[0].getImage(), 0, 0, scaledWidth, scaledHeight, null);
+            g.dispose();
+            
+            // encode as PNG because the RTF writer only accepts image files
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(scaled, "png", bytes); //$NON-NLS-1$
+            
+            image = new ScaledImage(bytes.toByteArray(), 
+                scaledWidth / IMAGE_RESOLUTION, scaledHeight / IMAGE_RESOLUTION);
+        }
+        catch (Exception e)
+        {
+            Main.logThrowable("Could not scale image for export: " + id, e);
+            return null;
+        }
+        
+        synchronized (m_images)
+        {
+            m_images.put(id, image);
+        }
+        
+        return image;
+    }
     
-        table.setPadding(3f);
-        table.setBorderWidth(1.0f);
-        table.setTableFitsPage(true);
-        table.complete();
+    /**
+     * @return a new instance of the font that is used for given card side.
+     */
+    private static Font loadFont(FontType type)
+    {
+        String name = Settings.loadFont(type).getFont().getFamily();
+        Font font = FontFactory.getFont(name, BaseFont.IDENTITY_H, 
+            BaseFont.EMBEDDED, Font.UNDEFINED, Font.UNDEFINED, null, false);
+        
+        if (font == null) 
+        {
+            logger.warning("FontFactory returned null font for: " + name);
+        }
+        
+        return font;
+    }
     
-        Phrase front = new Phrase(card.getFrontSide().getText().getUnformatted(), frontFont);
-        table.addCell(front);
-        Phrase back = new Phrase(card.getBackSide().getText().getUnformatted(), backFont);
-        table.addCell(back);
+    private static File getResult(Future<File> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new CancelledException();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            
+            throw (IOException)new IOException(cause.toString()).initCause(cause);
+        }
+    }
     
-        doc.add(table);
+    private static synchronized void registerFonts()
+    {
+        if (fontsRegistered)
+            return;
+        
+        FontFactory.registerDirectories();
+        fontsRegistered = true;
     }
-}
\ No newline at end of file
+}
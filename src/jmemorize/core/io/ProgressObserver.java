@@ -0,0 +1,38 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+/**
+ * Is notified about the progress of long running imports and exports and
+ * can cancel them.
+ */
+public interface ProgressObserver
+{
+    /**
+     * @param done the amount of work that has been done so far.
+     * @param total the total amount of work or -1 if it isn't known.
+     */
+    public void onProgress(long done, long total);
+    
+    /**
+     * @return <code>true</code> if the operation should stop as soon as
+     * possible. The operation then throws a {@link CancelledException}.
+     */
+    public boolean isCancelled();
+}
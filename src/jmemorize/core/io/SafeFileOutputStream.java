@@ -0,0 +1,271 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An output stream that replaces a file without ever leaving a truncated file
+ * behind. All data goes through a buffered channel into a temporary file in
+ * the same directory. On {@link #commit()} the temporary file is forced to
+ * disk, its length is verified and it is renamed to the target file. The
+ * previous version of the target file can be kept as backup.
+ * 
+ * Without backup the temporary file is renamed over the target file, which
+ * is atomic on POSIX systems. With backup the target file is first renamed
+ * to the backup and only then replaced, because there is no way to keep the
+ * old file otherwise without copying it. If the program dies between these
+ * two renames, there is no file at the target path, but the backup holds the
+ * previous version. Readers therefore open the file returned by
+ * {@link #getReadableFile(File)}.
+ */
+public class SafeFileOutputStream extends OutputStream
+{
+    public static final String  BACKUP_SUFFIX = ".bak";  //$NON-NLS-1$
+    private static final String TEMP_SUFFIX   = "~";     //$NON-NLS-1$
+    
+    private static final int    BUFFER_SIZE   = 64 * 1024;
+    
+    private File                m_target;
+    private File                m_tempFile;
+    private FileChannel         m_channel;
+    private ByteBuffer          m_buffer      = ByteBuffer.allocate(BUFFER_SIZE);
+    private long                m_written     = 0;
+    private boolean             m_keepBackup;
+    private boolean             m_closed      = false;
+    
+    /**
+     * Creates a stream that keeps the previous version of the target file as
+     * backup.
+     * 
+     * @param target the file that will be replaced when the stream is
+     * committed.
+     */
+    public SafeFileOutputStream(File target) throws IOException
+    {
+        this(target, true);
+    }
+    
+    /**
+     * @param target the file that will be replaced when the stream is
+     * committed.
+     * @param keepBackup <code>true</code> if the previous version of the
+     * target file is kept with the suffix {@link #BACKUP_SUFFIX}. Exports
+     * don't need this.
+     */
+    public SafeFileOutputStream(File target, boolean keepBackup) 
+        throws IOException
+    {
+        m_target = target.getAbsoluteFile();
+        m_keepBackup = keepBackup;
+        m_tempFile = new File(m_target.getPath() + TEMP_SUFFIX);
+        m_channel = new FileOutputStream(m_tempFile).getChannel();
+    }
+    
+    /**
+     * @return the file that holds the current version of given target file.
+     * This is the backup if the target file is missing because a commit was
+     * interrupted. Otherwise it is the target file itself.
+     */
+    public static File getReadableFile(File target)
+    {
+        File backup = getBackupFile(target);
+        return !target.exists() && backup.exists() ? backup : target;
+    }
+    
+    /**
+     * @return the temporary file that receives all data until the stream is
+     * committed.
+     */
+    public File getTempFile()
+    {
+        return m_tempFile;
+    }
+    
+    /**
+     * @return the file that will be replaced by this stream.
+     */
+    public File getTarget()
+    {
+        return m_target;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException
+    {
+        if (!m_buffer.hasRemaining())
+            flushBuffer();
+        
+        m_buffer.put((byte)b);
+        m_written++;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        m_written += len;
+        
+        if (len >= BUFFER_SIZE)
+        {
+            flushBuffer();
+            writeFully(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        
+        while (len > 0)
+        {
+            if (!m_buffer.hasRemaining())
+                flushBuffer();
+            
+            int n = Math.min(len, m_buffer.remaining());
+            m_buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException
+    {
+        flushBuffer();
+    }
+    
+    /**
+     * Writes all buffered data and forces it to disk. This doesn't replace the
+     * target file yet. Use {@link #commit()} for that.
+     */
+    public void close() throws IOException
+    {
+        if (m_closed)
+            return;
+        
+        try
+        {
+            flushBuffer();
+            m_channel.force(true);
+        }
+        finally
+        {
+            m_closed = true;
+            m_channel.close();
+        }
+    }
+    
+    /**
+     * Closes the stream, verifies that the temporary file holds all data that
+     * was written and then replaces the target file with it. If the stream
+     * keeps a backup, the old target file is kept with the suffix
+     * {@link #BACKUP_SUFFIX}.
+     * 
+     * @throws IOException if the written data couldn't be verified or the
+     * file couldn't be replaced. The target file is left untouched in that
+     * case.
+     */
+    public void commit() throws IOException
+    {
+        close();
+        
+        // the data is still in the page cache, so reading it back wouldn't
+        // tell more than the length does
+        if (m_tempFile.length() != m_written)
+            throw new IOException("Incomplete data in " + m_tempFile);
+        
+        if (!m_keepBackup)
+        {
+            replaceTarget();
+            return;
+        }
+        
+        File backup = getBackupFile(m_target);
+        if (m_target.exists())
+        {
+            backup.delete();
+            if (!m_target.renameTo(backup))
+                throw new IOException("Could not create backup " + backup);
+        }
+        
+        if (!m_tempFile.renameTo(m_target))
+        {
+            backup.renameTo(m_target);
+            throw new IOException("Could not replace " + m_target);
+        }
+    }
+    
+    /**
+     * Closes the stream and deletes the temporary file. The target file is
+     * left untouched.
+     */
+    public void abort()
+    {
+        try
+        {
+            close();
+        }
+        catch (IOException e)
+        {
+            // we throw the data away anyway
+        }
+        
+        m_tempFile.delete();
+    }
+    
+    /**
+     * Renames the temporary file over the target file. Platforms that can't
+     * do this need the target file to be deleted first.
+     */
+    private void replaceTarget() throws IOException
+    {
+        if (m_tempFile.renameTo(m_target))
+            return;
+        
+        if (!m_target.delete() || !m_tempFile.renameTo(m_target))
+            throw new IOException("Could not replace " + m_target);
+    }
+    
+    private static File getBackupFile(File target)
+    {
+        return new File(target.getAbsolutePath() + BACKUP_SUFFIX);
+    }
+    
+    private void flushBuffer() throws IOException
+    {
+        m_buffer.flip();
+        writeFully(m_buffer);
+        m_buffer.clear();
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            m_channel.write(buffer);
+        }
+    }
+}
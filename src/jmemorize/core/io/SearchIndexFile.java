@@ -0,0 +1,387 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchIndex.Image;
+
+/**
+ * Stores the image of a {@link SearchIndex} in a file next to the lesson
+ * file. The file is stamped with the length and modification time of the
+ * lesson file it belongs to and is ignored when the lesson file has changed
+ * since.
+ * 
+ * If the image hasn't changed since it was last written, only the stamp is
+ * updated. This is the usual case when a lesson is saved after learning.
+ * <p>
+ * Any other change of the image, even a single edited card, rewrites the
+ * whole file. This is deliberate: the documents of an image are numbered
+ * without gaps, so adding or removing a card renumbers the documents of all
+ * later cards and a patch would have to touch most posting lists anyway. The
+ * file is only written after the lesson file has been replaced, so a slow
+ * rewrite never holds back the lesson file itself.
+ */
+public class SearchIndexFile
+{
+    private static final String SUFFIX       = ".idx";      //$NON-NLS-1$
+    
+    private static final int    MAGIC        = 0x4A4D4958; // "JMIX"
+    
+    // the version needs to change whenever the grams change, too
+    private static final int    VERSION      = 1;
+    
+    private static final int    STAMP_OFFSET = 16;
+    private static final int    COUNT_OFFSET = 32;
+    private static final int    HEADER_SIZE  = 48;
+    
+    private static final int    BUFFER_SIZE  = 64 * 1024;
+    
+    /**
+     * @return the file that holds the search index of given lesson file.
+     */
+    public static File getFile(File lessonFile)
+    {
+        return new File(lessonFile.getAbsolutePath() + SUFFIX);
+    }
+    
+    /**
+     * @return the stored image of the search index of given lesson file or
+     * <code>null</code> if there is none or if it doesn't belong to the
+     * current version of the lesson file.
+     */
+    public static Image read(File lessonFile) throws IOException
+    {
+        File file = getFile(lessonFile);
+        if (!file.exists())
+            return null;
+        
+        FileChannel channel = new FileInputStream(file).getChannel();
+        
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.limit(0);
+            
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            
+            fill(channel, buffer, HEADER_SIZE);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            
+            long id = buffer.getLong();
+            if (buffer.getLong() != lessonFile.length() || 
+                buffer.getLong() != lessonFile.lastModified())
+            {
+                return null;
+            }
+            
+            int cardCount = buffer.getInt();
+            int gramCount = buffer.getInt();
+            long postingCount = buffer.getLong();
+            
+            if (cardCount < 0 || gramCount < 0 || 
+                channel.size() != getSize(cardCount, gramCount, postingCount))
+            {
+                return null;
+            }
+            
+            long[] cardHashes = new long[cardCount];
+            readLongs(channel, buffer, cardHashes);
+            
+            long[] keys = new long[gramCount];
+            readLongs(channel, buffer, keys);
+            
+            int[] sizes = new int[gramCount];
+            readInts(channel, buffer, sizes);
+            
+            long sizeSum = 0;
+            for (int size : sizes)
+            {
+                if (size <= 0)
+                    return null;
+                
+                sizeSum += size;
+            }
+            
+            if (sizeSum != postingCount)
+                return null;
+            
+            int[][] postings = new int[gramCount][];
+            for (int i = 0; i < gramCount; i++)
+            {
+                postings[i] = new int[sizes[i]];
+                readInts(channel, buffer, postings[i]);
+                
+                if (!isValidPosting(postings[i], cardCount))
+                    return null;
+            }
+            
+            return new Image(id, cardHashes, keys, postings);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Stores the image for given lesson file. The lesson file needs to be
+     * written before, so that the stamp matches it. Unless the file already
+     * holds given image, it is written from scratch.
+     */
+    public static synchronized void write(File lessonFile, Image image) 
+        throws IOException
+    {
+        File file = getFile(lessonFile);
+        
+        if (!isWritten(file, image))
+        {
+            FileChannel channel = new FileOutputStream(file).getChannel();
+            try
+            {
+                writeImage(channel, image);
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        
+        // the stamp is written last, so that a partly written file is never
+        // taken for a valid one
+        RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try
+        {
+            out.seek(STAMP_OFFSET);
+            out.writeLong(lessonFile.length());
+            out.writeLong(lessonFile.lastModified());
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    /**
+     * Removes the stored image of given lesson file, if there is one.
+     */
+    public static synchronized void delete(File lessonFile) throws IOException
+    {
+        File file = getFile(lessonFile);
+        
+        if (file.exists() && !file.delete())
+            throw new IOException("Could not delete " + file);
+    }
+    
+    /**
+     * @return <code>true</code> if the file is complete and holds given image.
+     */
+    private static boolean isWritten(File file, Image image) throws IOException
+    {
+        if (!file.exists())
+            return false;
+        
+        RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try
+        {
+            if (in.length() < HEADER_SIZE || in.readInt() != MAGIC || 
+                in.readInt() != VERSION || in.readLong() != image.getId())
+            {
+                return false;
+            }
+            
+            in.seek(COUNT_OFFSET);
+            int cardCount = in.readInt();
+            int gramCount = in.readInt();
+            long postingCount = in.readLong();
+            
+            return in.length() == getSize(cardCount, gramCount, postingCount);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    private static void writeImage(FileChannel channel, Image image) 
+        throws IOException
+    {
+        long[] cardHashes = image.getCardHashes();
+        long[] keys = image.getKeys();
+        int[][] postings = image.getPostings();
+        
+        long postingCount = 0;
+        for (int[] posting : postings)
+            postingCount += posting.length;
+        
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(image.getId());
+        
+        // no valid stamp until the file is complete
+        buffer.putLong(-1);
+        buffer.putLong(-1);
+        
+        buffer.putInt(cardHashes.length);
+        buffer.putInt(keys.length);
+        buffer.putLong(postingCount);
+        
+        writeLongs(channel, buffer, cardHashes);
+        writeLongs(channel, buffer, keys);
+        
+        for (int[] posting : postings)
+        {
+            flushIfFull(channel, buffer, 4);
+            buffer.putInt(posting.length);
+        }
+        
+        for (int[] posting : postings)
+            writeInts(channel, buffer, posting);
+        
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+    
+    /**
+     * @return <code>true</code> if the documents of the posting list are
+     * strictly ascending and valid.
+     */
+    private static boolean isValidPosting(int[] posting, int cardCount)
+    {
+        int last = -1;
+        for (int doc : posting)
+        {
+            if (doc <= last)
+                return false;
+            
+            last = doc;
+        }
+        
+        return last < cardCount;
+    }
+    
+    private static long getSize(int cardCount, int gramCount, long postingCount)
+    {
+        return HEADER_SIZE + 8L * cardCount + 12L * gramCount + 4L * postingCount;
+    }
+    
+    private static void writeLongs(FileChannel channel, ByteBuffer buffer, 
+        long[] values) throws IOException
+    {
+        int pos = 0;
+        while (pos < values.length)
+        {
+            flushIfFull(channel, buffer, 8);
+            
+            int count = Math.min(buffer.remaining() / 8, values.length - pos);
+            buffer.asLongBuffer().put(values, pos, count);
+            buffer.position(buffer.position() + 8 * count);
+            pos += count;
+        }
+    }
+    
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, 
+        int[] values) throws IOException
+    {
+        int pos = 0;
+        while (pos < values.length)
+        {
+            flushIfFull(channel, buffer, 4);
+            
+            int count = Math.min(buffer.remaining() / 4, values.length - pos);
+            buffer.asIntBuffer().put(values, pos, count);
+            buffer.position(buffer.position() + 4 * count);
+            pos += count;
+        }
+    }
+    
+    private static void flushIfFull(FileChannel channel, ByteBuffer buffer, 
+        int bytes) throws IOException
+    {
+        if (buffer.remaining() >= bytes)
+            return;
+        
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        
+        buffer.clear();
+    }
+    
+    private static void readLongs(FileChannel channel, ByteBuffer buffer, 
+        long[] values) throws IOException
+    {
+        int pos = 0;
+        while (pos < values.length)
+        {
+            fill(channel, buffer, 8);
+            
+            int count = Math.min(buffer.remaining() / 8, values.length - pos);
+            buffer.asLongBuffer().get(values, pos, count);
+            buffer.position(buffer.position() + 8 * count);
+            pos += count;
+        }
+    }
+    
+    private static void readInts(FileChannel channel, ByteBuffer buffer, 
+        int[] values) throws IOException
+    {
+        int pos = 0;
+        while (pos < values.length)
+        {
+            fill(channel, buffer, 4);
+            
+            int count = Math.min(buffer.remaining() / 4, values.length - pos);
+            buffer.asIntBuffer().get(values, pos, count);
+            buffer.position(buffer.position() + 4 * count);
+            pos += count;
+        }
+    }
+    
+    /**
+     * Reads from the channel until at least given number of bytes remain in
+     * the buffer.
+     */
+    private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) 
+        throws IOException
+    {
+        if (buffer.remaining() >= bytes)
+            return;
+        
+        buffer.compact();
+        while (buffer.position() < bytes)
+        {
+            if (channel.read(buffer) < 0)
+                throw new IOException("Unexpected end of search index file");
+        }
+        
+        buffer.flip();
+    }
+}
@@ -18,9 +18,9 @@
  */
 package jmemorize.core.io;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -29,32 +29,42 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
 import jmemorize.core.Card;
-import jmemorize.core.CardSide;
 import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.ImageRepository;
 import jmemorize.core.Lesson;
 import jmemorize.core.LessonProvider;
 import jmemorize.core.Main;
+import jmemorize.core.SearchIndex;
 import jmemorize.core.Settings;
 import jmemorize.core.ImageRepository.ImageItem;
 import jmemorize.core.learn.LearnHistory;
@@ -65,13 +75,22 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * @author djemili
  */
 public class XmlBuilder
 {
+    /**
+     * The ways a lesson file can be stored on disk. Older versions used gzip,
+     * newer ones use zip archives that can also contain images.
+     */
+    private enum LessonFormat {XML, GZIP, ZIP};
+    
     private static final String SESSION              = "session";            //$NON-NLS-1$
     private static final String LESSON               = "Lesson";             //$NON-NLS-1$
     private static final String DECK                 = "Deck";               //$NON-NLS-1$
@@ -104,9 +123,197 @@ public class XmlBuilder
     private static final String LESSON_ZIP_ENTRY_NAME = "lesson.xml";        //$NON-NLS-1$
     private static final String IMAGE_FOLDER         = "images";             //$NON-NLS-1$
     
+    private static final String[] COMPRESSED_IMAGE_EXTENSIONS = 
+        {".jpg", ".jpeg", ".png", ".gif"};                                    //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    
     // we need a fixed formatter in file (not locale depent)
-    private final static DateFormat DATE_FORMAT = DateFormat.getDateTimeInstance(
-        DateFormat.MEDIUM, DateFormat.MEDIUM, Locale.UK);
+    private final static DateFormat DATE_FORMAT = createDateFormat();
+    
+    // the lesson files that are being written right now
+    private static final Map<File, Object> FILE_LOCKS = new HashMap<File, Object>();
+    
+    private static final int      CLEAN_CHUNK_SIZE   = 1000;
+    
+    /**
+     * The values of a card that are written to a clean lesson. These are
+     * copied from the lesson so that the document can be written without
+     * accessing the lesson.
+     */
+    private static class CleanCard
+    {
+        private final String       m_front;
+        private final String       m_back;
+        private final String       m_dateCreated;
+        private final List<String> m_frontImages;
+        private final List<String> m_backImages;
+        
+        public CleanCard(Card card)
+        {
+            m_front = card.getFrontSide().getText().getFormatted();
+            m_back = card.getBackSide().getText().getFormatted();
+            m_dateCreated = DATE_FORMAT.format(card.getDateCreated());
+            m_frontImages = new ArrayList<String>(card.getFrontSide().getImages());
+            m_backImages = new ArrayList<String>(card.getBackSide().getImages());
+        }
+    }
+    
+    /**
+     * The values of a card that are written to a lesson file. These are
+     * copied when a snapshot is taken, so that the document can be built on
+     * another thread.
+     */
+    static class SnapshotCard
+    {
+        private final String       m_front;
+        private final String       m_back;
+        private final Date         m_dateCreated;
+        private final Date         m_dateModified;
+        private final Date         m_dateTouched;
+        private final Date         m_dateTested;
+        private final Date         m_dateExpired;
+        private final int          m_learnedFront;
+        private final int          m_learnedBack;
+        private final int          m_testsTotal;
+        private final int          m_testsPassed;
+        private final List<String> m_frontImages;
+        private final List<String> m_backImages;
+        
+        public SnapshotCard(Card card)
+        {
+            m_front = card.getFrontSide().getText().getFormatted();
+            m_back = card.getBackSide().getText().getFormatted();
+            
+            m_dateCreated = card.getDateCreated();
+            m_dateModified = (Date)card.getDateModified().clone();
+            m_dateTouched = card.getDateTouched();
+            m_dateTested = card.getDateTested();
+            m_dateExpired = card.getDateExpired();
+            
+            m_learnedFront = card.getLearnedAmount(true);
+            m_learnedBack = card.getLearnedAmount(false);
+            m_testsTotal = card.getTestsTotal();
+            m_testsPassed = card.getTestsPassed();
+            
+            m_frontImages = new ArrayList<String>(card.getFrontSide().getImages());
+            m_backImages = new ArrayList<String>(card.getBackSide().getImages());
+        }
+    }
+    
+    /**
+     * A category with its decks and child categories as it was when a
+     * snapshot was taken.
+     */
+    static class SnapshotCategory
+    {
+        private final String                   m_name;
+        private final List<List<SnapshotCard>> m_decks    = 
+            new ArrayList<List<SnapshotCard>>();
+        private final List<SnapshotCategory>   m_children = 
+            new ArrayList<SnapshotCategory>();
+        
+        public SnapshotCategory(Category category)
+        {
+            m_name = category.getName();
+            
+            for (int i = 0; i < category.getNumberOfDecks(); i++)
+            {
+                List<Card> cards = category.getLocalCards(i);
+                List<SnapshotCard> deck = new ArrayList<SnapshotCard>(cards.size());
+                
+                for (Card card : cards)
+                    deck.add(new SnapshotCard(card));
+                
+                m_decks.add(deck);
+            }
+            
+            for (Category child : category.getChildCategories())
+                m_children.add(new SnapshotCategory(child));
+        }
+    }
+    
+    /**
+     * Builds the category tree and the cards of a lesson from parse events in
+     * the same way as {@link XmlBuilder#loadCategory} does from a document.
+     * Only the first category of the document and its children are read.
+     */
+    private static class CardTextHandler extends DefaultHandler
+    {
+        private final Category        m_root;
+        private boolean               m_rootRead;
+        
+        // the open categories and the number of decks that each has so far
+        private LinkedList<Category>  m_categories = new LinkedList<Category>();
+        private LinkedList<Integer>   m_deckCounts = new LinkedList<Integer>();
+        
+        // the level of the open deck or -1 if no deck is open
+        private int                   m_deckLevel  = -1;
+        
+        public CardTextHandler(Category root)
+        {
+            m_root = root;
+        }
+        
+        public void startElement(String uri, String localName, String name, 
+            Attributes attributes)
+        {
+            if (name.equalsIgnoreCase(CATEGORY))
+            {
+                if (m_categories.isEmpty())
+                {
+                    if (m_rootRead)
+                        return;
+                    
+                    m_rootRead = true;
+                    m_categories.add(m_root);
+                }
+                else
+                {
+                    Category parent = m_categories.getLast();
+                    String childName = attributes.getValue(NAME);
+                    
+                    Category child = parent.getChildCategory(childName);
+                    if (child == null)
+                        child = parent.addCategoryChild(new Category(childName));
+                    
+                    m_categories.add(child);
+                }
+                
+                m_deckCounts.add(0);
+            }
+            else if (m_categories.isEmpty())
+            {
+                return;
+            }
+            else if (name.equalsIgnoreCase(DECK))
+            {
+                m_deckLevel = m_deckCounts.getLast();
+            }
+            else if (name.equalsIgnoreCase(CARD) && m_deckLevel >= 0)
+            {
+                Card card = new Card(attributes.getValue(FRONTSIDE), 
+                    attributes.getValue(BACKSIDE));
+                
+                m_categories.getLast().addCard(card, m_deckLevel);
+            }
+        }
+        
+        public void endElement(String uri, String localName, String name)
+        {
+            if (m_categories.isEmpty())
+                return;
+            
+            if (name.equalsIgnoreCase(CATEGORY))
+            {
+                m_categories.removeLast();
+                m_deckCounts.removeLast();
+            }
+            else if (name.equalsIgnoreCase(DECK))
+            {
+                m_deckCounts.set(m_deckCounts.size() - 1, m_deckLevel + 1);
+                m_deckLevel = -1;
+            }
+        }
+    }
 
 
     
@@ -116,6 +323,9 @@ public class XmlBuilder
      * 
      * Don't use this method directly. Use the {@link LessonProvider} instead.
      * 
+     * The given file is only replaced after the complete lesson was written
+     * and verified. See {@link SafeFileOutputStream}.
+     * 
      * XML-Schema:
      * 
      * <lesson> 
@@ -126,65 +336,295 @@ public class XmlBuilder
      */
     public static void saveAsXMLFile(File file, Lesson lesson) throws IOException, 
         TransformerException, ParserConfigurationException
-    {   
-        OutputStream out;
-        ZipOutputStream zipOut = null;
+    {
+        LessonSnapshot snapshot = createSnapshot(lesson);
+        writeSnapshot(file, snapshot);
+        snapshotSaved(file, snapshot);
+    }
+    
+    /**
+     * Captures the current state of the lesson, so that it can be written to
+     * disk later on by {@link #writeSnapshot(File, LessonSnapshot)}, possibly
+     * from another thread. This needs to be called from the thread that
+     * modifies the lesson (usually the event dispatch thread).
+     * 
+     * Only the values of the cards are copied here. The document is built
+     * when the snapshot is written.
+     */
+    public static LessonSnapshot createSnapshot(Lesson lesson)
+    {
+        SnapshotCategory root = new SnapshotCategory(lesson.getRootCategory());
+        List<SessionSummary> summaries = new ArrayList<SessionSummary>(
+            lesson.getLearnHistory().getSummaries());
         
-        if (Settings.loadIsSaveCompressed())
-        {
-            out = zipOut = new ZipOutputStream(new FileOutputStream(file));
-            zipOut.putNextEntry(new ZipEntry(LESSON_ZIP_ENTRY_NAME));
-        }
-        else
+        removeUnusedImagesFromRepository(lesson);
+        
+        // the index isn't built just for saving it
+        SearchIndex searchIndex = lesson.hasSearchIndex() ? 
+            lesson.getSearchIndex() : null;
+        
+        return new LessonSnapshot(lesson, root, summaries, 
+            ImageRepository.getInstance().getImageItems(), 
+            Settings.loadIsSaveCompressed(), searchIndex);
+    }
+    
+    /**
+     * Writes the snapshot to given file. The file is only replaced after the
+     * complete lesson was written and verified. Only one snapshot is written at
+     * any time, so this method can safely be called from any thread.
+     */
+    public static void writeSnapshot(File file, LessonSnapshot snapshot) 
+        throws IOException, TransformerException, ParserConfigurationException
+    {
+        // writes of other files don't need to wait for this one
+        synchronized (getFileLock(file))
         {
-            out = new FileOutputStream(file);
+            writeSnapshotLocked(file, snapshot);
         }
+    }
+    
+    private static void writeSnapshotLocked(File file, LessonSnapshot snapshot) 
+        throws IOException, TransformerException, ParserConfigurationException
+    {
+        Document document = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+        
+        // the shared date format may be in use by the event dispatch thread
+        DateFormat dateFormat = createDateFormat();
+        
+        // add lesson tag as root
+        Element lessonTag = document.createElement(LESSON);
+        document.appendChild(lessonTag);
+        
+        // add category tags
+        writeCategory(document, lessonTag, snapshot.getRootCategory(), dateFormat);
+        writeLearnHistory(document, snapshot.getSummaries(), dateFormat);
+        
+        SafeFileOutputStream fileOut = new SafeFileOutputStream(file);
+        OutputStream out = fileOut;
+        ZipOutputStream zipOut = null;
+        boolean committed = false;
         
         try
         {
-            Document document = DocumentBuilderFactory.newInstance()
-                .newDocumentBuilder().newDocument();
-
-            // add lesson tag as root
-            Element lessonTag = document.createElement(LESSON);
-            document.appendChild(lessonTag);
-
-            // add category tags
-            writeCategory(document, lessonTag, lesson.getRootCategory());
-            writeLearnHistory(document, lesson.getLearnHistory());
-
+            if (snapshot.isCompressed())
+            {
+                out = zipOut = new ZipOutputStream(fileOut);
+                zipOut.putNextEntry(new ZipEntry(LESSON_ZIP_ENTRY_NAME));
+            }
+            
             // transform document for file output
             Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8"); //$NON-NLS-1$
             transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //$NON-NLS-1$
 
-            transformer.transform(new DOMSource(document), new StreamResult(out));
+            transformer.transform(new DOMSource(document), 
+                new StreamResult(out));
+            
+            if (zipOut == null)
+            {
+                writeImagesToDisk(getImageFolder(file), snapshot.getImages());
+            }
+            else
+            {
+                zipOut.closeEntry();
+                writeImagesToZip(zipOut, snapshot.getImages());
+                zipOut.finish();
+            }
+            
+            // only now the old lesson file is replaced by the new one
+            ImageRepository.getInstance().closeArchive(file);
+            fileOut.commit();
+            committed = true;
         }
         finally
         {
-            if (zipOut != null)
-                zipOut.closeEntry();
-            
-            else if (out != null)
-                out.close();
+            if (!committed)
+                fileOut.abort();
+        }
+        
+        // the lesson is saved even if its index can't be stored
+        try
+        {
+            if (snapshot.getSearchIndex() != null)
+                SearchIndexFile.write(file, snapshot.getSearchIndex().createImage());
+            else
+                SearchIndexFile.delete(file);
         }
+        catch (IOException e)
+        {
+            Main.logThrowable("Could not store search index", e);
+        }
+    }
+    
+    /**
+     * Writes the lesson to given file without any learn progress. The
+     * written lesson is the same as the one that would be written for
+     * {@link Lesson#cloneWithoutProgress()}, but the lesson isn't copied.
+     * Instead the category tree is walked and the cards are streamed to the
+     * file in small chunks. The images of the lesson are left where they
+     * are.
+     * 
+     * @param observer the observer that is notified about the progress or
+     * <code>null</code>.
+     * @param accessExecutor the executor that reads from the lesson. It has
+     * to return only after the command is done.
+     * @throws CancelledException if the export was cancelled by the progress
+     * observer. The file isn't touched in that case.
+     */
+    public static void writeCleanLesson(File file, final Lesson lesson, 
+        ProgressObserver observer, Executor accessExecutor) 
+        throws IOException, TransformerException, SAXException
+    {
+        final long[] progress = new long[2];
+        accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                for (Category category : lesson.getRootCategory().getSubtreeList())
+                {
+                    for (int i = 0; i < category.getNumberOfDecks(); i++)
+                        progress[1] += category.getLocalCards(i).size();
+                }
+            }
+        });
+        
+        boolean compressed = Settings.loadIsSaveCompressed();
+        Set<String> imageIDs = new HashSet<String>();
+        
+        SafeFileOutputStream fileOut = new SafeFileOutputStream(file, false);
+        OutputStream out = fileOut;
+        ZipOutputStream zipOut = null;
+        boolean committed = false;
         
         try
         {
-            removeUnusedImagesFromRepository(lesson);
+            if (compressed)
+            {
+                out = zipOut = new ZipOutputStream(fileOut);
+                zipOut.putNextEntry(new ZipEntry(LESSON_ZIP_ENTRY_NAME));
+            }
+            
+            TransformerHandler handler = ((SAXTransformerFactory)
+                TransformerFactory.newInstance()).newTransformerHandler();
+            
+            Transformer transformer = handler.getTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8"); //$NON-NLS-1$
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //$NON-NLS-1$
+            handler.setResult(new StreamResult(out));
+            
+            handler.startDocument();
+            startElement(handler, LESSON, new AttributesImpl());
+            
+            writeCleanCategory(handler, lesson.getRootCategory(), imageIDs, 
+                progress, observer, accessExecutor);
+            
+            // a clean lesson has no learn history
+            startElement(handler, STATS_ROOT, new AttributesImpl());
+            endElement(handler, STATS_ROOT);
+            
+            endElement(handler, LESSON);
+            handler.endDocument();
+            
+            final List<ImageItem> images = new ArrayList<ImageItem>();
+            final Set<String> finalImageIDs = imageIDs;
+            accessExecutor.execute(new Runnable() {
+                public void run()
+                {
+                    for (ImageItem item : ImageRepository.getInstance().getImageItems())
+                    {
+                        if (finalImageIDs.contains(item.getId()))
+                            images.add(item);
+                    }
+                }
+            });
             
             if (zipOut == null)
-                writeImageRepositoryToDisk(new File(file.getParent()));
+            {
+                writeImagesToDisk(getImageFolder(file), images);
+            }
             else
-                writeImageRepositoryToZip(zipOut);
+            {
+                zipOut.closeEntry();
+                writeImagesToZip(zipOut, images);
+                zipOut.finish();
+            }
+            
+            ImageRepository.getInstance().closeArchive(file);
+            fileOut.commit();
+            committed = true;
         }
         finally
         {
-            if (zipOut != null)
-                zipOut.close();
+            if (!committed)
+                fileOut.abort();
+        }
+    }
+    
+    /**
+     * Tells the images of the snapshot that they can be reloaded from the
+     * file that the snapshot was written to. This needs to be called from the
+     * same thread as {@link #createSnapshot(Lesson)}.
+     */
+    public static void snapshotSaved(File file, LessonSnapshot snapshot)
+    {
+        File imgDir = getImageFolder(file);
+        
+        for (ImageItem item : snapshot.getImages())
+        {
+            if (snapshot.isCompressed())
+                item.setLocation(file.getAbsoluteFile(), getImageEntryName(item));
+            else
+                item.setLocation(new File(imgDir, item.getId()), null);
         }
     }
 
+    /**
+     * Reads the categories and the card texts of a lesson file into given
+     * root category without touching the current lesson or the image
+     * repository. The lesson is parsed as a stream, so no document is built.
+     * Images, learn stats and the learn history are skipped. The cards of
+     * every deck keep the order they have in the file, so that a card can be
+     * found again in the fully loaded lesson by its category, deck and
+     * position.
+     */
+    public static void loadCardTexts(File file, Category root) 
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        ZipFile zipFile = null;
+        
+        try
+        {
+            LessonFormat format = detectFormat(in);
+            
+            if (format == LessonFormat.ZIP)
+            {
+                in.close();
+                zipFile = new ZipFile(file);
+                
+                ZipEntry lessonEntry = zipFile.getEntry(LESSON_ZIP_ENTRY_NAME);
+                if (lessonEntry == null)
+                    throw new IOException("Unexpected zip entry.");
+                
+                in = zipFile.getInputStream(lessonEntry);
+            }
+            else if (format == LessonFormat.GZIP)
+            {
+                in = new GZIPInputStream(in);
+            }
+            
+            SAXParserFactory.newInstance().newSAXParser().parse(
+                in, new CardTextHandler(root));
+        }
+        finally
+        {
+            in.close();
+            
+            if (zipFile != null)
+                zipFile.close();
+        }
+    }
+    
     /**
      * Loads a lesson from an XML document that is contained within a file.
      * 
@@ -196,73 +636,76 @@ public class XmlBuilder
     public static void loadFromXMLFile(File xmlFile, Lesson lesson) 
         throws SAXException, IOException, ParserConfigurationException
     {
-        InputStream in;
-        ZipInputStream zipIn = null;
+        // an interrupted save leaves only the backup of the lesson
+        File file = SafeFileOutputStream.getReadableFile(xmlFile);
+        
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        LessonFormat format;
         
         try
         {
-            in = new GZIPInputStream(new FileInputStream(xmlFile));
+            format = detectFormat(in);
         }
-        catch (IOException ex)
+        catch (IOException e)
         {
-            in = zipIn = new ZipInputStream(new FileInputStream(xmlFile));
-            ZipEntry zipEntry = zipIn.getNextEntry();
-            
-            // file might not be compressed. try loading it directly
-            if (zipEntry == null) // expected when the file is not zipped
-            {
-                in = new FileInputStream(xmlFile);
-                zipIn = null;
-            }
-            else
-            {
-                if (!zipEntry.getName().equals(LESSON_ZIP_ENTRY_NAME))
-                    throw new IOException("Unexpected zip entry.");
-            }
+            in.close();
+            throw e;
+        }
+        
+        if (format == LessonFormat.ZIP)
+        {
+            // the zip central directory gives us random access to the lesson
+            // entry and all image entries, so we don't need the stream anymore
+            in.close();
+            loadFromZipFile(file, lesson);
+            return;
         }
         
-        // get lesson tag
         try
         {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            Document doc = factory.newDocumentBuilder().parse(in);
-    
-            // there must be a root category
-            Element categoryTag = (Element)doc.getElementsByTagName(CATEGORY).item(0);
-            loadCategory(lesson.getRootCategory(), null, categoryTag, 0);
-            loadLearnHistory(doc, lesson.getLearnHistory());
+            if (format == LessonFormat.GZIP)
+                in = new GZIPInputStream(in);
+            
+            loadLesson(in, lesson);
         }
         finally
         {
-            if (zipIn == null)
-                in.close();
+            in.close();
         }
         
-        try  
+        try
         {
-            if (zipIn == null)
-                loadImageRepositoryFromDisk(xmlFile);
-            
-            else
-            {
-                zipIn = new ZipInputStream(new FileInputStream(xmlFile));
-                
-                ZipEntry entry;
-                while ((entry = zipIn.getNextEntry()) != null)
-                {
-                    loadImageFromZipEntry(zipIn, entry);
-                }
-            }
+            loadImageRepositoryFromDisk(xmlFile);
         }
         catch (Exception e)
         {
             Main.logThrowable("Exception while loading lesson "+xmlFile, e);
         }
-        finally
-        {
-            if (zipIn != null)
-                zipIn.close();
-        }
+    }
+    
+    /**
+     * Adds the categories, cards and learn history of a lesson file to given
+     * lesson. Child categories are merged with the categories of the same
+     * name and cards that duplicate cards of the lesson are handled by given
+     * policy. The learn history is added the same way for every policy.
+     * 
+     * @param duplicatePolicy one of the policies of {@link DuplicateIndex}.
+     */
+    public static void importFromXMLFile(File xmlFile, Lesson lesson, 
+        int duplicatePolicy) 
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        Lesson importedLesson = new Lesson(false);
+        loadFromXMLFile(xmlFile, importedLesson);
+        
+        // the duplicate index is only built if it is needed
+        DuplicateIndex index = duplicatePolicy == DuplicateIndex.KEEP_BOTH ? 
+            null : lesson.getDuplicateIndex();
+        
+        importCategory(importedLesson.getRootCategory(), 
+            lesson.getRootCategory(), index, duplicatePolicy);
+        importLearnHistory(importedLesson.getLearnHistory(), 
+            lesson.getLearnHistory());
     }
     
     /**
@@ -304,15 +747,21 @@ public class XmlBuilder
      * @deprecated 
      */
     public static void writeLearnHistory(Document document, LearnHistory history)
+    {
+        writeLearnHistory(document, history.getSummaries(), DATE_FORMAT);
+    }
+    
+    private static void writeLearnHistory(Document document, 
+        List<SessionSummary> summaries, DateFormat dateFormat)
     {
         // add lesson tag as root
         Element statsTag = document.createElement(STATS_ROOT);
 
-        for (SessionSummary summary : history.getSummaries())
+        for (SessionSummary summary : summaries)
         {
             Element sessionTag = document.createElement(SESSION);
-            sessionTag.setAttribute(STATS_START, DATE_FORMAT.format(summary.getStart()));
-            sessionTag.setAttribute(STATS_END, DATE_FORMAT.format(summary.getEnd()));
+            sessionTag.setAttribute(STATS_START, dateFormat.format(summary.getStart()));
+            sessionTag.setAttribute(STATS_END, dateFormat.format(summary.getEnd()));
             
             sessionTag.setAttribute(STATS_PASSED, toInteger(summary.getPassed())); 
             sessionTag.setAttribute(STATS_FAILED, toInteger(summary.getFailed()));
@@ -335,35 +784,53 @@ public class XmlBuilder
      */
     public static File writeImageRepositoryToDisk(File dir) throws IOException
     {
-        ImageRepository repository = ImageRepository.getInstance();
-        
+        Collection<ImageItem> images = ImageRepository.getInstance().getImageItems();
         File imgDir = new File(dir + File.separator + IMAGE_FOLDER);
+        
+        writeImagesToDisk(imgDir, images);
+        
+        for (ImageItem item : images)
+            item.setLocation(new File(imgDir, item.getId()), null);
+        
+        return imgDir;
+    }
+    
+    private static void writeImagesToDisk(File imgDir, Collection<ImageItem> images) 
+        throws IOException
+    {
         imgDir.mkdirs();
         
-        removeUnusedImages(repository, imgDir);
+        removeUnusedImages(images, imgDir);
         
-        for (ImageItem item : repository.getImageItems())
+        for (ImageItem item : images)
         {
             File imgFile = new File(imgDir + File.separator + item.getId());
             
-            if (imgFile.exists())
-            {
-                // TODO if same file continue
-            }
+            if (isStoredIn(item, imgFile))
+                continue;
             
             FileOutputStream out = new FileOutputStream(imgFile, false);
-            out.write(item.getBytes());
-            out.close();
+            try
+            {
+                copyImage(item, out);
+            }
+            finally
+            {
+                out.close();
+            }
         }
-        
-        return imgDir;
+    }
+    
+    private static File getImageFolder(File lessonFile)
+    {
+        return new File(lessonFile.getAbsoluteFile().getParentFile(), IMAGE_FOLDER);
     }
 
-    private static void removeUnusedImages(ImageRepository repository, File imgDir)
+    private static void removeUnusedImages(Collection<ImageItem> images, File imgDir)
     {
         Set<File> unusedFiles = new HashSet<File>(Arrays.asList(imgDir.listFiles()));
         
-        for (ImageItem item : repository.getImageItems())
+        for (ImageItem item : images)
         {
             File imgFile = new File(imgDir + File.separator + item.getId());
             unusedFiles.remove(imgFile);
@@ -375,78 +842,236 @@ public class XmlBuilder
         }
     }
     
-    private static void writeCategory(Document document, Element father, Category category)
+    private static void writeCategory(Document document, Element father, 
+        SnapshotCategory category, DateFormat dateFormat)
     {
         Element categoryTag = document.createElement(CATEGORY);
-        categoryTag.setAttribute(NAME, category.getName());
+        categoryTag.setAttribute(NAME, category.m_name);
         father.appendChild(categoryTag);
         
         // for all decks add a deck tag
-        for (int i = 0; i < category.getNumberOfDecks(); i++)
+        for (List<SnapshotCard> deck : category.m_decks)
         {
             Element deckTag = document.createElement(DECK);
             categoryTag.appendChild(deckTag);
             
             // for all cards add a card tag
-            for (Card card : category.getLocalCards(i))
+            for (SnapshotCard card : deck)
             {
-                Element cardTag = writeCard(document, card);
+                Element cardTag = writeCard(document, card, dateFormat);
                 deckTag.appendChild(cardTag);
             }
         }
         
         // now add child categories
-        for (Category child : category.getChildCategories())
+        for (SnapshotCategory child : category.m_children)
         {
-            writeCategory(document, categoryTag, child);
+            writeCategory(document, categoryTag, child, dateFormat);
         }
     }
 
-    private static Element writeCard(Document document, Card card)
+    private static void writeCleanCategory(TransformerHandler handler, 
+        final Category category, Set<String> imageIDs, long[] progress, 
+        ProgressObserver observer, Executor accessExecutor) throws SAXException, 
+        CancelledException
+    {
+        final List<Category> children = new ArrayList<Category>();
+        final String[] name = new String[1];
+        final int[] decks = new int[1];
+        
+        accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                name[0] = category.getName();
+                children.addAll(category.getChildCategories());
+                decks[0] = category.getNumberOfDecks();
+            }
+        });
+        
+        AttributesImpl attributes = new AttributesImpl();
+        addAttribute(attributes, NAME, name[0]);
+        startElement(handler, CATEGORY, attributes);
+        
+        // without progress all cards are in the first deck
+        boolean deckStarted = false;
+        for (int level = 0; level < decks[0]; level++)
+        {
+            List<CleanCard> chunk;
+            int from = 0;
+            do
+            {
+                chunk = readCleanChunk(category, level, from, accessExecutor);
+                
+                if (observer != null && observer.isCancelled())
+                    throw new CancelledException();
+                
+                if (!deckStarted && chunk.size() > 0)
+                {
+                    startElement(handler, DECK, new AttributesImpl());
+                    deckStarted = true;
+                }
+                
+                for (CleanCard card : chunk)
+                {
+                    writeCleanCard(handler, card);
+                    imageIDs.addAll(card.m_frontImages);
+                    imageIDs.addAll(card.m_backImages);
+                }
+                
+                from += chunk.size();
+                progress[0] += chunk.size();
+                
+                if (observer != null)
+                    observer.onProgress(progress[0], progress[1]);
+            }
+            while (chunk.size() == CLEAN_CHUNK_SIZE);
+        }
+        
+        if (deckStarted)
+            endElement(handler, DECK);
+        
+        for (Category child : children)
+        {
+            writeCleanCategory(handler, child, imageIDs, progress, 
+                observer, accessExecutor);
+        }
+        
+        endElement(handler, CATEGORY);
+    }
+    
+    private static List<CleanCard> readCleanChunk(final Category category, 
+        final int level, final int from, Executor accessExecutor)
+    {
+        final List<CleanCard> chunk = new ArrayList<CleanCard>(CLEAN_CHUNK_SIZE);
+        
+        accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                if (level >= category.getNumberOfDecks())
+                    return;
+                
+                List<Card> cards = category.getLocalCards(level);
+                int to = Math.min(cards.size(), from + CLEAN_CHUNK_SIZE);
+                
+                for (int i = from; i < to; i++)
+                {
+                    chunk.add(new CleanCard(cards.get(i)));
+                }
+            }
+        });
+        
+        return chunk;
+    }
+    
+    /**
+     * Writes given card like
+     * {@link #writeCard(Document, SnapshotCard, DateFormat)} would write a
+     * card that was cloned without progress.
+     */
+    private static void writeCleanCard(TransformerHandler handler, CleanCard card) 
+        throws SAXException
+    {
+        AttributesImpl attributes = new AttributesImpl();
+        
+        addAttribute(attributes, FRONTSIDE, card.m_front);
+        addAttribute(attributes, BACKSIDE, card.m_back);
+        
+        addAttribute(attributes, DATE_CREATED, card.m_dateCreated);
+        addAttribute(attributes, DATE_MODIFIED, card.m_dateCreated);
+        addAttribute(attributes, DATE_TOUCHED, card.m_dateCreated);
+        
+        addAttribute(attributes, AMOUNT_LEARNED_FRONT, "0"); //$NON-NLS-1$
+        addAttribute(attributes, AMOUNT_LEARNED_BACK, "0"); //$NON-NLS-1$
+        addAttribute(attributes, TESTS_TOTAL, "0"); //$NON-NLS-1$
+        addAttribute(attributes, TESTS_HIT, "0"); //$NON-NLS-1$
+        
+        startElement(handler, CARD, attributes);
+        writeCleanImages(handler, card.m_frontImages);
+        writeCleanImages(handler, card.m_backImages);
+        endElement(handler, CARD);
+    }
+    
+    private static void writeCleanImages(TransformerHandler handler, 
+        List<String> imageIDs) throws SAXException
+    {
+        startElement(handler, SIDE, new AttributesImpl());
+        
+        for (String imgID : imageIDs)
+        {
+            AttributesImpl attributes = new AttributesImpl();
+            addAttribute(attributes, IMG_ID, imgID);
+            
+            startElement(handler, IMG, attributes);
+            endElement(handler, IMG);
+        }
+        
+        endElement(handler, SIDE);
+    }
+    
+    private static void startElement(TransformerHandler handler, String name, 
+        AttributesImpl attributes) throws SAXException
+    {
+        handler.startElement("", name, name, attributes); //$NON-NLS-1$
+    }
+    
+    private static void endElement(TransformerHandler handler, String name) 
+        throws SAXException
+    {
+        handler.endElement("", name, name); //$NON-NLS-1$
+    }
+    
+    private static void addAttribute(AttributesImpl attributes, String name, 
+        String value)
+    {
+        attributes.addAttribute("", name, name, "CDATA", value); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static Element writeCard(Document document, SnapshotCard card, 
+        DateFormat dateFormat)
     {
         Element cardTag = document.createElement(CARD);
         
         // save card sides
-        cardTag.setAttribute(FRONTSIDE, card.getFrontSide().getText().getFormatted());
-        cardTag.setAttribute(BACKSIDE, card.getBackSide().getText().getFormatted());
+        cardTag.setAttribute(FRONTSIDE, card.m_front);
+        cardTag.setAttribute(BACKSIDE, card.m_back);
         
         // save dates
-        cardTag.setAttribute(DATE_CREATED, DATE_FORMAT.format(card.getDateCreated()));
-        cardTag.setAttribute(DATE_MODIFIED, DATE_FORMAT.format(card.getDateModified()));
-        cardTag.setAttribute(DATE_TOUCHED, DATE_FORMAT.format(card.getDateTouched()));
+        cardTag.setAttribute(DATE_CREATED, dateFormat.format(card.m_dateCreated));
+        cardTag.setAttribute(DATE_MODIFIED, dateFormat.format(card.m_dateModified));
+        cardTag.setAttribute(DATE_TOUCHED, dateFormat.format(card.m_dateTouched));
         
-        if (card.getDateTested() != null)
+        if (card.m_dateTested != null)
         {
-            cardTag.setAttribute(DATE_TESTED, DATE_FORMAT.format(card.getDateTested()));
+            cardTag.setAttribute(DATE_TESTED, dateFormat.format(card.m_dateTested));
         }
-        if (card.getDateExpired() != null)
+        if (card.m_dateExpired != null)
         {
-            cardTag.setAttribute(DATE_EXPIRED, DATE_FORMAT.format(card.getDateExpired()));
+            cardTag.setAttribute(DATE_EXPIRED, dateFormat.format(card.m_dateExpired));
         }
         
         // save amount learned
         cardTag.setAttribute(AMOUNT_LEARNED_FRONT, 
-            Integer.toString(card.getLearnedAmount(true)));
+            Integer.toString(card.m_learnedFront));
         
         cardTag.setAttribute(AMOUNT_LEARNED_BACK, 
-            Integer.toString(card.getLearnedAmount(false)));
+            Integer.toString(card.m_learnedBack));
         
         // save stats
-        cardTag.setAttribute(TESTS_TOTAL, Integer.toString(card.getTestsTotal()));
-        cardTag.setAttribute(TESTS_HIT, Integer.toString(card.getTestsPassed()));
+        cardTag.setAttribute(TESTS_TOTAL, Integer.toString(card.m_testsTotal));
+        cardTag.setAttribute(TESTS_HIT, Integer.toString(card.m_testsPassed));
         
         // save images
-        cardTag.appendChild(writeImages(document, card.getFrontSide()));
-        cardTag.appendChild(writeImages(document, card.getBackSide()));
+        cardTag.appendChild(writeImages(document, card.m_frontImages));
+        cardTag.appendChild(writeImages(document, card.m_backImages));
         
         return cardTag;
     }
     
-    private static Element writeImages(Document doc, CardSide cardSide)
+    private static Element writeImages(Document doc, List<String> imageIDs)
     {
         Element sideElement = doc.createElement(SIDE);
         
-        for (String imgID : cardSide.getImages())
+        for (String imgID : imageIDs)
         {
             Element imgElement = doc.createElement(IMG);
             imgElement.setAttribute(IMG_ID, imgID);
@@ -457,16 +1082,89 @@ public class XmlBuilder
         return sideElement;
     }
     
-    private static void writeImageRepositoryToZip(ZipOutputStream zipOut) 
+    private static void writeImagesToZip(ZipOutputStream zipOut, 
+        Collection<ImageItem> images) throws IOException
+    {
+        for (ImageItem item : images)
+        {
+            ZipEntry entry = new ZipEntry(getImageEntryName(item));
+            
+            // deflating already compressed image formats only wastes time
+            long crc = item.getCrc();
+            if (isCompressedImage(item) && crc != -1)
+            {
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(item.getSize());
+                entry.setCompressedSize(item.getSize());
+                entry.setCrc(crc);
+            }
+            
+            zipOut.putNextEntry(entry);
+            copyImage(item, zipOut);
+            zipOut.closeEntry();            
+        }
+    }
+    
+    private static boolean isCompressedImage(ImageItem item)
+    {
+        String id = item.getId().toLowerCase();
+        
+        for (String extension : COMPRESSED_IMAGE_EXTENSIONS)
+        {
+            if (id.endsWith(extension))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return <code>true</code> if given file already holds the content of
+     * given image. This is always the case if the image was loaded from or
+     * last saved to that file.
+     */
+    private static boolean isStoredIn(ImageItem item, File imgFile) 
         throws IOException
     {
-        ImageRepository repository = ImageRepository.getInstance();
+        File location = item.getLocation();
+        if (item.getEntryName() == null && location != null && 
+            location.getAbsoluteFile().equals(imgFile.getAbsoluteFile()))
+        {
+            return true;
+        }
         
-        for (ImageItem item : repository.getImageItems())
+        if (!imgFile.isFile() || imgFile.length() != item.getSize())
+            return false;
+        
+        long crc = ImageRepository.computeCrc(new FileInputStream(imgFile));
+        return crc == item.getCrc();
+    }
+    
+    private static String getImageEntryName(ImageItem item)
+    {
+        return IMAGE_FOLDER + File.separator + item.getId();
+    }
+    
+    /**
+     * Writes the image to given stream. Images that aren't loaded yet are
+     * streamed from their old lesson file without being kept in memory.
+     */
+    private static void copyImage(ImageItem item, OutputStream out) 
+        throws IOException
+    {
+        InputStream in = item.openStream();
+        try
         {
-            zipOut.putNextEntry(new ZipEntry(IMAGE_FOLDER + File.separator + item.getId()));
-            zipOut.write(item.getBytes());
-            zipOut.closeEntry();            
+            byte[] buffer = new byte[8192];
+            int numRead;
+            while ((numRead = in.read(buffer)) >= 0)
+            {
+                out.write(buffer, 0, numRead);
+            }
+        }
+        finally
+        {
+            in.close();
         }
     }
     
@@ -517,6 +1215,50 @@ public class XmlBuilder
         }
     }
 
+    /**
+     * Adds copies of the cards of the source category and its child
+     * categories to the target category. If a duplicate index is given,
+     * every deck is filtered against it after the decks before it were added.
+     */
+    private static void importCategory(Category source, Category target, 
+        DuplicateIndex index, int duplicatePolicy)
+    {
+        for (int level = 0; level < source.getNumberOfDecks(); level++)
+        {
+            List<Card> cards = new ArrayList<Card>();
+            for (Card card : source.getLocalCards(level))
+                cards.add((Card)card.clone());
+            
+            if (index != null)
+                cards = index.filter(cards, duplicatePolicy);
+            
+            target.addCards(cards, level);
+        }
+        
+        for (Category child : source.getChildCategories())
+        {
+            Category targetChild = target.getChildCategory(child.getName());
+            if (targetChild == null)
+                targetChild = target.addCategoryChild(new Category(child.getName()));
+            
+            importCategory(child, targetChild, index, duplicatePolicy);
+        }
+    }
+    
+    private static void importLearnHistory(LearnHistory source, 
+        LearnHistory target)
+    {
+        for (SessionSummary summary : source.getSummaries())
+        {
+            target.addSummary(summary.getStart(), summary.getEnd(), 
+                (int)summary.getPassed(), (int)summary.getFailed(), 
+                (int)summary.getSkipped(), (int)summary.getRelearned());
+        }
+        
+        if (source.isLoaded())
+            target.setIsLoaded(true);
+    }
+    
     private static Card loadCard(Node cardTag)
     {
         NamedNodeMap attributes = cardTag.getAttributes();
@@ -609,44 +1351,114 @@ public class XmlBuilder
         return new ArrayList<String>();
     }
     
-    private static void loadImageRepositoryFromDisk(File dir)
+    /**
+     * Peeks at the first bytes of given stream to find out how the lesson is
+     * stored. The stream needs to support marking and is reset afterwards.
+     */
+    private static LessonFormat detectFormat(InputStream in) throws IOException
     {
-        ImageRepository repository = ImageRepository.getInstance();
+        byte[] magic = new byte[4];
         
-        File imgDir = new File(dir.getParent() + File.separator + IMAGE_FOLDER);
-        File[] files = imgDir.listFiles();
+        in.mark(magic.length);
+        int numRead = 0;
+        int n;
+        while (numRead < magic.length && 
+            (n = in.read(magic, numRead, magic.length - numRead)) >= 0)
+        {
+            numRead += n;
+        }
+        in.reset();
         
-        if (files == null)
-            return;
+        if (numRead >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b)
+            return LessonFormat.GZIP;
         
-        for (File file : files)
+        if (numRead == 4 && magic[0] == 'P' && magic[1] == 'K' && 
+            magic[2] == 3 && magic[3] == 4)
+        {
+            return LessonFormat.ZIP;
+        }
+        
+        return LessonFormat.XML;
+    }
+    
+    private static void loadFromZipFile(File file, Lesson lesson) 
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        ZipFile zipFile = new ZipFile(file);
+        
+        try
         {
+            ZipEntry lessonEntry = zipFile.getEntry(LESSON_ZIP_ENTRY_NAME);
+            if (lessonEntry == null)
+                throw new IOException("Unexpected zip entry.");
+            
+            InputStream in = zipFile.getInputStream(lessonEntry);
             try
             {
-                FileInputStream in = new FileInputStream(file);
-                repository.addImage(in, file.getName());
+                loadLesson(in, lesson);
+            }
+            finally
+            {
+                in.close();
             }
-            catch (FileNotFoundException e)
+            
+            try
             {
-                // ignore for now
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements())
+                {
+                    loadImageFromZipEntry(file, entries.nextElement());
+                }
             }
-            catch (IOException e)
+            catch (Exception e)
             {
-                Main.logThrowable("could not load image "+file, e);
+                Main.logThrowable("Exception while loading lesson "+file, e);
             }
         }
+        finally
+        {
+            zipFile.close();
+        }
     }
     
-    private static void loadImageFromZipEntry(InputStream in, ZipEntry entry) 
-        throws IOException
+    private static void loadLesson(InputStream in, Lesson lesson) 
+        throws SAXException, IOException, ParserConfigurationException
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        Document doc = factory.newDocumentBuilder().parse(in);
+
+        // there must be a root category
+        Element categoryTag = (Element)doc.getElementsByTagName(CATEGORY).item(0);
+        loadCategory(lesson.getRootCategory(), null, categoryTag, 0);
+        loadLearnHistory(doc, lesson.getLearnHistory());
+    }
+    
+    private static void loadImageRepositoryFromDisk(File dir)
+    {
+        ImageRepository repository = ImageRepository.getInstance();
+        
+        File imgDir = new File(dir.getParent() + File.separator + IMAGE_FOLDER);
+        File[] files = imgDir.listFiles();
+        
+        if (files == null)
+            return;
+        
+        for (File file : files)
+        {
+            if (file.isFile())
+                repository.addImage(file, file.getName());
+        }
+    }
+    
+    private static void loadImageFromZipEntry(File file, ZipEntry entry)
     {
         ImageRepository repository = ImageRepository.getInstance();
         
         String name = entry.getName();
-        if (!name.startsWith(IMAGE_FOLDER))
+        if (!name.startsWith(IMAGE_FOLDER) || entry.isDirectory())
             return;
         
-        repository.addImage(in, name.substring(IMAGE_FOLDER.length()+1));
+        repository.addImage(file, entry, name.substring(IMAGE_FOLDER.length()+1));
     }
     
     private static void removeUnusedImagesFromRepository(Lesson lesson)
@@ -663,6 +1475,29 @@ public class XmlBuilder
         ImageRepository.getInstance().retain(usedImageIDs);
     }
 
+    private static DateFormat createDateFormat()
+    {
+        return DateFormat.getDateTimeInstance(
+            DateFormat.MEDIUM, DateFormat.MEDIUM, Locale.UK);
+    }
+    
+    private static Object getFileLock(File file)
+    {
+        synchronized (FILE_LOCKS)
+        {
+            File key = file.getAbsoluteFile();
+            
+            Object lock = FILE_LOCKS.get(key);
+            if (lock == null)
+            {
+                lock = new Object();
+                FILE_LOCKS.put(key, lock);
+            }
+            
+            return lock;
+        }
+    }
+    
     private static String toInteger(float num)
     {
         return Integer.toString((int)num);
@@ -18,6 +18,7 @@
  */
 package jmemorize.core.learn;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -38,6 +39,7 @@ import java.util.logging.Logger;
 import jmemorize.core.Card;
 import jmemorize.core.Category;
 import jmemorize.core.CategoryObserver;
+import jmemorize.core.Main;
 import jmemorize.util.EquivalenceClassSet;
 
 /**
@@ -245,6 +247,9 @@ public class DefaultLearnSession implements CategoryObserver, LearnSession
     private Date                 m_start;
     private Date                 m_end;
     
+    private ReviewLog            m_reviewLog;
+    private long                 m_cardFetchedTime;
+    
     private Logger               m_logger = Logger.getLogger("jmemorize.session");
     
     /**
@@ -378,6 +383,8 @@ public class DefaultLearnSession implements CategoryObserver, LearnSession
         m_logger.fine(String.format("cardChecked: %b %s", 
             passed, currentCard.getFrontSide().getText()));
         
+        recordReview(currentCard, passed, shownFlipped);
+        
         assert !m_cardsLearned.contains(currentCard);
         assert !m_cardsReserve.contains(m_currentCardInfo);
         assert m_cardsActive.contains(m_currentCardInfo);
@@ -648,6 +655,16 @@ public class DefaultLearnSession implements CategoryObserver, LearnSession
         m_cardObservers.remove(observer);
     }
     
+    /**
+     * Sets the log that every checked card is recorded to. Note that this
+     * method is specialy for DefaultLearnSession and not part of the
+     * LearnSession interface.
+     */
+    public void setReviewLog(ReviewLog reviewLog)
+    {
+        m_reviewLog = reviewLog;
+    }
+    
     /**
      * Note that this method is specialy for DefaultLearnSession and not part of
      * the LearnSession interface.
@@ -683,6 +700,24 @@ public class DefaultLearnSession implements CategoryObserver, LearnSession
         Category.raiseCardLevel(card, m_start, expiration);
     }
  
+    private void recordReview(Card card, boolean passed, boolean shownFlipped)
+    {
+        if (m_reviewLog == null)
+            return;
+        
+        long time = System.currentTimeMillis();
+        
+        try
+        {
+            m_reviewLog.record(ReviewLog.getCardKey(card), time, passed, 
+                shownFlipped, (int)Math.min(Integer.MAX_VALUE, time - m_cardFetchedTime));
+        }
+        catch (IOException e)
+        {
+            Main.logThrowable("Could not write review log.", e);
+        }
+    }
+    
     private void gotoNextCard()
     {
         // check for end condition
@@ -708,6 +743,7 @@ public class DefaultLearnSession implements CategoryObserver, LearnSession
             
             m_cardsChecked.remove(currentCard);
             m_cardsChecked.add(currentCard);
+            m_cardFetchedTime = System.currentTimeMillis();
             
             boolean flippedMode = checkIfFlipped();
             for (LearnCardObserver observer : m_cardObservers)
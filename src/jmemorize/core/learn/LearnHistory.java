@@ -18,35 +18,41 @@
  */
 package jmemorize.core.learn;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import jmemorize.core.Main;
+import jmemorize.core.io.SafeFileOutputStream;
 import jmemorize.core.io.XmlBuilder;
 import jmemorize.gui.Localization;
 
 import org.w3c.dom.Document;
 
 /**
- * Stores the history of learn sessions and provides statistics.
+ * Stores the history of learn sessions and provides statistics. Sessions are
+ * rolled up into calendar buckets as they are added and can be persisted as
+ * an append-only log.
  * 
  * @author djemili
  */
@@ -318,25 +324,112 @@ public class LearnHistory
     public static final CalendarComparator MONTH_COMP  = new MonthComparator();
     public static final CalendarComparator YEAR_COMP   = new YearComparator();
     
+    /**
+     * The running totals of a group of sessions. Rollups are updated whenever
+     * a summary is added so that aggregated views don't need to regroup all
+     * sessions.
+     */
+    private class Rollup
+    {
+        private final Date m_start;
+        private Date       m_end;
+        private int        m_duration;
+        
+        private float      m_passed;
+        private float      m_failed;
+        private float      m_skipped;
+        private float      m_relearned;
+        
+        private Rollup(SessionSummary first)
+        {
+            m_start = first.m_start;
+            add(first);
+        }
+        
+        private void add(SessionSummary summary)
+        {
+            m_end = summary.m_end;
+            m_duration += summary.m_duration;
+            
+            m_passed += summary.m_passed;
+            m_failed += summary.m_failed;
+            m_skipped += summary.m_skipped;
+            m_relearned += summary.m_relearned;
+        }
+        
+        private SessionSummary toSummary(Date start, Date end)
+        {
+            return new SessionSummary(start, end, m_duration, 
+                m_passed, m_failed, m_skipped, m_relearned);
+        }
+    }
+    
+    /**
+     * The rollups of all sessions for one comparator. Sessions are rolled up
+     * both by their calendar bucket and by runs of consecutive sessions that
+     * fall into the same bucket.
+     */
+    private class Rollups
+    {
+        private final Map<Long, Rollup> m_buckets = new HashMap<Long, Rollup>();
+        private final List<Rollup>      m_runs    = new ArrayList<Rollup>();
+        private long                    m_lastKey;
+        
+        private void add(long key, SessionSummary summary)
+        {
+            Rollup bucket = m_buckets.get(key);
+            if (bucket == null)
+                m_buckets.put(key, new Rollup(summary));
+            else
+                bucket.add(summary);
+            
+            if (m_runs.isEmpty() || key != m_lastKey)
+                m_runs.add(new Rollup(summary));
+            else
+                m_runs.get(m_runs.size() - 1).add(summary);
+            
+            m_lastKey = key;
+        }
+    }
+    
     // TODO enforce that m_summaries is always sorted in descending date order
     private List<SessionSummary>    m_summaries = new ArrayList<SessionSummary>();
     
+    private Map<CalendarComparator, Rollups> m_rollups = 
+        new HashMap<CalendarComparator, Rollups>();
+    private Rollup                  m_total;
+    
     private File                    m_file;
+    private File                    m_logFile;  // null, if summaries are not appended
     private boolean                 m_isLoaded; // false, if created from scratch
     
+    private static final String     LOG_HEADER    = "# jMemorize learn history 1"; //$NON-NLS-1$
+    private static final String     LOG_SEPARATOR = "\t";                          //$NON-NLS-1$
+    private static final String     LOG_ENCODING  = "UTF-8";                       //$NON-NLS-1$
+    
     public LearnHistory()
     {
         this(null);
     }
     
+    /**
+     * Creates a history that is backed by given file. If the file is a
+     * history log (or doesn't exist yet) every summary that is added later on
+     * is appended to it. Old XML history files are only read.
+     */
     public LearnHistory(File file)
     {
+        m_rollups.put(DATE_COMP, new Rollups());
+        m_rollups.put(WEEK_COMP, new Rollups());
+        m_rollups.put(MONTH_COMP, new Rollups());
+        m_rollups.put(YEAR_COMP, new Rollups());
+        
         try
         {
             m_file = file;
             
-            if (m_file != null)
-                load(m_file);
+            if (m_file != null && !load(m_file))
+                m_logFile = m_file;
         } 
         catch (Exception e)
         {
@@ -351,7 +444,19 @@ public class LearnHistory
         SessionSummary sessionSummary = new SessionSummary(
             start, end, passed, failed, skipped, relearned);
         
-        m_summaries.add(sessionSummary);
+        addSummary(sessionSummary);
+        
+        if (m_logFile != null)
+        {
+            try
+            {
+                appendToLog(m_logFile, sessionSummary);
+            }
+            catch (IOException e)
+            {
+                Main.logThrowable("Could not append to learn history.", e);
+            }
+        }
     }
     
     public void setIsLoaded(boolean loaded)
@@ -385,46 +490,19 @@ public class LearnHistory
     
     public List<SessionSummary> getSummaries(CalendarComparator comp)
     {
-        List<SessionSummary> list = new LinkedList<SessionSummary>();
-        
-        SessionSummary lastSummary = null;
-        SessionSummary aggregatedSummary = null;
+        Rollups rollups = m_rollups.get(comp);
+        if (rollups == null)
+            return aggregateSummaries(comp);
         
-        // TODO refactor and use getSummary(date, comp)
-        for (SessionSummary summary : m_summaries)
+        // like the aggregated summaries, runs of consecutive sessions are
+        // grouped, not all sessions of a bucket
+        List<SessionSummary> list = new ArrayList<SessionSummary>(
+            rollups.m_runs.size());
+        for (Rollup rollup : rollups.m_runs)
         {
-            if (lastSummary == null || comp.compare(summary, lastSummary) != 0)
-            {
-                if (aggregatedSummary != null)
-                    list.add(aggregatedSummary);
-                
-                try
-                {
-                    aggregatedSummary = (SessionSummary)summary.clone();
-                }
-                catch (CloneNotSupportedException e)
-                {
-                    assert false;
-                }
-            }
-            else
-            {
-                aggregatedSummary = new SessionSummary(
-                    aggregatedSummary.m_start, summary.m_end,
-                    aggregatedSummary.m_duration + summary.m_duration,
-                    aggregatedSummary.m_passed + summary.m_passed,
-                    aggregatedSummary.m_failed + summary.m_failed,
-                    aggregatedSummary.m_skipped + summary.m_skipped,
-                    aggregatedSummary.m_relearned + summary.m_relearned
-                );
-            }
-            
-            lastSummary = summary;
+            list.add(rollup.toSummary(rollup.m_start, rollup.m_end));
         }
         
-        if (aggregatedSummary != null)
-            list.add(aggregatedSummary);
-        
         return list;
     }
     
@@ -460,7 +538,7 @@ public class LearnHistory
         }
         else
         {
-            // TODO optimize this; remove version without limit argument
+            // TODO remove version without limit argument
             List<SessionSummary> summaries = getSummaries(comp);
             int n = Math.min(limit, summaries.size()); 
             return summaries.subList(summaries.size() - n, summaries.size());
@@ -494,6 +572,13 @@ public class LearnHistory
         Calendar c1 = Calendar.getInstance();
         c1.setTime(date);
         
+        Rollups rollups = m_rollups.get(comp);
+        if (rollups != null)
+        {
+            Rollup rollup = rollups.m_buckets.get(comp.toValue(c1));
+            return rollup == null ? null : rollup.toSummary(date, date);
+        }
+        
         Calendar c2 = Calendar.getInstance();
         
         int duration = 0;
@@ -526,42 +611,46 @@ public class LearnHistory
 
     public SessionSummary getSessionsSummary()
     {
-        int duration = 0;
-        float passed = 0;
-        float failed = 0;
-        float skipped = 0;
-        float relearned = 0;
+        if (m_total == null)
+            return new SessionSummary(new Date());
         
-        for (SessionSummary summary : m_summaries)
-        {
-            duration += summary.getDuration();
-            passed += summary.getPassed();
-            failed += summary.getFailed();
-            skipped += summary.getSkipped();
-            relearned += summary.getRelearned();
-        }
-        
-        SessionSummary first = (SessionSummary)m_summaries.get(0);
-        SessionSummary last  = (SessionSummary)m_summaries.get(m_summaries.size() - 1);
-        
-        return new SessionSummary(first.getStart(), last.getEnd(), duration,
-            passed, failed, skipped, relearned);
+        return m_total.toSummary(m_total.m_start, m_total.m_end);
     }
 
-    public void load(File file) throws Exception
+    /**
+     * Loads all sessions from given file, which can either be a history log
+     * or an old XML history file.
+     * 
+     * @return <code>true</code> if the file was an old XML history file.
+     */
+    public boolean load(File file) throws Exception
     {
+        // an interrupted save leaves only the backup of the history
+        file = SafeFileOutputStream.getReadableFile(file);
         if (!file.exists())
-            return;
+            return false;
         
-        InputStream in = new FileInputStream(file);
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
         
-        // get lesson tag
         try
         {
-            Document doc = DocumentBuilderFactory.newInstance().
-                newDocumentBuilder().parse(in);
-    
-            XmlBuilder.loadLearnHistory(doc, this);
+            in.mark(1);
+            boolean isXml = in.read() == '<';
+            in.reset();
+            
+            if (isXml)
+            {
+                Document doc = DocumentBuilderFactory.newInstance().
+                    newDocumentBuilder().parse(in);
+        
+                XmlBuilder.loadLearnHistory(doc, this);
+            }
+            else
+            {
+                loadLog(in);
+            }
+            
+            return isXml;
         }
         finally
         {
@@ -572,28 +661,35 @@ public class LearnHistory
         }
     }
 
+    /**
+     * Writes all sessions as a new history log to given file.
+     */
     public void save(File file) throws Exception
     {
-        OutputStream out = new FileOutputStream(file);
+        SafeFileOutputStream fileOut = new SafeFileOutputStream(file);
+        boolean committed = false;
         
         try
         {
-            Document document = DocumentBuilderFactory.newInstance()
-                .newDocumentBuilder().newDocument();
+            Writer out = new BufferedWriter(
+                new OutputStreamWriter(fileOut, LOG_ENCODING));
+            
+            out.write(LOG_HEADER);
+            out.write('\n');
             
-            XmlBuilder.writeLearnHistory(document, this);
+            for (SessionSummary summary : m_summaries)
+            {
+                out.write(toRecord(summary));
+            }
             
-            // transform document for file output
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes"); //$NON-NLS-1$
-            transformer.transform(new DOMSource(document), new StreamResult(out));
+            out.flush();
+            fileOut.commit();
+            committed = true;
         }
         finally
         {
-            if (out != null)
-            {
-                out.close();
-            }
+            if (!committed)
+                fileOut.abort();
         }
     }
 
@@ -619,4 +715,151 @@ public class LearnHistory
     {
         return m_summaries.hashCode(); 
     }
+    
+    private void addSummary(SessionSummary summary)
+    {
+        m_summaries.add(summary);
+        
+        Calendar c = Calendar.getInstance();
+        c.setTime(summary.m_start);
+        
+        for (Map.Entry<CalendarComparator, Rollups> entry : m_rollups.entrySet())
+        {
+            entry.getValue().add(entry.getKey().toValue(c), summary);
+        }
+        
+        if (m_total == null)
+            m_total = new Rollup(summary);
+        else
+            m_total.add(summary);
+    }
+    
+    /**
+     * Groups consecutive sessions for comparators that have no rollups.
+     */
+    private List<SessionSummary> aggregateSummaries(CalendarComparator comp)
+    {
+        List<SessionSummary> list = new LinkedList<SessionSummary>();
+        
+        SessionSummary lastSummary = null;
+        SessionSummary aggregatedSummary = null;
+        
+        for (SessionSummary summary : m_summaries)
+        {
+            if (lastSummary == null || comp.compare(summary, lastSummary) != 0)
+            {
+                if (aggregatedSummary != null)
+                    list.add(aggregatedSummary);
+                
+                try
+                {
+                    aggregatedSummary = (SessionSummary)summary.clone();
+                }
+                catch (CloneNotSupportedException e)
+                {
+                    assert false;
+                }
+            }
+            else
+            {
+                aggregatedSummary = new SessionSummary(
+                    aggregatedSummary.m_start, summary.m_end,
+                    aggregatedSummary.m_duration + summary.m_duration,
+                    aggregatedSummary.m_passed + summary.m_passed,
+                    aggregatedSummary.m_failed + summary.m_failed,
+                    aggregatedSummary.m_skipped + summary.m_skipped,
+                    aggregatedSummary.m_relearned + summary.m_relearned
+                );
+            }
+            
+            lastSummary = summary;
+        }
+        
+        if (aggregatedSummary != null)
+            list.add(aggregatedSummary);
+        
+        return list;
+    }
+    
+    private void loadLog(InputStream in) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(in, LOG_ENCODING));
+        
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            if (line.length() == 0 || line.startsWith("#")) //$NON-NLS-1$
+                continue;
+            
+            String[] fields = line.split(LOG_SEPARATOR);
+            
+            // skip records that were only partially written
+            if (fields.length != 6)
+                continue;
+            
+            try
+            {
+                addSummary(new SessionSummary(
+                    new Date(Long.parseLong(fields[0])), 
+                    new Date(Long.parseLong(fields[1])), 
+                    Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), 
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5])));
+            }
+            catch (NumberFormatException e)
+            {
+                continue;
+            }
+        }
+        
+        m_isLoaded = true;
+    }
+    
+    private static void appendToLog(File file, SessionSummary summary) 
+        throws IOException
+    {
+        RandomAccessFile out = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        
+        try
+        {
+            long length = out.length();
+            StringBuffer buffer = new StringBuffer();
+            
+            if (length == 0)
+            {
+                buffer.append(LOG_HEADER).append('\n');
+            }
+            else
+            {
+                // terminate a record that was torn by an earlier crash
+                out.seek(length - 1);
+                if (out.read() != '\n')
+                    buffer.append('\n');
+            }
+            
+            buffer.append(toRecord(summary));
+            
+            out.seek(length);
+            out.write(buffer.toString().getBytes(LOG_ENCODING));
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+    
+    private static String toRecord(SessionSummary summary)
+    {
+        StringBuffer buffer = new StringBuffer();
+        
+        buffer.append(summary.m_start.getTime()).append(LOG_SEPARATOR);
+        buffer.append(summary.m_end.getTime()).append(LOG_SEPARATOR);
+        buffer.append((int)summary.m_passed).append(LOG_SEPARATOR);
+        buffer.append((int)summary.m_failed).append(LOG_SEPARATOR);
+        buffer.append((int)summary.m_skipped).append(LOG_SEPARATOR);
+        buffer.append((int)summary.m_relearned).append('\n');
+        
+        return buffer.toString();
+    }
 }
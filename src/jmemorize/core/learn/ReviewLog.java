@@ -0,0 +1,587 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.learn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import jmemorize.core.Card;
+
+/**
+ * An append-only log of single card reviews. Reviews are buffered in memory
+ * and written in blocks in which every attribute is stored in its own column:
+ * 
+ * <ul>
+ * <li>card keys, as a dictionary of the distinct keys of the block followed by
+ * one dictionary index per review.</li>
+ * <li>review times, as deltas to the previous review of the block.</li>
+ * <li>outcomes, as one flag byte per review.</li>
+ * <li>response times in milliseconds.</li>
+ * </ul>
+ * 
+ * All numbers except the dictionary keys are written as variable length
+ * integers. Every block carries a checksum so that a block that was torn by a
+ * crash is dropped instead of corrupting the log.
+ */
+public class ReviewLog
+{
+    public static final int CARD_KEYS      = 1;
+    public static final int TIMES          = 2;
+    public static final int OUTCOMES       = 4;
+    public static final int RESPONSE_TIMES = 8;
+    public static final int ALL_COLUMNS    = 
+        CARD_KEYS | TIMES | OUTCOMES | RESPONSE_TIMES;
+    
+    /**
+     * The reviews of a single block. Only the columns that were requested
+     * when scanning are filled. The block is reused for the next block of the
+     * scan, so visitors must not keep references to it.
+     */
+    public static class ReviewBlock
+    {
+        private int    m_size;
+        private long[] m_cardKeys      = new long[BLOCK_SIZE];
+        private long[] m_times         = new long[BLOCK_SIZE];
+        private byte[] m_outcomes      = new byte[BLOCK_SIZE];
+        private int[]  m_responseTimes = new int[BLOCK_SIZE];
+        
+        public int getSize()
+        {
+            return m_size;
+        }
+        
+        public long getCardKey(int i)
+        {
+            return m_cardKeys[i];
+        }
+        
+        public long getTime(int i)
+        {
+            return m_times[i];
+        }
+        
+        public boolean isPassed(int i)
+        {
+            return (m_outcomes[i] & PASSED) != 0;
+        }
+        
+        public boolean isFlipped(int i)
+        {
+            return (m_outcomes[i] & FLIPPED) != 0;
+        }
+        
+        public int getResponseTime(int i)
+        {
+            return m_responseTimes[i];
+        }
+    }
+    
+    public interface ReviewVisitor
+    {
+        public void visitBlock(ReviewBlock block);
+    }
+    
+    /**
+     * A growable byte buffer for encoding a single column.
+     */
+    private static class ColumnWriter
+    {
+        private byte[] m_bytes = new byte[BLOCK_SIZE];
+        private int    m_length;
+        
+        public void writeByte(int b)
+        {
+            if (m_length == m_bytes.length)
+            {
+                byte[] bytes = new byte[m_bytes.length * 2];
+                System.arraycopy(m_bytes, 0, bytes, 0, m_length);
+                m_bytes = bytes;
+            }
+            
+            m_bytes[m_length++] = (byte)b;
+        }
+        
+        public void writeLong(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                writeByte((int)(value >>> shift));
+        }
+        
+        public void writeVarLong(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                writeByte((int)(value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            
+            writeByte((int)value);
+        }
+        
+        public void writeSignedVarLong(long value)
+        {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+    }
+    
+    /**
+     * Decodes columns that were written by {@link ColumnWriter}.
+     */
+    private static class ColumnReader
+    {
+        private final byte[] m_bytes;
+        private int          m_pos;
+        
+        public ColumnReader(byte[] bytes, int pos)
+        {
+            m_bytes = bytes;
+            m_pos = pos;
+        }
+        
+        public byte readByte()
+        {
+            return m_bytes[m_pos++];
+        }
+        
+        public long readLong()
+        {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (m_bytes[m_pos++] & 0xFF);
+            
+            return value;
+        }
+        
+        public long readVarLong()
+        {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            
+            do
+            {
+                b = m_bytes[m_pos++];
+                value |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            }
+            while (b < 0);
+            
+            return value;
+        }
+        
+        public long readSignedVarLong()
+        {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+    
+    /**
+     * Reads and validates single blocks of the log. A block is only accepted
+     * if it lies completely inside the file, its header is sane and its
+     * payload matches the checksum. Both scanning and the repair of a torn log
+     * tail use this, so that they agree on where the valid part of the log
+     * ends.
+     */
+    private static class BlockReader
+    {
+        private ByteBuffer m_header        = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        private CRC32      m_crc           = new CRC32();
+        
+        private int        m_size;
+        private long       m_baseTime;
+        private int[]      m_columnLengths = new int[4];
+        private byte[]     m_payload       = new byte[0];
+        private int        m_payloadLength;
+        
+        /**
+         * @return <code>true</code> if a valid block starts at given position.
+         * <code>false</code> if the log ends there or the block is torn or
+         * corrupt.
+         */
+        public boolean read(FileChannel channel, long pos, long length) 
+            throws IOException
+        {
+            if (pos + BLOCK_HEADER_SIZE > length)
+                return false;
+            
+            m_header.clear();
+            readFully(channel, m_header, pos);
+            
+            m_size = m_header.getInt();
+            m_baseTime = m_header.getLong();
+            if (m_size <= 0 || m_size > BLOCK_SIZE)
+                return false;
+            
+            long payloadLength = 0;
+            for (int i = 0; i < 4; i++)
+            {
+                m_columnLengths[i] = m_header.getInt();
+                if (m_columnLengths[i] < 0)
+                    return false;
+                
+                payloadLength += m_columnLengths[i];
+            }
+            long checksum = m_header.getInt() & 0xFFFFFFFFL;
+            
+            if (pos + BLOCK_HEADER_SIZE + payloadLength > length)
+                return false;
+            
+            m_payloadLength = (int)payloadLength;
+            if (m_payload.length < m_payloadLength)
+                m_payload = new byte[m_payloadLength];
+            
+            readFully(channel, ByteBuffer.wrap(m_payload, 0, m_payloadLength), 
+                pos + BLOCK_HEADER_SIZE);
+            
+            m_crc.reset();
+            m_crc.update(m_payload, 0, m_payloadLength);
+            return m_crc.getValue() == checksum;
+        }
+        
+        public long getBlockLength()
+        {
+            return BLOCK_HEADER_SIZE + m_payloadLength;
+        }
+    }
+    
+    public static final int     BLOCK_SIZE        = 4096;
+    
+    private static final int    PASSED            = 1;
+    private static final int    FLIPPED           = 2;
+    
+    private static final int    FILE_MAGIC        = 0x4A4D5256; // "JMRV"
+    private static final int    FILE_VERSION      = 1;
+    private static final int    FILE_HEADER_SIZE  = 8;
+    
+    // size, base time, the lengths of the four columns and the checksum
+    private static final int    BLOCK_HEADER_SIZE = 4 + 8 + 4 * 4 + 4;
+    
+    private File                m_file;
+    private boolean             m_tailChecked;
+    
+    // the reviews that haven't been written yet
+    private int                 m_size;
+    private long[]              m_cardKeys        = new long[BLOCK_SIZE];
+    private long[]              m_times           = new long[BLOCK_SIZE];
+    private byte[]              m_outcomes        = new byte[BLOCK_SIZE];
+    private int[]               m_responseTimes   = new int[BLOCK_SIZE];
+    
+    public ReviewLog(File file)
+    {
+        m_file = file;
+    }
+    
+    /**
+     * @return a key for given card that stays the same across sessions as long
+     * as the front side of the card isn't edited. Cards have no persistent
+     * ids, so the key is made of the creation date (which is stored with
+     * second precision) and the hash of the front side text.
+     */
+    public static long getCardKey(Card card)
+    {
+        long created = card.getDateCreated().getTime() / 1000;
+        int hash = card.getFrontSide().getText().getUnformatted().hashCode();
+        
+        return (created << 32) | (hash & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Adds a review to the log. Reviews are written in blocks, so this only
+     * touches the file when a block is full.
+     * 
+     * @param time the time of the review in milliseconds.
+     * @param responseTime the time in milliseconds that it took the user to
+     * check the card.
+     */
+    public synchronized void record(long cardKey, long time, boolean passed, 
+        boolean flipped, int responseTime) throws IOException
+    {
+        m_cardKeys[m_size] = cardKey;
+        m_times[m_size] = time;
+        m_outcomes[m_size] = (byte)((passed ? PASSED : 0) | (flipped ? FLIPPED : 0));
+        m_responseTimes[m_size] = Math.max(0, responseTime);
+        m_size++;
+        
+        if (m_size == BLOCK_SIZE)
+            flush();
+    }
+    
+    /**
+     * Writes all buffered reviews as a new block to the end of the log.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (m_size == 0)
+            return;
+        
+        if (!m_tailChecked)
+        {
+            truncateTornBlock();
+            m_tailChecked = true;
+        }
+        
+        byte[] block = encodeBlock();
+        
+        FileOutputStream out = new FileOutputStream(m_file, true);
+        try
+        {
+            if (m_file.length() == 0)
+            {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(FILE_MAGIC).putInt(FILE_VERSION);
+                out.write(header.array());
+            }
+            
+            out.write(block);
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+        
+        m_size = 0;
+    }
+    
+    /**
+     * Reads all reviews of the log block by block. Buffered reviews are
+     * written first.
+     * 
+     * @param columns the columns that should be decoded. See
+     * {@link #CARD_KEYS}, {@link #TIMES}, {@link #OUTCOMES} and
+     * {@link #RESPONSE_TIMES}.
+     */
+    public void scan(int columns, ReviewVisitor visitor) throws IOException
+    {
+        long length;
+        synchronized (this)
+        {
+            flush();
+            length = m_file.length();
+        }
+        
+        if (length < FILE_HEADER_SIZE)
+            return;
+        
+        FileInputStream in = new FileInputStream(m_file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            checkFileHeader(channel);
+            
+            ReviewBlock block = new ReviewBlock();
+            BlockReader reader = new BlockReader();
+            
+            long pos = FILE_HEADER_SIZE;
+            while (reader.read(channel, pos, length))
+            {
+                decodeBlock(block, columns, reader.m_size, reader.m_baseTime, 
+                    reader.m_payload, reader.m_columnLengths);
+                visitor.visitBlock(block);
+                
+                pos += reader.getBlockLength();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+    
+    public File getFile()
+    {
+        return m_file;
+    }
+    
+    private byte[] encodeBlock()
+    {
+        ColumnWriter keys = new ColumnWriter();
+        ColumnWriter indices = new ColumnWriter();
+        Map<Long, Integer> dictionary = new HashMap<Long, Integer>();
+        
+        for (int i = 0; i < m_size; i++)
+        {
+            Integer index = dictionary.get(m_cardKeys[i]);
+            if (index == null)
+            {
+                index = dictionary.size();
+                dictionary.put(m_cardKeys[i], index);
+                keys.writeLong(m_cardKeys[i]);
+            }
+            
+            indices.writeVarLong(index);
+        }
+        
+        ColumnWriter cards = new ColumnWriter();
+        cards.writeVarLong(dictionary.size());
+        append(cards, keys);
+        append(cards, indices);
+        
+        ColumnWriter times = new ColumnWriter();
+        long lastTime = m_times[0];
+        for (int i = 0; i < m_size; i++)
+        {
+            times.writeSignedVarLong(m_times[i] - lastTime);
+            lastTime = m_times[i];
+        }
+        
+        ColumnWriter outcomes = new ColumnWriter();
+        for (int i = 0; i < m_size; i++)
+            outcomes.writeByte(m_outcomes[i]);
+        
+        ColumnWriter responseTimes = new ColumnWriter();
+        for (int i = 0; i < m_size; i++)
+            responseTimes.writeVarLong(m_responseTimes[i]);
+        
+        ColumnWriter[] columns = {cards, times, outcomes, responseTimes};
+        
+        CRC32 crc = new CRC32();
+        int payloadLength = 0;
+        for (ColumnWriter column : columns)
+        {
+            crc.update(column.m_bytes, 0, column.m_length);
+            payloadLength += column.m_length;
+        }
+        
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + payloadLength);
+        block.putInt(m_size);
+        block.putLong(m_times[0]);
+        for (ColumnWriter column : columns)
+            block.putInt(column.m_length);
+        block.putInt((int)crc.getValue());
+        
+        for (ColumnWriter column : columns)
+            block.put(column.m_bytes, 0, column.m_length);
+        
+        return block.array();
+    }
+    
+    private static void decodeBlock(ReviewBlock block, int columns, int size, 
+        long baseTime, byte[] payload, int[] columnLengths)
+    {
+        block.m_size = size;
+        int offset = 0;
+        
+        if ((columns & CARD_KEYS) != 0)
+        {
+            ColumnReader reader = new ColumnReader(payload, offset);
+            long[] dictionary = new long[(int)reader.readVarLong()];
+            for (int i = 0; i < dictionary.length; i++)
+                dictionary[i] = reader.readLong();
+            
+            for (int i = 0; i < size; i++)
+                block.m_cardKeys[i] = dictionary[(int)reader.readVarLong()];
+        }
+        offset += columnLengths[0];
+        
+        if ((columns & TIMES) != 0)
+        {
+            ColumnReader reader = new ColumnReader(payload, offset);
+            long time = baseTime;
+            for (int i = 0; i < size; i++)
+            {
+                time += reader.readSignedVarLong();
+                block.m_times[i] = time;
+            }
+        }
+        offset += columnLengths[1];
+        
+        if ((columns & OUTCOMES) != 0)
+            System.arraycopy(payload, offset, block.m_outcomes, 0, size);
+        offset += columnLengths[2];
+        
+        if ((columns & RESPONSE_TIMES) != 0)
+        {
+            ColumnReader reader = new ColumnReader(payload, offset);
+            for (int i = 0; i < size; i++)
+                block.m_responseTimes[i] = (int)reader.readVarLong();
+        }
+    }
+    
+    /**
+     * Cuts off everything after the last valid block of the log, so that new
+     * blocks are appended right after it and stay visible to {@link #scan}.
+     */
+    private void truncateTornBlock() throws IOException
+    {
+        if (!m_file.exists())
+            return;
+        
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw"); //$NON-NLS-1$
+        try
+        {
+            long length = file.length();
+            if (length < FILE_HEADER_SIZE)
+            {
+                file.setLength(0);
+                return;
+            }
+            
+            FileChannel channel = file.getChannel();
+            checkFileHeader(channel);
+            
+            BlockReader reader = new BlockReader();
+            long pos = FILE_HEADER_SIZE;
+            while (reader.read(channel, pos, length))
+                pos += reader.getBlockLength();
+            
+            if (pos < length)
+                file.setLength(pos);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+    
+    private static void checkFileHeader(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        readFully(channel, header, 0);
+        
+        if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION)
+            throw new IOException("Unknown review log format");
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, 
+        long pos) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, pos + buffer.position()) < 0)
+                throw new IOException("Unexpected end of review log");
+        }
+        buffer.flip();
+    }
+    
+    private static void append(ColumnWriter target, ColumnWriter source)
+    {
+        for (int i = 0; i < source.m_length; i++)
+            target.writeByte(source.m_bytes[i]);
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.Main;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchQuery;
+import jmemorize.core.SearchIndex.SearchObserver;
+import jmemorize.core.query.Condition.And;
+import jmemorize.core.query.Condition.DateCondition;
+import jmemorize.core.query.Condition.NumberCondition;
+import jmemorize.core.query.Condition.StateCondition;
+import jmemorize.core.query.Condition.TextCondition;
+import jmemorize.util.DirectExecutor;
+
+/**
+ * A compiled card query like <code>level>=2 AND front~"verb"</code>. Besides
+ * matching single cards, a query can be executed against a category. The
+ * conditions that all results have to satisfy are used to plan the
+ * execution: text conditions are looked up in the {@link SearchIndex} and
+ * level and state conditions restrict the decks that have to be scanned.
+ */
+public class CardQuery
+{
+    /**
+     * The minimal length of a text that can be looked up in the index. 
+     * Shorter texts don't contain a whole trigram.
+     */
+    private static final int      MIN_INDEX_TEXT     = 3;
+    
+    private static final int      CHUNK_SIZE         = 10000;
+    private static final int      PARALLEL_THRESHOLD = 2 * CHUNK_SIZE;
+    private static final int      THREADS            = Runtime.getRuntime().availableProcessors();
+    
+    private static final int      ALL_DECKS          = Integer.MAX_VALUE;
+    
+    private static ExecutorService m_workers;
+    
+    private final String          m_text;
+    private final Condition       m_condition;
+    
+    // the execution plan
+    private TextCondition         m_indexCondition;
+    private int                   m_minLevel         = 0;
+    private int                   m_maxLevel         = ALL_DECKS;
+    
+    /**
+     * Compiles the query.
+     * 
+     * @throws QueryException if the query has a syntax error.
+     */
+    public static CardQuery compile(String text) throws QueryException
+    {
+        return new CardQuery(text, new QueryParser(text).parse());
+    }
+    
+    private CardQuery(String text, Condition condition)
+    {
+        m_text = text;
+        m_condition = condition;
+        
+        plan();
+    }
+    
+    /**
+     * @return <code>true</code> if given card satisfies this query.
+     */
+    public boolean matches(Card card)
+    {
+        return m_condition.matches(card, Main.getNow().getTime());
+    }
+    
+    /**
+     * Returns all cards of given category and its child categories that
+     * match this query.
+     * 
+     * @param index the search index of the lesson or <code>null</code> if the
+     * decks should always be scanned.
+     */
+    public List<Card> execute(Category category, SearchIndex index)
+    {
+        final List<Card> foundCards = new ArrayList<Card>();
+        
+        execute(category, index, new SearchObserver() {
+            public void onCardsFound(List<Card> cards)
+            {
+                foundCards.addAll(cards);
+            }
+
+            public boolean isCancelled()
+            {
+                return false;
+            }
+        }, DirectExecutor.INSTANCE);
+        
+        return foundCards;
+    }
+    
+    /**
+     * Searches for all cards of given category and its child categories that
+     * match this query and passes them to the observer in pages. This can be
+     * called from any thread.
+     * 
+     * @param accessExecutor the executor on which the decks of the category
+     * are read. The category isn't read concurrently to its modifications if
+     * they are made on the same executor.
+     */
+    public void execute(Category category, SearchIndex index, 
+        final SearchObserver observer, Executor accessExecutor)
+    {
+        if (m_minLevel > m_maxLevel)
+            return;
+        
+        final long now = Main.getNow().getTime();
+        
+        if (index != null && m_indexCondition != null)
+        {
+            // the side constants of text conditions equal the ones of SearchTool
+            SearchQuery query = new SearchQuery(m_indexCondition.getValue(), 
+                m_indexCondition.getSide(), false, category);
+            
+            index.search(query, new SearchObserver() {
+                public void onCardsFound(List<Card> cards)
+                {
+                    List<Card> page = filter(cards, 0, cards.size(), now);
+                    if (!page.isEmpty())
+                        observer.onCardsFound(page);
+                }
+
+                public boolean isCancelled()
+                {
+                    return observer.isCancelled();
+                }
+            });
+        }
+        else
+        {
+            scan(getDeckCards(category, accessExecutor), observer, now);
+        }
+    }
+    
+    /**
+     * @return the texts that cards which match this query contain on given
+     * side. They can be used to highlight the matches.
+     * 
+     * @param side Either SearchTool.FRONT_SIDE or FLIP_SIDE.
+     */
+    public List<String> getTerms(int side)
+    {
+        List<String> terms = new ArrayList<String>();
+        
+        // the side constants of text conditions equal the ones of SearchTool
+        m_condition.collectTerms(side, terms);
+        
+        return terms;
+    }
+    
+    /**
+     * @return a short description of how this query is executed.
+     */
+    public String explain()
+    {
+        if (m_minLevel > m_maxLevel)
+            return "none"; //$NON-NLS-1$
+        
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(m_indexCondition != null ? 
+            "index " + m_indexCondition : "scan"); //$NON-NLS-1$ //$NON-NLS-2$
+        
+        if (m_minLevel > 0 || m_maxLevel != ALL_DECKS)
+        {
+            buffer.append(" decks ").append(m_minLevel).append('-'); //$NON-NLS-1$
+            buffer.append(m_maxLevel != ALL_DECKS ? String.valueOf(m_maxLevel) : "*"); //$NON-NLS-1$
+        }
+        
+        return buffer.toString();
+    }
+    
+    /**
+     * @return the text of which this query was compiled.
+     */
+    public String getText()
+    {
+        return m_text;
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return m_condition.toString();
+    }
+    
+    /**
+     * Plans the execution with the conditions that all results have to
+     * satisfy, which are the operands of a top level conjunction.
+     */
+    private void plan()
+    {
+        List<Condition> conditions = m_condition instanceof And ? 
+            ((And)m_condition).getConditions() : 
+            Collections.singletonList(m_condition);
+        
+        for (Condition condition : conditions)
+        {
+            if (condition instanceof TextCondition)
+            {
+                TextCondition text = (TextCondition)condition;
+                
+                // prefer the longest text, since it has the fewest candidates
+                if (text.getOperator() == Condition.CONTAINS && 
+                    text.getValue().length() >= MIN_INDEX_TEXT && 
+                    (m_indexCondition == null || 
+                    text.getValue().length() > m_indexCondition.getValue().length()))
+                {
+                    m_indexCondition = text;
+                }
+            }
+            else if (condition instanceof NumberCondition)
+            {
+                NumberCondition number = (NumberCondition)condition;
+                if (number.getField() == NumberCondition.LEVEL)
+                    restrictLevels(number.getOperator(), number.getValue());
+            }
+            else if (condition instanceof DateCondition)
+            {
+                // only cards in learned decks have an expiration date
+                if (((DateCondition)condition).getField() == DateCondition.EXPIRES)
+                    m_minLevel = Math.max(m_minLevel, 1);
+            }
+            else if (condition instanceof StateCondition)
+            {
+                if (((StateCondition)condition).getState() == StateCondition.UNLEARNED)
+                    m_maxLevel = 0;
+                else
+                    m_minLevel = Math.max(m_minLevel, 1);
+            }
+        }
+    }
+    
+    private void restrictLevels(int operator, int value)
+    {
+        switch (operator)
+        {
+        case Condition.LESS:
+            m_maxLevel = Math.min(m_maxLevel, value - 1);
+            break;
+        case Condition.LESS_EQUAL:
+            m_maxLevel = Math.min(m_maxLevel, value);
+            break;
+        case Condition.GREATER:
+            m_minLevel = Math.max(m_minLevel, value + 1);
+            break;
+        case Condition.GREATER_EQUAL:
+            m_minLevel = Math.max(m_minLevel, value);
+            break;
+        case Condition.EQUAL:
+            m_minLevel = Math.max(m_minLevel, value);
+            m_maxLevel = Math.min(m_maxLevel, value);
+            break;
+        }
+    }
+    
+    /**
+     * @return the cards of all decks in the level range of the plan.
+     */
+    private List<Card> getDeckCards(final Category category, Executor accessExecutor)
+    {
+        final List<Card> cards = new ArrayList<Card>();
+        
+        accessExecutor.execute(new Runnable() {
+            public void run()
+            {
+                int maxLevel = Math.min(m_maxLevel, category.getNumberOfDecks() - 1);
+                for (int level = m_minLevel; level <= maxLevel; level++)
+                {
+                    cards.addAll(category.getCards(level));
+                }
+            }
+        });
+        
+        return cards;
+    }
+    
+    /**
+     * Filters the cards in chunks and passes the results of every chunk to
+     * the observer. Large card lists are filtered in parallel, but the
+     * results are still passed in order.
+     */
+    private void scan(final List<Card> cards, SearchObserver observer, 
+        final long now)
+    {
+        if (cards.size() < PARALLEL_THRESHOLD)
+        {
+            for (int start = 0; start < cards.size(); start += CHUNK_SIZE)
+            {
+                if (observer.isCancelled())
+                    return;
+                
+                List<Card> page = filter(cards, start, 
+                    Math.min(start + CHUNK_SIZE, cards.size()), now);
+                
+                if (!page.isEmpty())
+                    observer.onCardsFound(page);
+            }
+            
+            return;
+        }
+        
+        LinkedList<Future<List<Card>>> pending = new LinkedList<Future<List<Card>>>();
+        for (int start = 0; start < cards.size(); start += CHUNK_SIZE)
+        {
+            final int from = start;
+            final int to = Math.min(start + CHUNK_SIZE, cards.size());
+            
+            pending.add(getWorkers().submit(new Callable<List<Card>>() {
+                public List<Card> call()
+                {
+                    return filter(cards, from, to, now);
+                }
+            }));
+        }
+        
+        try
+        {
+            while (!pending.isEmpty() && !observer.isCancelled())
+            {
+                List<Card> page = pending.removeFirst().get();
+                
+                if (!page.isEmpty() && !observer.isCancelled())
+                    observer.onCardsFound(page);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            for (Future<List<Card>> future : pending)
+            {
+                future.cancel(false);
+            }
+        }
+    }
+    
+    private List<Card> filter(List<Card> cards, int from, int to, long now)
+    {
+        List<Card> foundCards = new ArrayList<Card>();
+        
+        for (int i = from; i < to; i++)
+        {
+            Card card = cards.get(i);
+            int level = card.getLevel();
+            
+            if (level >= m_minLevel && level <= m_maxLevel && 
+                m_condition.matches(card, now))
+            {
+                foundCards.add(card);
+            }
+        }
+        
+        return foundCards;
+    }
+    
+    private static synchronized ExecutorService getWorkers()
+    {
+        if (m_workers == null)
+        {
+            m_workers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "query"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        return m_workers;
+    }
+}
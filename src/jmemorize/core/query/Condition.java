@@ -0,0 +1,440 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.query;
+
+import java.util.Date;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.CardSide;
+import jmemorize.core.TextNormalizer;
+
+/**
+ * A compiled condition of a card query.
+ */
+abstract class Condition
+{
+    // comparison operators
+    public static final int LESS          = 0;
+    public static final int LESS_EQUAL    = 1;
+    public static final int GREATER       = 2;
+    public static final int GREATER_EQUAL = 3;
+    public static final int EQUAL         = 4;
+    public static final int NOT_EQUAL     = 5;
+    public static final int CONTAINS      = 6;
+    
+    public static final String[] OPERATORS = {"<", "<=", ">", ">=", "=", "!=", "~"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+    
+    /**
+     * @param now the current time in milliseconds, which relative dates refer
+     * to.
+     */
+    public abstract boolean matches(Card card, long now);
+    
+    /**
+     * Adds the texts that matching cards contain on given side. Negated
+     * conditions don't add anything.
+     * 
+     * @param side Either TextCondition.FRONT or BACK.
+     */
+    void collectTerms(int side, List<String> terms)
+    {
+        // most conditions don't refer to the text
+    }
+    
+    /**
+     * @return <code>true</code> if the result of comparing two values
+     * satisfies given operator.
+     */
+    static boolean compare(int result, int operator)
+    {
+        switch (operator)
+        {
+        case LESS:          return result < 0;
+        case LESS_EQUAL:    return result <= 0;
+        case GREATER:       return result > 0;
+        case GREATER_EQUAL: return result >= 0;
+        case EQUAL:         return result == 0;
+        case NOT_EQUAL:     return result != 0;
+        default:            return false;
+        }
+    }
+    
+    static class And extends Condition
+    {
+        private final List<Condition> m_conditions;
+        
+        public And(List<Condition> conditions)
+        {
+            m_conditions = conditions;
+        }
+        
+        public List<Condition> getConditions()
+        {
+            return m_conditions;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            for (Condition condition : m_conditions)
+            {
+                if (!condition.matches(card, now))
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        void collectTerms(int side, List<String> terms)
+        {
+            for (Condition condition : m_conditions)
+            {
+                condition.collectTerms(side, terms);
+            }
+        }
+        
+        public String toString()
+        {
+            return join(m_conditions, " AND "); //$NON-NLS-1$
+        }
+    }
+    
+    static class Or extends Condition
+    {
+        private final List<Condition> m_conditions;
+        
+        public Or(List<Condition> conditions)
+        {
+            m_conditions = conditions;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            for (Condition condition : m_conditions)
+            {
+                if (condition.matches(card, now))
+                    return true;
+            }
+            
+            return false;
+        }
+        
+        void collectTerms(int side, List<String> terms)
+        {
+            for (Condition condition : m_conditions)
+            {
+                condition.collectTerms(side, terms);
+            }
+        }
+        
+        public String toString()
+        {
+            return "(" + join(m_conditions, " OR ") + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+    
+    static class Not extends Condition
+    {
+        private final Condition m_condition;
+        
+        public Not(Condition condition)
+        {
+            m_condition = condition;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            return !m_condition.matches(card, now);
+        }
+        
+        public String toString()
+        {
+            return "NOT " + m_condition; //$NON-NLS-1$
+        }
+    }
+    
+    /**
+     * Compares a number of the card with a constant.
+     */
+    static class NumberCondition extends Condition
+    {
+        public static final int LEVEL  = 0;
+        public static final int RATIO  = 1;
+        public static final int TESTS  = 2;
+        public static final int IMAGES = 3;
+        
+        public static final String[] FIELDS = {"level", "ratio", "tests", "images"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        
+        private final int m_field;
+        private final int m_operator;
+        private final int m_value;
+        
+        public NumberCondition(int field, int operator, int value)
+        {
+            m_field = field;
+            m_operator = operator;
+            m_value = value;
+        }
+        
+        public int getField()
+        {
+            return m_field;
+        }
+        
+        public int getOperator()
+        {
+            return m_operator;
+        }
+        
+        public int getValue()
+        {
+            return m_value;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            int value;
+            switch (m_field)
+            {
+            case LEVEL:
+                value = card.getLevel();
+                break;
+            case RATIO:
+                value = card.getPassRatio();
+                break;
+            case TESTS:
+                value = card.getTestsTotal();
+                break;
+            default:
+                value = card.getFrontSide().getImages().size() + 
+                    card.getBackSide().getImages().size();
+            }
+            
+            return compare(value < m_value ? -1 : (value == m_value ? 0 : 1), 
+                m_operator);
+        }
+        
+        public String toString()
+        {
+            return FIELDS[m_field] + OPERATORS[m_operator] + m_value;
+        }
+    }
+    
+    /**
+     * Compares a date of the card with a fixed date or with a date relative
+     * to the current time. Cards that don't have the date never match.
+     */
+    static class DateCondition extends Condition
+    {
+        public static final int EXPIRES  = 0;
+        public static final int CREATED  = 1;
+        public static final int TESTED   = 2;
+        public static final int MODIFIED = 3;
+        
+        public static final String[] FIELDS = {"expires", "created", "tested", "modified"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        
+        private final int     m_field;
+        private final int     m_operator;
+        private final long    m_time;
+        private final boolean m_relative;
+        
+        /**
+         * @param time the date in milliseconds or, if relative, the offset in
+         * milliseconds from the current time.
+         */
+        public DateCondition(int field, int operator, long time, boolean relative)
+        {
+            m_field = field;
+            m_operator = operator;
+            m_time = time;
+            m_relative = relative;
+        }
+        
+        public int getField()
+        {
+            return m_field;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            Date date;
+            switch (m_field)
+            {
+            case EXPIRES:
+                date = card.getDateExpired();
+                break;
+            case CREATED:
+                date = card.getDateCreated();
+                break;
+            case TESTED:
+                date = card.getDateTested();
+                break;
+            default:
+                date = card.getDateModified();
+            }
+            
+            if (date == null)
+                return false;
+            
+            long time = m_relative ? now + m_time : m_time;
+            long value = date.getTime();
+            
+            return compare(value < time ? -1 : (value == time ? 0 : 1), m_operator);
+        }
+        
+        public String toString()
+        {
+            String value = m_relative ? 
+                (m_time / Card.ONE_DAY) + "d" : String.valueOf(new Date(m_time)); //$NON-NLS-1$
+            
+            return FIELDS[m_field] + OPERATORS[m_operator] + value;
+        }
+    }
+    
+    /**
+     * Matches the text of one or both card sides. Case, accents and whitespace
+     * are ignored (see {@link TextNormalizer}).
+     */
+    static class TextCondition extends Condition
+    {
+        public static final int FRONT = 0;
+        public static final int BACK  = 1;
+        public static final int BOTH  = 2;
+        
+        public static final String[] FIELDS = {"front", "back", "text"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        
+        private final int    m_side;
+        private final int    m_operator;
+        private final String m_value;
+        
+        /**
+         * @param operator Either CONTAINS, EQUAL or NOT_EQUAL.
+         */
+        public TextCondition(int side, int operator, String value)
+        {
+            m_side = side;
+            m_operator = operator;
+            m_value = TextNormalizer.normalize(value);
+        }
+        
+        public int getSide()
+        {
+            return m_side;
+        }
+        
+        public int getOperator()
+        {
+            return m_operator;
+        }
+        
+        public String getValue()
+        {
+            return m_value;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            if (m_operator == NOT_EQUAL)
+                return !matchesSides(card, EQUAL);
+            
+            return matchesSides(card, m_operator);
+        }
+        
+        void collectTerms(int side, List<String> terms)
+        {
+            if (m_operator != NOT_EQUAL && (m_side == side || m_side == BOTH))
+                terms.add(m_value);
+        }
+        
+        public String toString()
+        {
+            return FIELDS[m_side] + OPERATORS[m_operator] + '"' + m_value + '"';
+        }
+        
+        private boolean matchesSides(Card card, int operator)
+        {
+            return (m_side != BACK && matchesSide(card.getFrontSide(), operator)) ||
+                (m_side != FRONT && matchesSide(card.getBackSide(), operator));
+        }
+        
+        private boolean matchesSide(CardSide cardSide, int operator)
+        {
+            String text = cardSide.getNormalizedText();
+            
+            return operator == CONTAINS ? 
+                text.indexOf(m_value) > -1 : text.equals(m_value);
+        }
+    }
+    
+    /**
+     * Matches cards in a learn state.
+     */
+    static class StateCondition extends Condition
+    {
+        public static final int UNLEARNED = 0;
+        public static final int LEARNED   = 1;
+        public static final int EXPIRED   = 2;
+        
+        public static final String[] STATES = {"unlearned", "learned", "expired"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        
+        private final int m_state;
+        
+        public StateCondition(int state)
+        {
+            m_state = state;
+        }
+        
+        public int getState()
+        {
+            return m_state;
+        }
+        
+        public boolean matches(Card card, long now)
+        {
+            switch (m_state)
+            {
+            case UNLEARNED:
+                return card.isUnlearned();
+            case LEARNED:
+                return card.isLearned();
+            default:
+                return card.isExpired();
+            }
+        }
+        
+        public String toString()
+        {
+            return STATES[m_state];
+        }
+    }
+    
+    private static String join(List<Condition> conditions, String separator)
+    {
+        StringBuffer buffer = new StringBuffer();
+        for (Condition condition : conditions)
+        {
+            if (buffer.length() > 0)
+                buffer.append(separator);
+            
+            buffer.append(condition);
+        }
+        
+        return buffer.toString();
+    }
+}
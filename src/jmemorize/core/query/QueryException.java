@@ -0,0 +1,43 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.query;
+
+/**
+ * Is thrown when a card query can't be compiled.
+ */
+public class QueryException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+    
+    private final int m_position;
+    
+    public QueryException(String message, int position)
+    {
+        super(message);
+        m_position = position;
+    }
+    
+    /**
+     * @return the position in the query text at which the error was found.
+     */
+    public int getPosition()
+    {
+        return m_position;
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.query;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jmemorize.core.Card;
+import jmemorize.core.query.Condition.And;
+import jmemorize.core.query.Condition.DateCondition;
+import jmemorize.core.query.Condition.Not;
+import jmemorize.core.query.Condition.NumberCondition;
+import jmemorize.core.query.Condition.Or;
+import jmemorize.core.query.Condition.StateCondition;
+import jmemorize.core.query.Condition.TextCondition;
+
+/**
+ * A recursive descent parser for card queries. The grammar is
+ * 
+ * <pre>
+ * query     := and ("OR" and)*
+ * and       := unary (["AND"] unary)*
+ * unary     := "NOT" unary | "(" query ")" | condition
+ * condition := field operator value | state | string
+ * </pre>
+ * 
+ * Keywords and field names are not case sensitive.
+ */
+class QueryParser
+{
+    private static final Pattern RELATIVE_DAYS = Pattern.compile("(-?\\d+)d"); //$NON-NLS-1$
+    private static final String  DATE_FORMAT   = "yyyy-MM-dd";                  //$NON-NLS-1$
+    
+    // token types
+    private static final int     WORD          = 0;
+    private static final int     STRING        = 1;
+    private static final int     OPERATOR      = 2;
+    private static final int     OPEN          = 3;
+    private static final int     CLOSE         = 4;
+    private static final int     END           = 5;
+    
+    private final String         m_text;
+    private int                  m_pos;
+    
+    // the current token
+    private int                  m_type;
+    private String               m_token;
+    private int                  m_tokenPos;
+    
+    public QueryParser(String text)
+    {
+        m_text = text;
+    }
+    
+    public Condition parse() throws QueryException
+    {
+        nextToken();
+        
+        if (m_type == END)
+            throw new QueryException("Empty query", 0); //$NON-NLS-1$
+        
+        Condition condition = parseOr();
+        
+        if (m_type != END)
+            throw error("Unexpected " + m_token); //$NON-NLS-1$
+        
+        return condition;
+    }
+    
+    private Condition parseOr() throws QueryException
+    {
+        List<Condition> conditions = new ArrayList<Condition>();
+        conditions.add(parseAnd());
+        
+        while (isKeyword("OR")) //$NON-NLS-1$
+        {
+            nextToken();
+            conditions.add(parseAnd());
+        }
+        
+        return conditions.size() == 1 ? conditions.get(0) : new Or(conditions);
+    }
+    
+    private Condition parseAnd() throws QueryException
+    {
+        List<Condition> conditions = new ArrayList<Condition>();
+        conditions.add(parseUnary());
+        
+        while (m_type != END && m_type != CLOSE && !isKeyword("OR")) //$NON-NLS-1$
+        {
+            if (isKeyword("AND")) //$NON-NLS-1$
+                nextToken();
+            
+            Condition condition = parseUnary();
+            
+            // flatten nested conjunctions, so that the planner sees all of them
+            if (condition instanceof And)
+                conditions.addAll(((And)condition).getConditions());
+            else
+                conditions.add(condition);
+        }
+        
+        return conditions.size() == 1 ? conditions.get(0) : new And(conditions);
+    }
+    
+    private Condition parseUnary() throws QueryException
+    {
+        if (isKeyword("NOT")) //$NON-NLS-1$
+        {
+            nextToken();
+            return new Not(parseUnary());
+        }
+        
+        if (m_type == OPEN)
+        {
+            nextToken();
+            Condition condition = parseOr();
+            
+            if (m_type != CLOSE)
+                throw error("Missing )"); //$NON-NLS-1$
+            
+            nextToken();
+            return condition;
+        }
+        
+        return parseCondition();
+    }
+    
+    private Condition parseCondition() throws QueryException
+    {
+        if (m_type == STRING)
+        {
+            // a plain string searches both sides
+            String value = m_token;
+            nextToken();
+            
+            return new TextCondition(TextCondition.BOTH, Condition.CONTAINS, value);
+        }
+        
+        if (m_type != WORD)
+            throw error("Expected condition but found " + describeToken()); //$NON-NLS-1$
+        
+        String field = m_token.toLowerCase();
+        int fieldPos = m_tokenPos;
+        nextToken();
+        
+        if (m_type != OPERATOR)
+        {
+            int state = indexOf(StateCondition.STATES, field);
+            if (state < 0)
+                throw new QueryException("Unknown condition " + field, fieldPos); //$NON-NLS-1$
+            
+            return new StateCondition(state);
+        }
+        
+        int operator = indexOf(Condition.OPERATORS, m_token);
+        int operatorPos = m_tokenPos;
+        nextToken();
+        
+        if (m_type != WORD && m_type != STRING)
+            throw error("Expected value but found " + describeToken()); //$NON-NLS-1$
+        
+        String value = m_token;
+        int valuePos = m_tokenPos;
+        nextToken();
+        
+        int index;
+        if ((index = indexOf(NumberCondition.FIELDS, field)) >= 0)
+        {
+            checkComparison(operator, operatorPos);
+            
+            try
+            {
+                return new NumberCondition(index, operator, Integer.parseInt(value));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new QueryException("Expected number but found " + value, valuePos); //$NON-NLS-1$
+            }
+        }
+        
+        if ((index = indexOf(DateCondition.FIELDS, field)) >= 0)
+        {
+            checkComparison(operator, operatorPos);
+            
+            Matcher m = RELATIVE_DAYS.matcher(value);
+            if (m.matches())
+            {
+                long offset = Long.parseLong(m.group(1)) * Card.ONE_DAY;
+                return new DateCondition(index, operator, offset, true);
+            }
+            
+            try
+            {
+                SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+                format.setLenient(false);
+                
+                long time = format.parse(value).getTime();
+                return new DateCondition(index, operator, time, false);
+            }
+            catch (ParseException e)
+            {
+                throw new QueryException("Expected date but found " + value, valuePos); //$NON-NLS-1$
+            }
+        }
+        
+        if ((index = indexOf(TextCondition.FIELDS, field)) >= 0)
+        {
+            if (operator != Condition.CONTAINS && operator != Condition.EQUAL && 
+                operator != Condition.NOT_EQUAL)
+            {
+                throw new QueryException("Text can't be compared with " + //$NON-NLS-1$
+                    Condition.OPERATORS[operator], operatorPos);
+            }
+            
+            return new TextCondition(index, operator, value);
+        }
+        
+        throw new QueryException("Unknown field " + field, fieldPos); //$NON-NLS-1$
+    }
+    
+    private void checkComparison(int operator, int pos) throws QueryException
+    {
+        if (operator == Condition.CONTAINS)
+        {
+            throw new QueryException("Operator " + Condition.OPERATORS[operator] + //$NON-NLS-1$
+                " can only be used with text", pos); //$NON-NLS-1$
+        }
+    }
+    
+    private boolean isKeyword(String keyword)
+    {
+        return m_type == WORD && m_token.equalsIgnoreCase(keyword);
+    }
+    
+    private String describeToken()
+    {
+        return m_type == END ? "end of query" : m_token; //$NON-NLS-1$
+    }
+    
+    private QueryException error(String message)
+    {
+        return new QueryException(message, m_tokenPos);
+    }
+    
+    private void nextToken() throws QueryException
+    {
+        while (m_pos < m_text.length() && Character.isWhitespace(m_text.charAt(m_pos)))
+            m_pos++;
+        
+        m_tokenPos = m_pos;
+        
+        if (m_pos == m_text.length())
+        {
+            m_type = END;
+            m_token = null;
+            return;
+        }
+        
+        char c = m_text.charAt(m_pos);
+        if (c == '(' || c == ')')
+        {
+            m_type = c == '(' ? OPEN : CLOSE;
+            m_token = String.valueOf(c);
+            m_pos++;
+        }
+        else if (c == '"')
+        {
+            m_type = STRING;
+            m_token = readString();
+        }
+        else if (isOperatorChar(c))
+        {
+            int start = m_pos++;
+            if (m_pos < m_text.length() && m_text.charAt(m_pos) == '=')
+                m_pos++;
+            
+            m_type = OPERATOR;
+            m_token = m_text.substring(start, m_pos);
+            
+            if (indexOf(Condition.OPERATORS, m_token) < 0)
+                throw error("Unknown operator " + m_token); //$NON-NLS-1$
+        }
+        else
+        {
+            int start = m_pos;
+            while (m_pos < m_text.length() && isWordChar(m_text.charAt(m_pos)))
+                m_pos++;
+            
+            m_type = WORD;
+            m_token = m_text.substring(start, m_pos);
+        }
+    }
+    
+    private String readString() throws QueryException
+    {
+        StringBuffer buffer = new StringBuffer();
+        m_pos++; // opening quote
+        
+        while (m_pos < m_text.length())
+        {
+            char c = m_text.charAt(m_pos++);
+            
+            if (c == '"')
+                return buffer.toString();
+            
+            if (c == '\\' && m_pos < m_text.length())
+                c = m_text.charAt(m_pos++);
+            
+            buffer.append(c);
+        }
+        
+        throw error("Missing closing quote"); //$NON-NLS-1$
+    }
+    
+    private static boolean isOperatorChar(char c)
+    {
+        return c == '<' || c == '>' || c == '=' || c == '!' || c == '~';
+    }
+    
+    private static boolean isWordChar(char c)
+    {
+        return !Character.isWhitespace(c) && !isOperatorChar(c) && 
+            c != '(' && c != ')' && c != '"';
+    }
+    
+    private static int indexOf(String[] values, String value)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            if (values[i].equals(value))
+                return i;
+        }
+        
+        return -1;
+    }
+}
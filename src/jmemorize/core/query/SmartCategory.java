@@ -0,0 +1,347 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jmemorize.core.Card;
+import jmemorize.core.CardBatchObserver;
+import jmemorize.core.Category;
+import jmemorize.core.SearchIndex;
+
+/**
+ * A virtual category that holds all cards of a source category that match a
+ * saved query. The result is computed once and then kept up to date with the
+ * card events of the source category, so that getting the cards only takes
+ * time proportional to the number of results.
+ * 
+ * Cards and categories that are added to a smart category are added to its
+ * source category instead. Note that conditions that refer to the current
+ * time are only reevaluated when a card changes or {@link #refresh()} is
+ * called.
+ */
+public class SmartCategory extends Category implements CardBatchObserver
+{
+    private final CardQuery        m_query;
+    private final Category         m_source;
+    private final SearchIndex      m_index;
+    
+    // the found cards by their level
+    private List<Set<Card>>        m_foundDecks  = new ArrayList<Set<Card>>();
+    private Map<Card, Integer>     m_foundLevels = new HashMap<Card, Integer>();
+    
+    /**
+     * @param index the search index of the lesson or <code>null</code> if the
+     * query should be executed without it.
+     */
+    public SmartCategory(String name, CardQuery query, Category source, 
+        SearchIndex index)
+    {
+        super(name);
+        
+        m_query = query;
+        m_source = source;
+        m_index = index;
+        
+        for (Card card : query.execute(source, index))
+        {
+            addResult(card);
+        }
+        
+        source.addObserver(this);
+    }
+    
+    public CardQuery getQuery()
+    {
+        return m_query;
+    }
+    
+    /**
+     * @return the category whose cards are filtered.
+     */
+    public Category getSource()
+    {
+        return m_source;
+    }
+    
+    /**
+     * Executes the query again. This is only needed for queries whose result
+     * depends on the current time.
+     */
+    public void refresh()
+    {
+        m_foundDecks.clear();
+        m_foundLevels.clear();
+        
+        for (Card card : m_query.execute(m_source, m_index))
+        {
+            addResult(card);
+        }
+        
+        fireCategoryEvent(EDITED_EVENT, this);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public List<Card> getCards()
+    {
+        List<Card> cards = new ArrayList<Card>(m_foundLevels.size());
+        for (Set<Card> deck : m_foundDecks)
+        {
+            cards.addAll(deck);
+        }
+        
+        return cards;
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public List<Card> getCards(int level)
+    {
+        if (level == -1)
+            return getCards();
+        
+        if (level >= m_foundDecks.size())
+            return new ArrayList<Card>();
+        
+        return new ArrayList<Card>(m_foundDecks.get(level));
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public List<Card> getLocalCards(int level)
+    {
+        return getCards(level);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public List<Card> getUnlearnedCards()
+    {
+        return getCards(0);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public int getNumberOfDecks()
+    {
+        return Math.max(m_source.getNumberOfDecks(), m_foundDecks.size());
+    }
+    
+    /**
+     * The subtree also includes the categories of the source, because the
+     * found cards belong to them.
+     * 
+     * @see jmemorize.core.Category#getSubtreeList()
+     */
+    public List<Category> getSubtreeList()
+    {
+        List<Category> list = new ArrayList<Category>();
+        
+        list.add(this);
+        list.addAll(m_source.getSubtreeList());
+        
+        return list;
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public void addCard(Card card, int level)
+    {
+        m_source.addCard(card, level);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public void addCards(List<Card> cards, int level)
+    {
+        m_source.addCards(cards, level);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public void removeCard(Card card)
+    {
+        card.getCategory().removeCard(card);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Category
+     */
+    public Category addCategoryChild(Category category)
+    {
+        return m_source.addCategoryChild(category);
+    }
+    
+    /**
+     * Stops observing the source category.
+     * 
+     * Fires a REMOVED_EVENT.
+     * 
+     * @see jmemorize.core.Category#remove()
+     */
+    public void remove()
+    {
+        m_source.removeObserver(this);
+        
+        fireCategoryEvent(REMOVED_EVENT, this);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public void onCardEvent(int type, Card card, Category category, int deck)
+    {
+        switch (type)
+        {
+        case REMOVED_EVENT:
+            Integer level = removeResult(card);
+            if (level != null)
+                fireCardEvent(REMOVED_EVENT, card, category, level.intValue());
+            break;
+            
+        default:
+            updateResult(type, card, category, deck);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CardBatchObserver
+     */
+    public void onCardsAdded(List<Card> cards, Category category, int deck)
+    {
+        List<Card> added = new ArrayList<Card>();
+        for (Card card : cards)
+        {
+            if (m_query.matches(card) && addResult(card))
+                added.add(card);
+        }
+        
+        if (!added.isEmpty())
+            fireCardsAdded(Collections.unmodifiableList(added), this, deck);
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.CategoryObserver
+     */
+    public void onCategoryEvent(int type, Category category)
+    {
+        boolean changed = false;
+        
+        if (type == ADDED_EVENT)
+        {
+            for (Card card : category.getCards())
+            {
+                if (m_query.matches(card))
+                    changed |= addResult(card);
+            }
+        }
+        else if (type == REMOVED_EVENT)
+        {
+            for (Card card : category.getCards())
+            {
+                changed |= removeResult(card) != null;
+            }
+        }
+        
+        if (changed)
+            fireCategoryEvent(EDITED_EVENT, this);
+    }
+    
+    /**
+     * Tests a single changed card against the query and updates the result.
+     */
+    private void updateResult(int type, Card card, Category category, int deck)
+    {
+        boolean found = m_foundLevels.containsKey(card);
+        boolean matches = card.getCategory() != null && m_query.matches(card);
+        
+        if (!found && !matches)
+            return;
+        
+        if (!found)
+        {
+            addResult(card);
+            fireCardEvent(ADDED_EVENT, card, category, card.getLevel());
+        }
+        else if (!matches)
+        {
+            int level = removeResult(card).intValue();
+            fireCardEvent(REMOVED_EVENT, card, category, level);
+        }
+        else
+        {
+            // the card could have changed its deck
+            if (m_foundLevels.get(card).intValue() != card.getLevel())
+            {
+                removeResult(card);
+                addResult(card);
+            }
+            
+            fireCardEvent(type, card, category, deck);
+        }
+    }
+    
+    /**
+     * @return <code>true</code> if the card wasn't found before.
+     */
+    private boolean addResult(Card card)
+    {
+        if (m_foundLevels.containsKey(card))
+            return false;
+        
+        int level = card.getLevel();
+        while (m_foundDecks.size() <= level)
+        {
+            m_foundDecks.add(new LinkedHashSet<Card>());
+        }
+        
+        m_foundDecks.get(level).add(card);
+        m_foundLevels.put(card, level);
+        
+        return true;
+    }
+    
+    /**
+     * @return the level at which the card was found or <code>null</code> if
+     * the card wasn't found.
+     */
+    private Integer removeResult(Card card)
+    {
+        Integer level = m_foundLevels.remove(card);
+        if (level != null)
+            m_foundDecks.get(level.intValue()).remove(card);
+        
+        return level;
+    }
+}
@@ -29,6 +29,14 @@ public class AllTests
         //$JUnit-BEGIN$
         suite.addTestSuite(CardTest.class);
         suite.addTestSuite(CategoryTest.class);
+        suite.addTestSuite(SearchIndexTest.class);
+        suite.addTestSuite(HighlighterTest.class);
+        suite.addTestSuite(TextNormalizerTest.class);
+        suite.addTestSuite(SearchIndexFileTest.class);
+        suite.addTestSuite(LessonSearchTest.class);
+        suite.addTestSuite(DuplicateIndexTest.class);
+        suite.addTestSuite(CardQueryTest.class);
+        suite.addTestSuite(SmartCategoryTest.class);
         suite.addTestSuite(LessonProviderTest.class);
         suite.addTestSuite(FormattedTextTest.class);
         
@@ -40,10 +48,14 @@ public class AllTests
         suite.addTestSuite(LearnSessionLargeTest.class);
         suite.addTestSuite(LearnSessionShufflingTest.class);
         suite.addTestSuite(LearnHistoryTest.class);
+        suite.addTestSuite(ReviewLogTest.class);
         
         suite.addTestSuite(LocalizationTest.class);
         suite.addTestSuite(ImageRepositoryTest.class);
+        suite.addTestSuite(ImageCacheTest.class);
         suite.addTestSuite(CSVToolkitTest.class);
+        suite.addTestSuite(PdfRtfBuilderTest.class);
+        suite.addTestSuite(SafeFileOutputStreamTest.class);
         //$JUnit-END$
         return suite;
     }
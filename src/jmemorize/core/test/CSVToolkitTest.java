@@ -20,8 +20,10 @@ package jmemorize.core.test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
@@ -31,15 +33,25 @@ import java.util.List;
 
 import jmemorize.core.Card;
 import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.Lesson;
+import jmemorize.core.io.CancelledException;
 import jmemorize.core.io.CsvBuilder;
+import jmemorize.core.io.CsvImporter;
+import jmemorize.core.io.ProgressObserver;
 import jmemorize.core.io.CsvBuilder.BadHeaderException;
 import jmemorize.gui.Localization;
 import junit.framework.TestCase;
 
 public class CSVToolkitTest extends TestCase
 {
-    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final Charset CHARSET   = Charset.forName("UTF-8");
+    private static final File    TEST_FILE = new File("test.csv");
+    
+    protected void tearDown() throws Exception
+    {
+        TEST_FILE.delete();
+    }
     
     public void testImportNeedsHeader() throws IOException
     {
@@ -127,6 +139,25 @@ public class CSVToolkitTest extends TestCase
         assertCard("germany", "german", "language", (Card)cards.get(5));
     }
     
+    public void testImportWithCategoriesTwiceSkipDuplicates()
+        throws IOException, BadHeaderException
+    {
+        Lesson lesson = new Lesson(false);
+        
+        InputStream in = getFileStream("withCategories.csv");
+        CsvBuilder.importLesson(in, ',', CHARSET, lesson);
+        in = getFileStream("withCategories.csv");
+        CsvBuilder.importLesson(in, ',', CHARSET, lesson, DuplicateIndex.SKIP);
+        
+        List<Card> cards = lesson.getRootCategory().getCards();
+        sortByFrontside(cards);
+        
+        assertEquals(3, cards.size());
+        assertCard("france",  "paris",  "capital",  (Card)cards.get(0));
+        assertCard("germany", "berlin", "capital",  (Card)cards.get(1));
+        assertCard("germany", "german", "language", (Card)cards.get(2));
+    }
+    
     public void testImportWithDecks() throws IOException, BadHeaderException
     {
         InputStream in = getFileStream("withDecks.csv");
@@ -183,6 +214,193 @@ public class CSVToolkitTest extends TestCase
         assertCard("front2", "flip2", root, 2, (Card)cards2.get(1));
     }
     
+    public void testExportNestedCategories() throws IOException, BadHeaderException
+    {
+        Category rootCategory = new Category("alltest");
+        Category animals = rootCategory.addCategoryChild(new Category("animals"));
+        Category birds = animals.addCategoryChild(new Category("birds"));
+        birds.addCard(new Card("front1", "flip1"), 1);
+        animals.addCard(new Card("front2", "flip2"));
+        Lesson lesson = new Lesson(rootCategory, true);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvBuilder.exportLesson(out, lesson, ',', CHARSET);
+        
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Lesson lesson2 = new Lesson(false);
+        CsvBuilder.importLesson(in, ',', CHARSET, lesson2);
+        
+        Category animals2 = lesson2.getRootCategory().getChildCategory("animals");
+        assertEquals(1, lesson2.getRootCategory().getChildCategories().size());
+        assertCard("front2", "flip2", "animals", 0, animals2.getLocalCards().get(0));
+        
+        Category birds2 = animals2.getChildCategory("birds");
+        assertCard("front1", "flip1", "birds", 1, birds2.getLocalCards().get(0));
+    }
+    
+    public void testExportEscapesCategorySeparator() 
+        throws IOException, BadHeaderException
+    {
+        Category rootCategory = new Category("alltest");
+        Category category = rootCategory.addCategoryChild(new Category("a/b\\c"));
+        category.addCard(new Card("front1", "flip1"));
+        Lesson lesson = new Lesson(rootCategory, true);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvBuilder.exportLesson(out, lesson, ',', CHARSET);
+        
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Lesson lesson2 = new Lesson(false);
+        CsvBuilder.importLesson(in, ',', CHARSET, lesson2);
+        
+        List<Category> categories = lesson2.getRootCategory().getChildCategories();
+        assertEquals(1, categories.size());
+        assertCard("front1", "flip1", "a/b\\c", 0, 
+            categories.get(0).getLocalCards().get(0));
+    }
+    
+    public void testImportPlainCategoryNames() 
+        throws IOException, BadHeaderException
+    {
+        String csv = "Frontside,Flipside,Category\nfront1,flip1,a/b\\c\n";
+        
+        Lesson lesson = new Lesson(false);
+        CsvBuilder.importLesson(new ByteArrayInputStream(csv.getBytes("UTF-8")), 
+            ',', CHARSET, lesson);
+        
+        List<Category> categories = lesson.getRootCategory().getChildCategories();
+        assertEquals(1, categories.size());
+        assertCard("front1", "flip1", "a/b\\c", 0, 
+            categories.get(0).getLocalCards().get(0));
+    }
+    
+    public void testImportManyRecordsKeepsOrder() 
+        throws IOException, BadHeaderException
+    {
+        int n = CsvImporter.BATCH_SIZE * 3 + 17;
+        Lesson lesson = new Lesson(false);
+        CsvBuilder.importLesson(createCsv(n), ',', CHARSET, lesson);
+        
+        Category root = lesson.getRootCategory();
+        assertEquals(n, root.getCards().size());
+        assertEquals(2, root.getChildCategories().size());
+        
+        List<Card> cards = root.getChildCategory("even").getLocalCards(1);
+        assertEquals("front4", cards.get(0).getFrontSide().getText().getUnformatted());
+        assertEquals("front10", cards.get(1).getFrontSide().getText().getUnformatted());
+        assertEquals((n + 4) / 6, cards.size());
+    }
+    
+    public void testCancelImport() throws IOException, BadHeaderException
+    {
+        Lesson lesson = new Lesson(false);
+        
+        CsvImporter importer = new CsvImporter(',', CHARSET);
+        importer.setProgressObserver(new ProgressObserver() {
+            private boolean m_cancelled;
+            
+            public void onProgress(long done, long total)
+            {
+                m_cancelled = true;
+            }
+
+            public boolean isCancelled()
+            {
+                return m_cancelled;
+            }
+        });
+        
+        try
+        {
+            importer.importLesson(createCsv(CsvImporter.BATCH_SIZE * 5), -1, lesson);
+            fail("Expected exception not thrown.");
+        }
+        catch (CancelledException e)
+        {
+            // fallthrough, expected
+        }
+        
+        assertEquals(CsvImporter.BATCH_SIZE, lesson.getRootCategory().getCards().size());
+    }
+    
+    public void testImportMappedFileLikeStream() 
+        throws IOException, BadHeaderException
+    {
+        StringBuffer csv = new StringBuffer("\nFrontside,Flipside,Category,Level\r\n");
+        for (int i = 0; csv.length() < CsvImporter.CHUNK_SIZE * 3; i++)
+        {
+            csv.append("  front").append(i).append(" ,\"flip, \"\"").append(i);
+            csv.append("\"\"\n\r\nline\"");
+            csv.append(',').append(i % 2 == 0 ? "even" : "\"odd\"").append(',');
+            csv.append(i % 3).append(i % 5 == 0 ? "\r\n\n" : "\n");
+        }
+        csv.append("last,\"unterminated");
+        
+        byte[] bytes = csv.toString().getBytes("UTF-8");
+        FileOutputStream out = new FileOutputStream(TEST_FILE);
+        out.write(bytes);
+        out.close();
+        
+        Lesson mapped = new Lesson(false);
+        new CsvImporter(',', CHARSET).importFile(TEST_FILE, mapped);
+        
+        Lesson streamed = new Lesson(false);
+        CsvBuilder.importLesson(new ByteArrayInputStream(bytes), ',', CHARSET, streamed);
+        
+        List<Card> mappedCards = mapped.getRootCategory().getCards();
+        List<Card> streamedCards = streamed.getRootCategory().getCards();
+        assertTrue(streamedCards.size() > 10000);
+        assertEquals(streamedCards.size(), mappedCards.size());
+        
+        for (int i = 0; i < streamedCards.size(); i++)
+        {
+            Card card = streamedCards.get(i);
+            Card mappedCard = mappedCards.get(i);
+            
+            assertEquals(card.getFrontSide().getText(), mappedCard.getFrontSide().getText());
+            assertEquals(card.getBackSide().getText(), mappedCard.getBackSide().getText());
+            assertEquals(card.getCategory().getName(), mappedCard.getCategory().getName());
+            assertEquals(card.getLevel(), mappedCard.getLevel());
+        }
+    }
+    
+    public void testImportMappedFileReportsLine() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(TEST_FILE);
+        out.write("Frontside,Flipside,Level\na,b,1\n\"c\nd\",e,2\nf,g,x\n".getBytes("UTF-8"));
+        out.close();
+        
+        Lesson lesson = new Lesson(false);
+        try
+        {
+            new CsvImporter(',', CHARSET).importFile(TEST_FILE, lesson);
+            fail("Expected exception not thrown.");
+        }
+        catch (BadHeaderException e)
+        {
+            fail(e.getMessage());
+        }
+        catch (IOException e)
+        {
+            assertEquals("Invalid level 'x' (line 2).", e.getMessage());
+        }
+        
+        assertEquals(2, lesson.getRootCategory().getCards().size());
+    }
+    
+    private InputStream createCsv(int records) throws IOException
+    {
+        StringBuffer csv = new StringBuffer("Frontside,Flipside,Category,Level\n");
+        for (int i = 0; i < records; i++)
+        {
+            csv.append("front").append(i).append(",flip").append(i).append(',');
+            csv.append(i % 2 == 0 ? "even" : "odd").append(',').append(i % 3);
+            csv.append('\n');
+        }
+        
+        return new ByteArrayInputStream(csv.toString().getBytes("UTF-8"));
+    }
+    
     private InputStream getFileStream(String file) throws FileNotFoundException
     {
         return new FileInputStream("test/fixtures/csv/"+file);
@@ -0,0 +1,226 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchTool;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.QueryException;
+import junit.framework.TestCase;
+
+public class CardQueryTest extends TestCase
+{
+    private Category    m_root;
+    private Category    m_child;
+    private SearchIndex m_index;
+    
+    private Card        m_card0 = new Card("to walk", "gehen");
+    private Card        m_card1 = new Card("the house", "das Haus");
+    private Card        m_card2 = new Card("to run", "laufen");
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_root = new Category("root");
+        m_child = m_root.addCategoryChild(new Category("child"));
+        
+        m_root.addCard(m_card0, 0);
+        m_child.addCard(m_card1, 1);
+        m_child.addCard(m_card2, 2);
+        
+        m_card1.setDateExpired(new Date(new Date().getTime() + 2 * Card.ONE_DAY));
+        m_card2.setDateExpired(new Date(new Date().getTime() - Card.ONE_DAY));
+        
+        m_index = new SearchIndex(m_root);
+    }
+    
+    public void testTextConditions() throws QueryException
+    {
+        assertCards(execute("front~\"to \""), m_card0, m_card2);
+        assertCards(execute("back~haus"), m_card1);
+        assertCards(execute("front=\"TO RUN\""), m_card2);
+        assertCards(execute("front!=\"to run\""), m_card0, m_card1);
+        assertCards(execute("\"en\""), m_card0, m_card2);
+    }
+    
+    public void testNumberConditions() throws QueryException
+    {
+        assertCards(execute("level>=1"), m_card1, m_card2);
+        assertCards(execute("level=2"), m_card2);
+        assertCards(execute("level!=1"), m_card0, m_card2);
+        assertCards(execute("tests=0"), m_card0, m_card1, m_card2);
+    }
+    
+    public void testDateConditions() throws QueryException
+    {
+        assertCards(execute("expires<0d"), m_card2);
+        assertCards(execute("expires<3d"), m_card1, m_card2);
+        assertCards(execute("expires>=-2d"), m_card1, m_card2);
+        assertCards(execute("created>2000-01-01"), m_card0, m_card1, m_card2);
+    }
+    
+    public void testStates() throws QueryException
+    {
+        assertCards(execute("unlearned"), m_card0);
+        assertCards(execute("learned"), m_card1);
+        assertCards(execute("EXPIRED"), m_card2);
+    }
+    
+    public void testBooleanOperators() throws QueryException
+    {
+        assertCards(execute("level>=1 AND front~run"), m_card2);
+        assertCards(execute("level>=1 front~run"), m_card2);
+        assertCards(execute("unlearned OR expired"), m_card0, m_card2);
+        assertCards(execute("NOT (unlearned OR expired)"), m_card1);
+        assertCards(execute("learned or front~walk and level=0"), m_card0, m_card1);
+    }
+    
+    public void testCategory() throws QueryException
+    {
+        CardQuery query = CardQuery.compile("front~\"to\"");
+        
+        assertCards(query.execute(m_child, m_index), m_card2);
+        assertCards(query.execute(m_child, null), m_card2);
+    }
+    
+    public void testMatches() throws QueryException
+    {
+        CardQuery query = CardQuery.compile("front~walk");
+        assertTrue(query.matches(m_card0));
+        assertFalse(query.matches(m_card1));
+        
+        m_card1.setSides("to walk home", "nach Hause gehen");
+        assertTrue(query.matches(m_card1));
+    }
+    
+    public void testExplain() throws QueryException
+    {
+        assertEquals("scan", CardQuery.compile("tests>2").explain());
+        assertEquals("index front~\"verb\"", 
+            CardQuery.compile("front~ve AND front~verb").explain());
+        assertEquals("scan decks 1-*", CardQuery.compile("expired").explain());
+        assertEquals("scan decks 0-0", CardQuery.compile("unlearned").explain());
+        assertEquals("index text~\"walk\" decks 2-3", 
+            CardQuery.compile("\"walk\" level>1 level<=3").explain());
+        assertEquals("none", CardQuery.compile("unlearned level>0").explain());
+        
+        // a condition that is only part of a disjunction can't be used
+        assertEquals("scan", CardQuery.compile("front~walk OR learned").explain());
+    }
+    
+    public void testTerms() throws QueryException
+    {
+        CardQuery query = CardQuery.compile(
+            "front~walk OR (\"Run\" AND NOT back~haus) back=gehen");
+        
+        assertEquals(Arrays.asList("walk", "run"), query.getTerms(SearchTool.FRONT_SIDE));
+        assertEquals(Arrays.asList("run", "gehen"), query.getTerms(SearchTool.FLIP_SIDE));
+    }
+    
+    public void testSyntaxErrors()
+    {
+        assertError("", 0);
+        assertError("level>", 6);
+        assertError("level~2", 5);
+        assertError("colour=red", 0);
+        assertError("expires<tomorrow", 8);
+        assertError("front<abc", 5);
+        assertError("(learned", 8);
+        assertError("front~\"abc", 6);
+        assertError("learned)", 7);
+    }
+    
+    public void testEqualsBruteForce() throws QueryException
+    {
+        Random random = new Random(42);
+        String[] words = {"apple", "pear", "plum", "cherry", "grape"};
+        
+        List<Card> cards = new ArrayList<Card>();
+        for (int i = 0; i < 50000; i++)
+        {
+            Card card = new Card(words[random.nextInt(words.length)] + " " + i, 
+                words[random.nextInt(words.length)]);
+            
+            int level = random.nextInt(4);
+            m_child.addCard(card, level);
+            if (level > 0)
+                card.setDateExpired(new Date(new Date().getTime() + 
+                    (random.nextInt(10) - 5) * Card.ONE_DAY));
+            
+            cards.add(card);
+        }
+        
+        String[] queries = {
+            "front~apple", "back~\"plum\" level>=2", "expired OR front~pear",
+            "NOT learned back~cherry", "level<2 expires<2d", "text~gra"};
+        
+        for (String text : queries)
+        {
+            CardQuery query = CardQuery.compile(text);
+            
+            List<Card> expected = new ArrayList<Card>();
+            for (Card card : m_root.getCards())
+            {
+                if (query.matches(card))
+                    expected.add(card);
+            }
+            
+            assertEquals(text, expected.size(), query.execute(m_root, m_index).size());
+            assertEquals(text, expected.size(), query.execute(m_root, null).size());
+            assertTrue(query.execute(m_root, m_index).containsAll(expected));
+        }
+    }
+    
+    private List<Card> execute(String query) throws QueryException
+    {
+        List<Card> cards = CardQuery.compile(query).execute(m_root, m_index);
+        
+        // scanning the decks has to give the same result as the index
+        assertEquals(cards.size(), CardQuery.compile(query).execute(m_root, null).size());
+        
+        return cards;
+    }
+    
+    private void assertError(String query, int position)
+    {
+        try
+        {
+            CardQuery.compile(query);
+            fail("Expected error for " + query);
+        }
+        catch (QueryException e)
+        {
+            assertEquals(query, position, e.getPosition());
+        }
+    }
+    
+    private void assertCards(List<Card> cards, Card... expected)
+    {
+        assertEquals(expected.length, cards.size());
+        assertTrue(cards.containsAll(Arrays.asList(expected)));
+    }
+}
@@ -18,12 +18,15 @@
  */
 package jmemorize.core.test;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 
 import jmemorize.core.Card;
+import jmemorize.core.CardBatchObserver;
 import jmemorize.core.Category;
 import jmemorize.core.CategoryObserver;
 import junit.framework.TestCase;
@@ -246,6 +249,57 @@ public class CategoryTest extends TestCase implements CategoryObserver
         event.assertEvent(ADDED_EVENT, m_childCard, 0, m_childCategory);
     }
     
+    public void testBatchAddedEvent()
+    {
+        List<Card> cards = new ArrayList<Card>();
+        cards.add(m_childCard);
+        cards.add(new Card("other_card", "bla"));
+        
+        m_childCategory.addCards(cards, 2);
+        
+        // one event for each observer
+        assertEquals(2, m_events.size());
+        CardEvent event = (CardEvent)m_events.get(0);
+        assertEquals(BATCH_ADDED_EVENT, event.m_type);
+        assertNull(event.m_card);
+        assertEquals(2, event.m_level);
+        
+        assertEquals(cards, m_childCategory.getLocalCards(2));
+        assertEquals(m_childCategory, m_childCard.getCategory());
+    }
+    
+    public void testBatchObserverGetsAddedCards()
+    {
+        final List<List<Card>> batches = new ArrayList<List<Card>>();
+        m_rootCategory.addObserver(new CardBatchObserver() {
+            public void onCardsAdded(List<Card> cards, Category category, int deck)
+            {
+                assertEquals(m_childCategory, category);
+                assertEquals(2, deck);
+                batches.add(new ArrayList<Card>(cards));
+            }
+            
+            public void onCardEvent(int type, Card card, Category category, int deck)
+            {
+                fail("Unexpected card event.");
+            }
+            
+            public void onCategoryEvent(int type, Category category)
+            {
+            }
+        });
+        
+        m_childCategory.addCards(Collections.singletonList(m_childCard), 2);
+        
+        List<Card> cards = new ArrayList<Card>();
+        cards.add(new Card("other_card", "bla"));
+        m_childCategory.addCards(cards, 2);
+        
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList(m_childCard), batches.get(0));
+        assertEquals(cards, batches.get(1));
+    }
+    
     public void textGetCards()
     {
         m_rootCategory.addCard(m_rootCard, 3);
@@ -0,0 +1,277 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
+import jmemorize.core.Lesson;
+import jmemorize.core.io.XmlBuilder;
+import jmemorize.core.learn.LearnHistory.SessionSummary;
+import junit.framework.TestCase;
+
+public class DuplicateIndexTest extends TestCase
+{
+    private Lesson   m_lesson;
+    private Category m_child;
+    private Card     m_walk;
+    private Card     m_walkCopy;
+    private Card     m_house;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_lesson = new Lesson(false);
+        Category root = m_lesson.getRootCategory();
+        m_child = root.addCategoryChild(new Category("child"));
+        
+        m_walk = new Card("to walk", "gehen");
+        m_walkCopy = new Card("To  Walk ", "gehen");
+        m_house = new Card("the house", "das Haus");
+        
+        root.addCard(m_walk);
+        root.addCard(new Card("to run", "laufen"), 1);
+        m_child.addCard(m_walkCopy);
+        m_child.addCard(m_house);
+    }
+    
+    public void testGetDuplicate()
+    {
+        DuplicateIndex index = m_lesson.getDuplicateIndex();
+        
+        assertSame(m_walkCopy, index.getDuplicate(m_walk));
+        assertSame(m_walk, index.getDuplicate(m_walkCopy));
+        assertNull(index.getDuplicate(m_house));
+        
+        assertSame(m_house, index.getDuplicate(new Card("THE HOUSE", "das haus")));
+        assertNull(index.getDuplicate(new Card("the house", "das Haus!")));
+        assertNull(index.getDuplicate(new Card("das Haus", "the house")));
+    }
+    
+    public void testDuplicatesIgnoreAccents()
+    {
+        Card card = new Card("caf\u00e9", "coffee");
+        m_child.addCard(card);
+        
+        assertSame(card, m_lesson.getDuplicateIndex().getDuplicate(
+            new Card("Caf\u00c9", "coffee")));
+    }
+    
+    public void testFindDuplicates()
+    {
+        List<List<Card>> duplicates = m_lesson.getDuplicateIndex().findDuplicates();
+        
+        assertEquals(1, duplicates.size());
+        assertEquals(Arrays.asList(m_walk, m_walkCopy), duplicates.get(0));
+    }
+    
+    public void testFollowsLesson()
+    {
+        DuplicateIndex index = m_lesson.getDuplicateIndex();
+        
+        m_walkCopy.setSides("to stroll", "gehen");
+        assertNull(index.getDuplicate(m_walk));
+        
+        m_house.setSides("to walk", "gehen");
+        assertSame(m_house, index.getDuplicate(m_walk));
+        
+        m_child.remove();
+        assertNull(index.getDuplicate(m_walk));
+        assertEquals(2, index.size());
+        
+        m_lesson.getRootCategory().addCategoryChild(m_child);
+        assertSame(m_house, index.getDuplicate(m_walk));
+        
+        m_lesson.getRootCategory().removeCard(m_walk);
+        assertTrue(index.findDuplicates().isEmpty());
+    }
+    
+    public void testFindManyDuplicates()
+    {
+        Lesson lesson = new Lesson(false);
+        Category root = lesson.getRootCategory();
+        
+        List<Card> cards = new ArrayList<Card>();
+        for (int i = 0; i < 5000; i++)
+            cards.add(new Card("front " + i % 1000, "back " + i % 1000));
+        
+        root.addCards(cards, 0);
+        
+        DuplicateIndex index = lesson.getDuplicateIndex();
+        assertEquals(1000, index.findDuplicates().size());
+        
+        // removes all but one card of every group and adds new cards in
+        // the entries that were freed
+        for (int i = 1000; i < 5000; i++)
+            root.removeCard(cards.get(i));
+        
+        assertTrue(index.findDuplicates().isEmpty());
+        
+        for (int i = 0; i < 2000; i++)
+            root.addCard(new Card("front " + i, "back " + i));
+        
+        List<List<Card>> duplicates = index.findDuplicates();
+        assertEquals(1000, duplicates.size());
+        assertEquals(3000, index.size());
+        
+        for (List<Card> group : duplicates)
+            assertEquals(2, group.size());
+    }
+    
+    public void testRemoveCardsInAnyOrder()
+    {
+        Lesson lesson = new Lesson(false);
+        Category root = lesson.getRootCategory();
+        DuplicateIndex index = lesson.getDuplicateIndex();
+        
+        List<Card> cards = new ArrayList<Card>();
+        for (int i = 0; i < 3000; i++)
+            cards.add(new Card("front " + i % 1500, "back " + i % 1500));
+        
+        root.addCards(cards, 0);
+        
+        List<Card> removed = new ArrayList<Card>(cards.subList(0, 1500));
+        Collections.shuffle(removed, new Random(42));
+        for (Card card : removed)
+            root.removeCard(card);
+        
+        assertEquals(1500, index.size());
+        assertTrue(index.findDuplicates().isEmpty());
+        
+        for (int i = 1500; i < 3000; i++)
+        {
+            Card copy = new Card("front " + i % 1500, "back " + i % 1500);
+            assertSame(cards.get(i), index.getDuplicate(copy));
+        }
+    }
+    
+    public void testFilterKeepBoth()
+    {
+        List<Card> cards = Arrays.asList(new Card("to walk", "gehen"));
+        
+        assertEquals(cards, m_lesson.getDuplicateIndex().filter(
+            cards, DuplicateIndex.KEEP_BOTH));
+    }
+    
+    public void testFilterSkip()
+    {
+        Card newCard = new Card("to swim", "schwimmen");
+        List<Card> cards = Arrays.asList(
+            new Card("to walk", "gehen"), newCard, 
+            new Card("to swim", "schwimmen"));
+        
+        assertEquals(Arrays.asList(newCard), m_lesson.getDuplicateIndex().filter(
+            cards, DuplicateIndex.SKIP));
+        assertEquals(0, m_walk.getTestsTotal());
+    }
+    
+    public void testFilterMergeStats()
+    {
+        Date tested = new Date(m_walk.getDateCreated().getTime() + Card.ONE_DAY);
+        
+        Card card = new Card("to walk", "gehen");
+        card.incStats(1, 2);
+        card.setLearnedAmount(true, 1);
+        card.setDateTested(tested);
+        
+        Card sameCard = new Card("to walk", "gehen");
+        sameCard.incStats(2, 2);
+        
+        assertTrue(m_lesson.getDuplicateIndex().filter(
+            Arrays.asList(card, sameCard), DuplicateIndex.MERGE_STATS).isEmpty());
+        
+        Card duplicate = m_lesson.getDuplicateIndex().getDuplicate(card);
+        assertEquals(4, duplicate.getTestsTotal());
+        assertEquals(3, duplicate.getTestsPassed());
+        assertEquals(1, duplicate.getLearnedAmount(true));
+        assertEquals(tested, duplicate.getDateTested());
+    }
+    
+    public void testImportLessonSkip() throws Exception
+    {
+        File file = File.createTempFile("jmemorize", ".jml"); //$NON-NLS-1$ //$NON-NLS-2$
+        
+        try
+        {
+            Lesson other = new Lesson(false);
+            Category child = other.getRootCategory().addCategoryChild(
+                new Category("child"));
+            child.addCard(new Card("the house", "das Haus"));
+            child.addCard(new Card("the tree", "der Baum"));
+            other.getRootCategory().addCategoryChild(new Category("other"))
+                .addCard(new Card("to walk", "gehen"));
+            
+            XmlBuilder.saveAsXMLFile(file, other);
+            XmlBuilder.importFromXMLFile(file, m_lesson, DuplicateIndex.SKIP);
+        }
+        finally
+        {
+            file.delete();
+        }
+        
+        assertEquals(5, m_lesson.getRootCategory().getCards().size());
+        assertEquals(3, m_child.getCards().size());
+        assertEquals(0, m_lesson.getRootCategory().getChildCategory(
+            "other").getCards().size());
+    }
+    
+    public void testImportLessonKeepsLearnHistory() throws Exception
+    {
+        int[] policies = {DuplicateIndex.KEEP_BOTH, DuplicateIndex.SKIP, 
+            DuplicateIndex.MERGE_STATS};
+        
+        File file = File.createTempFile("jmemorize", ".jml"); //$NON-NLS-1$ //$NON-NLS-2$
+        
+        try
+        {
+            Lesson other = new Lesson(false);
+            other.getRootCategory().addCard(new Card("to walk", "gehen"));
+            
+            Date start = new Date(m_walk.getDateCreated().getTime());
+            Date end = new Date(start.getTime() + 60 * 1000);
+            other.getLearnHistory().addSummary(start, end, 3, 1, 0, 0);
+            
+            XmlBuilder.saveAsXMLFile(file, other);
+            
+            for (int policy : policies)
+            {
+                Lesson lesson = new Lesson(false);
+                XmlBuilder.importFromXMLFile(file, lesson, policy);
+                
+                List<SessionSummary> summaries = 
+                    lesson.getLearnHistory().getSummaries();
+                assertEquals(1, summaries.size());
+                assertEquals(3f, summaries.get(0).getPassed(), 0f);
+                assertEquals(1f, summaries.get(0).getFailed(), 0f);
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
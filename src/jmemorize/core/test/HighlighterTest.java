@@ -0,0 +1,118 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import jmemorize.core.Highlighter;
+import jmemorize.core.SearchTool;
+import jmemorize.core.Highlighter.Matches;
+import junit.framework.TestCase;
+
+public class HighlighterTest extends TestCase
+{
+    public void testSingleTerm()
+    {
+        Highlighter highlighter = create(false, "ab");
+        
+        assertOffsets(highlighter.search("abcabab"), 0, 2, 3, 5, 5, 7);
+        assertOffsets(highlighter.search("aAbB"));
+        assertOffsets(highlighter.search(""));
+    }
+    
+    public void testIgnoreCase()
+    {
+        Highlighter highlighter = create(true, "Welt");
+        
+        assertOffsets(highlighter.search("Hallo WELT, hallo welt"), 6, 10, 18, 22);
+    }
+    
+    public void testOffsetsOfOriginalText()
+    {
+        // the lower case of this character has two characters
+        Highlighter highlighter = create(true, "abc");
+        
+        assertOffsets(highlighter.search("\u0130abc"), 1, 4);
+    }
+    
+    public void testMultipleTerms()
+    {
+        Highlighter highlighter = create(false, "he", "she", "his", "hers");
+        
+        assertOffsets(highlighter.search("ushers"), 1, 4);
+        assertOffsets(highlighter.search("his hers"), 0, 3, 4, 8);
+    }
+    
+    public void testLeftmostLongestMatch()
+    {
+        Highlighter highlighter = create(false, "bc", "de", "abcdef", "cd");
+        
+        // the shorter matches end first, but the long one starts first
+        assertOffsets(highlighter.search("xabcdefx"), 1, 7);
+        assertOffsets(highlighter.search("xbcdex"), 1, 3, 3, 5);
+    }
+    
+    public void testNoTerms()
+    {
+        Highlighter highlighter = create(false, "");
+        
+        assertTrue(highlighter.isEmpty());
+        assertOffsets(highlighter.search("abc"));
+    }
+    
+    public void testReuseMatches()
+    {
+        Highlighter highlighter = create(true, "a");
+        Matches matches = new Matches();
+        
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 100; i++)
+        {
+            text.append("ba");
+        }
+        
+        highlighter.search(text, matches);
+        assertEquals(100, matches.size());
+        assertEquals(199, matches.getStart(99));
+        
+        highlighter.search("xax", matches);
+        assertEquals(1, matches.size());
+        assertEquals(1, matches.getStart(0));
+        assertEquals(2, matches.getEnd(0));
+    }
+    
+    public void testSearchToolPositions()
+    {
+        int[] positions = SearchTool.search("Hello hello", "hello", 
+            SearchTool.BOTH_SIDES, true);
+        
+        assertTrue(Arrays.equals(new int[] {0, 6}, positions));
+    }
+    
+    private Highlighter create(boolean ignoreCase, String... terms)
+    {
+        return new Highlighter(Arrays.asList(terms), ignoreCase);
+    }
+    
+    private void assertOffsets(int[] offsets, int... expected)
+    {
+        assertEquals(Arrays.toString(expected), Arrays.toString(offsets));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.awt.image.BufferedImage;
+
+import javax.swing.ImageIcon;
+
+import jmemorize.core.ImageCache;
+import junit.framework.TestCase;
+
+public class ImageCacheTest extends TestCase
+{
+    // an image of 100x100 pixels uses 40000 bytes when decoded
+    private static final long IMAGE_BYTES = 40000;
+    
+    private ImageCache m_cache;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cache = new ImageCache(3 * IMAGE_BYTES);
+    }
+    
+    public void testMissAndHit()
+    {
+        assertNull(m_cache.get("a"));
+        
+        ImageIcon icon = createImage(100, 100);
+        m_cache.put("a", icon);
+        
+        assertSame(icon, m_cache.get("a"));
+        assertEquals(1, m_cache.getHits());
+        assertEquals(1, m_cache.getMisses());
+        assertEquals(IMAGE_BYTES, m_cache.getSize());
+    }
+    
+    public void testBoundedByDecodedBytes()
+    {
+        for (int i = 0; i < 5; i++)
+            m_cache.put("img" + i, createImage(100, 100));
+        
+        assertEquals(3 * IMAGE_BYTES, m_cache.getSize());
+        assertEquals(2, m_cache.getEvictions());
+    }
+    
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        ImageIcon first = createImage(100, 100);
+        m_cache.put("first", first);
+        m_cache.put("second", createImage(100, 100));
+        m_cache.put("third", createImage(100, 100));
+        
+        m_cache.get("first");
+        m_cache.put("fourth", createImage(100, 100));
+        
+        // second was evicted into the soft tier, first is still held strongly
+        assertSame(first, m_cache.get("first"));
+        assertEquals(0, m_cache.getSoftHits());
+        
+        assertNotNull(m_cache.get("second"));
+        assertEquals(1, m_cache.getSoftHits());
+    }
+    
+    public void testLargeImageOnlySoftlyReferenced()
+    {
+        ImageIcon icon = createImage(200, 200);
+        m_cache.put("large", icon);
+        
+        assertEquals(0, m_cache.getSize());
+        assertSame(icon, m_cache.get("large"));
+        assertEquals(0, m_cache.getSize());
+    }
+    
+    public void testRemoveAndClear()
+    {
+        m_cache.put("a", createImage(100, 100));
+        m_cache.put("b", createImage(100, 100));
+        
+        m_cache.remove("a");
+        assertNull(m_cache.get("a"));
+        assertEquals(IMAGE_BYTES, m_cache.getSize());
+        
+        m_cache.clear();
+        assertNull(m_cache.get("b"));
+        assertEquals(0, m_cache.getSize());
+    }
+    
+    private static ImageIcon createImage(int width, int height)
+    {
+        return new ImageIcon(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+}
@@ -18,15 +18,29 @@
  */
 package jmemorize.core.test;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import jmemorize.core.Card;
 import jmemorize.core.ImageRepository;
+import jmemorize.core.ImageRepository.ImageItem;
+import jmemorize.core.ImageRepository.ImageLoadObserver;
+import jmemorize.core.Lesson;
 import jmemorize.core.Main;
 import jmemorize.core.io.XmlBuilder;
+import jmemorize.util.DirectExecutor;
 import junit.framework.TestCase;
 
 public class ImageRepositoryTest extends TestCase
@@ -56,7 +70,8 @@ public class ImageRepositoryTest extends TestCase
         String id2 = addImage("test.gif");
         assertNotNull(id2);
         
-//        assertEquals(id1, id2); TODO!
+        assertEquals(id1, id2);
+        assertEquals(1, m_ir.getImageItems().size());
     }
     
     public void testIdOfSingleImage() throws IOException
@@ -165,6 +180,156 @@ public class ImageRepositoryTest extends TestCase
         assertTrue(files[0].toString().endsWith(".png"));
     }
     
+    public void testImagesLoadedFromCompressedLesson() throws IOException
+    {
+        Main main = Main.getInstance();
+        main.createNewLesson();
+        
+        Card card = new Card("front", "flip");
+        card.getFrontSide().setImages(Arrays.asList(
+            new String[]{addImage("test.gif"), addImage("test.png")}));
+        
+        Lesson lesson = main.getLesson();
+        lesson.getRootCategory().addCard(card);
+        
+        File file = new File(TEST_DIR, "images.jml");
+        main.saveLesson(lesson, file);
+        
+        main.loadLesson(file);
+        assertEquals(2, m_ir.getImageItems().size());
+        assertNotNull(m_ir.getImage("test.gif"));
+        assertNotNull(m_ir.getImage("test.png"));
+    }
+    
+    public void testUnloadedImagesCopiedWhenResavingLesson() throws IOException
+    {
+        Main main = Main.getInstance();
+        main.createNewLesson();
+        
+        Card card = new Card("front", "flip");
+        card.getBackSide().setImages(Arrays.asList(new String[]{addImage("test.gif")}));
+        main.getLesson().getRootCategory().addCard(card);
+        
+        File file = new File(TEST_DIR, "first.jml");
+        main.saveLesson(main.getLesson(), file);
+        main.loadLesson(file);
+        
+        // image was never displayed and has to be copied from the old archive
+        File copy = new File(TEST_DIR, "second.jml");
+        main.saveLesson(main.getLesson(), copy);
+        main.loadLesson(copy);
+        
+        assertEquals(1, m_ir.getImageItems().size());
+        assertNotNull(m_ir.getImage("test.gif"));
+    }
+    
+    public void testImagesReadAfterArchiveWasReplaced() throws IOException
+    {
+        Main main = Main.getInstance();
+        main.createNewLesson();
+        
+        Card card = new Card("front", "flip");
+        card.getFrontSide().setImages(Arrays.asList(
+            new String[]{addImage("test.gif"), addImage("test.png")}));
+        main.getLesson().getRootCategory().addCard(card);
+        
+        File file = new File(TEST_DIR, "replaced.jml");
+        main.saveLesson(main.getLesson(), file);
+        main.loadLesson(file);
+        
+        byte[] gif = m_ir.getImageItems().iterator().next().readBytes();
+        
+        // the open archive must not be used for the new file
+        card = main.getLesson().getRootCategory().getCards().get(0);
+        card.setSides("changed front", "flip");
+        main.saveLesson(main.getLesson(), file);
+        
+        for (ImageItem item : m_ir.getImageItems())
+            assertTrue(item.readBytes().length > 0);
+        
+        assertTrue(Arrays.equals(gif, 
+            m_ir.getImageItems().iterator().next().readBytes()));
+    }
+    
+    public void testImagesWrittenToCleanLesson() throws Exception
+    {
+        Main main = Main.getInstance();
+        main.createNewLesson();
+        
+        Card card = new Card("front", "flip");
+        card.getFrontSide().setImages(Arrays.asList(new String[]{addImage("test.gif")}));
+        main.getLesson().getRootCategory().addCard(card);
+        addImage("test.png");
+        
+        File file = new File(TEST_DIR, "clean.jml");
+        XmlBuilder.writeCleanLesson(file, main.getLesson(), null, 
+            DirectExecutor.INSTANCE);
+        
+        main.loadLesson(file);
+        
+        // only images that are used by the lesson are written
+        assertEquals(1, m_ir.getImageItems().size());
+        assertNotNull(m_ir.getImage("test.gif"));
+        
+        Card loadedCard = main.getLesson().getRootCategory().getCards().get(0);
+        assertEquals(Arrays.asList(new String[]{"test.gif"}), 
+            loadedCard.getFrontSide().getImages());
+    }
+    
+    public void testUnchangedImagesNotRewrittenToDisk() throws Exception
+    {
+        addImage("test.gif");
+        File imgDir = XmlBuilder.writeImageRepositoryToDisk(TEST_DIR);
+        
+        File imgFile = new File(imgDir, "test.gif");
+        long modified = imgFile.lastModified() - 10000;
+        imgFile.setLastModified(modified);
+        
+        XmlBuilder.writeImageRepositoryToDisk(TEST_DIR);
+        assertEquals(modified, imgFile.lastModified());
+    }
+    
+    public void testLargeImageDecodedInBackgroundToDisplaySize() throws Exception
+    {
+        BufferedImage large = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(large, "png", out);
+        String id = m_ir.addImage(new ByteArrayInputStream(out.toByteArray()), "large.png");
+        
+        final CountDownLatch loaded = new CountDownLatch(1);
+        ImageIcon placeholder = m_ir.getImage(id, 100, 100, new ImageLoadObserver() {
+            public void onImageLoaded(ImageIcon image)
+            {
+                loaded.countDown();
+            }
+        });
+        
+        assertTrue(ImageRepository.equals(placeholder, id));
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        
+        assertEquals(100, placeholder.getIconWidth());
+        assertEquals(75, placeholder.getIconHeight());
+        assertSame(placeholder, m_ir.getImage(id, 100, 100, null));
+    }
+    
+    public void testSmallImageDecodedInBackgroundInFullSize() throws Exception
+    {
+        String id = addImage("test.png");
+        ImageIcon original = m_ir.getImage(id);
+        
+        final CountDownLatch loaded = new CountDownLatch(1);
+        ImageIcon placeholder = m_ir.getImage(id, 1000, 1000, new ImageLoadObserver() {
+            public void onImageLoaded(ImageIcon image)
+            {
+                loaded.countDown();
+            }
+        });
+        
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        assertEquals(original.getIconWidth(), placeholder.getIconWidth());
+        assertEquals(original.getIconHeight(), placeholder.getIconHeight());
+    }
+    
     private void delDir(File dir)
     {
         String[] entries = dir.list();
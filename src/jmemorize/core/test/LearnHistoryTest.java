@@ -19,14 +19,24 @@
 package jmemorize.core.test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import jmemorize.core.io.XmlBuilder;
 import jmemorize.core.learn.LearnHistory;
 import jmemorize.core.learn.LearnHistory.SessionSummary;
 import junit.framework.TestCase;
 
+import org.w3c.dom.Document;
+
 public class LearnHistoryTest extends TestCase
 {
     private static long      MINUTE = 1000*60;
@@ -45,6 +55,14 @@ public class LearnHistoryTest extends TestCase
     {
         m_history = new LearnHistory(null);
     }
+    
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() throws Exception
+    {
+        new File("test_history.log").delete();
+    }
 
     public void testGetLastSummaryValues()
     {
@@ -202,6 +220,87 @@ public class LearnHistoryTest extends TestCase
         assertEquals(m_history, stats);
     }
     
+    public void testGetDailySummariesOfInterleavedSessions()
+    {
+        Date today0 = new Date(System.currentTimeMillis() - MINUTE * 10);
+        Date today1 = new Date(System.currentTimeMillis() - MINUTE * 5);
+        
+        m_history.addSummary(m_date0, m_date1, 4, 3, 0, 1);
+        m_history.addSummary(today0, today1, 2, 0, 1, 1);
+        m_history.addSummary(m_date1, m_date2, 1, 1, 0, 1);
+        
+        // only consecutive sessions of the same day are grouped
+        List<SessionSummary> summaries = m_history.getSummaries(LearnHistory.DATE_COMP);
+        assertSession(4, 3, 0, 1, summaries.get(0));
+        assertSession(2, 0, 1, 1, summaries.get(1));
+        assertSession(1, 1, 0, 1, summaries.get(2));
+        assertEquals(3, summaries.size());
+        
+        // but all sessions of the day are summed up for the day
+        assertSession(5, 4, 0, 2, 
+            m_history.getSummary(m_date0, LearnHistory.DATE_COMP));
+    }
+    
+    public void testAppendedSummariesAreLoaded()
+    {
+        File file = new File("test_history.log");
+        
+        LearnHistory history = new LearnHistory(file);
+        history.addSummary(m_date0, m_date1, 2, 0, 1, 1);
+        history.addSummary(m_date1, m_date2, 4, 3, 0, 1);
+        
+        LearnHistory loaded = new LearnHistory(file);
+        assertEquals(history, loaded);
+        assertEquals(m_date2, loaded.getLastSummary().getEnd());
+        assertSession(6, 3, 1, 2, loaded.getSummary(m_date0, LearnHistory.MONTH_COMP));
+    }
+    
+    public void testXmlHistoryConvertedToLog() throws Exception
+    {
+        m_history.addSummary(m_date0, m_date1, 2, 0, 1, 1);
+        
+        File xmlFile = new File("test_history.xml");
+        Document document = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().newDocument();
+        XmlBuilder.writeLearnHistory(document, m_history);
+        
+        TransformerFactory.newInstance().newTransformer().transform(
+            new DOMSource(document), new StreamResult(xmlFile));
+        
+        File file = new File("test_history.log");
+        new LearnHistory(xmlFile).save(file);
+        xmlFile.delete();
+        
+        // the converted history is appended to
+        new LearnHistory(file).addSummary(m_date1, m_date2, 4, 3, 0, 1);
+        
+        List<SessionSummary> summaries = new LearnHistory(file).getSummaries();
+        assertEquals(2, summaries.size());
+        assertSession(2, 0, 1, 1, summaries.get(0));
+        assertSession(4, 3, 0, 1, summaries.get(1));
+    }
+    
+    public void testTornRecordIsSkipped() throws Exception
+    {
+        File file = new File("test_history.log");
+        
+        LearnHistory history = new LearnHistory(file);
+        history.addSummary(m_date0, m_date1, 2, 0, 1, 1);
+        
+        OutputStream out = new FileOutputStream(file, true);
+        out.write("1170336600000\t11703".getBytes());
+        out.close();
+        
+        LearnHistory loaded = new LearnHistory(file);
+        assertEquals(1, loaded.getSummaries().size());
+        
+        loaded.addSummary(m_date1, m_date2, 4, 3, 0, 1);
+        
+        List<SessionSummary> summaries = new LearnHistory(file).getSummaries();
+        assertEquals(2, summaries.size());
+        assertSession(4, 3, 0, 1, summaries.get(1));
+    }
+    
     public void testGetSessionSummaryByDate()
     {
         m_history.addSummary(m_date0, m_date1, 2, 0, 1, 1);
@@ -23,10 +23,14 @@ import java.io.IOException;
 import java.util.List;
 
 import jmemorize.core.Card;
+import jmemorize.core.Category;
 import jmemorize.core.Lesson;
 import jmemorize.core.LessonObserver;
 import jmemorize.core.LessonProvider;
 import jmemorize.core.Main;
+import jmemorize.core.io.LessonSnapshot;
+import jmemorize.core.io.XmlBuilder;
+import jmemorize.util.DirectExecutor;
 import junit.framework.TestCase;
 
 public class LessonProviderTest extends TestCase implements LessonObserver
@@ -98,6 +102,23 @@ public class LessonProviderTest extends TestCase implements LessonObserver
         assertEquals("loaded saved ", m_log.toString());
     }
     
+    public void testLessonSaveFailedEvent() throws Exception
+    {
+        m_lessonProvider.loadLesson(
+            new File("test/fixtures/simple_de.jml"));
+        
+        Lesson lesson = m_lessonProvider.getLesson();
+        try
+        {
+            m_lessonProvider.saveLesson(lesson, new File("./no-such-dir/test.jml"));
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("loaded failed ", m_log.toString());
+        }
+    }
+    
     public void testLessonModifiedEvent() throws Exception
     {
         m_lessonProvider.loadLesson(
@@ -109,6 +130,87 @@ public class LessonProviderTest extends TestCase implements LessonObserver
         assertEquals("loaded modified ", m_log.toString());
     }
 
+    public void testSnapshotKeepsCapturedLesson() throws Exception
+    {
+        m_lessonProvider.loadLesson(
+            new File("test/fixtures/simple_de.jml"));
+        
+        Lesson lesson = m_lessonProvider.getLesson();
+        Category child = lesson.getRootCategory().addCategoryChild(
+            new Category("child"));
+        Card card = new Card("front", "flip");
+        child.addCard(card, 2);
+        
+        LessonSnapshot snapshot = XmlBuilder.createSnapshot(lesson);
+        
+        // modifications after the snapshot aren't written
+        card.setSides("changed front", "changed flip");
+        lesson.getRootCategory().addCard(new Card("later", "sp\u00e4ter"));
+        
+        File file = new File("./test.jml");
+        XmlBuilder.writeSnapshot(file, snapshot);
+        
+        Lesson savedLesson = new Lesson(false);
+        XmlBuilder.loadFromXMLFile(file, savedLesson);
+        
+        List<Card> cards = savedLesson.getRootCategory().getCards();
+        assertEquals(lesson.getRootCategory().getCards().size() - 1, cards.size());
+        
+        Card savedCard = savedLesson.getRootCategory().getChildCategory("child")
+            .getLocalCards(2).get(0);
+        assertEquals("front", savedCard.getFrontSide().getText().getUnformatted());
+        assertEquals("flip", savedCard.getBackSide().getText().getUnformatted());
+    }
+    
+    public void testCleanLessonLikeClonedLesson() throws Exception
+    {
+        m_lessonProvider.loadLesson(
+            new File("test/fixtures/simple_de.jml"));
+        
+        Lesson lesson = m_lessonProvider.getLesson();
+        Category child = lesson.getRootCategory().addCategoryChild(
+            new Category("child"));
+        child.addCard(new Card("front", "flip"), 3);
+        
+        File file = new File("./test.jml");
+        XmlBuilder.writeCleanLesson(file, lesson, null, DirectExecutor.INSTANCE);
+        
+        Lesson cleanLesson = new Lesson(false);
+        XmlBuilder.loadFromXMLFile(file, cleanLesson);
+        
+        List<Category> expected = lesson.cloneWithoutProgress()
+            .getRootCategory().getSubtreeList();
+        List<Category> categories = cleanLesson.getRootCategory().getSubtreeList();
+        assertEquals(expected.size(), categories.size());
+        
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals(expected.get(i).getName(), categories.get(i).getName());
+            
+            List<Card> expectedCards = expected.get(i).getLocalCards();
+            List<Card> cards = categories.get(i).getLocalCards();
+            assertEquals(expectedCards.size(), cards.size());
+            
+            for (int j = 0; j < expectedCards.size(); j++)
+            {
+                Card expectedCard = expectedCards.get(j);
+                Card card = cards.get(j);
+                
+                assertEquals(expectedCard.getFrontSide().getText(), 
+                    card.getFrontSide().getText());
+                assertEquals(expectedCard.getBackSide().getText(), 
+                    card.getBackSide().getText());
+                assertEquals(0, card.getLevel());
+                assertEquals(0, card.getTestsTotal());
+                assertNull(card.getDateTested());
+            }
+        }
+        
+        // the original lesson isn't touched
+        assertEquals(3, child.getLocalCards().get(0).getLevel());
+        assertFalse(file.equals(lesson.getFile()));
+    }
+
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
      */
@@ -125,6 +227,14 @@ public class LessonProviderTest extends TestCase implements LessonObserver
         m_log.append("modified ");
     }
 
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaving(Lesson lesson)
+    {
+        // ignore
+    }
+
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
      */
@@ -132,6 +242,14 @@ public class LessonProviderTest extends TestCase implements LessonObserver
     {
         m_log.append("saved ");
     }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaveFailed(Lesson lesson, Throwable t)
+    {
+        m_log.append("failed ");
+    }
 
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
@@ -0,0 +1,204 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.Lesson;
+import jmemorize.core.LessonSearch;
+import jmemorize.core.SearchTool;
+import jmemorize.core.LessonSearch.Hit;
+import jmemorize.core.LessonSearch.HitObserver;
+import jmemorize.core.io.SearchIndexFile;
+import jmemorize.core.io.XmlBuilder;
+import junit.framework.TestCase;
+
+public class LessonSearchTest extends TestCase implements HitObserver
+{
+    private File       m_dir;
+    private File       m_verbs;
+    private File       m_nouns;
+    
+    private List<Hit>  m_hits   = Collections.synchronizedList(new ArrayList<Hit>());
+    private List<File> m_failed = Collections.synchronizedList(new ArrayList<File>());
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("jmemorize", "-search"); //$NON-NLS-1$ //$NON-NLS-2$
+        m_dir.delete();
+        m_dir.mkdir();
+        
+        Lesson verbs = new Lesson(false);
+        Category root = verbs.getRootCategory();
+        Category child = root.addCategoryChild(new Category("motion"));
+        root.addCard(new Card("to be", "sein"));
+        child.addCard(new Card("to walk", "gehen"), 2);
+        child.addCard(new Card("to run", "laufen"), 2);
+        child.addCard(new Card("to go", "gehen"), 1);
+        
+        m_verbs = new File(m_dir, "verbs.jml");
+        XmlBuilder.saveAsXMLFile(m_verbs, verbs);
+        
+        Lesson nouns = new Lesson(false);
+        nouns.getRootCategory().addCard(new Card("the walk", "der Spaziergang"));
+        
+        // without a stored index
+        m_nouns = new File(m_dir, "nouns.jml");
+        XmlBuilder.saveAsXMLFile(m_nouns, nouns);
+        SearchIndexFile.getFile(m_nouns).delete();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = m_dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            File[] children = files[i].listFiles();
+            for (int j = 0; children != null && j < children.length; j++)
+                children[j].delete();
+            
+            files[i].delete();
+        }
+        
+        m_dir.delete();
+    }
+    
+    public void testLoadCardTexts() throws Exception
+    {
+        Category root = new Category("root");
+        XmlBuilder.loadCardTexts(m_verbs, root);
+        
+        assertEquals(4, root.getCards().size());
+        
+        Category child = root.getChildCategory("motion");
+        assertEquals(0, child.getLocalCards(0).size());
+        assertEquals("to go", front(child.getLocalCards(1).get(0)));
+        assertEquals("to walk", front(child.getLocalCards(2).get(0)));
+        assertEquals("to run", front(child.getLocalCards(2).get(1)));
+    }
+    
+    public void testSearchAllLessons()
+    {
+        search("walk");
+        
+        assertTrue(m_failed.isEmpty());
+        assertEquals(Arrays.asList("the walk", "to walk"), getFronts());
+        
+        // the missing index was built and stored
+        assertTrue(SearchIndexFile.getFile(m_nouns).exists());
+        
+        m_hits.clear();
+        search("gehen");
+        assertEquals(Arrays.asList("to go", "to walk"), getFronts());
+    }
+    
+    public void testChangedLessonIsReadAgain() throws Exception
+    {
+        search("swim");
+        assertTrue(m_hits.isEmpty());
+        
+        Lesson nouns = new Lesson(false);
+        nouns.getRootCategory().addCard(new Card("the swimmer", "der Schwimmer"));
+        XmlBuilder.saveAsXMLFile(m_nouns, nouns);
+        
+        // make sure that the change can be seen even on coarse file systems
+        m_nouns.setLastModified(m_nouns.lastModified() + 2000);
+        
+        search("swim");
+        assertEquals(Arrays.asList("the swimmer"), getFronts());
+    }
+    
+    public void testMissingLesson()
+    {
+        File missing = new File(m_dir, "missing.jml");
+        LessonSearch.search(Arrays.asList(m_verbs, missing), "walk", 
+            SearchTool.BOTH_SIDES, false, this);
+        
+        assertEquals(Arrays.asList(missing), m_failed);
+        assertEquals(Arrays.asList("to walk"), getFronts());
+    }
+    
+    public void testFindCard() throws Exception
+    {
+        search("run");
+        assertEquals(1, m_hits.size());
+        
+        Hit hit = m_hits.get(0);
+        assertEquals(m_verbs, hit.getFile());
+        
+        Lesson lesson = new Lesson(false);
+        XmlBuilder.loadFromXMLFile(m_verbs, lesson);
+        
+        Card card = hit.findCard(lesson);
+        assertEquals("to run", front(card));
+        assertEquals(2, card.getLevel());
+        assertEquals(hit.getCategoryPath(), card.getCategory().getPath());
+        
+        // the card is still found after it was moved
+        Category.moveCard(card, lesson.getRootCategory());
+        assertSame(card, hit.findCard(lesson));
+        
+        lesson.getRootCategory().removeCard(card);
+        assertNull(hit.findCard(lesson));
+    }
+    
+    public void onHitsFound(List<Hit> hits)
+    {
+        m_hits.addAll(hits);
+    }
+    
+    public void onLessonFailed(File file, Exception e)
+    {
+        m_failed.add(file);
+    }
+    
+    public boolean isCancelled()
+    {
+        return false;
+    }
+    
+    private void search(String text)
+    {
+        LessonSearch.search(Arrays.asList(m_verbs, m_nouns), text, 
+            SearchTool.BOTH_SIDES, false, this);
+    }
+    
+    private List<String> getFronts()
+    {
+        List<String> fronts = new ArrayList<String>();
+        for (Hit hit : m_hits)
+            fronts.add(front(hit.getCard()));
+        
+        Collections.sort(fronts);
+        return fronts;
+    }
+    
+    private static String front(Card card)
+    {
+        return card.getFrontSide().getText().getUnformatted();
+    }
+}
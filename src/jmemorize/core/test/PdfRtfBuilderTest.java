@@ -0,0 +1,194 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.ImageRepository;
+import jmemorize.core.Lesson;
+import jmemorize.core.io.CancelledException;
+import jmemorize.core.io.PdfRtfBuilder;
+import jmemorize.core.io.ProgressObserver;
+import jmemorize.util.DirectExecutor;
+import junit.framework.TestCase;
+
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.SimpleBookmark;
+
+public class PdfRtfBuilderTest extends TestCase
+{
+    private static final File PDF_FILE = new File("test.pdf");
+    private static final File RTF_FILE = new File("test.rtf");
+    
+    private Lesson m_lesson;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        InputStream in = new FileInputStream("test/fixtures/test-images/test.png");
+        String imageId = ImageRepository.getInstance().addImage(in, "test.png");
+        in.close();
+        
+        Category rootCategory = new Category("root");
+        Category category = rootCategory.addCategoryChild(new Category("images"));
+        
+        for (int i = 0; i < 250; i++)
+        {
+            Card card = new Card("front" + i, "flip" + i);
+            if (i % 50 == 0)
+                card.getFrontSide().setImages(Arrays.asList(imageId));
+            
+            (i % 2 == 0 ? rootCategory : category).addCard(card);
+        }
+        
+        m_lesson = new Lesson(rootCategory, false);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        ImageRepository.getInstance().clear();
+        PDF_FILE.delete();
+        RTF_FILE.delete();
+    }
+    
+    public void testExportToPDF() throws IOException
+    {
+        final long[] progress = new long[2];
+        PdfRtfBuilder.exportLessonToPDF(m_lesson, PDF_FILE, new ProgressObserver() {
+            public void onProgress(long done, long total)
+            {
+                progress[0] = done;
+                progress[1] = total;
+            }
+            
+            public boolean isCancelled()
+            {
+                return false;
+            }
+        }, DirectExecutor.INSTANCE);
+        
+        String pdf = readFile(PDF_FILE);
+        assertTrue(pdf.startsWith("%PDF"));
+        
+        // the image is shared by all cards
+        assertEquals(1, count(pdf, "/Subtype/Image"));
+        
+        assertEquals(250, progress[0]);
+        assertEquals(250, progress[1]);
+    }
+    
+    public void testExportToPDFInParts() throws IOException
+    {
+        Category rootCategory = new Category("root");
+        Category large = rootCategory.addCategoryChild(new Category("large"));
+        Category small = rootCategory.addCategoryChild(new Category("small"));
+        
+        for (int i = 0; i < 2010; i++)
+            large.addCard(new Card("front" + i, "flip" + i));
+        
+        small.addCard(new Card("front", "flip"));
+        
+        PdfRtfBuilder.exportLessonToPDF(new Lesson(rootCategory, false), PDF_FILE);
+        
+        PdfReader reader = new PdfReader(PDF_FILE.getPath());
+        List<?> bookmarks = SimpleBookmark.getBookmark(reader);
+        
+        assertEquals(2, bookmarks.size());
+        assertEquals(large.getPath(), ((Map<?, ?>)bookmarks.get(0)).get("Title"));
+        assertEquals("1 Fit", ((Map<?, ?>)bookmarks.get(0)).get("Page"));
+        
+        // the small category comes after all pages of the large one
+        assertEquals(small.getPath(), ((Map<?, ?>)bookmarks.get(1)).get("Title"));
+        assertEquals(reader.getNumberOfPages() + " Fit", 
+            ((Map<?, ?>)bookmarks.get(1)).get("Page"));
+        
+        reader.close();
+    }
+    
+    public void testExportToRTF() throws IOException
+    {
+        PdfRtfBuilder.exportLessonToRTF(m_lesson, RTF_FILE);
+        
+        String rtf = readFile(RTF_FILE);
+        assertTrue(rtf.startsWith("{\\rtf"));
+        assertTrue(rtf.indexOf("flip249") >= 0);
+        assertEquals(5, count(rtf, "\\pngblip"));
+    }
+    
+    public void testCancelledExportKeepsFile() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(PDF_FILE);
+        out.write("old".getBytes());
+        out.close();
+        
+        try
+        {
+            PdfRtfBuilder.exportLessonToPDF(m_lesson, PDF_FILE, new ProgressObserver() {
+                public void onProgress(long done, long total)
+                {
+                }
+                
+                public boolean isCancelled()
+                {
+                    return true;
+                }
+            }, DirectExecutor.INSTANCE);
+            
+            fail("Expected exception not thrown.");
+        }
+        catch (CancelledException e)
+        {
+            // fallthrough, expected
+        }
+        
+        assertEquals("old", readFile(PDF_FILE));
+    }
+    
+    private static int count(String text, String pattern)
+    {
+        int count = 0;
+        for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1))
+            count++;
+        
+        return count;
+    }
+    
+    private static String readFile(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        byte[] bytes = new byte[(int)file.length()];
+        
+        int offset = 0;
+        while (offset < bytes.length)
+            offset += in.read(bytes, offset, bytes.length - offset);
+        
+        in.close();
+        return new String(bytes, "ISO-8859-1");
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.learn.ReviewLog;
+import jmemorize.core.learn.ReviewLog.ReviewBlock;
+import jmemorize.core.learn.ReviewLog.ReviewVisitor;
+import junit.framework.TestCase;
+
+public class ReviewLogTest extends TestCase
+{
+    private final static File FILE = new File("./test-reviews.log");
+    private final static long TIME = 1170336600000L;
+    
+    private ReviewLog         m_log;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        FILE.delete();
+        m_log = new ReviewLog(FILE);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FILE.delete();
+    }
+    
+    public void testScanReturnsRecordedReviews() throws IOException
+    {
+        m_log.record(42, TIME, true, false, 1500);
+        m_log.record(7, TIME - 2000, false, true, 300);
+        m_log.record(42, TIME + 60000, true, true, 0);
+        
+        List<long[]> reviews = scan(m_log, ReviewLog.ALL_COLUMNS);
+        
+        assertEquals(3, reviews.size());
+        assertReview(42, TIME, 1, 1500, reviews.get(0));
+        assertReview(7, TIME - 2000, 2, 300, reviews.get(1));
+        assertReview(42, TIME + 60000, 3, 0, reviews.get(2));
+    }
+    
+    public void testReviewsSpanningSeveralBlocks() throws IOException
+    {
+        int n = ReviewLog.BLOCK_SIZE * 2 + 10;
+        for (int i = 0; i < n; i++)
+            m_log.record(i % 100, TIME + i * 1000, i % 3 == 0, false, i);
+        
+        final int[] blocks = {0};
+        final long[] passed = {0};
+        
+        m_log.scan(ReviewLog.OUTCOMES, new ReviewVisitor() {
+            public void visitBlock(ReviewBlock block)
+            {
+                blocks[0]++;
+                for (int i = 0; i < block.getSize(); i++)
+                {
+                    if (block.isPassed(i))
+                        passed[0]++;
+                }
+            }
+        });
+        
+        assertEquals(3, blocks[0]);
+        assertEquals((n + 2) / 3, passed[0]);
+        
+        List<long[]> reviews = scan(new ReviewLog(FILE), ReviewLog.ALL_COLUMNS);
+        assertEquals(n, reviews.size());
+        assertReview(1, TIME + 8201000, 0, 8201, reviews.get(8201));
+    }
+    
+    public void testTornBlockIsDropped() throws IOException
+    {
+        m_log.record(1, TIME, true, false, 10);
+        m_log.flush();
+        long length = FILE.length();
+        
+        m_log.record(2, TIME + 1000, false, false, 20);
+        m_log.flush();
+        
+        RandomAccessFile file = new RandomAccessFile(FILE, "rw");
+        file.setLength(FILE.length() - 3);
+        file.close();
+        
+        ReviewLog log = new ReviewLog(FILE);
+        assertEquals(1, scan(log, ReviewLog.ALL_COLUMNS).size());
+        
+        log.record(3, TIME + 2000, true, true, 30);
+        log.flush();
+        
+        List<long[]> reviews = scan(new ReviewLog(FILE), ReviewLog.ALL_COLUMNS);
+        assertEquals(2, reviews.size());
+        assertTrue(FILE.length() > length);
+        assertReview(3, TIME + 2000, 3, 30, reviews.get(1));
+    }
+    
+    public void testZeroFilledPayloadIsDropped() throws IOException
+    {
+        m_log.record(1, TIME, true, false, 10);
+        m_log.flush();
+        long length = FILE.length();
+        
+        m_log.record(2, TIME + 1000, false, false, 20);
+        m_log.flush();
+        
+        // the header made it to disk, but the payload didn't
+        RandomAccessFile file = new RandomAccessFile(FILE, "rw");
+        int headerSize = 4 + 8 + 4 * 4 + 4;
+        file.seek(length + headerSize);
+        file.write(new byte[(int)(FILE.length() - length - headerSize)]);
+        file.close();
+        
+        ReviewLog log = new ReviewLog(FILE);
+        log.record(3, TIME + 2000, true, true, 30);
+        log.flush();
+        
+        List<long[]> reviews = scan(new ReviewLog(FILE), ReviewLog.ALL_COLUMNS);
+        assertEquals(2, reviews.size());
+        assertReview(1, TIME, 1, 10, reviews.get(0));
+        assertReview(3, TIME + 2000, 3, 30, reviews.get(1));
+    }
+    
+    public void testNegativeColumnLengthIsDropped() throws IOException
+    {
+        m_log.record(1, TIME, true, false, 10);
+        m_log.flush();
+        long length = FILE.length();
+        
+        m_log.record(2, TIME + 1000, false, false, 20);
+        m_log.flush();
+        
+        RandomAccessFile file = new RandomAccessFile(FILE, "rw");
+        file.seek(length + 4 + 8);
+        file.writeInt(-1000);
+        file.close();
+        
+        assertEquals(1, scan(new ReviewLog(FILE), ReviewLog.ALL_COLUMNS).size());
+        
+        ReviewLog log = new ReviewLog(FILE);
+        log.record(3, TIME + 2000, true, true, 30);
+        log.flush();
+        
+        List<long[]> reviews = scan(new ReviewLog(FILE), ReviewLog.ALL_COLUMNS);
+        assertEquals(2, reviews.size());
+        assertReview(3, TIME + 2000, 3, 30, reviews.get(1));
+    }
+    
+    public void testCardKeyIgnoresBackSide()
+    {
+        Date created = new Date(TIME);
+        Card card0 = new Card(created, "front", "back");
+        Card card1 = new Card(created, "front", "other back");
+        Card card2 = new Card(created, "other front", "back");
+        
+        assertEquals(ReviewLog.getCardKey(card0), ReviewLog.getCardKey(card1));
+        assertFalse(ReviewLog.getCardKey(card0) == ReviewLog.getCardKey(card2));
+    }
+    
+    private List<long[]> scan(ReviewLog log, int columns) throws IOException
+    {
+        final List<long[]> reviews = new ArrayList<long[]>();
+        
+        log.scan(columns, new ReviewVisitor() {
+            public void visitBlock(ReviewBlock block)
+            {
+                for (int i = 0; i < block.getSize(); i++)
+                {
+                    int outcome = (block.isPassed(i) ? 1 : 0) | 
+                        (block.isFlipped(i) ? 2 : 0);
+                    
+                    reviews.add(new long[] {block.getCardKey(i), 
+                        block.getTime(i), outcome, block.getResponseTime(i)});
+                }
+            }
+        });
+        
+        return reviews;
+    }
+    
+    private void assertReview(long key, long time, int outcome, 
+        int responseTime, long[] review)
+    {
+        assertEquals(key, review[0]);
+        assertEquals(time, review[1]);
+        assertEquals(outcome, review[2]);
+        assertEquals(responseTime, review[3]);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2008 Riad Djemili and contributors
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import jmemorize.core.io.SafeFileOutputStream;
+import junit.framework.TestCase;
+
+public class SafeFileOutputStreamTest extends TestCase
+{
+    private final static File FILE = new File("./safe-test.txt");
+    private final static File BACKUP = 
+        new File(FILE.getPath() + SafeFileOutputStream.BACKUP_SUFFIX);
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        write(FILE, "old");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        FILE.delete();
+        BACKUP.delete();
+    }
+    
+    public void testTargetUntouchedBeforeCommit() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write("new".getBytes());
+        out.close();
+        
+        assertEquals("old", read(FILE));
+        out.abort();
+    }
+    
+    public void testCommitReplacesTarget() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write("new".getBytes());
+        out.commit();
+        
+        assertEquals("new", read(FILE));
+        assertFalse(out.getTempFile().exists());
+    }
+    
+    public void testCommitKeepsBackup() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write("new".getBytes());
+        out.commit();
+        
+        assertEquals("old", read(BACKUP));
+    }
+    
+    public void testCommitWithoutBackup() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE, false);
+        out.write("new".getBytes());
+        out.commit();
+        
+        assertEquals("new", read(FILE));
+        assertFalse(BACKUP.exists());
+        assertFalse(out.getTempFile().exists());
+    }
+    
+    public void testAbortDeletesTempFile() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write("new".getBytes());
+        out.abort();
+        
+        assertEquals("old", read(FILE));
+        assertFalse(out.getTempFile().exists());
+    }
+    
+    public void testReadableFileIsTarget() throws IOException
+    {
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write("new".getBytes());
+        out.commit();
+        
+        assertEquals("new", read(SafeFileOutputStream.getReadableFile(FILE)));
+    }
+    
+    public void testReadableFileIsBackupWithoutTarget() throws IOException
+    {
+        // a commit that was interrupted between its two renames
+        assertTrue(FILE.renameTo(BACKUP));
+        
+        assertEquals("old", read(SafeFileOutputStream.getReadableFile(FILE)));
+    }
+    
+        public void testLargeWrites() throws IOException
+    {
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)('a' + i % 26);
+        
+        SafeFileOutputStream out = new SafeFileOutputStream(FILE);
+        out.write(data, 0, 10);
+        out.write(data, 10, data.length - 10);
+        out.commit();
+        
+        assertEquals(new String(data), read(FILE));
+    }
+    
+    private void write(File file, String text) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(text.getBytes());
+        out.close();
+    }
+    
+    private String read(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        byte[] bytes = new byte[(int)file.length()];
+        
+        int off = 0;
+        while (off < bytes.length)
+            off += in.read(bytes, off, bytes.length - off);
+        
+        in.close();
+        return new String(bytes);
+    }
+}
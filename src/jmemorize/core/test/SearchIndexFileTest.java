@@ -0,0 +1,192 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.Lesson;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchTool;
+import jmemorize.core.SearchIndex.Image;
+import jmemorize.core.io.SearchIndexFile;
+import jmemorize.core.io.XmlBuilder;
+import junit.framework.TestCase;
+
+public class SearchIndexFileTest extends TestCase
+{
+    private File   m_dir;
+    private File   m_file;
+    private Lesson m_lesson;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("jmemorize", "-index"); //$NON-NLS-1$ //$NON-NLS-2$
+        m_dir.delete();
+        m_dir.mkdir();
+        
+        m_file = new File(m_dir, "lesson.jml"); //$NON-NLS-1$
+        
+        m_lesson = new Lesson(false);
+        Category root = m_lesson.getRootCategory();
+        Category child = root.addCategoryChild(new Category("child"));
+        
+        root.addCard(new Card("to walk", "gehen"));
+        root.addCard(new Card("to run", "laufen"), 1);
+        child.addCard(new Card("to walk", "gehen"));
+        child.addCard(new Card("the house", "das Haus"));
+        
+        // only a built index is stored with the lesson
+        m_lesson.getSearchIndex();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        delete(m_dir);
+    }
+    
+    public void testLoadStoredIndex() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        
+        Lesson lesson = load();
+        Image image = SearchIndexFile.read(m_file);
+        assertNotNull(image);
+        
+        SearchIndex index = SearchIndex.create(lesson.getRootCategory(), image);
+        assertNotNull(index);
+        assertSame(image, index.createImage());
+        
+        assertSearch(index, lesson, "walk", "to walk", "to walk");
+        assertSearch(index, lesson, "ouse", "the house");
+        assertSearch(index, lesson, "lauf", "to run");
+        assertSearch(index, lesson, "swim");
+    }
+    
+    public void testLoadedIndexIsUpdated() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        
+        Lesson lesson = load();
+        Category root = lesson.getRootCategory();
+        SearchIndex index = SearchIndex.create(root, SearchIndexFile.read(m_file));
+        
+        root.addCard(new Card("to walk slowly", "schlendern"));
+        assertSearch(index, lesson, "walk", "to walk", "to walk", "to walk slowly");
+        
+        for (Card card : root.getCards())
+        {
+            if (card.getFrontSide().getText().getUnformatted().equals("to walk"))
+                card.getCategory().removeCard(card);
+        }
+        
+        assertSearch(index, lesson, "walk", "to walk slowly");
+    }
+    
+    public void testMissingIndexIsNotStored() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        assertTrue(SearchIndexFile.getFile(m_file).exists());
+        
+        XmlBuilder.saveAsXMLFile(m_file, new Lesson(false));
+        assertFalse(SearchIndexFile.getFile(m_file).exists());
+    }
+    
+    public void testStaleIndexIsIgnored() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        
+        m_file.setLastModified(m_file.lastModified() - 10000);
+        assertNull(SearchIndexFile.read(m_file));
+    }
+    
+    public void testIndexOfOtherCardsIsIgnored() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        
+        Lesson lesson = load();
+        lesson.getRootCategory().getCards().get(0).setSides("to swim", "gehen");
+        
+        assertNull(SearchIndex.create(lesson.getRootCategory(), 
+            SearchIndexFile.read(m_file)));
+    }
+    
+    public void testUnchangedIndexIsKept() throws Exception
+    {
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        long id = SearchIndexFile.read(m_file).getId();
+        
+        // learning moves cards, but doesn't change the index
+        Card card = m_lesson.getRootCategory().getCards().get(0);
+        Category.raiseCardLevel(card, new Date(), new Date());
+        
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        assertEquals(id, SearchIndexFile.read(m_file).getId());
+        
+        card.setSides("to swim", "schwimmen");
+        
+        XmlBuilder.saveAsXMLFile(m_file, m_lesson);
+        assertFalse(id == SearchIndexFile.read(m_file).getId());
+        
+        Lesson lesson = load();
+        assertNotNull(SearchIndex.create(lesson.getRootCategory(), 
+            SearchIndexFile.read(m_file)));
+    }
+    
+    private Lesson load() throws Exception
+    {
+        Lesson lesson = new Lesson(false);
+        XmlBuilder.loadFromXMLFile(m_file, lesson);
+        return lesson;
+    }
+    
+    private void assertSearch(SearchIndex index, Lesson lesson, String text, 
+        String... fronts)
+    {
+        List<String> found = new ArrayList<String>();
+        for (Card card : index.search(text, SearchTool.BOTH_SIDES, false, 
+            lesson.getRootCategory()))
+        {
+            found.add(card.getFrontSide().getText().getUnformatted());
+        }
+        
+        Collections.sort(found);
+        assertEquals(Arrays.asList(fronts), found);
+    }
+    
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        
+        file.delete();
+    }
+}
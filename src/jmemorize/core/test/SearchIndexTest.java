@@ -0,0 +1,254 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchQuery;
+import jmemorize.core.SearchTool;
+import jmemorize.core.SearchIndex.SearchObserver;
+import junit.framework.TestCase;
+
+public class SearchIndexTest extends TestCase
+{
+    private Category    m_root;
+    private Category    m_child;
+    private SearchIndex m_index;
+    
+    private Card        m_card0 = new Card("Hello World", "Hallo Welt");
+    private Card        m_card1 = new Card("good morning", "guten Morgen");
+    private Card        m_card2 = new Card("the world", "die Welt");
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_root = new Category("root");
+        m_child = m_root.addCategoryChild(new Category("child"));
+        
+        m_root.addCard(m_card0);
+        m_child.addCard(m_card1);
+        m_child.addCard(m_card2);
+        
+        m_index = new SearchIndex(m_root);
+    }
+    
+    public void testSearchBothSides()
+    {
+        assertCards(search("welt", SearchTool.BOTH_SIDES), m_card0, m_card2);
+        assertCards(search("morning", SearchTool.BOTH_SIDES), m_card1);
+    }
+    
+    public void testSearchOneSide()
+    {
+        assertCards(search("world", SearchTool.FRONT_SIDE), m_card0, m_card2);
+        assertCards(search("world", SearchTool.FLIP_SIDE));
+        assertCards(search("hallo", SearchTool.FLIP_SIDE), m_card0);
+    }
+    
+    public void testSearchMatchCase()
+    {
+        assertCards(m_index.search("World", SearchTool.BOTH_SIDES, true, m_root), 
+            m_card0);
+        assertCards(m_index.search("WORLD", SearchTool.BOTH_SIDES, false, m_root), 
+            m_card0, m_card2);
+    }
+    
+    public void testSearchVerifiesCandidates()
+    {
+        // all trigrams of both texts are indexed, but only card0 contains the
+        // first text as a whole
+        assertCards(search("lo wor", SearchTool.BOTH_SIDES), m_card0);
+        assertCards(search("orld hel", SearchTool.BOTH_SIDES));
+    }
+    
+    public void testSearchShortText()
+    {
+        assertCards(search("a", SearchTool.FLIP_SIDE), m_card0);
+        assertCards(search("we", SearchTool.BOTH_SIDES), m_card0, m_card2);
+    }
+    
+    public void testSearchInCategory()
+    {
+        assertCards(m_index.search("welt", SearchTool.BOTH_SIDES, false, m_child), 
+            m_card2);
+    }
+    
+    public void testSearchLikeLinearScan()
+    {
+        String[] texts = {"o", "wo", "wel", "hello", "xyz", "t m", "ORLD"};
+        
+        for (String text : texts)
+        {
+            for (int side = 0; side <= SearchTool.BOTH_SIDES; side++)
+            {
+                for (boolean matchCase : new boolean[] {false, true})
+                {
+                    assertEquals(text, 
+                        SearchTool.search(text, side, matchCase, m_root.getCards()), 
+                        m_index.search(text, side, matchCase, m_root));
+                }
+            }
+        }
+    }
+    
+    public void testAddedCardIsFound()
+    {
+        Card card = new Card("new world", "neue Welt");
+        m_child.addCard(card);
+        
+        assertCards(search("world", SearchTool.BOTH_SIDES), m_card0, m_card2, card);
+    }
+    
+    public void testBatchAddedCardsAreFound()
+    {
+        Card card0 = new Card("old world", "alte Welt");
+        Card card1 = new Card("small world", "kleine Welt");
+        m_child.addCards(Arrays.asList(new Card[] {card0, card1}), 0);
+        
+        assertCards(search("welt", SearchTool.BOTH_SIDES), 
+            m_card0, m_card2, card0, card1);
+        assertEquals(5, m_index.size());
+    }
+    
+    public void testRemovedCardIsNotFound()
+    {
+        m_root.removeCard(m_card0);
+        
+        assertCards(search("world", SearchTool.BOTH_SIDES), m_card2);
+        assertEquals(2, m_index.size());
+    }
+    
+    public void testEditedCardIsFoundByNewText()
+    {
+        m_card2.setSides("the earth", "die Erde");
+        
+        assertCards(search("world", SearchTool.BOTH_SIDES), m_card0);
+        assertCards(search("earth", SearchTool.BOTH_SIDES), m_card2);
+    }
+    
+    public void testCardsOfRemovedCategoryAreNotFound()
+    {
+        m_child.remove();
+        
+        assertCards(search("o", SearchTool.BOTH_SIDES), m_card0);
+        assertEquals(1, m_index.size());
+    }
+    
+    public void testCardsOfAddedCategoryAreFound()
+    {
+        Category category = new Category("other");
+        Card card = new Card("world", "Welt");
+        category.addCard(card);
+        
+        m_root.addCategoryChild(category);
+        
+        assertCards(search("world", SearchTool.FRONT_SIDE), m_card0, m_card2, card);
+    }
+    
+    public void testManyEditsKeepIndexConsistent()
+    {
+        for (int i = 0; i < 5000; i++)
+            m_card1.setSides("morning " + i, "Morgen " + i);
+        
+        m_card1.setSides("good morning", "guten Morgen");
+        
+        assertCards(search("morning", SearchTool.BOTH_SIDES), m_card1);
+        assertCards(search("4999", SearchTool.BOTH_SIDES));
+        assertEquals(3, m_index.size());
+    }
+    
+    public void testQueryMatchesSingleChangedCard()
+    {
+        SearchQuery query = new SearchQuery("WELT", SearchTool.FLIP_SIDE, false, m_child);
+        assertFalse(query.matches(m_card0));
+        assertTrue(query.matches(m_card2));
+        
+        m_card2.setSides("the earth", "die Erde");
+        assertFalse(query.matches(m_card2));
+        
+        Category.moveCard(m_card0, m_child);
+        assertTrue(query.matches(m_card0));
+    }
+    
+    public void testSearchResultsArriveInGrowingPages()
+    {
+        addCards(1000);
+        
+        final List<Integer> pageSizes = new ArrayList<Integer>();
+        m_index.search(new SearchQuery("card", SearchTool.FRONT_SIDE, false, m_root), 
+            new SearchObserver() {
+                public void onCardsFound(List<Card> cards)
+                {
+                    pageSizes.add(cards.size());
+                }
+
+                public boolean isCancelled()
+                {
+                    return false;
+                }
+            });
+        
+        assertEquals(Arrays.asList(new Integer[] {100, 200, 400, 300}), pageSizes);
+    }
+    
+    public void testCancelledSearchStops()
+    {
+        addCards(1000);
+        
+        final List<Card> found = new ArrayList<Card>();
+        m_index.search(new SearchQuery("card", SearchTool.FRONT_SIDE, false, m_root), 
+            new SearchObserver() {
+                public void onCardsFound(List<Card> cards)
+                {
+                    found.addAll(cards);
+                }
+
+                public boolean isCancelled()
+                {
+                    return !found.isEmpty();
+                }
+            });
+        
+        assertEquals(100, found.size());
+    }
+    
+    private List<Card> search(String text, int side)
+    {
+        return m_index.search(text, side, false, m_root);
+    }
+    
+    private void addCards(int count)
+    {
+        List<Card> cards = new ArrayList<Card>();
+        for (int i = 0; i < count; i++)
+            cards.add(new Card("card " + i, "Karte " + i));
+        
+        m_root.addCards(cards, 0);
+    }
+    
+    private void assertCards(List<Card> cards, Card... expected)
+    {
+        assertEquals(Arrays.asList(expected), new ArrayList<Card>(cards));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.Category;
+import jmemorize.core.CategoryObserver;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.SmartCategory;
+import junit.framework.TestCase;
+
+public class SmartCategoryTest extends TestCase implements CategoryObserver
+{
+    private Category      m_root;
+    private Category      m_child;
+    private SmartCategory m_smart;
+    
+    private Card          m_card0 = new Card("to walk", "gehen");
+    private Card          m_card1 = new Card("to run", "laufen");
+    private Card          m_card2 = new Card("the house", "das Haus");
+    
+    private List<Integer> m_cardEvents = new ArrayList<Integer>();
+    private int           m_categoryEvents;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_root = new Category("root");
+        m_child = m_root.addCategoryChild(new Category("child"));
+        
+        m_root.addCard(m_card0, 0);
+        m_child.addCard(m_card1, 1);
+        m_child.addCard(m_card2, 0);
+        
+        m_smart = new SmartCategory("verbs", CardQuery.compile("front~\"to \""), 
+            m_root, new SearchIndex(m_root));
+        m_smart.addObserver(this);
+    }
+    
+    public void testMaterialized()
+    {
+        assertCards(m_smart.getCards(), m_card0, m_card1);
+        assertCards(m_smart.getCards(0), m_card0);
+        assertCards(m_smart.getCards(1), m_card1);
+        assertCards(m_smart.getCards(5));
+        assertCards(m_smart.getUnlearnedCards(), m_card0);
+    }
+    
+    public void testAddAndRemoveCards()
+    {
+        Card card = new Card("to swim", "schwimmen");
+        m_child.addCard(card);
+        m_child.addCard(new Card("the tree", "der Baum"));
+        
+        assertCards(m_smart.getCards(), m_card0, m_card1, card);
+        assertEquals(Arrays.asList(Category.ADDED_EVENT), m_cardEvents);
+        
+        m_root.removeCard(m_card0);
+        assertCards(m_smart.getCards(), m_card1, card);
+        assertEquals(Category.REMOVED_EVENT, m_cardEvents.get(1).intValue());
+    }
+    
+    public void testBatchAddedCards()
+    {
+        Card card = new Card("to swim", "schwimmen");
+        m_child.addCards(Arrays.asList(card, new Card("the tree", "der Baum")), 2);
+        
+        assertCards(m_smart.getCards(2), card);
+        assertEquals(Arrays.asList(Category.BATCH_ADDED_EVENT), m_cardEvents);
+    }
+    
+    public void testEditedCards()
+    {
+        m_card2.setSides("to live", "wohnen");
+        m_card0.setSides("the walk", "der Spaziergang");
+        
+        assertCards(m_smart.getCards(), m_card1, m_card2);
+        
+        // cards that don't match before and after aren't reported
+        m_card0.setSides("the walks", "die Spaziergaenge");
+        assertEquals(2, m_cardEvents.size());
+    }
+    
+    public void testDeckChanges()
+    {
+        Category.raiseCardLevel(m_card0, new Date(), new Date());
+        assertCards(m_smart.getCards(0));
+        assertCards(m_smart.getCards(1), m_card0, m_card1);
+        
+        Category.resetCardLevel(m_card1, new Date());
+        assertCards(m_smart.getCards(0), m_card1);
+        assertCards(m_smart.getCards(1), m_card0);
+        
+        assertEquals(Arrays.asList(Category.DECK_EVENT, Category.DECK_EVENT), 
+            m_cardEvents);
+    }
+    
+    public void testRemovedCategory()
+    {
+        m_child.remove();
+        
+        assertCards(m_smart.getCards(), m_card0);
+        assertEquals(1, m_categoryEvents);
+    }
+    
+    public void testAddCardToSource()
+    {
+        Card card = new Card("to swim", "schwimmen");
+        m_smart.addCard(card);
+        
+        assertSame(m_root, card.getCategory());
+        assertCards(m_smart.getCards(0), m_card0, card);
+    }
+    
+    public void testRemove()
+    {
+        m_smart.remove();
+        assertEquals(1, m_categoryEvents);
+        
+        m_root.addCard(new Card("to swim", "schwimmen"));
+        assertEquals(2, m_smart.getCards().size());
+    }
+    
+    public void onCardEvent(int type, Card card, Category category, int deck)
+    {
+        m_cardEvents.add(type);
+    }
+    
+    public void onCategoryEvent(int type, Category category)
+    {
+        m_categoryEvents++;
+    }
+    
+    private void assertCards(List<Card> cards, Card... expected)
+    {
+        assertEquals(expected.length, cards.size());
+        assertTrue(cards.containsAll(Arrays.asList(expected)));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.core.test;
+
+import java.util.List;
+
+import jmemorize.core.Card;
+import jmemorize.core.CardSide;
+import jmemorize.core.Category;
+import jmemorize.core.FormattedText;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchTool;
+import jmemorize.core.TextNormalizer;
+import junit.framework.TestCase;
+
+public class TextNormalizerTest extends TestCase
+{
+    public void testCaseAndAccents()
+    {
+        assertEquals("creme brulee", TextNormalizer.normalize("Cr\u00e8me Br\u00fbl\u00c9e"));
+        assertEquals("strasse", TextNormalizer.normalize("STRASSE"));
+        assertEquals("stra\u00dfe", TextNormalizer.normalize("Stra\u00dfe"));
+        assertEquals("lodz", TextNormalizer.normalize("\u0141\u00f3d\u017a"));
+    }
+    
+    public void testCombiningMarks()
+    {
+        assertEquals("cafe", TextNormalizer.normalize("cafe\u0301"));
+        assertEquals(TextNormalizer.normalize("caf\u00e9"), 
+            TextNormalizer.normalize("cafe\u0301"));
+    }
+    
+    public void testFullwidth()
+    {
+        assertEquals("abc1", TextNormalizer.normalize("\uff21\uff42\uff43\uff11"));
+    }
+    
+    public void testWhitespace()
+    {
+        assertEquals("to go", TextNormalizer.normalize("  to \t\n go\u00a0 "));
+        assertEquals("", TextNormalizer.normalize(" \n "));
+    }
+    
+    public void testFoldIsIdempotent()
+    {
+        for (char c = 0; c < 0x0250; c++)
+        {
+            char folded = TextNormalizer.fold(c);
+            assertEquals(folded, TextNormalizer.fold(folded));
+        }
+    }
+    
+    public void testNormalizedTextIsInvalidated()
+    {
+        CardSide cardSide = new CardSide(FormattedText.unformatted("Gr\u00fc\u00dfe"));
+        assertEquals("gru\u00dfe", cardSide.getNormalizedText());
+        
+        cardSide.setText(FormattedText.unformatted("Hallo  Welt"));
+        assertEquals("hallo welt", cardSide.getNormalizedText());
+    }
+    
+    public void testSearchIgnoresAccents()
+    {
+        Category category = new Category("root");
+        Card card = new Card("d\u00e9j\u00e0 vu", "schon gesehen");
+        category.addCard(card);
+        
+        SearchIndex index = new SearchIndex(category);
+        
+        List<Card> cards = index.search("DEJA", SearchTool.FRONT_SIDE, false, category);
+        assertEquals(1, cards.size());
+        
+        cards = index.search("deja", SearchTool.FRONT_SIDE, true, category);
+        assertEquals(0, cards.size());
+        
+        cards = index.search("d\u00e9j\u00e0", SearchTool.FRONT_SIDE, true, category);
+        assertEquals(1, cards.size());
+        
+        card.setSides("dej\u00c0 vu", "schon gesehen");
+        cards = SearchTool.search("d\u00e9ja", SearchTool.FRONT_SIDE, false, category.getCards());
+        assertEquals(1, cards.size());
+        
+        index.close();
+    }
+}
@@ -112,6 +112,8 @@ public interface LC
     public static final String PREFERENCES_FONT                       = "Preferences.FONT";
     public static final String PREFERENCES_SIZE                       = "Preferences.SIZE";
     public static final String PREFERENCES_USE_GZIP                   = "Preferences.USE_GZIP";
+    /** since 1.4.0 */
+    public static final String PREFERENCES_AUTO_SAVE                  = "Preferences.AUTO_SAVE";
     /** since 1.3.0 */
     public static final String PREFERENCES_VERT_ALIGN                 = "Preferences.VERT_ALIGN";
     /** since 1.3.0 */
@@ -189,16 +191,70 @@ public interface LC
 
     public static final String MATCH_CASE                             = "FindTool.MATCH_CASE";
     public static final String BOTH_SIDES                             = "FindTool.BOTH_SIDES";
+    /** since 1.4.0 */
+    public static final String USE_QUERY                              = "FindTool.USE_QUERY";
+    /** since 1.4.0 */
+    public static final String QUERY_ERROR                            = "FindTool.QUERY_ERROR";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_TITLE                    = "FindTool.LESSON_SEARCH_TITLE";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_LESSON                   = "FindTool.LESSON_SEARCH_LESSON";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_RUNNING                  = "FindTool.LESSON_SEARCH_RUNNING";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_DONE                     = "FindTool.LESSON_SEARCH_DONE";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_FAILED                   = "FindTool.LESSON_SEARCH_FAILED";
+    /** since 1.4.0 */
+    public static final String LESSON_SEARCH_NOT_FOUND                = "FindTool.LESSON_SEARCH_NOT_FOUND";
+    /** since 1.4.0 */
+    public static final String DUPLICATES_TITLE                       = "FindTool.DUPLICATES_TITLE";
+    /** since 1.4.0 */
+    public static final String DUPLICATES_GROUP                       = "FindTool.DUPLICATES_GROUP";
+    /** since 1.4.0 */
+    public static final String DUPLICATES_FOUND                       = "FindTool.DUPLICATES_FOUND";
+    /** since 1.4.0 */
+    public static final String DUPLICATES_NONE                        = "FindTool.DUPLICATES_NONE";
 
     // -- MainFrame --------
 
     public static final String MAINFRAME_ABOUT                        = "MainFrame.ABOUT";
     public static final String ERROR_LOAD                             = "MainFrame.ERROR_LOAD";
     public static final String ERROR_SAVE                             = "MainFrame.ERROR_SAVE";
+    /** since 1.4.0 */
+    public static final String IMPORT_PROGRESS                        = "MainFrame.IMPORT_PROGRESS";
+    /** since 1.4.0 */
+    public static final String EXPORT_PROGRESS                        = "MainFrame.EXPORT_PROGRESS";
+    /** since 1.4.0 */
+    public static final String DUPLICATE_POLICY                       = "MainFrame.DUPLICATE_POLICY";
+    /** since 1.4.0 */
+    public static final String DUPLICATE_POLICY_QUESTION              = "MainFrame.DUPLICATE_POLICY_QUESTION";
+    /** since 1.4.0 */
+    public static final String DUPLICATE_KEEP_BOTH                    = "MainFrame.DUPLICATE_KEEP_BOTH";
+    /** since 1.4.0 */
+    public static final String DUPLICATE_SKIP                         = "MainFrame.DUPLICATE_SKIP";
+    /** since 1.4.0 */
+    public static final String DUPLICATE_MERGE_STATS                  = "MainFrame.DUPLICATE_MERGE_STATS";
 
     public static final String ACTION_ADD_CATEGORY                    = "MainFrame.ADD_CATEGORY";
     public static final String ACTION_ADD_CATEGORY_DESC               = "MainFrame.ADD_CATEGORY_DESC";
     public static final String ACTION_ADD_CATEGORY_INPUT              = "MainFrame.ADD_CATEGORY_INPUT";
+    /** since 1.4.0 */
+    public static final String ACTION_ADD_SMART_CATEGORY              = "MainFrame.ADD_SMART_CATEGORY";
+    /** since 1.4.0 */
+    public static final String ACTION_ADD_SMART_CATEGORY_DESC         = "MainFrame.ADD_SMART_CATEGORY_DESC";
+    /** since 1.4.0 */
+    public static final String ACTION_ADD_SMART_CATEGORY_INPUT        = "MainFrame.ADD_SMART_CATEGORY_INPUT";
+    /** since 1.4.0 */
+    public static final String ACTION_ADD_SMART_CATEGORY_QUERY        = "MainFrame.ADD_SMART_CATEGORY_QUERY";
+    /** since 1.4.0 */
+    public static final String ACTION_FIND_IN_LESSONS                 = "MainFrame.FIND_IN_LESSONS";
+    /** since 1.4.0 */
+    public static final String ACTION_FIND_IN_LESSONS_DESC            = "MainFrame.FIND_IN_LESSONS_DESC";
+    /** since 1.4.0 */
+    public static final String ACTION_FIND_DUPLICATES                 = "MainFrame.FIND_DUPLICATES";
+    /** since 1.4.0 */
+    public static final String ACTION_FIND_DUPLICATES_DESC            = "MainFrame.FIND_DUPLICATES_DESC";
 
     public static final String RESET                                  = "MainFrame.RESET";
     public static final String RESET_DESC                             = "MainFrame.RESET_DESC";
@@ -0,0 +1,184 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.gui.swing;
+
+import java.awt.Component;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+
+import jmemorize.core.Main;
+import jmemorize.core.io.CancelledException;
+import jmemorize.core.io.ProgressObserver;
+import jmemorize.gui.swing.dialogs.ErrorDialog;
+
+/**
+ * Runs a long running import or export on its own thread while a progress
+ * monitor is shown that allows the user to cancel it. Failures are reported
+ * with an error dialog after the task has ended.
+ */
+public abstract class BackgroundTask implements ProgressObserver, Runnable
+{
+    /**
+     * Runs commands on the event dispatch thread and returns after they are
+     * done. Use this for changing the lesson from within a task.
+     */
+    public static final Executor EDT_EXECUTOR = new Executor() {
+        public void execute(Runnable command)
+        {
+            if (SwingUtilities.isEventDispatchThread())
+            {
+                command.run();
+                return;
+            }
+            
+            try
+            {
+                SwingUtilities.invokeAndWait(command);
+            }
+            catch (InterruptedException e)
+            {
+                throw new RuntimeException(e);
+            }
+            catch (InvocationTargetException e)
+            {
+                Throwable cause = e.getCause();
+                
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                
+                throw new RuntimeException(cause);
+            }
+        }
+    };
+    
+    private static final int      PROGRESS_MAX = 1000;
+    
+    private final ProgressMonitor m_monitor;
+    private final String          m_errorMessage;
+    
+    /**
+     * @param message the message that is shown in the progress monitor.
+     * @param errorMessage the message that is shown if the task fails.
+     */
+    public BackgroundTask(Component parent, String message, String errorMessage)
+    {
+        m_monitor = new ProgressMonitor(parent, message, null, 0, PROGRESS_MAX);
+        m_errorMessage = errorMessage;
+    }
+    
+    /**
+     * Starts the task on a new thread.
+     */
+    public void start()
+    {
+        new Thread(this, "background task").start(); //$NON-NLS-1$
+    }
+    
+    /* (non-Javadoc)
+     * @see java.lang.Runnable
+     */
+    public void run()
+    {
+        Exception failure = null;
+        boolean cancelled = false;
+        
+        try
+        {
+            execute();
+        }
+        catch (CancelledException e)
+        {
+            cancelled = true;
+        }
+        catch (Exception e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            final Exception finalFailure = failure;
+            final boolean finalCancelled = cancelled;
+            
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    finished(finalFailure, finalCancelled);
+                }
+            });
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.io.ProgressObserver
+     */
+    public void onProgress(final long done, final long total)
+    {
+        if (total <= 0)
+            return;
+        
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run()
+            {
+                m_monitor.setProgress((int)(done * PROGRESS_MAX / total));
+            }
+        });
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.io.ProgressObserver
+     */
+    public boolean isCancelled()
+    {
+        return m_monitor.isCanceled();
+    }
+    
+    /**
+     * Does the actual work. This is called on the thread of the task.
+     */
+    protected abstract void execute() throws Exception;
+    
+    /**
+     * Is called on the event dispatch thread after the task has finished
+     * without failure and without being cancelled.
+     */
+    protected void succeeded()
+    {
+    }
+    
+    private void finished(Exception failure, boolean cancelled)
+    {
+        m_monitor.close();
+        
+        if (failure != null)
+        {
+            Main.logThrowable(m_errorMessage, failure);
+            new ErrorDialog(Main.getInstance().getFrame(), 
+                m_errorMessage, failure).setVisible(true);
+        }
+        else if (!cancelled)
+        {
+            succeeded();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.ImageIcon;
@@ -33,8 +34,10 @@ import javax.swing.text.StyledDocument;
 
 import jmemorize.core.Card;
 import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.FormattedText;
 import jmemorize.core.Main;
+import jmemorize.core.Settings;
 import jmemorize.gui.swing.panels.CardSidePanel;
 import jmemorize.gui.swing.widgets.CardTable;
 import jmemorize.gui.swing.widgets.CategoryTree;
@@ -332,9 +335,17 @@ public class GeneralTransferHandler extends TransferHandler
             if (t.isDataFlavorSupported(CARDS_FLAVOR))
             {
                 List<Card> cards = (List<Card>)t.getTransferData(CARDS_FLAVOR);
+                
+                List<Card> copies = new ArrayList<Card>(cards.size());
                 for (Card card : cards)
                 {
-                    targetCategory.addCard((Card)card.clone(), card.getLevel());
+                    copies.add((Card)card.clone());
+                }
+                
+                int policy = getDuplicatePolicy(cards, targetCategory);
+                for (Card card : filterDuplicates(copies, policy))
+                {
+                    targetCategory.addCard(card, card.getLevel());
                 }
     
                 return true;
@@ -344,7 +355,8 @@ public class GeneralTransferHandler extends TransferHandler
                 Category category = (Category)t.getTransferData(CATEGORY_FLAVOR);
                 if (!category.contains(targetCategory))
                 {
-                    targetCategory.addCategoryChild(copyCategories(category));
+                    int policy = getDuplicatePolicy(category.getCards(), targetCategory);
+                    targetCategory.addCategoryChild(copyCategories(category, policy));
                     return true;
                 }
                 else
@@ -441,25 +453,65 @@ public class GeneralTransferHandler extends TransferHandler
     }
     
 
-    private Category copyCategories(Category original) throws CloneNotSupportedException
+    private Category copyCategories(Category original, int duplicatePolicy) 
+        throws CloneNotSupportedException
     {
         Category copy = new Category(original.getName());
         
         // first copy categories..
         for (Category category : original.getChildCategories())
         {
-            copy.addCategoryChild(copyCategories(category));
+            copy.addCategoryChild(copyCategories(category, duplicatePolicy));
         }
         
         // ..then copy cards
         for (int i = 0; i < original.getNumberOfDecks(); i++)
         {
+            List<Card> copies = new ArrayList<Card>();
             for (Card card : original.getLocalCards(i))
             {
-                copy.addCard((Card)card.clone(), i);
+                copies.add((Card)card.clone());
             }
+            
+            copy.addCards(filterDuplicates(copies, duplicatePolicy), i);
         }
         
         return copy;
     }
+    
+    /**
+     * @return the duplicate policy for given cards when they are pasted into
+     * given category. Cards that are copied or moved within the lesson are
+     * always kept, because they are duplicates of themselves. For cards of
+     * other lessons the policy of the last import is used.
+     */
+    private int getDuplicatePolicy(List<Card> cards, Category targetCategory)
+    {
+        Category root = getRoot(targetCategory);
+        for (Card card : cards)
+        {
+            Category category = card.getCategory();
+            if (category != null && getRoot(category) == root)
+                return DuplicateIndex.KEEP_BOTH;
+        }
+        
+        return Settings.loadDuplicatePolicy();
+    }
+    
+    private List<Card> filterDuplicates(List<Card> cards, int duplicatePolicy)
+    {
+        if (duplicatePolicy == DuplicateIndex.KEEP_BOTH)
+            return cards;
+        
+        DuplicateIndex index = Main.getInstance().getLesson().getDuplicateIndex();
+        return index.filter(cards, duplicatePolicy);
+    }
+    
+    private static Category getRoot(Category category)
+    {
+        while (category.getParent() != null)
+            category = category.getParent();
+        
+        return category;
+    }
 }
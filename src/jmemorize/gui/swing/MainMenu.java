@@ -32,10 +32,13 @@ import jmemorize.gui.swing.actions.RenameCategoryAction;
 import jmemorize.gui.swing.actions.ShowHistoryAction;
 import jmemorize.gui.swing.actions.edit.AddCardAction;
 import jmemorize.gui.swing.actions.edit.AddCategoryAction;
+import jmemorize.gui.swing.actions.edit.AddSmartCategoryAction;
 import jmemorize.gui.swing.actions.edit.CopyAction;
 import jmemorize.gui.swing.actions.edit.CutAction;
 import jmemorize.gui.swing.actions.edit.EditCardAction;
 import jmemorize.gui.swing.actions.edit.FindAction;
+import jmemorize.gui.swing.actions.edit.FindDuplicatesAction;
+import jmemorize.gui.swing.actions.edit.FindInLessonsAction;
 import jmemorize.gui.swing.actions.edit.PasteAction;
 import jmemorize.gui.swing.actions.edit.RemoveAction;
 import jmemorize.gui.swing.actions.edit.ResetCardAction;
@@ -95,6 +98,7 @@ public class MainMenu extends JMenuBar implements RecentItemsObserver
         JMenu learnMenu = new JMenu(Localization.get("MainFrame.MENU_LESSON")); //$NON-NLS-1$
         learnMenu.add(new JMenuItem(new AddCardAction(provider)));
         learnMenu.add(new JMenuItem(new AddCategoryAction(provider)));
+        learnMenu.add(new JMenuItem(new AddSmartCategoryAction(provider)));
         learnMenu.addSeparator();
         learnMenu.add(new JMenuItem(new LearnAction(provider)));
         learnMenu.add(new JMenuItem(new ShowHistoryAction()));
@@ -118,6 +122,8 @@ public class MainMenu extends JMenuBar implements RecentItemsObserver
         editMenu.add(new JMenuItem(new ResetCardAction(provider)));
         editMenu.addSeparator();
         editMenu.add(new JMenuItem(new FindAction()));
+        editMenu.add(new JMenuItem(new FindInLessonsAction()));
+        editMenu.add(new JMenuItem(new FindDuplicatesAction()));
         return editMenu;
     }
 
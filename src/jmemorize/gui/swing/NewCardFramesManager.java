@@ -145,6 +145,14 @@ public class NewCardFramesManager implements LessonObserver, CategoryObserver
         // ignore
     }
 
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaving(Lesson lesson)
+    {
+        // ignore
+    }
+
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
      */
@@ -152,6 +160,14 @@ public class NewCardFramesManager implements LessonObserver, CategoryObserver
     {
         // ignore
     }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaveFailed(Lesson lesson, Throwable t)
+    {
+        // ignore
+    }
 
     /* (non-Javadoc)
      * @see jmemorize.core.CategoryObserver
@@ -27,6 +27,7 @@ import jmemorize.core.Lesson;
 import jmemorize.core.Main;
 import jmemorize.core.learn.LearnSession;
 import jmemorize.core.learn.LearnSessionObserver;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.SelectionProvider;
@@ -100,7 +101,9 @@ public class RenameCategoryAction extends AbstractAction2
         Category rootCategory = lesson.getRootCategory();
         Category category = m_selectionProvider.getCategory();
         
-        setEnabled(!sessionRunning && lesson != null && category != rootCategory);
+        // smart categories are named by their query
+        setEnabled(!sessionRunning && lesson != null && category != rootCategory &&
+            !(category instanceof SmartCategory));
     }
 
     private void setValues()
@@ -0,0 +1,100 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.gui.swing.actions.edit;
+
+import java.text.MessageFormat;
+
+import javax.swing.JOptionPane;
+
+import jmemorize.core.Main;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.QueryException;
+import jmemorize.gui.LC;
+import jmemorize.gui.Localization;
+import jmemorize.gui.swing.SelectionProvider;
+import jmemorize.gui.swing.actions.AbstractSessionDisabledAction;
+
+/**
+ * An action for adding new smart categories. A smart category shows all cards
+ * of the lesson that match a query.
+ */
+public class AddSmartCategoryAction extends AbstractSessionDisabledAction
+{
+    private SelectionProvider m_selectionProvider;
+    
+    public AddSmartCategoryAction(SelectionProvider provider)
+    {
+        m_selectionProvider = provider;
+        setValues();
+    }
+
+    /* (non-Javadoc)
+     * @see java.awt.event.ActionListener
+     */
+    public void actionPerformed(java.awt.event.ActionEvent e)
+    {
+        String name = JOptionPane.showInputDialog(
+            m_selectionProvider.getFrame(),
+            Localization.get(LC.ACTION_ADD_SMART_CATEGORY_INPUT),
+            Localization.get(LC.ACTION_ADD_SMART_CATEGORY),
+            JOptionPane.INFORMATION_MESSAGE
+            );
+
+        if (name == null || name.trim().length() == 0)
+            return;
+        
+        String message = Localization.get(LC.ACTION_ADD_SMART_CATEGORY_QUERY);
+        String text = ""; //$NON-NLS-1$
+        
+        // ask again until the query is valid or the input is cancelled
+        while (true)
+        {
+            text = (String)JOptionPane.showInputDialog(
+                m_selectionProvider.getFrame(), 
+                message, 
+                Localization.get(LC.ACTION_ADD_SMART_CATEGORY), 
+                JOptionPane.QUESTION_MESSAGE, 
+                null, null, text);
+            
+            if (text == null)
+                return;
+            
+            try
+            {
+                CardQuery query = CardQuery.compile(text);
+                Main.getInstance().getFrame().addSmartCategory(name.trim(), query);
+                
+                return;
+            }
+            catch (QueryException ex)
+            {
+                message = MessageFormat.format(Localization.get(LC.QUERY_ERROR), 
+                    ex.getPosition() + 1, ex.getMessage()) + '\n' + 
+                    Localization.get(LC.ACTION_ADD_SMART_CATEGORY_QUERY);
+            }
+        }
+    }
+    
+    private void setValues()
+    {
+        setName(Localization.get(LC.ACTION_ADD_SMART_CATEGORY));
+        setDescription(Localization.get(LC.ACTION_ADD_SMART_CATEGORY_DESC));
+        setIcon("/resource/icons/find.gif"); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.gui.swing.actions.edit;
+
+import jmemorize.gui.LC;
+import jmemorize.gui.Localization;
+import jmemorize.gui.swing.actions.AbstractAction2;
+import jmemorize.gui.swing.frames.LessonSearchFrame;
+
+/**
+ * An action that shows the window that searches all recent lessons.
+ */
+public class FindInLessonsAction extends AbstractAction2
+{
+    public FindInLessonsAction()
+    {
+        setValues();
+    }
+
+    public void actionPerformed(java.awt.event.ActionEvent e)
+    {
+        LessonSearchFrame.getInstance().setVisible(true);
+    }
+
+    private void setValues()
+    {
+        setName(Localization.get(LC.ACTION_FIND_IN_LESSONS));
+        setIcon("/resource/icons/find.gif"); //$NON-NLS-1$
+        setDescription(Localization.get(LC.ACTION_FIND_IN_LESSONS_DESC));
+    }
+}
@@ -27,6 +27,7 @@ import javax.swing.JOptionPane;
 import jmemorize.core.Card;
 import jmemorize.core.Category;
 import jmemorize.core.Main;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.SelectionProvider;
 import jmemorize.gui.swing.SelectionProvider.SelectionObserver;
@@ -87,6 +88,14 @@ public class RemoveAction extends AbstractAction2 implements SelectionObserver
             
             for (Category category : selectedCategories)
             {
+                // removing a smart category keeps its cards
+                if (category instanceof SmartCategory)
+                {
+                    Main.getInstance().getFrame().removeSmartCategory(
+                        (SmartCategory)category);
+                    continue;
+                }
+                
                 int cardCount = category.getCards().size();
 
                 if (cardCount > 0)
@@ -32,12 +32,32 @@ import jmemorize.core.Main;
 import jmemorize.core.Settings;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
+import jmemorize.gui.swing.BackgroundTask;
 import jmemorize.gui.swing.actions.AbstractSessionDisabledAction;
 import jmemorize.gui.swing.dialogs.ErrorDialog;
 import jmemorize.util.ExtensionFileFilter;
 
 public abstract class AbstractExportAction extends AbstractSessionDisabledAction
 {
+    /**
+     * A background task that exports to given file while a progress monitor
+     * is shown.
+     */
+    protected static abstract class ExportTask extends BackgroundTask
+    {
+        public ExportTask(File file)
+        {
+            super(Main.getInstance().getFrame(), 
+                format(LC.EXPORT_PROGRESS, file), format(LC.ERROR_SAVE, file));
+        }
+        
+        private static String format(String key, File file)
+        {
+            Object[] args = {file.getName()};
+            return new MessageFormat(Localization.get(key)).format(args);
+        }
+    }
+    
     /**
      * Displays a Save As or Export dialog, and to confirm overwrites,
      * and to attach specified file extension.
@@ -25,8 +25,11 @@ import java.text.MessageFormat;
 
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 
+import jmemorize.core.Category;
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.Lesson;
 import jmemorize.core.Main;
 import jmemorize.core.Settings;
@@ -73,6 +76,74 @@ public abstract class AbstractImportAction extends AbstractSessionDisabledAction
         return file;
     }
     
+    /**
+     * Asks what should happen to imported cards that duplicate cards of the
+     * lesson. The choice is stored as the default for the next imports. If
+     * the lesson has no cards yet, the stored policy is used without asking.
+     * 
+     * @return one of the policies of {@link DuplicateIndex} or -1 if the
+     * dialog was cancelled.
+     */
+    public static int showDuplicatePolicyChooser(JFrame frame, Lesson lesson)
+    {
+        int policy = Settings.loadDuplicatePolicy();
+        if (!hasCards(lesson.getRootCategory()))
+            return policy;
+        
+        int[] policies = {DuplicateIndex.SKIP, DuplicateIndex.MERGE_STATS, 
+            DuplicateIndex.KEEP_BOTH};
+        
+        Object[] options = {
+            Localization.get(LC.DUPLICATE_SKIP), 
+            Localization.get(LC.DUPLICATE_MERGE_STATS), 
+            Localization.get(LC.DUPLICATE_KEEP_BOTH)};
+        
+        Object selection = options[0];
+        for (int i = 0; i < policies.length; i++)
+        {
+            if (policies[i] == policy)
+                selection = options[i];
+        }
+        
+        int choice = JOptionPane.showOptionDialog(
+            frame, 
+            Localization.get(LC.DUPLICATE_POLICY_QUESTION), 
+            Localization.get(LC.DUPLICATE_POLICY), 
+            JOptionPane.DEFAULT_OPTION, 
+            JOptionPane.QUESTION_MESSAGE, 
+            null, 
+            options, 
+            selection);
+        
+        if (choice == JOptionPane.CLOSED_OPTION)
+            return -1;
+        
+        Settings.storeDuplicatePolicy(policies[choice]);
+        return policies[choice];
+    }
+    
+    /**
+     * @return <code>true</code> if given category or one of its child
+     * categories has a card. Unlike counting the cards of
+     * {@link Category#getCards()}, this doesn't copy any deck.
+     */
+    private static boolean hasCards(Category category)
+    {
+        for (int i = 0; i < category.getNumberOfDecks(); i++)
+        {
+            if (!category.getLocalCards(i).isEmpty())
+                return true;
+        }
+        
+        for (Category child : category.getChildCategories())
+        {
+            if (hasCards(child))
+                return true;
+        }
+        
+        return false;
+    }
+    
     /* (non-Javadoc)
      * @see java.awt.event.ActionListener
      */
@@ -19,12 +19,12 @@
 package jmemorize.gui.swing.actions.file;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 
 import jmemorize.core.Lesson;
-import jmemorize.core.io.CsvBuilder;
+import jmemorize.core.io.CsvExporter;
+import jmemorize.core.io.SafeFileOutputStream;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.util.ExtensionFileFilter;
@@ -44,10 +44,31 @@ public class ExportToCSVAction extends AbstractExportAction
     /* (non-Javadoc)
      * @see jmemorize.gui.swing.actions.file.AbstractExportAction
      */
-    protected void doExport(Lesson lesson, File file) throws IOException
+    protected void doExport(final Lesson lesson, final File file) throws IOException
     {
-        FileOutputStream out = new FileOutputStream(file);
-        CsvBuilder.exportLesson(out, lesson, ',', Charset.forName("UTF-8"));
+        new ExportTask(file) {
+            protected void execute() throws Exception
+            {
+                CsvExporter exporter = new CsvExporter(',', 
+                    Charset.forName("UTF-8")); //$NON-NLS-1$
+                exporter.setProgressObserver(this);
+                exporter.setAccessExecutor(EDT_EXECUTOR);
+                
+                SafeFileOutputStream out = new SafeFileOutputStream(file, false);
+                boolean committed = false;
+                try
+                {
+                    exporter.exportLesson(out, lesson);
+                    out.commit();
+                    committed = true;
+                }
+                finally
+                {
+                    if (!committed)
+                        out.abort();
+                }
+            }
+        }.start();
     }
 
     /* (non-Javadoc)
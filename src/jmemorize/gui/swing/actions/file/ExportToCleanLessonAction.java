@@ -22,14 +22,15 @@ import java.io.File;
 import java.io.IOException;
 
 import jmemorize.core.Lesson;
-import jmemorize.core.Main;
+import jmemorize.core.io.XmlBuilder;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.frames.MainFrame;
 import jmemorize.util.ExtensionFileFilter;
 
 /**
- * An action that opens up a file chooser and saves the lesson at that location.
+ * An action that opens up a file chooser and saves the lesson without any
+ * learn progress at that location.
  * 
  * @author djemili
  */
@@ -43,10 +44,14 @@ public class ExportToCleanLessonAction extends AbstractExportAction
     /* (non-Javadoc)
      * @see jmemorize.gui.swing.actions.AbstractExportAction
      */
-    protected void doExport(Lesson lesson, File file) throws IOException
+    protected void doExport(final Lesson lesson, final File file) throws IOException
     {
-        Lesson cleanLesson = lesson.cloneWithoutProgress();
-        Main.getInstance().getFrame().saveLesson(cleanLesson, file);
+        new ExportTask(file) {
+            protected void execute() throws Exception
+            {
+                XmlBuilder.writeCleanLesson(file, lesson, this, EDT_EXECUTOR);
+            }
+        }.start();
     }
 
     /* (non-Javadoc)
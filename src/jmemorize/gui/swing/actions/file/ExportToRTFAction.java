@@ -39,9 +39,14 @@ public class ExportToRTFAction extends AbstractExportAction
     /* (non-Javadoc)
      * @see jmemorize.gui.swing.actions.AbstractExportAction
      */
-    protected void doExport(Lesson lesson, File file) throws IOException
+    protected void doExport(final Lesson lesson, final File file) throws IOException
     {
-        PdfRtfBuilder.exportLessonToRTF(lesson, file);
+        new ExportTask(file) {
+            protected void execute() throws Exception
+            {
+                PdfRtfBuilder.exportLessonToRTF(lesson, file, this, EDT_EXECUTOR);
+            }
+        }.start();
     }
 
     /* (non-Javadoc)
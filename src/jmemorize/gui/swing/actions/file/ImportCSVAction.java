@@ -19,20 +19,21 @@
 package jmemorize.gui.swing.actions.file;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.text.MessageFormat;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
 
+import jmemorize.core.DuplicateIndex;
 import jmemorize.core.Lesson;
 import jmemorize.core.Main;
-import jmemorize.core.io.CsvBuilder;
-import jmemorize.core.io.CsvBuilder.BadHeaderException;
+import jmemorize.core.io.CsvImporter;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
+import jmemorize.gui.swing.BackgroundTask;
 import jmemorize.util.ExtensionFileFilter;
 
 /**
@@ -69,29 +70,46 @@ public class ImportCSVAction extends AbstractImportAction
         return selection == null ? null : Charset.forName(selection);
     }
     
+    /**
+     * Imports the values of given file into the lesson on a background thread
+     * while showing the progress.
+     * 
+     * @param duplicatePolicy one of the policies of {@link DuplicateIndex}.
+     */
+    public static void startImport(final File file, final char delimiter, 
+        final Charset charset, final Lesson lesson, final int duplicatePolicy)
+    {
+        Object[] args = {file.getName()};
+        String message = new MessageFormat(
+            Localization.get(LC.IMPORT_PROGRESS)).format(args);
+        String errorMessage = new MessageFormat(
+            Localization.get(LC.ERROR_LOAD)).format(args);
+        
+        new BackgroundTask(Main.getInstance().getFrame(), message, errorMessage) {
+            protected void execute() throws Exception
+            {
+                CsvImporter importer = new CsvImporter(delimiter, charset);
+                importer.setProgressObserver(this);
+                importer.setCommitExecutor(EDT_EXECUTOR);
+                importer.setDuplicatePolicy(duplicatePolicy);
+                importer.importFile(file, lesson);
+            }
+        }.start();
+    }
+    
     /* (non-Javadoc)
      * @see jmemorize.gui.swing.actions.file.AbstractImportAction
      */
     protected void doImport(File file, Lesson lesson) throws IOException
     {
-        FileInputStream in = null;
-        try
-        {
-            in = new FileInputStream(file);
-            Charset charset = showCharsetChooser(Main.getInstance().getFrame());
-            
-            if (charset == null)
-                return;
-             
-            CsvBuilder.importLesson(in, ',', charset, lesson);
-        } 
-        catch (BadHeaderException e)
-        {
-            if (in != null)
-                in.close();
-            
-            throw new IOException(e.getMessage());
-        }
+        JFrame frame = Main.getInstance().getFrame();
+        Charset charset = showCharsetChooser(frame);
+        if (charset == null)
+            return;
+        
+        int policy = showDuplicatePolicyChooser(frame, lesson);
+        if (policy >= 0)
+            startImport(file, ',', charset, lesson, policy);
     }
 
     /* (non-Javadoc)
@@ -24,6 +24,7 @@ import java.io.IOException;
 import javax.swing.filechooser.FileFilter;
 
 import jmemorize.core.Lesson;
+import jmemorize.core.Main;
 import jmemorize.core.io.XmlBuilder;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
@@ -41,9 +42,14 @@ public class ImportJMLAction extends AbstractImportAction
      */
     protected void doImport(File file, Lesson lesson) throws IOException
     {
+        int policy = showDuplicatePolicyChooser(
+            Main.getInstance().getFrame(), lesson);
+        if (policy < 0)
+            return;
+        
         try
         {
-            XmlBuilder.loadFromXMLFile(file, lesson);
+            XmlBuilder.importFromXMLFile(file, lesson, policy);
         } 
         catch (Exception e)
         {
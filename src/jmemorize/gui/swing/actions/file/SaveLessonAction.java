@@ -70,6 +70,14 @@ public class SaveLessonAction extends AbstractSessionDisabledAction
         updateEnablement();
     }
 
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaving(Lesson lesson)
+    {
+        updateEnablement();
+    }
+
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
      */
@@ -77,6 +85,14 @@ public class SaveLessonAction extends AbstractSessionDisabledAction
     {
         updateEnablement();
     }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.LessonObserver
+     */
+    public void lessonSaveFailed(Lesson lesson, Throwable t)
+    {
+        updateEnablement();
+    }
 
     /* (non-Javadoc)
      * @see jmemorize.core.LessonObserver
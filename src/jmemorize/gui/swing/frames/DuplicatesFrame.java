@@ -0,0 +1,316 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.gui.swing.frames;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.UIManager;
+import javax.swing.border.EmptyBorder;
+import javax.swing.border.EtchedBorder;
+import javax.swing.table.AbstractTableModel;
+
+import jmemorize.core.Card;
+import jmemorize.core.Main;
+import jmemorize.core.Settings;
+import jmemorize.core.Main.ProgramEndObserver;
+import jmemorize.gui.LC;
+import jmemorize.gui.Localization;
+import jmemorize.gui.swing.actions.AbstractAction2;
+import jmemorize.gui.swing.panels.StatusBar;
+import jmemorize.util.EscapableFrame;
+
+import com.jgoodies.forms.factories.ButtonBarFactory;
+
+/**
+ * A frame that lists all groups of duplicate cards of the current lesson.
+ * Opening a listed card shows it in its category.
+ */
+public class DuplicatesFrame extends EscapableFrame implements ProgramEndObserver
+{
+    private final static String    FRAME_ID     = "duplicatesframe"; //$NON-NLS-1$
+    
+    private final static int       GROUP_COLUMN = 0;
+    private final static int       PATH_COLUMN  = 1;
+    private final static int       FRONT_COLUMN = 2;
+    private final static int       BACK_COLUMN  = 3;
+    
+    private DuplicateTableModel    m_model      = new DuplicateTableModel();
+    private JTable                 m_table      = new JTable(m_model);
+    private StatusBar              m_statusBar  = new StatusBar();
+    
+    private static DuplicatesFrame m_instance;
+    
+    /**
+     * Shows the cards of all groups with the number of their group.
+     */
+    private class DuplicateTableModel extends AbstractTableModel
+    {
+        private final String[] m_columnNames = {
+            Localization.get(LC.DUPLICATES_GROUP),
+            Localization.get("General.CATEGORY"), //$NON-NLS-1$
+            Localization.get(LC.FRONTSIDE),
+            Localization.get(LC.FLIPSIDE)};
+        
+        private List<Card>     m_cards       = new ArrayList<Card>();
+        private List<Integer>  m_groups      = new ArrayList<Integer>();
+        
+        public void setDuplicates(List<List<Card>> duplicates)
+        {
+            m_cards = new ArrayList<Card>();
+            m_groups = new ArrayList<Integer>();
+            
+            for (int i = 0; i < duplicates.size(); i++)
+            {
+                for (Card card : duplicates.get(i))
+                {
+                    m_cards.add(card);
+                    m_groups.add(i + 1);
+                }
+            }
+            
+            fireTableDataChanged();
+        }
+        
+        public Card getCard(int row)
+        {
+            return m_cards.get(row);
+        }
+        
+        public int getRowCount()
+        {
+            return m_cards.size();
+        }
+        
+        public int getColumnCount()
+        {
+            return m_columnNames.length;
+        }
+        
+        public String getColumnName(int column)
+        {
+            return m_columnNames[column];
+        }
+        
+        public Object getValueAt(int row, int column)
+        {
+            Card card = m_cards.get(row);
+            
+            switch (column)
+            {
+            case GROUP_COLUMN:
+                return m_groups.get(row);
+            case PATH_COLUMN:
+                return card.getCategory() != null ? 
+                    card.getCategory().getPath() : ""; //$NON-NLS-1$
+            case FRONT_COLUMN:
+                return card.getFrontSide().getText().getUnformatted().replace('\n', ' ');
+            case BACK_COLUMN:
+                return card.getBackSide().getText().getUnformatted().replace('\n', ' ');
+            default:
+                return null;
+            }
+        }
+    }
+    
+    private class RefreshAction extends AbstractAction2
+    {
+        public RefreshAction()
+        {
+            setName(Localization.get("FindTool.FIND")); //$NON-NLS-1$
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            findDuplicates();
+        }
+    }
+
+    private class CloseAction extends AbstractAction2
+    {
+        public CloseAction()
+        {
+            setName(Localization.get(LC.CANCEL));
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            close();
+        }
+    }
+    
+    public static DuplicatesFrame getInstance()
+    {
+        if (m_instance == null)
+        {
+            m_instance = new DuplicatesFrame();
+        }
+        
+        return m_instance;
+    }
+    
+    /**
+     * Lists the duplicates of the current lesson.
+     */
+    public void findDuplicates()
+    {
+        List<List<Card>> duplicates = 
+            Main.getInstance().getLesson().getDuplicateIndex().findDuplicates();
+        
+        m_model.setDuplicates(duplicates);
+        
+        if (duplicates.isEmpty())
+        {
+            m_statusBar.setLeftText(Localization.get(LC.DUPLICATES_NONE));
+        }
+        else
+        {
+            m_statusBar.setLeftText(MessageFormat.format(
+                Localization.get(LC.DUPLICATES_FOUND), 
+                duplicates.size(), m_model.getRowCount()));
+        }
+    }
+    
+    public boolean close()
+    {
+        // don't hold on to the cards of the lesson
+        m_model.setDuplicates(new ArrayList<List<Card>>());
+        
+        setVisible(false);
+        return true;
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Main.ProgramEndObserver
+     */
+    public void onProgramEnd()
+    {
+        Settings.storeFrameState(this, FRAME_ID);
+    }
+    
+    /**
+     * Shows the selected card, unless it was removed from the lesson since
+     * the duplicates were listed.
+     */
+    private void openCard()
+    {
+        int row = m_table.getSelectedRow();
+        Main main = Main.getInstance();
+        
+        if (row < 0 || main.isSessionRunning())
+            return;
+        
+        Card card = m_model.getCard(row);
+        if (card.getCategory() == null)
+        {
+            m_statusBar.setLeftText(Localization.get(LC.LESSON_SEARCH_NOT_FOUND));
+            return;
+        }
+        
+        main.getFrame().setCategory(card.getCategory());
+        EditCardFrame.getInstance().showCard(card, 
+            card.getCategory().getCards(), card.getCategory());
+    }
+    
+    private DuplicatesFrame()
+    {
+        initComponents();
+        
+        Main.getInstance().addProgramEndObserver(this);
+        Settings.loadFrameState(this, FRAME_ID);
+    }
+    
+    private void initComponents()
+    {
+        setTitle(Localization.get(LC.DUPLICATES_TITLE));
+        
+        JScrollPane scrollPane = new JScrollPane(m_table);
+        Color color = UIManager.getColor("Table.background"); //$NON-NLS-1$
+        scrollPane.getViewport().setBackground(color);
+        scrollPane.setPreferredSize(new Dimension(600, 250));
+        scrollPane.setBorder(new EmptyBorder(5, 5, 5, 5));
+        
+        JPanel mainPanel = new JPanel(new BorderLayout());
+        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        mainPanel.add(buildButtonBar(), BorderLayout.SOUTH);
+        mainPanel.setBorder(new EtchedBorder());
+        
+        getContentPane().add(mainPanel, BorderLayout.CENTER);
+        getContentPane().add(m_statusBar, BorderLayout.SOUTH);
+        
+        setupTable();
+        
+        setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/resource/icons/find.gif"))); //$NON-NLS-1$
+        pack();
+    }
+    
+    private JPanel buildButtonBar()
+    {
+        JButton closeButton = new JButton(new CloseAction());
+        JButton refreshButton = new JButton(new RefreshAction());
+        
+        JPanel buttonPanel = ButtonBarFactory.buildRightAlignedBar(
+            refreshButton, closeButton);
+        buttonPanel.setBorder(new EmptyBorder(0, 5, 5, 10));
+        
+        getRootPane().setDefaultButton(refreshButton);
+        
+        return buttonPanel;
+    }
+    
+    private void setupTable()
+    {
+        m_table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        
+        // open the card on ENTER instead of moving to the next row
+        KeyStroke keyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0);
+        m_table.getInputMap().put(keyStroke, "Open"); //$NON-NLS-1$
+        m_table.getActionMap().put("Open", new AbstractAction() { //$NON-NLS-1$
+            public void actionPerformed(ActionEvent e)
+            {
+                openCard();
+            }
+        });
+        
+        m_table.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent evt)
+            {
+                if (evt.getClickCount() == 2)
+                    openCard();
+            }
+        });
+    }
+}
@@ -24,12 +24,20 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.AbstractAction;
 import javax.swing.ButtonGroup;
@@ -41,22 +49,34 @@ import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.EtchedBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
+import javax.swing.text.JTextComponent;
 
 import jmemorize.core.Card;
+import jmemorize.core.CardBatchObserver;
 import jmemorize.core.Category;
-import jmemorize.core.CategoryObserver;
 import jmemorize.core.Events;
+import jmemorize.core.Highlighter;
 import jmemorize.core.Main;
+import jmemorize.core.SearchIndex;
+import jmemorize.core.SearchQuery;
 import jmemorize.core.SearchTool;
 import jmemorize.core.Settings;
 import jmemorize.core.Main.ProgramEndObserver;
+import jmemorize.core.SearchIndex.SearchObserver;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.QueryException;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
+import jmemorize.gui.swing.BackgroundTask;
 import jmemorize.gui.swing.actions.AbstractAction2;
 import jmemorize.gui.swing.panels.StatusBar;
 import jmemorize.gui.swing.widgets.CardTable;
@@ -75,9 +95,15 @@ import com.jgoodies.forms.layout.FormLayout;
  * @author djemili
  */
 public class FindFrame extends EscapableFrame 
-    implements CategoryObserver, ProgramEndObserver
+    implements CardBatchObserver, ProgramEndObserver
 {
     private final static String FRAME_ID            = "findframe";
+    
+    /**
+     * The time in milliseconds after the last keystroke before the search
+     * is started.
+     */
+    private final static int    SEARCH_DELAY        = 300;
 
     private CardTable           m_cardTable         = new CardTable(this, 
         Main.USER_PREFS.node("find.table"), //$NON-NLS-1$
@@ -93,6 +119,8 @@ public class FindFrame extends EscapableFrame
 
     private JCheckBox           m_matchCaseBox      = new JCheckBox(
         Localization.get(LC.MATCH_CASE));
+    private JCheckBox           m_queryBox          = new JCheckBox(
+        Localization.get(LC.USE_QUERY));
     private JRadioButton        m_radioBothSides    = new JRadioButton(
         Localization.get(LC.BOTH_SIDES), true);
     private JRadioButton        m_radioFrontSide    = new JRadioButton(
@@ -104,12 +132,88 @@ public class FindFrame extends EscapableFrame
     private StatusBar           m_statusBar         = new StatusBar();
 
     // these vars are stored when search button is clicked
-    private String              m_searchText;
-    private int                 m_searchSides;
-    private boolean             m_matchCase;
+    private SearchQuery         m_query;
+    private CardQuery           m_cardQuery;
     private Category            m_searchCategory;
     
+    // the found cards with the learn state by which they are counted
+    private Map<Card, Integer>  m_results           = new HashMap<Card, Integer>();
+    
     private static FindFrame    m_instance;
+    
+    private Timer               m_searchTimer;
+    private ExecutorService     m_searchExecutor;
+    private SearchTask          m_searchTask;
+    
+    /**
+     * Searches on a background thread and hands the found cards over to the
+     * card table page by page. 
+     */
+    private class SearchTask implements Runnable, SearchObserver
+    {
+        private final SearchIndex m_index;
+        private final SearchQuery m_searchQuery;
+        private final CardQuery   m_cardQuery;
+        
+        private volatile boolean  m_cancelled;
+        
+        /**
+         * @param cardQuery the compiled query if the search text is a query
+         * or <code>null</code> if it is a plain text.
+         */
+        public SearchTask(SearchIndex index, SearchQuery query, CardQuery cardQuery)
+        {
+            m_index = index;
+            m_searchQuery = query;
+            m_cardQuery = cardQuery;
+        }
+        
+        public void run()
+        {
+            if (m_cancelled)
+                return;
+            
+            if (m_cardQuery != null)
+            {
+                m_cardQuery.execute(m_searchQuery.getCategory(), m_index, this, 
+                    BackgroundTask.EDT_EXECUTOR);
+            }
+            else
+            {
+                m_index.search(m_searchQuery, this);
+            }
+        }
+        
+        public void cancel()
+        {
+            m_cancelled = true;
+        }
+        
+        /* (non-Javadoc)
+         * @see jmemorize.core.SearchIndex.SearchObserver
+         */
+        public void onCardsFound(final List<Card> cards)
+        {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    // a newer search could have been started in the meantime
+                    if (m_searchTask != SearchTask.this || m_cancelled)
+                        return;
+                    
+                    addResults(cards);
+                }
+            });
+        }
+        
+        /* (non-Javadoc)
+         * @see jmemorize.core.SearchIndex.SearchObserver
+         */
+        public boolean isCancelled()
+        {
+            return m_cancelled;
+        }
+    }
 
     private class FindAction extends AbstractAction2
     {
@@ -165,47 +269,35 @@ public class FindFrame extends EscapableFrame
      */
     public void clear()
     {
+        cancelSearch();
+        m_query = null;
+        m_cardQuery = null;
+        m_results.clear();
+        m_cardTable.setHighlighters(null, null);
+        
         Category selectedCategory = m_categoryBox.getSelectedCategory();
         m_cardTable.getView().setCards(new ArrayList<Card>(0), selectedCategory);
     }
 
+    /**
+     * Starts the search immediately and remembers the search text.
+     */
     public void search()
     {
-        String searchText = (String)m_searchTextBox.getSelectedItem();
-
-        if (searchText == null || searchText.equals("")) //$NON-NLS-1$
-            return;
-
-        m_searchText = searchText;
-        m_recentSearchTexts.push(m_searchText);
-
-        if (m_radioBothSides.isSelected())
-        {
-            m_searchSides = SearchTool.BOTH_SIDES;
-        } 
-        else
-        {
-            m_searchSides = m_radioFrontSide.isSelected() ? 
-                SearchTool.FRONT_SIDE : SearchTool.FLIP_SIDE;
-        }
-
-        if (m_searchCategory != null)
-        {
-            m_searchCategory.removeObserver(FindFrame.this);
-        }
-        m_searchCategory = m_categoryBox.getSelectedCategory();
-        m_searchCategory.addObserver(FindFrame.this);
-
-        m_matchCase = m_matchCaseBox.isSelected();
-
-        List<Card> results = SearchTool.search(m_searchText, m_searchSides, 
-            m_matchCase, m_searchCategory.getCards());
+        m_searchTimer.stop();
+        
+        String searchText = getSearchText();
+        if (searchText.length() > 0)
+            m_recentSearchTexts.push(searchText);
         
-        m_cardTable.getView().setCards(results, m_searchCategory);
+        startSearch();
     }
 
     public boolean close()
     {
+        m_searchTimer.stop();
+        cancelSearch();
+        
         setVisible(false);
         return true;
     }
@@ -215,17 +307,28 @@ public class FindFrame extends EscapableFrame
      */
     public void onCardEvent(int type, Card card, Category category, int deck)
     {
-        // CHECK move into cardtable!?
-        List<Card> cards = m_cardTable.getView().getCards();
-
-        // for now we only remove cards but dont add new cards
-        if (type == Events.REMOVED_EVENT)
+        if (m_query == null)
+            return;
+        
+        // only the changed cards are tested against the query
+        switch (type)
         {
-            cards.remove(card);
+        case Events.REMOVED_EVENT:
+            removeResult(card);
+            break;
+            
+        default:
+            updateResult(card);
         }
+    }
 
-        m_cardTable.getView().setCards(cards, m_searchCategory);
-        updateStatusBar();
+    /*
+     * @see jmemorize.core.CardBatchObserver#onCardsAdded
+     */
+    public void onCardsAdded(List<Card> cards, Category category, int deck)
+    {
+        if (m_query != null)
+            addResults(cards);
     }
 
     /*
@@ -251,11 +354,199 @@ public class FindFrame extends EscapableFrame
         Settings.storeFrameState(this, FRAME_ID);
     }
 
-    private void updateStatusBar()
+    /**
+     * Cancels the running search and starts a new one in the background with
+     * the current search settings. The found cards replace the current
+     * results as they come in.
+     */
+    private void startSearch()
     {
-        m_statusBar.setCards(m_cardTable.getView().getCards());
-    }
+        cancelSearch();
+        
+        String searchText = getSearchText();
+        if (searchText.length() == 0)
+            return;
+        
+        int searchSides;
+        if (m_radioBothSides.isSelected())
+        {
+            searchSides = SearchTool.BOTH_SIDES;
+        } 
+        else
+        {
+            searchSides = m_radioFrontSide.isSelected() ? 
+                SearchTool.FRONT_SIDE : SearchTool.FLIP_SIDE;
+        }
 
+        if (m_searchCategory != null)
+        {
+            m_searchCategory.removeObserver(FindFrame.this);
+        }
+        m_searchCategory = m_categoryBox.getSelectedCategory();
+        m_searchCategory.addObserver(FindFrame.this);
+
+        m_query = new SearchQuery(searchText, searchSides, 
+            m_matchCaseBox.isSelected(), m_searchCategory);
+        
+        m_results.clear();
+        m_cardTable.getView().setCards(new ArrayList<Card>(), m_searchCategory);
+        m_cardTable.setHighlighters(null, null);
+        
+        m_cardQuery = null;
+        if (m_queryBox.isSelected())
+        {
+            try
+            {
+                m_cardQuery = CardQuery.compile(searchText);
+            }
+            catch (QueryException e)
+            {
+                m_query = null;
+                m_statusBar.setLeftText(MessageFormat.format(
+                    Localization.get(LC.QUERY_ERROR), 
+                    e.getPosition() + 1, e.getMessage()));
+                
+                return;
+            }
+        }
+        m_statusBar.setLeftText(""); //$NON-NLS-1$
+        setHighlighters();
+        
+        SearchIndex index = Main.getInstance().getLesson().getSearchIndex();
+        m_searchTask = new SearchTask(index, m_query, m_cardQuery);
+        
+        m_searchExecutor.execute(m_searchTask);
+    }
+    
+    /**
+     * Adds the cards that match the current query and aren't found yet.
+     */
+    private void addResults(List<Card> cards)
+    {
+        List<Card> added = new ArrayList<Card>();
+        int[] deltas = new int[3];
+        
+        for (Card card : cards)
+        {
+            // cards could have changed since they were found in the background
+            if (m_results.containsKey(card) || !matchesQuery(card))
+                continue;
+            
+            int status = StatusBar.getStatus(card);
+            m_results.put(card, status);
+            deltas[status]++;
+            
+            added.add(card);
+        }
+        
+        if (added.isEmpty())
+            return;
+        
+        m_cardTable.getView().addCards(added);
+        m_statusBar.changeCardCounts(deltas);
+    }
+    
+    private void removeResult(Card card)
+    {
+        Integer status = m_results.remove(card);
+        if (status == null)
+            return;
+        
+        int[] deltas = new int[3];
+        deltas[status]--;
+        
+        m_cardTable.getView().removeCard(card);
+        m_statusBar.changeCardCounts(deltas);
+    }
+    
+    private void updateResult(Card card)
+    {
+        Integer status = m_results.get(card);
+        if (status == null)
+        {
+            addResults(Collections.singletonList(card));
+            return;
+        }
+        
+        if (!matchesQuery(card))
+        {
+            removeResult(card);
+            return;
+        }
+        
+        m_cardTable.getView().updateCard(card);
+        
+        int newStatus = StatusBar.getStatus(card);
+        if (newStatus != status)
+        {
+            m_results.put(card, newStatus);
+            
+            int[] deltas = new int[3];
+            deltas[status]--;
+            deltas[newStatus]++;
+            m_statusBar.changeCardCounts(deltas);
+        }
+    }
+    
+    /**
+     * Highlights the search text or the texts of the query in the results.
+     */
+    private void setHighlighters()
+    {
+        List<String> frontTerms;
+        List<String> flipTerms;
+        boolean ignoreCase = true;
+        
+        if (m_cardQuery != null)
+        {
+            frontTerms = m_cardQuery.getTerms(SearchTool.FRONT_SIDE);
+            flipTerms = m_cardQuery.getTerms(SearchTool.FLIP_SIDE);
+        }
+        else
+        {
+            List<String> terms = Collections.singletonList(m_query.getText());
+            int side = m_query.getSide();
+            
+            frontTerms = side != SearchTool.FLIP_SIDE ? terms : null;
+            flipTerms = side != SearchTool.FRONT_SIDE ? terms : null;
+            ignoreCase = !m_query.isMatchCase();
+        }
+        
+        m_cardTable.setHighlighters(
+            frontTerms != null ? new Highlighter(frontTerms, ignoreCase) : null, 
+            flipTerms != null ? new Highlighter(flipTerms, ignoreCase) : null);
+    }
+    
+    /**
+     * @return <code>true</code> if given card is in the search category and
+     * matches the current search text or query.
+     */
+    private boolean matchesQuery(Card card)
+    {
+        if (m_cardQuery != null)
+            return m_query.isInCategory(card) && m_cardQuery.matches(card);
+        
+        return m_query.matches(card);
+    }
+    
+    private void cancelSearch()
+    {
+        if (m_searchTask != null)
+        {
+            m_searchTask.cancel();
+            m_searchTask = null;
+        }
+    }
+    
+    /**
+     * @return the text that is currently entered into the search box.
+     */
+    private String getSearchText()
+    {
+        Object item = m_searchTextBox.getEditor().getItem();
+        return item != null ? item.toString() : ""; //$NON-NLS-1$
+    }
+    
     private JPanel buildSearchPanel()
     {
         setupSearchTextBox();
@@ -285,7 +576,8 @@ public class FindFrame extends EscapableFrame
         builder.add(m_radioFrontSide, cc.xy(5, 5));
         builder.add(m_radioBackSide, cc.xy(7, 5));
 
-        builder.add(m_matchCaseBox, cc.xyw(3, 7, 5));
+        builder.add(m_matchCaseBox, cc.xy(3, 7));
+        builder.add(m_queryBox, cc.xyw(5, 7, 3));
 
         builder.addSeparator(Localization.get("FindTool.RESULTS"), cc.xyw(1, 9, 7)); //$NON-NLS-1$
         builder.add(scrollPane, cc.xyw(1, 11, 7));
@@ -337,6 +629,28 @@ public class FindFrame extends EscapableFrame
             }
         });
 
+        // search as you type
+        if (comp instanceof JTextComponent)
+        {
+            ((JTextComponent)comp).getDocument().addDocumentListener(
+                new DocumentListener() {
+                    public void insertUpdate(DocumentEvent e)
+                    {
+                        m_searchTimer.restart();
+                    }
+
+                    public void removeUpdate(DocumentEvent e)
+                    {
+                        m_searchTimer.restart();
+                    }
+
+                    public void changedUpdate(DocumentEvent e)
+                    {
+                        // ignore attribute changes
+                    }
+                });
+        }
+
         Component editorComp = m_searchTextBox.getEditor().getEditorComponent();
         editorComp.addFocusListener(new FocusListener()
         {
@@ -368,6 +682,23 @@ public class FindFrame extends EscapableFrame
     
     private FindFrame()
     {
+        m_searchTimer = new Timer(SEARCH_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e)
+            {
+                startSearch();
+            }
+        });
+        m_searchTimer.setRepeats(false);
+        
+        m_searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "search"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
         initComponents();
 
         Main.getInstance().addProgramEndObserver(this);
@@ -383,6 +714,32 @@ public class FindFrame extends EscapableFrame
         group.add(m_radioBothSides);
         group.add(m_radioFrontSide);
         group.add(m_radioBackSide);
+        
+        // rerun the search when its settings change
+        ActionListener settingsListener = new ActionListener() {
+            public void actionPerformed(ActionEvent e)
+            {
+                m_searchTimer.restart();
+            }
+        };
+        m_radioBothSides.addActionListener(settingsListener);
+        m_radioFrontSide.addActionListener(settingsListener);
+        m_radioBackSide.addActionListener(settingsListener);
+        m_matchCaseBox.addActionListener(settingsListener);
+        m_categoryBox.addActionListener(settingsListener);
+        m_queryBox.addActionListener(settingsListener);
+        
+        // queries specify sides and case by themselves
+        m_queryBox.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e)
+            {
+                boolean enabled = !m_queryBox.isSelected();
+                m_radioBothSides.setEnabled(enabled);
+                m_radioFrontSide.setEnabled(enabled);
+                m_radioBackSide.setEnabled(enabled);
+                m_matchCaseBox.setEnabled(enabled);
+            }
+        });
 
         JPanel mainPanel = new JPanel(new BorderLayout());
         mainPanel.add(buildSearchPanel(), BorderLayout.CENTER);
@@ -443,7 +800,10 @@ public class FindFrame extends EscapableFrame
         List<Card> cards = m_cardTable.getView().getCards();
         Category category = m_cardTable.getView().getCategory();
 
+        // there is no single text to highlight for queries
+        String searchText = m_cardQuery == null ? m_query.getText() : null;
+        
         EditCardFrame.getInstance().showCard(card, cards, category, 
-            m_searchText, m_searchSides, m_matchCase);
+            searchText, m_query.getSide(), m_query.isMatchCase());
     }
 }
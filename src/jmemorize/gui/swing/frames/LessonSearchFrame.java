@@ -0,0 +1,500 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.gui.swing.frames;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import javax.swing.border.EmptyBorder;
+import javax.swing.border.EtchedBorder;
+import javax.swing.table.AbstractTableModel;
+
+import jmemorize.core.Card;
+import jmemorize.core.Lesson;
+import jmemorize.core.LessonSearch;
+import jmemorize.core.Main;
+import jmemorize.core.SearchTool;
+import jmemorize.core.Settings;
+import jmemorize.core.LessonSearch.Hit;
+import jmemorize.core.LessonSearch.HitObserver;
+import jmemorize.core.Main.ProgramEndObserver;
+import jmemorize.gui.LC;
+import jmemorize.gui.Localization;
+import jmemorize.gui.swing.actions.AbstractAction2;
+import jmemorize.gui.swing.panels.StatusBar;
+import jmemorize.util.EscapableFrame;
+
+import com.jgoodies.forms.builder.DefaultFormBuilder;
+import com.jgoodies.forms.factories.ButtonBarFactory;
+import com.jgoodies.forms.layout.CellConstraints;
+import com.jgoodies.forms.layout.FormLayout;
+
+/**
+ * A frame that searches the cards of all recently used lessons and lists the
+ * found cards with their lesson and category. Opening a found card loads its
+ * lesson and shows the card.
+ */
+public class LessonSearchFrame extends EscapableFrame implements ProgramEndObserver
+{
+    private final static String      FRAME_ID      = "lessonsearchframe"; //$NON-NLS-1$
+    
+    private final static int         LESSON_COLUMN = 0;
+    private final static int         PATH_COLUMN   = 1;
+    private final static int         FRONT_COLUMN  = 2;
+    private final static int         BACK_COLUMN   = 3;
+    
+    private JTextField               m_searchField = new JTextField();
+    private JCheckBox                m_matchCaseBox = new JCheckBox(
+        Localization.get(LC.MATCH_CASE));
+    
+    private HitTableModel            m_hitModel    = new HitTableModel();
+    private JTable                   m_hitTable    = new JTable(m_hitModel);
+    private StatusBar                m_statusBar   = new StatusBar();
+    
+    private static LessonSearchFrame m_instance;
+    
+    private ExecutorService          m_searchExecutor;
+    private SearchTask               m_searchTask;
+    
+    /**
+     * Searches the lesson files on a background thread and hands the hits
+     * over to the table as they come in.
+     */
+    private class SearchTask implements Runnable, HitObserver
+    {
+        private final List<File>  m_files;
+        private final String      m_text;
+        private final boolean     m_matchCase;
+        
+        private volatile boolean  m_cancelled;
+        
+        // only used on the EDT
+        private Set<File>         m_foundFiles = new HashSet<File>();
+        private boolean           m_failed;
+        
+        public SearchTask(List<File> files, String text, boolean matchCase)
+        {
+            m_files = files;
+            m_text = text;
+            m_matchCase = matchCase;
+        }
+        
+        public void run()
+        {
+            LessonSearch.search(m_files, m_text, SearchTool.BOTH_SIDES, 
+                m_matchCase, this);
+            
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    // a failed lesson stays visible in the status bar
+                    if (isCurrent() && !m_failed)
+                        showCounts();
+                }
+            });
+        }
+        
+        public void cancel()
+        {
+            m_cancelled = true;
+        }
+        
+        /* (non-Javadoc)
+         * @see jmemorize.core.LessonSearch.HitObserver
+         */
+        public void onHitsFound(final List<Hit> hits)
+        {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    if (!isCurrent())
+                        return;
+                    
+                    m_hitModel.addHits(hits);
+                    m_foundFiles.add(hits.get(0).getFile());
+                }
+            });
+        }
+        
+        /* (non-Javadoc)
+         * @see jmemorize.core.LessonSearch.HitObserver
+         */
+        public void onLessonFailed(final File file, Exception e)
+        {
+            Main.logThrowable("Could not search lesson " + file, e);
+            
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    if (isCurrent())
+                    {
+                        m_failed = true;
+                        m_statusBar.setLeftText(MessageFormat.format(
+                            Localization.get(LC.LESSON_SEARCH_FAILED), file.getName()));
+                    }
+                }
+            });
+        }
+        
+        /* (non-Javadoc)
+         * @see jmemorize.core.LessonSearch.HitObserver
+         */
+        public boolean isCancelled()
+        {
+            return m_cancelled;
+        }
+        
+        private boolean isCurrent()
+        {
+            return m_searchTask == this && !m_cancelled;
+        }
+        
+        private void showCounts()
+        {
+            m_statusBar.setLeftText(MessageFormat.format(
+                Localization.get(LC.LESSON_SEARCH_DONE), 
+                m_hitModel.getRowCount(), m_foundFiles.size()));
+        }
+    }
+    
+    /**
+     * Shows the hits with their lesson, category and card texts.
+     */
+    private class HitTableModel extends AbstractTableModel
+    {
+        private final String[] m_columnNames = {
+            Localization.get(LC.LESSON_SEARCH_LESSON),
+            Localization.get("General.CATEGORY"), //$NON-NLS-1$
+            Localization.get(LC.FRONTSIDE),
+            Localization.get(LC.FLIPSIDE)};
+        
+        private List<Hit>      m_hits        = new ArrayList<Hit>();
+        
+        public void setHits(List<Hit> hits)
+        {
+            m_hits = hits;
+            fireTableDataChanged();
+        }
+        
+        public void addHits(List<Hit> hits)
+        {
+            int first = m_hits.size();
+            m_hits.addAll(hits);
+            fireTableRowsInserted(first, m_hits.size() - 1);
+        }
+        
+        public Hit getHit(int row)
+        {
+            return m_hits.get(row);
+        }
+        
+        public int getRowCount()
+        {
+            return m_hits.size();
+        }
+        
+        public int getColumnCount()
+        {
+            return m_columnNames.length;
+        }
+        
+        public String getColumnName(int column)
+        {
+            return m_columnNames[column];
+        }
+        
+        public Object getValueAt(int row, int column)
+        {
+            Hit hit = m_hits.get(row);
+            Card card = hit.getCard();
+            
+            switch (column)
+            {
+            case LESSON_COLUMN:
+                return hit.getFile().getName();
+            case PATH_COLUMN:
+                return hit.getCategoryPath();
+            case FRONT_COLUMN:
+                return card.getFrontSide().getText().getUnformatted().replace('\n', ' ');
+            case BACK_COLUMN:
+                return card.getBackSide().getText().getUnformatted().replace('\n', ' ');
+            default:
+                return null;
+            }
+        }
+    }
+    
+    private class FindAction extends AbstractAction2
+    {
+        public FindAction()
+        {
+            setName(Localization.get("FindTool.FIND")); //$NON-NLS-1$
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            search();
+        }
+    }
+
+    private class CloseAction extends AbstractAction2
+    {
+        public CloseAction()
+        {
+            setName(Localization.get(LC.CANCEL));
+        }
+
+        public void actionPerformed(ActionEvent e)
+        {
+            close();
+        }
+    }
+    
+    public static LessonSearchFrame getInstance()
+    {
+        if (m_instance == null)
+        {
+            m_instance = new LessonSearchFrame();
+        }
+        
+        return m_instance;
+    }
+    
+    /**
+     * Searches the recent lessons for the text that is entered in the search
+     * field. The results of a running search are discarded.
+     */
+    public void search()
+    {
+        cancelSearch();
+        m_hitModel.setHits(new ArrayList<Hit>());
+        
+        String text = m_searchField.getText();
+        if (text.length() == 0)
+        {
+            m_statusBar.setLeftText(""); //$NON-NLS-1$
+            return;
+        }
+        
+        List<File> files = new ArrayList<File>();
+        for (String path : Main.getInstance().getRecentLessonFiles().getItems())
+        {
+            files.add(new File(path).getAbsoluteFile());
+        }
+        
+        m_statusBar.setLeftText(Localization.get(LC.LESSON_SEARCH_RUNNING));
+        
+        m_searchTask = new SearchTask(files, text, m_matchCaseBox.isSelected());
+        m_searchExecutor.execute(m_searchTask);
+    }
+    
+    public boolean close()
+    {
+        cancelSearch();
+        
+        setVisible(false);
+        return true;
+    }
+    
+    /* (non-Javadoc)
+     * @see jmemorize.core.Main.ProgramEndObserver
+     */
+    public void onProgramEnd()
+    {
+        Settings.storeFrameState(this, FRAME_ID);
+    }
+    
+    /**
+     * Loads the lesson of the selected hit, unless it is already loaded, and
+     * shows its card.
+     */
+    private void openHit()
+    {
+        int row = m_hitTable.getSelectedRow();
+        Main main = Main.getInstance();
+        
+        if (row < 0 || main.isSessionRunning())
+            return;
+        
+        Hit hit = m_hitModel.getHit(row);
+        
+        if (!isLoaded(hit.getFile()))
+        {
+            main.getFrame().loadLesson(hit.getFile());
+            
+            // the user could have kept the current lesson
+            if (!isLoaded(hit.getFile()))
+                return;
+        }
+        
+        Lesson lesson = main.getLesson();
+        Card card = hit.findCard(lesson);
+        if (card == null)
+        {
+            m_statusBar.setLeftText(Localization.get(LC.LESSON_SEARCH_NOT_FOUND));
+            return;
+        }
+        
+        main.getFrame().setCategory(card.getCategory());
+        EditCardFrame.getInstance().showCard(card, 
+            card.getCategory().getCards(), card.getCategory(), 
+            m_searchField.getText(), SearchTool.BOTH_SIDES, 
+            !m_matchCaseBox.isSelected());
+    }
+    
+    private boolean isLoaded(File file)
+    {
+        File lessonFile = Main.getInstance().getLesson().getFile();
+        return lessonFile != null && lessonFile.getAbsoluteFile().equals(file);
+    }
+    
+    private void cancelSearch()
+    {
+        if (m_searchTask != null)
+        {
+            m_searchTask.cancel();
+            m_searchTask = null;
+        }
+    }
+    
+    private LessonSearchFrame()
+    {
+        m_searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "search"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        initComponents();
+        
+        Main.getInstance().addProgramEndObserver(this);
+        Settings.loadFrameState(this, FRAME_ID);
+    }
+    
+    private void initComponents()
+    {
+        setTitle(Localization.get(LC.LESSON_SEARCH_TITLE));
+        
+        JPanel mainPanel = new JPanel(new BorderLayout());
+        mainPanel.add(buildSearchPanel(), BorderLayout.CENTER);
+        mainPanel.add(buildSearchBar(), BorderLayout.SOUTH);
+        mainPanel.setBorder(new EtchedBorder());
+        
+        getContentPane().add(mainPanel, BorderLayout.CENTER);
+        getContentPane().add(m_statusBar, BorderLayout.SOUTH);
+        
+        setupHitTable();
+        
+        setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/resource/icons/find.gif"))); //$NON-NLS-1$
+        pack();
+    }
+    
+    private JPanel buildSearchPanel()
+    {
+        JScrollPane scrollPane = new JScrollPane(m_hitTable);
+        Color color = UIManager.getColor("Table.background"); //$NON-NLS-1$
+        scrollPane.getViewport().setBackground(color);
+        scrollPane.setPreferredSize(new Dimension(600, 250));
+        
+        FormLayout layout = new FormLayout(
+            "right:pref, 3dlu, pref:grow", // columns //$NON-NLS-1$
+            "p, 3dlu, p, 9dlu, p, 9dlu, fill:d:grow"); // rows //$NON-NLS-1$
+        
+        CellConstraints cc = new CellConstraints();
+        
+        DefaultFormBuilder builder = new DefaultFormBuilder(layout);
+        builder.setDefaultDialogBorder();
+        
+        builder.addLabel(Localization.get("FindTool.SEARCH_TEXT"), cc.xy(1, 1)); //$NON-NLS-1$
+        builder.add(m_searchField, cc.xy(3, 1));
+        builder.add(m_matchCaseBox, cc.xy(3, 3));
+        
+        builder.addSeparator(Localization.get("FindTool.RESULTS"), cc.xyw(1, 5, 3)); //$NON-NLS-1$
+        builder.add(scrollPane, cc.xyw(1, 7, 3));
+        
+        return builder.getPanel();
+    }
+    
+    private JPanel buildSearchBar()
+    {
+        JButton closeButton = new JButton(new CloseAction());
+        JButton searchButton = new JButton(new FindAction());
+        
+        JPanel buttonPanel = ButtonBarFactory.buildRightAlignedBar(
+            searchButton, closeButton);
+        buttonPanel.setBorder(new EmptyBorder(0, 5, 5, 10));
+        
+        getRootPane().setDefaultButton(searchButton);
+        
+        return buttonPanel;
+    }
+    
+    private void setupHitTable()
+    {
+        m_hitTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        
+        // open the card on ENTER instead of moving to the next row
+        KeyStroke keyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0);
+        m_hitTable.getInputMap().put(keyStroke, "Open"); //$NON-NLS-1$
+        m_hitTable.getActionMap().put("Open", new AbstractAction() { //$NON-NLS-1$
+            public void actionPerformed(ActionEvent e)
+            {
+                openHit();
+            }
+        });
+        
+        m_hitTable.addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent evt)
+            {
+                if (evt.getClickCount() == 2)
+                    openHit();
+            }
+        });
+    }
+}
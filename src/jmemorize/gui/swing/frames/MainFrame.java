@@ -65,6 +65,8 @@ import jmemorize.core.learn.LearnHistory;
 import jmemorize.core.learn.LearnSession;
 import jmemorize.core.learn.LearnSessionObserver;
 import jmemorize.core.learn.LearnHistory.SessionSummary;
+import jmemorize.core.query.CardQuery;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.GeneralTransferHandler;
@@ -247,14 +249,50 @@ public class MainFrame extends JFrame implements CategoryObserver,
 
         m_categoryBox.setRootCategory(rootCategory);
         m_categoryTree.setRootCategory(rootCategory);
+        
+        Settings.loadSmartCategories(lesson);
+        for (SmartCategory category : lesson.getSmartCategories())
+        {
+            m_categoryTree.addSmartCategory(category);
+        }
+        
         setCategory(rootCategory);
 
         EditCardFrame.getInstance().setVisible(false);
         FindFrame.getInstance().setVisible(false);
+        DuplicatesFrame.getInstance().close();
 
         updateFrameTitle();
     }
     
+    /**
+     * Adds a smart category to the current lesson, stores it for later
+     * lessons and shows it.
+     */
+    public void addSmartCategory(String name, CardQuery query)
+    {
+        Lesson lesson = m_main.getLesson();
+        SmartCategory category = lesson.addSmartCategory(name, query);
+        Settings.storeSmartCategories(lesson.getSmartCategories());
+        
+        m_categoryTree.addSmartCategory(category);
+        setCategory(category);
+    }
+    
+    public void removeSmartCategory(SmartCategory category)
+    {
+        Lesson lesson = m_main.getLesson();
+        if (m_category == category)
+        {
+            setCategory(lesson.getRootCategory());
+        }
+        
+        lesson.removeSmartCategory(category);
+        Settings.storeSmartCategories(lesson.getSmartCategories());
+        
+        m_categoryTree.removeSmartCategory(category);
+    }
+    
     public void setCategory(Category category)
     {
         if (category == null) // HACK
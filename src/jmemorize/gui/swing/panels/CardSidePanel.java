@@ -75,6 +75,8 @@ import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 
 import jmemorize.core.FormattedText;
+import jmemorize.core.ImageRepository;
+import jmemorize.core.ImageRepository.ImageLoadObserver;
 import jmemorize.core.Main;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
@@ -355,6 +357,25 @@ public class CardSidePanel extends JPanel
         }
     }
     
+    /**
+     * Shows the images with given IDs. The images are decoded in the
+     * background and are shown as soon as they are ready.
+     */
+    public void loadImages(List<String> ids)
+    {
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        
+        ImageRepository repo = ImageRepository.getInstance();
+        setImages(repo.toImageIcons(ids, screen.width, screen.height, 
+            new ImageLoadObserver() {
+                public void onImageLoaded(ImageIcon image)
+                {
+                    if (!m_images.isEmpty() && m_images.get(m_currentImage) == image)
+                        updateImage();
+                }
+            }));
+    }
+    
     public void addImage(ImageIcon image)
     {
         m_images.add(image);
@@ -44,9 +44,17 @@ public class StatusBar extends JPanel
 {
     // TODO use cards provider
     
+    // the learn states by which cards are counted
+    public static final int UNLEARNED = 0;
+    public static final int LEARNED   = 1;
+    public static final int EXPIRED   = 2;
+    
     private JLabel m_leftLabel  = new JLabel();
     private JLabel m_rightLabel = new JLabel();
     
+    // the number of shown cards indexed by their learn state 
+    private int[]  m_counts     = new int[3];
+    
     public StatusBar()
     {
         setLayout(new BorderLayout());
@@ -72,31 +80,62 @@ public class StatusBar extends JPanel
      */
     public void setCards(List<Card> cards)
     {
-        int unlearned = 0;
-        int learned = 0;
-        int expired = 0;
+        m_counts = new int[3];
         
         for (Card card : cards)
         {
-            if (card.isUnlearned())
-            {
-                unlearned++;
-            }
-            else if (card.isLearned())
-            {
-                learned++;
-            }
-            else //if (card.isExpired())
-            {
-                expired++;
-            }
+            m_counts[getStatus(card)]++;
+        }
+        
+        updateCardCounts();
+    }
+    
+    /**
+     * Adjusts the numbers of currently displayed cards without counting all
+     * cards again.
+     * 
+     * @param deltas The changes of the card counts indexed by UNLEARNED,
+     * LEARNED and EXPIRED.
+     */
+    public void changeCardCounts(int[] deltas)
+    {
+        for (int i = 0; i < m_counts.length; i++)
+        {
+            m_counts[i] += deltas[i];
+        }
+        
+        updateCardCounts();
+    }
+    
+    /**
+     * @return The learn state of given card by which it is counted. Either
+     * UNLEARNED, LEARNED or EXPIRED.
+     */
+    public static int getStatus(Card card)
+    {
+        if (card.isUnlearned())
+        {
+            return UNLEARNED;
         }
+        else if (card.isLearned())
+        {
+            return LEARNED;
+        }
+        else //if (card.isExpired())
+        {
+            return EXPIRED;
+        }
+    }
+    
+    private void updateCardCounts()
+    {
+        int cards = m_counts[UNLEARNED] + m_counts[LEARNED] + m_counts[EXPIRED];
         
         Object[] args = {
-            Localization.get(LC.STATUS_CARDS),     new Integer(cards.size()),
-            Localization.get(LC.STATUS_LEARNED),   new Integer(learned),
-            Localization.get(LC.STATUS_EXPIRED),   new Integer(expired),
-            Localization.get(LC.STATUS_UNLEARNED), new Integer(unlearned)};
+            Localization.get(LC.STATUS_CARDS),     new Integer(cards),
+            Localization.get(LC.STATUS_LEARNED),   new Integer(m_counts[LEARNED]),
+            Localization.get(LC.STATUS_EXPIRED),   new Integer(m_counts[EXPIRED]),
+            Localization.get(LC.STATUS_UNLEARNED), new Integer(m_counts[UNLEARNED])};
         
         MessageFormat form = new MessageFormat("{0}: {1} ({2}: {3}  {4}: {5}  {6}: {7})"); //$NON-NLS-1$
         
@@ -18,13 +18,9 @@
  */
 package jmemorize.gui.swing.panels;
 
-import java.util.List;
-
-import javax.swing.ImageIcon;
 import javax.swing.JPanel;
 
 import jmemorize.core.CardSide;
-import jmemorize.core.ImageRepository;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.CardFont;
@@ -49,10 +45,7 @@ public class ThinkQuiz implements Quiz
         m_answerCardSide = answerCardSide;
         
         m_answerPanel.setText(m_answerCardSide.getText());
-        
-        ImageRepository repo = ImageRepository.getInstance();
-        List<ImageIcon> images = repo.toImageIcons(m_answerCardSide.getImages());
-        m_answerPanel.setImages(images);
+        m_answerPanel.loadImages(m_answerCardSide.getImages());
     }
 
     /* (non-Javadoc)
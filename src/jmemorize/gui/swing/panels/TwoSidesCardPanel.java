@@ -26,7 +26,6 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
 import jmemorize.core.FormattedText;
-import jmemorize.core.ImageRepository;
 import jmemorize.core.Settings;
 import jmemorize.core.Settings.CardFontObserver;
 import jmemorize.gui.LC;
@@ -123,8 +122,8 @@ public class TwoSidesCardPanel extends CardPanel implements CardFontObserver
     
     public void setImages(List<String> front, List<String> back)
     {
-        setSideImages(m_frontSide, front);
-        setSideImages(m_backSide, back);
+        m_frontSide.loadImages(front);
+        m_backSide.loadImages(back);
     }
     
     /**
@@ -203,11 +202,4 @@ public class TwoSidesCardPanel extends CardPanel implements CardFontObserver
         else if (type == FontType.CARD_FLIP && m_backSide != null)
             m_backSide.setCardFont(font);
     }
-    
-    private void setSideImages(CardSidePanel cardSide, List<String> ids)
-    {
-        ImageRepository repo = ImageRepository.getInstance();
-        List<ImageIcon> images = repo.toImageIcons(ids);
-        cardSide.setImages(images);
-    }
 }
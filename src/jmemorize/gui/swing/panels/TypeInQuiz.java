@@ -4,20 +4,21 @@ import javax.swing.JPanel;
 
 import jmemorize.core.CardSide;
 import jmemorize.core.FormattedText;
+import jmemorize.core.TextNormalizer;
 import jmemorize.gui.swing.CardFont;
 import jmemorize.gui.swing.Quiz;
 
 public class TypeInQuiz implements Quiz
 {
     private CardSidePanel m_cardSide;
-    private FormattedText     m_text;
+    private CardSide      m_answer;
 
     /* (non-Javadoc)
      * @see jmemorize.gui.swing.Quiz
      */
     public void showQuestion(CardSide answerCardSide)
     {
-        m_text = answerCardSide.getText(); // TODO add images support
+        m_answer = answerCardSide; // TODO add images support
         m_cardSide.setText(FormattedText.EMPTY);
     }
 
@@ -26,12 +27,13 @@ public class TypeInQuiz implements Quiz
      */
     public float showAnswer()
     {
-        String actual = m_cardSide.getText().getUnformatted();
-        String expected = m_text.getUnformatted();
+        String actual = TextNormalizer.normalize(
+            m_cardSide.getText().getUnformatted());
         
-        m_cardSide.setText(m_text);
+        m_cardSide.setText(m_answer.getText());
         
-        if (expected.equalsIgnoreCase(actual))
+        // case, accents and whitespace of the typed answer don't matter
+        if (m_answer.getNormalizedText().equals(actual))
             return 1f;
         
         return -1f;
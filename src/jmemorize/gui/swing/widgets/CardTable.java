@@ -21,6 +21,9 @@ package jmemorize.gui.swing.widgets;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
@@ -55,9 +58,11 @@ import javax.swing.table.TableColumnModel;
 
 import jmemorize.core.Card;
 import jmemorize.core.Category;
+import jmemorize.core.Highlighter;
 import jmemorize.core.Main;
 import jmemorize.core.Settings;
 import jmemorize.core.Main.ProgramEndObserver;
+import jmemorize.core.Highlighter.Matches;
 import jmemorize.gui.LC;
 import jmemorize.gui.Localization;
 import jmemorize.gui.swing.CardFont;
@@ -88,15 +93,25 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
 {
     /**
      * A TableCellRenderer that displays card sides. It uses the specified fonts
-     * for front/flip sides.
+     * for front/flip sides and highlights the matches of the highlighter of
+     * its side. The buffers for the matches are reused for all rows.
      */
     private class SideRenderer extends DefaultTableCellRenderer
     {
         private CardFont   m_font;
+        private boolean    m_frontSide;
         
-        public SideRenderer(CardFont font)
+        private Matches    m_matches   = new Matches();
+        private char[]     m_chars     = new char[64];
+        private Insets     m_insets    = new Insets(0, 0, 0, 0);
+        private Rectangle  m_viewRect  = new Rectangle();
+        private Rectangle  m_iconRect  = new Rectangle();
+        private Rectangle  m_textRect  = new Rectangle();
+        
+        public SideRenderer(CardFont font, boolean frontSide)
         {
             m_font = font;
+            m_frontSide = frontSide;
         }
         
         public Component getTableCellRendererComponent(JTable table, Object value, 
@@ -105,6 +120,14 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
             Component component = super.getTableCellRendererComponent(table, 
                 value, isSelected, hasFocus, row, column);
             
+            Highlighter highlighter = m_frontSide ? 
+                m_frontHighlighter : m_flipHighlighter;
+            
+            if (highlighter != null && value != null)
+                highlighter.search(getText(), m_matches);
+            else
+                m_matches.clear();
+            
             if (m_font != null)
             {
                 component.setFont(m_font.getFont());
@@ -126,6 +149,51 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
             
             return component;
         }
+        
+        /**
+         * Paints the highlights over the matches of the visible text.
+         */
+        protected void paintComponent(Graphics g)
+        {
+            super.paintComponent(g);
+            
+            if (m_matches.size() == 0)
+                return;
+            
+            String text = getText();
+            FontMetrics fm = g.getFontMetrics(getFont());
+            
+            getInsets(m_insets);
+            m_viewRect.setBounds(m_insets.left, m_insets.top, 
+                getWidth() - m_insets.left - m_insets.right, 
+                getHeight() - m_insets.top - m_insets.bottom);
+            m_iconRect.setBounds(0, 0, 0, 0);
+            m_textRect.setBounds(0, 0, 0, 0);
+            
+            String shownText = SwingUtilities.layoutCompoundLabel(this, fm, text, 
+                null, getVerticalAlignment(), getHorizontalAlignment(), 
+                getVerticalTextPosition(), getHorizontalTextPosition(), 
+                m_viewRect, m_iconRect, m_textRect, 0);
+            
+            // clipped texts end with an ellipsis
+            int visible = shownText.length() == text.length() ? 
+                text.length() : Math.max(0, shownText.length() - ELLIPSIS_LENGTH);
+            
+            if (m_chars.length < visible)
+                m_chars = new char[Math.max(visible, 2 * m_chars.length)];
+            text.getChars(0, visible, m_chars, 0);
+            
+            g.setColor(HIGHLIGHT_COLOR);
+            for (int i = 0; i < m_matches.size() && m_matches.getStart(i) < visible; i++)
+            {
+                int start = m_matches.getStart(i);
+                int end = Math.min(m_matches.getEnd(i), visible);
+                
+                int x = m_textRect.x + fm.charsWidth(m_chars, 0, start);
+                g.fillRect(x, m_textRect.y, fm.charsWidth(m_chars, start, end - start), 
+                    m_textRect.height);
+            }
+        }
     }
     
     /**
@@ -288,6 +356,101 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
             updateCardCountStatusBar();
         }
         
+        /**
+         * Adds the given cards to this view. The cards are merged into the
+         * current sort order, so that rows that are already shown keep their
+         * order and selection. Other than {@link #setCards(List, Category)}
+         * this and the other row methods leave the card counts of the status
+         * bar to the caller, so that they can be adjusted instead of being
+         * counted again.
+         */
+        public void addCards(List<Card> cards)
+        {
+            if (cards.isEmpty())
+                return;
+            
+            Comparator<Card> comparator = getComparator();
+            
+            List<Card> added = new ArrayList<Card>(cards);
+            Collections.sort(added, comparator);
+            
+            // the first and last rows of the runs of added cards
+            List<int[]> runs = new ArrayList<int[]>();
+            
+            List<Card> merged = new ArrayList<Card>(m_cards.size() + added.size());
+            int i = 0;
+            
+            for (Card card : added)
+            {
+                while (i < m_cards.size() && 
+                    comparator.compare(m_cards.get(i), card) <= 0)
+                {
+                    merged.add(m_cards.get(i++));
+                }
+                
+                int row = merged.size();
+                int[] run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                
+                if (run != null && run[1] == row - 1)
+                    run[1] = row;
+                else
+                    runs.add(new int[] {row, row});
+                
+                merged.add(card);
+            }
+            
+            while (i < m_cards.size())
+                merged.add(m_cards.get(i++));
+            
+            m_cards = merged;
+            
+            for (int[] run : runs)
+                fireTableRowsInserted(run[0], run[1]);
+        }
+        
+        /**
+         * Removes the row of given card.
+         */
+        public void removeCard(Card card)
+        {
+            int row = m_cards.indexOf(card);
+            if (row < 0)
+                return;
+            
+            m_cards.remove(row);
+            fireTableRowsDeleted(row, row);
+        }
+        
+        /**
+         * Updates the row of given card after the card has changed. The row is
+         * moved to the place of the card in the current sort order.
+         */
+        public void updateCard(Card card)
+        {
+            int row = m_cards.indexOf(card);
+            if (row < 0)
+                return;
+            
+            m_cards.remove(row);
+            
+            int newRow = Collections.binarySearch(m_cards, card, getComparator());
+            if (newRow < 0)
+                newRow = -newRow - 1;
+            
+            if (newRow == row)
+            {
+                m_cards.add(row, card);
+                fireTableRowsUpdated(row, row);
+            }
+            else
+            {
+                fireTableRowsDeleted(row, row);
+                
+                m_cards.add(newRow, card);
+                fireTableRowsInserted(newRow, newRow);
+            }
+        }
+        
         /**
          * Set the model column index and direction by which this table should
          * be sorted.
@@ -369,13 +532,18 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
         {
             if (m_cards != null) //CHECK
             {
-                Comparator<Card> comparator = new CardComparator(m_orderModelIndex);
-                Collections.sort(m_cards, m_orderDir == ASCENDING ? 
-                    comparator : new ReverseOrder<Card>(comparator));
+                Collections.sort(m_cards, getComparator());
                 
                 fireTableDataChanged();
             }
         }
+        
+        private Comparator<Card> getComparator()
+        {
+            Comparator<Card> comparator = new CardComparator(m_orderModelIndex);
+            return m_orderDir == ASCENDING ? 
+                comparator : new ReverseOrder<Card>(comparator);
+        }
     }
     
     // column enum
@@ -424,6 +592,15 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
     /** background color for odd rows in table */
     private Color                 m_highlight       = new Color(0xF4, 0xF4, 0xF3);
     
+    /** translucent color that is painted over highlighted matches */
+    private static final Color    HIGHLIGHT_COLOR   = new Color(255, 200, 0, 110);
+    
+    /** the length of the ellipsis that ends clipped cell texts */
+    private static final int      ELLIPSIS_LENGTH   = 3;
+    
+    private Highlighter           m_frontHighlighter;
+    private Highlighter           m_flipHighlighter;
+    
     private ViewModel             m_tableModel      = new ViewModel();
     private int[]                 m_columns;
     private int[]                 m_defaultColumns;
@@ -512,11 +689,11 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
             switch (columns[i])
             {
                 case COLUMN_FRONTSIDE:
-                    column.setCellRenderer(new SideRenderer(m_frontSideFont));
+                    column.setCellRenderer(new SideRenderer(m_frontSideFont, true));
                     break;
                   
                 case COLUMN_BACKSIDE:
-                    column.setCellRenderer(new SideRenderer(m_flipSideFont));
+                    column.setCellRenderer(new SideRenderer(m_flipSideFont, false));
                     break;
                 
                 case COLUMN_CREATED: // fall through
@@ -547,6 +724,23 @@ public class CardTable extends JTable implements Settings.CardFontObserver,
         setColumnModel(columnModel);
     }
     
+    /**
+     * Sets the highlighters whose matches are highlighted in the columns of
+     * the card sides.
+     * 
+     * @param front the highlighter of the front side or <code>null</code> if
+     * nothing should be highlighted.
+     * @param flip the highlighter of the flip side or <code>null</code> if
+     * nothing should be highlighted.
+     */
+    public void setHighlighters(Highlighter front, Highlighter flip)
+    {
+        m_frontHighlighter = front;
+        m_flipHighlighter = flip;
+        
+        repaint();
+    }
+    
     public void setStatusBar(StatusBar statusBar)
     {
         m_statusBar = statusBar;
@@ -52,10 +52,12 @@ import jmemorize.core.Card;
 import jmemorize.core.Category;
 import jmemorize.core.CategoryObserver;
 import jmemorize.core.Main;
+import jmemorize.core.query.SmartCategory;
 import jmemorize.gui.swing.SelectionProvider;
 import jmemorize.gui.swing.actions.LearnAction;
 import jmemorize.gui.swing.actions.edit.AddCardAction;
 import jmemorize.gui.swing.actions.edit.AddCategoryAction;
+import jmemorize.gui.swing.actions.edit.AddSmartCategoryAction;
 import jmemorize.gui.swing.actions.edit.CopyAction;
 import jmemorize.gui.swing.actions.edit.CutAction;
 import jmemorize.gui.swing.actions.edit.PasteAction;
@@ -94,6 +96,9 @@ public class CategoryTree extends JTree implements CategoryObserver, SelectionPr
             {
                 Category category = (Category)nodeValue;
                 label.setText(category.getName());
+                
+                if (category instanceof SmartCategory)
+                    label.setIcon(SMART_ICON);
             }
             
             return label;
@@ -169,8 +174,9 @@ public class CategoryTree extends JTree implements CategoryObserver, SelectionPr
                 }
             }
             
-            // make root not editable
-            return super.isCellEditable(event) && m_editedCategory != m_rootCategory;
+            // make root and smart categories not editable
+            return super.isCellEditable(event) && m_editedCategory != m_rootCategory &&
+                !(m_editedCategory instanceof SmartCategory);
         }
         
         /**
@@ -238,6 +244,9 @@ public class CategoryTree extends JTree implements CategoryObserver, SelectionPr
     private final ImageIcon FOLDER_ICON = new ImageIcon(
         getClass().getResource("/resource/icons/folder.gif")); //$NON-NLS-1$
     
+    private final ImageIcon SMART_ICON = new ImageIcon(
+        getClass().getResource("/resource/icons/find.gif")); //$NON-NLS-1$
+    
     
     private Category                m_rootCategory;
     
@@ -288,6 +297,27 @@ public class CategoryTree extends JTree implements CategoryObserver, SelectionPr
         setSelectedCategory(m_rootCategory);
     }
     
+    /**
+     * Shows the smart category as last child of the root category.
+     */
+    public void addSmartCategory(SmartCategory category)
+    {
+        DefaultTreeModel model = (DefaultTreeModel)getModel();
+        MutableTreeNode root = (MutableTreeNode)model.getRoot();
+        
+        model.insertNodeInto(new DefaultMutableTreeNode(category), root, 
+            root.getChildCount());
+    }
+    
+    public void removeSmartCategory(SmartCategory category)
+    {
+        MutableTreeNode node = getNode(category);
+        if (node != null)
+        {
+            ((DefaultTreeModel)getModel()).removeNodeFromParent(node);
+        }
+    }
+    
     public void setSelectedCategory(Category category)
     {
         if (category == null || m_rootCategory == null) //HACK
@@ -510,6 +540,7 @@ public class CategoryTree extends JTree implements CategoryObserver, SelectionPr
         menu.add(new ActionWrapper(new LearnAction(this)));
         menu.add(new ActionWrapper(new AddCardAction(this)));
         menu.add(new ActionWrapper(new AddCategoryAction(this)));
+        menu.add(new ActionWrapper(new AddSmartCategoryAction(this)));
         menu.add(new ActionWrapper(new RemoveAction(this)));
         menu.addSeparator();
         menu.add(new ActionWrapper(new CopyAction(this)));
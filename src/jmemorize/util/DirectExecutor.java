@@ -0,0 +1,40 @@
+/*
+ * jMemorize - Learning made easy (and fun) - A Leitner flashcards tool
+ * Copyright(C) 2004-2006 Riad Djemili
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 1, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package jmemorize.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that runs every command right away on the calling thread. This
+ * is the default for code that accepts an executor for accessing the lesson,
+ * when the caller already owns the lesson.
+ */
+public class DirectExecutor implements Executor
+{
+    public static final Executor INSTANCE = new DirectExecutor();
+    
+    private DirectExecutor()
+    {
+    }
+    
+    public void execute(Runnable command)
+    {
+        command.run();
+    }
+}